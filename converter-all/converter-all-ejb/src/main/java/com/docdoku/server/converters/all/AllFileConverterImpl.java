@@ -21,30 +21,60 @@
 package com.docdoku.server.converters.all;
 
 
+import com.docdoku.server.converters.common.AsyncConverter;
+import com.docdoku.server.converters.common.BatchConversion;
+import com.docdoku.server.converters.common.BatchConverter;
+import com.docdoku.server.converters.common.BatchResults;
+import com.docdoku.server.converters.common.ConversionExecutor;
+import com.docdoku.server.converters.common.ConversionMetrics;
+import com.docdoku.server.converters.common.ConversionOrigin;
+import com.docdoku.server.converters.common.ConversionOutputs;
+import com.docdoku.server.converters.common.ConversionStage;
+import com.docdoku.server.converters.common.ConversionTelemetry;
+import com.docdoku.server.converters.common.ConversionWorkspace;
+import com.docdoku.server.converters.common.ConverterProcess;
+import com.docdoku.server.converters.common.ConverterTool;
+import com.docdoku.server.converters.common.ConverterTools;
+import com.docdoku.server.converters.common.FormatConverter;
+import com.docdoku.server.converters.common.OutputFormat;
+import com.docdoku.server.converters.common.ProcessSettings;
+import com.docdoku.server.converters.common.ProgressParsers;
+import com.docdoku.server.converters.common.ResourceLimitExceededException;
+import com.docdoku.server.converters.common.ToolProbe;
+import com.docdoku.server.converters.common.WorkspaceJob;
+import com.docdoku.server.converters.common.mesh.MeshQualityException;
+import com.docdoku.server.converters.common.points.PointCloudDownsampler;
+import com.docdoku.server.converters.common.points.PointCloudSettings;
 import org.polarsys.eplmp.server.converters.CADConverter;
 import org.polarsys.eplmp.server.converters.ConversionResult;
-import org.polarsys.eplmp.server.converters.ConverterUtils;
 
+import javax.ejb.Local;
 import javax.ejb.Stateless;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @AllFileConverter
 @Stateless
-public class AllFileConverterImpl implements CADConverter {
+@Local({CADConverter.class, AsyncConverter.class, BatchConverter.class, FormatConverter.class})
+public class AllFileConverterImpl implements CADConverter, AsyncConverter<ConversionResult>,
+        BatchConverter<ConversionResult>, FormatConverter<ConversionResult> {
 
     private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/all/conf.properties";
+    private static final String CONF_OVERRIDES = "/com/docdoku/server/converters/all/conf-overrides.properties";
     private static final Properties CONF = new Properties();
     private static final Logger LOGGER = Logger.getLogger(AllFileConverterImpl.class.getName());
+    private static final String CONVERTER_NAME = "all";
+    private static final String SAMPLE = "/com/docdoku/server/converters/all/sample.stl";
 
     static {
         try (InputStream inputStream = AllFileConverterImpl.class.getResourceAsStream(CONF_PROPERTIES)) {
@@ -52,27 +82,57 @@ public class AllFileConverterImpl implements CADConverter {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, null, e);
         }
+        // Optional keys overriding the shipped ones, such as the tool paths of the env-stub test profile
+        try (InputStream inputStream = AllFileConverterImpl.class.getResourceAsStream(CONF_OVERRIDES)) {
+            if (inputStream != null) {
+                CONF.load(inputStream);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
     }
 
     @Override
     public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri)
             throws ConversionException {
-        Path tmpDir = Paths.get(tmpDirUri);
+        return convert(cadFileUri, tmpDirUri, OutputFormat.OBJ);
+    }
+
+    @Override
+    public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format)
+            throws ConversionException {
         Path tmpCadFile = Paths.get(cadFileUri);
+        if (format == OutputFormat.TILES) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to vector tiles");
+        }
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter(CONVERTER_NAME, CONF);
+        try (WorkspaceJob job = workspace.open(tmpCadFile, Paths.get(tmpDirUri));
+             ConversionTelemetry telemetry = ConversionMetrics.begin(CONVERTER_NAME, tmpCadFile)) {
+            ConversionResult result = convert(cadFileUri, job.getDirectory().toUri(), format, telemetry);
+            job.succeeded();
+            return result;
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+            throw new ConversionException(e);
+        }
+    }
 
-        String meshConvBinary = CONF.getProperty("meshconv_path");
-        Path executable = Paths.get(meshConvBinary);
+    private ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format,
+                                     ConversionTelemetry telemetry)
+            throws ConversionException {
+        Path tmpDir = Paths.get(tmpDirUri);
+        Path tmpCadFile = Paths.get(cadFileUri);
 
-        // sanity checks
-        if (!Files.exists(executable)) {
-            throw new ConversionException(
-                    "Cannot convert file \"" + tmpCadFile.toString() + "\", \"" + meshConvBinary + "\" is not available");
+        if (format == OutputFormat.POINTS) {
+            return downsample(tmpCadFile, tmpDir, telemetry);
         }
 
-        if (!Files.isExecutable(executable)) {
-            throw new ConversionException("Cannot convert file \"" + tmpCadFile.toString() + "\", \"" + meshConvBinary
-                    + "\" has no execution rights");
+        // Checked once, see ConverterTools
+        ConverterTool tool = ConverterTools.forConverter(toolProbe());
+        if (!tool.isAvailable()) {
+            throw new ConversionException("Cannot convert file \"" + tmpCadFile.toString() + "\", " + tool.getProblem());
         }
+        String meshConvBinary = CONF.getProperty("meshconv_path");
 
         UUID uuid = UUID.randomUUID();
         Path convertedFile = tmpDir.resolve(uuid.toString());
@@ -85,31 +145,85 @@ public class AllFileConverterImpl implements CADConverter {
         ProcessBuilder pb = new ProcessBuilder(args);
 
         try {
-            Process proc = pb.start();
-
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(proc.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(proc.getErrorStream());
-
-            LOGGER.info(stdOutput);
+            telemetry.enter(ConversionStage.SPAWN);
+            ConverterProcess proc = ConverterProcess.start(pb, CONVERTER_NAME, tmpCadFile, ProgressParsers.percent(),
+                    ProcessSettings.from(CONF));
+            telemetry.enter(ConversionStage.EXTERNAL_RUN);
 
             proc.waitFor();
 
+            // Output lines have been logged while read, only the end of the error output is kept
+            String errorOutput = proc.getErrorOutput();
+            telemetry.exitCode(proc.exitValue());
+
             if (proc.exitValue() == 0) {
-                return new ConversionResult(finalConvertedFile);
+                return ConversionOutputs.mesh(CONVERTER_NAME, tool.getVersion(), telemetry, tmpCadFile,
+                        finalConvertedFile, null, format, CONF, ConversionResult::new);
             } else {
                 throw new ConversionException(
                         "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + errorOutput);
             }
+        } catch (ResourceLimitExceededException | MeshQualityException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            throw new ConversionException(
+                    "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + e.getMessage(), e);
         } catch (IOException | InterruptedException e) {
             LOGGER.log(Level.SEVERE, null, e);
             throw new ConversionException(e);
         }
     }
 
+    /**
+     * Downsamples a scan to a point cloud, read in process without meshconv.
+     */
+    private ConversionResult downsample(Path tmpCadFile, Path tmpDir, ConversionTelemetry telemetry)
+            throws ConversionException {
+        Path pointsFile = tmpDir.resolve(UUID.randomUUID() + "." + OutputFormat.POINTS.getExtension());
+        try {
+            telemetry.enter(ConversionStage.POST_PROCESSING);
+            new PointCloudDownsampler(PointCloudSettings.from(CONF)).convert(tmpCadFile, pointsFile);
+            return ConversionOutputs.file(CONVERTER_NAME, null, telemetry, pointsFile,
+                    null, CONF, ConversionResult::new);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            throw new ConversionException(
+                    "Cannot convert to a point cloud " + tmpCadFile.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    static ToolProbe toolProbe() {
+        String meshConv = CONF.getProperty("meshconv_path");
+        return ToolProbe.forConverter(CONVERTER_NAME, CONF)
+                .executable(meshConv)
+                .version(meshConv, "--version")
+                .sample(AllFileConverterImpl.class.getResource(SAMPLE), (sample, outputDirectory) -> Arrays.asList(
+                        meshConv, sample.toString(), "-c", "obj", "-o", outputDirectory.resolve("sample").toString()));
+    }
+
+    /**
+     * Probes and warms up the converter tool, done once at deployment.
+     */
+    public static ConverterTool probeTool() {
+        return ConverterTools.probe(toolProbe());
+    }
+
+    @Override
+    public CompletableFuture<ConversionResult> convertAsync(final URI cadFileUri, final URI tmpDirUri,
+                                                         final ConversionOrigin origin) {
+        return ConversionExecutor.forConverter(CONVERTER_NAME, CONF)
+                .submit(origin, () -> convert(cadFileUri, tmpDirUri));
+    }
+
+    @Override
+    public BatchResults<ConversionResult> convertBatch(final List<URI> cadFileUris, final URI tmpDirUri,
+                                                       final ConversionOrigin origin) {
+        return new BatchConversion<>(CONVERTER_NAME, this, CONF).withOrigin(origin).convert(cadFileUris, tmpDirUri);
+    }
+
     @Override
     public boolean canConvertToOBJ(String cadFileExtension) {
-        return Arrays.asList("stl", "off", "ply", "3ds", "wrl").contains(cadFileExtension);
+        return Arrays.asList("stl", "off", "ply", "3ds", "wrl").contains(cadFileExtension)
+                && ConverterTools.forConverter(toolProbe()).isAvailable();
     }
 
 }
\ No newline at end of file
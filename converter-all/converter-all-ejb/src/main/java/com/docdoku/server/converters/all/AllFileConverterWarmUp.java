@@ -0,0 +1,47 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.all;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+/**
+ * Probes the converter tool and warms it up once the converter is deployed, so that requests are routed on its
+ * availability and the first conversion does not pay for cold caches.
+ * <p>
+ * The sample conversion may take a while, it is run by the executor of the container so that the deployment does
+ * not wait for it.
+ */
+@Singleton
+@Startup
+public class AllFileConverterWarmUp {
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @PostConstruct
+    void warmUp() {
+        executor.execute(AllFileConverterImpl::probeTool);
+    }
+}
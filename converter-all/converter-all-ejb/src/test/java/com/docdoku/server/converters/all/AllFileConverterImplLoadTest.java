@@ -0,0 +1,76 @@
+package com.docdoku.server.converters.all;
+
+import com.docdoku.server.converters.common.BatchItem;
+import com.docdoku.server.converters.common.StubLoad;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.polarsys.eplmp.server.converters.CADConverter;
+import org.polarsys.eplmp.server.converters.ConversionResult;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AllFileConverterImplLoadTest {
+
+    private static final int FILES = 8;
+    private static final long LATENCY_MS = 500;
+
+    private final AllFileConverterImpl converter = new AllFileConverterImpl();
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        // Only run against the stub of the env-stub profile, configured by the input files
+        StubLoad.assumeStub(AllFileConverterImpl.probeTool());
+        dir = Files.createTempDirectory("all-load");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        StubLoad.delete(dir);
+    }
+
+    private URI stl(String name, String directives) throws IOException {
+        Path file = dir.resolve(name + ".stl");
+        Files.write(file, ("solid " + name + "\nstub-converter: " + directives + "\nendsolid " + name + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return file.toUri();
+    }
+
+    @Test
+    public void testBatchConversionsOverlap() throws Exception {
+        List<URI> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(stl("part" + i, "latency_ms=" + LATENCY_MS + " output_kb=64 stdout_kb=256 stderr_kb=64"));
+        }
+        List<BatchItem<ConversionResult>> items;
+        try (StubLoad load = StubLoad.watch()) {
+            items = converter.convertBatch(files, dir.toUri()).awaitAll();
+            Assert.assertTrue(load.getMaxRunning() > 1);
+        }
+
+        Assert.assertEquals(FILES, items.size());
+        for (BatchItem<ConversionResult> item : items) {
+            Assert.assertTrue(item.isSucceeded());
+            Assert.assertTrue(Files.size(item.getResult().getConvertedFile()) > 0);
+        }
+    }
+
+    @Test
+    public void testFailureKeepsTheEndOfTheErrorOutput() throws Exception {
+        try {
+            converter.convert(stl("failing", "exit_code=3 stderr_kb=1024"), dir.toUri());
+            Assert.fail();
+        } catch (CADConverter.ConversionException e) {
+            Assert.assertTrue(e.getMessage().contains("failed with exit code 3"));
+            Assert.assertTrue(e.getMessage().length() < 1024 * 1024);
+        }
+    }
+}
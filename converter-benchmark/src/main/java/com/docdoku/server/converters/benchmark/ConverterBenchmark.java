@@ -0,0 +1,114 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.benchmark;
+
+import com.docdoku.server.converters.all.AllFileConverterImpl;
+import com.docdoku.server.converters.obj.ObjFileConverterImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.polarsys.eplmp.server.converters.CADConverter;
+import org.polarsys.eplmp.server.converters.ConversionResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole conversions of synthetic files, with the converter picked by file extension like the server does.
+ * The external tool converters only take part when their tool is installed, see {@link ConverterBenchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ConverterBenchmark {
+
+    private static final List<CADConverter> CONVERTERS = Arrays.asList(
+            new AllFileConverterImpl(), new ObjFileConverterImpl());
+
+    @Param({"OBJ", "STL", "PLY"})
+    public SyntheticMesh.Format format;
+
+    @Param({"100000"})
+    public int triangles;
+
+    private CADConverter converter;
+    private Path directory;
+    private Path outputDirectory;
+    private Path cadFile;
+    private long size;
+
+    /**
+     * @return the converter of the files of this format, null if none or if its tool is missing
+     */
+    static CADConverter converterFor(SyntheticMesh.Format format) {
+        for (CADConverter converter : CONVERTERS) {
+            if (converter.canConvertToOBJ(format.getExtension())) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        converter = converterFor(format);
+        if (converter == null) {
+            throw new IllegalStateException("No converter available for " + format + " files, is its tool installed?");
+        }
+        directory = Files.createTempDirectory("converter-benchmark");
+        outputDirectory = Files.createDirectory(directory.resolve("output"));
+        cadFile = SyntheticMesh.withTriangles(triangles).write(format, directory);
+        size = Files.size(cadFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        SyntheticMesh.delete(directory);
+    }
+
+    @Benchmark
+    public void convert(FileCounters counters) throws Exception {
+        ConversionResult result = converter.convert(cadFile.toUri(), outputDirectory.toUri());
+        // Outputs are named after a random id, they would fill the disk over a long run
+        Files.deleteIfExists(result.getConvertedFile());
+        for (Path material : result.getMaterials()) {
+            Files.deleteIfExists(material);
+        }
+        FileCounters.count(counters, size);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.benchmark;
+
+import com.docdoku.server.converters.common.ConverterTools;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the converter benchmarks, to be compared between releases to catch throughput regressions.
+ * <p>
+ * Usage: {@code java -jar converter-benchmark.jar [JMH options]}, for instance {@code -p triangles=5000000}
+ * for bigger meshes or {@code -rf json} to keep the results. Unless given with {@code -p format=...}, the
+ * conversions are only benchmarked for the formats whose converter tool is installed.
+ */
+public class ConverterBenchmarks {
+
+    private static final Logger LOGGER = Logger.getLogger(ConverterBenchmarks.class.getName());
+
+    private ConverterBenchmarks() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if (!commandLine.getParameter("format").hasValue()) {
+            List<String> formats = new ArrayList<>();
+            for (SyntheticMesh.Format format : SyntheticMesh.Format.values()) {
+                if (ConverterBenchmark.converterFor(format) != null) {
+                    formats.add(format.name());
+                }
+            }
+            LOGGER.log(Level.INFO, "Converter tools availability: " + ConverterTools.getAvailability()
+                    + ", benchmarked formats: " + formats);
+            options.param("format", formats.toArray(new String[formats.size()]));
+        }
+
+        new Runner(options.build()).run();
+    }
+}
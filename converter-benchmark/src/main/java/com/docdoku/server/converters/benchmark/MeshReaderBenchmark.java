@@ -0,0 +1,86 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.benchmark;
+
+import com.docdoku.server.converters.common.mesh.ObjMesh;
+import com.docdoku.server.converters.common.mesh.ObjReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and validating synthetic OBJ files with the in-JVM reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MeshReaderBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int triangles;
+
+    private Path directory;
+    private Path objFile;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("reader-benchmark");
+        objFile = SyntheticMesh.withTriangles(triangles).write(SyntheticMesh.Format.OBJ, directory);
+        size = Files.size(objFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        SyntheticMesh.delete(directory);
+    }
+
+    @Benchmark
+    public ObjMesh read(FileCounters counters) throws IOException {
+        ObjMesh mesh = ObjReader.read(objFile);
+        FileCounters.count(counters, size);
+        return mesh;
+    }
+
+    @Benchmark
+    public void validate(FileCounters counters) throws IOException {
+        ObjReader.validate(objFile);
+        FileCounters.count(counters, size);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.benchmark;
+
+import com.docdoku.server.converters.common.mesh.GlbWriter;
+import com.docdoku.server.converters.common.mesh.MeshPostProcessor;
+import com.docdoku.server.converters.common.mesh.MeshQualityGate;
+import com.docdoku.server.converters.common.mesh.MeshSettings;
+import com.docdoku.server.converters.common.mesh.MeshWelder;
+import com.docdoku.server.converters.common.mesh.NormalGenerator;
+import com.docdoku.server.converters.common.mesh.ObjMesh;
+import com.docdoku.server.converters.common.mesh.ObjPrecisionRewriter;
+import com.docdoku.server.converters.common.mesh.ObjReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of the OBJ post-processing on a synthetic OBJ file, then the whole {@link MeshPostProcessor} as the
+ * converters run it. Rates are given for the size of the input OBJ file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PostProcessingBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int triangles;
+
+    private Path directory;
+    private Path objFile;
+    private Path outputFile;
+    private long size;
+    private MeshSettings settings;
+    private ObjMesh mesh;
+
+    /**
+     * A mesh read again before each call, for the stages which change it.
+     */
+    @State(Scope.Thread)
+    public static class FreshMesh {
+
+        private ObjMesh mesh;
+
+        @Setup(Level.Invocation)
+        public void read(PostProcessingBenchmark benchmark) throws IOException {
+            mesh = ObjReader.read(benchmark.objFile);
+        }
+    }
+
+    /**
+     * A copy of the OBJ file made before each call, for the post-processing rewriting it in place.
+     */
+    @State(Scope.Thread)
+    public static class WorkingCopy {
+
+        private Path file;
+
+        @Setup(Level.Invocation)
+        public void copy(PostProcessingBenchmark benchmark) throws IOException {
+            file = Files.copy(benchmark.objFile, benchmark.directory.resolve("copy.obj"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("post-processing-benchmark");
+        objFile = SyntheticMesh.withTriangles(triangles).write(SyntheticMesh.Format.OBJ, directory);
+        outputFile = directory.resolve("output");
+        size = Files.size(objFile);
+
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.POST_PROCESSING, "true");
+        conf.setProperty(MeshSettings.WELD_TOLERANCE, "0.00001");
+        conf.setProperty(MeshSettings.PRECISION_RELATIVE_TOLERANCE, "0.00001");
+        conf.setProperty(MeshSettings.QUALITY_GATE, "true");
+        settings = MeshSettings.from(conf);
+        mesh = ObjReader.read(objFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        SyntheticMesh.delete(directory);
+    }
+
+    @Benchmark
+    public int weld(FreshMesh fresh, FileCounters counters) {
+        int welded = MeshWelder.weld(fresh.mesh, settings.getWeldTolerance());
+        FileCounters.count(counters, size);
+        return welded;
+    }
+
+    @Benchmark
+    public void generateNormals(FreshMesh fresh, FileCounters counters) {
+        NormalGenerator.generate(fresh.mesh, settings.getCreaseAngleDegrees());
+        FileCounters.count(counters, size);
+    }
+
+    @Benchmark
+    public void checkQuality(FileCounters counters) throws IOException {
+        MeshQualityGate.check(mesh, "torus.obj", settings);
+        FileCounters.count(counters, size);
+    }
+
+    @Benchmark
+    public void reducePrecision(FileCounters counters) throws IOException {
+        ObjPrecisionRewriter.rewrite(objFile, outputFile, settings);
+        FileCounters.count(counters, size);
+    }
+
+    @Benchmark
+    public int transcodeToGlb(FileCounters counters) throws IOException {
+        int written = GlbWriter.transcode(objFile, outputFile);
+        FileCounters.count(counters, size);
+        return written;
+    }
+
+    @Benchmark
+    public void postProcess(WorkingCopy copy, FileCounters counters) throws IOException {
+        MeshPostProcessor.process(copy.file, settings);
+        FileCounters.count(counters, size);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Generates a torus tessellated in quads with about the requested number of triangles, written as OBJ
+ * (positions, texture coordinates and normals), binary STL or binary PLY. The output only depends on the size,
+ * so runs on different machines or releases convert the same files.
+ */
+public final class SyntheticMesh {
+
+    public enum Format {
+        OBJ("obj"), STL("stl"), PLY("ply");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final double MAJOR_RADIUS = 100;
+    private static final double MINOR_RADIUS = 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int rings;
+    private final int segments;
+
+    private SyntheticMesh(int rings, int segments) {
+        this.rings = rings;
+        this.segments = segments;
+    }
+
+    public static SyntheticMesh withTriangles(int triangles) {
+        int quads = Math.max(1, (triangles + 1) / 2);
+        int segments = Math.max(3, (int) Math.ceil(Math.sqrt(quads)));
+        int rings = Math.max(3, (quads + segments - 1) / segments);
+        return new SyntheticMesh(rings, segments);
+    }
+
+    public int getTriangleCount() {
+        return 2 * rings * segments;
+    }
+
+    /**
+     * Writes the mesh to a new file of the given directory, named after its size and format.
+     */
+    public Path write(Format format, Path directory) throws IOException {
+        Path file = directory.resolve("torus-" + getTriangleCount() + "." + format.getExtension());
+        switch (format) {
+            case OBJ:
+                writeObj(file);
+                break;
+            case STL:
+                writeStl(file);
+                break;
+            default:
+                writePly(file);
+                break;
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a directory of generated or converted files.
+     */
+    public static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void writeObj(Path file) throws IOException {
+        float[] vector = new float[3];
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            writer.write("# Synthetic torus, " + getTriangleCount() + " triangles\no torus\n");
+            for (int i = 0; i < rings * segments; i++) {
+                position(i, vector);
+                writer.write(String.format(Locale.ROOT, "v %.6f %.6f %.6f\n", vector[0], vector[1], vector[2]));
+            }
+            for (int i = 0; i < rings * segments; i++) {
+                writer.write(String.format(Locale.ROOT, "vt %.6f %.6f\n",
+                        (double) (i % segments) / segments, (double) (i / segments) / rings));
+            }
+            for (int i = 0; i < rings * segments; i++) {
+                normal(i, vector);
+                writer.write(String.format(Locale.ROOT, "vn %.6f %.6f %.6f\n", vector[0], vector[1], vector[2]));
+            }
+            int[] quad = new int[4];
+            for (int ring = 0; ring < rings; ring++) {
+                for (int segment = 0; segment < segments; segment++) {
+                    quad(ring, segment, quad);
+                    writer.write("f");
+                    for (int corner : quad) {
+                        int index = corner + 1;
+                        writer.write(" " + index + "/" + index + "/" + index);
+                    }
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    private void writeStl(Path file) throws IOException {
+        float[] vector = new float[3];
+        int[] quad = new int[4];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put("Synthetic torus".getBytes(StandardCharsets.US_ASCII));
+            buffer.position(80);
+            buffer.putInt(getTriangleCount());
+            for (int ring = 0; ring < rings; ring++) {
+                for (int segment = 0; segment < segments; segment++) {
+                    quad(ring, segment, quad);
+                    for (int triangle = 0; triangle < 2; triangle++) {
+                        ensure(channel, buffer, 50);
+                        normal(quad[0], vector);
+                        buffer.putFloat(vector[0]).putFloat(vector[1]).putFloat(vector[2]);
+                        for (int corner : new int[]{quad[0], quad[1 + triangle], quad[2 + triangle]}) {
+                            position(corner, vector);
+                            buffer.putFloat(vector[0]).putFloat(vector[1]).putFloat(vector[2]);
+                        }
+                        buffer.putShort((short) 0);
+                    }
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private void writePly(Path file) throws IOException {
+        float[] vector = new float[3];
+        int[] quad = new int[4];
+        String header = "ply\nformat binary_little_endian 1.0\ncomment Synthetic torus\n"
+                + "element vertex " + rings * segments + "\n"
+                + "property float x\nproperty float y\nproperty float z\n"
+                + "element face " + rings * segments + "\n"
+                + "property list uchar int vertex_indices\nend_header\n";
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < rings * segments; i++) {
+                ensure(channel, buffer, 12);
+                position(i, vector);
+                buffer.putFloat(vector[0]).putFloat(vector[1]).putFloat(vector[2]);
+            }
+            for (int ring = 0; ring < rings; ring++) {
+                for (int segment = 0; segment < segments; segment++) {
+                    ensure(channel, buffer, 17);
+                    quad(ring, segment, quad);
+                    buffer.put((byte) 4);
+                    for (int corner : quad) {
+                        buffer.putInt(corner);
+                    }
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private void quad(int ring, int segment, int[] quad) {
+        quad[0] = index(ring, segment);
+        quad[1] = index(ring, segment + 1);
+        quad[2] = index(ring + 1, segment + 1);
+        quad[3] = index(ring + 1, segment);
+    }
+
+    private int index(int ring, int segment) {
+        return (ring % rings) * segments + segment % segments;
+    }
+
+    private void position(int index, float[] out) {
+        double u = 2 * Math.PI * (index % segments) / segments;
+        double v = 2 * Math.PI * (index / segments) / rings;
+        double distance = MAJOR_RADIUS + MINOR_RADIUS * Math.cos(v);
+        out[0] = (float) (distance * Math.cos(u));
+        out[1] = (float) (distance * Math.sin(u));
+        out[2] = (float) (MINOR_RADIUS * Math.sin(v));
+    }
+
+    private void normal(int index, float[] out) {
+        double u = 2 * Math.PI * (index % segments) / segments;
+        double v = 2 * Math.PI * (index / segments) / rings;
+        out[0] = (float) (Math.cos(v) * Math.cos(u));
+        out[1] = (float) (Math.cos(v) * Math.sin(u));
+        out[2] = (float) Math.sin(v);
+    }
+
+    private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
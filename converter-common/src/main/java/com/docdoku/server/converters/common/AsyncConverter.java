@@ -0,0 +1,48 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of the converter contract.
+ * <p>
+ * Conversions run on an executor owned by the converter, the returned future completes with the
+ * conversion result or exceptionally with the conversion error. Cancelling the future kills the
+ * external process of a running conversion.
+ *
+ * @param <R> the conversion result type
+ */
+public interface AsyncConverter<R> {
+
+    /**
+     * Starts an interactive conversion.
+     */
+    default CompletableFuture<R> convertAsync(URI cadFileUri, URI tmpDirUri) {
+        return convertAsync(cadFileUri, tmpDirUri, ConversionOrigin.INTERACTIVE);
+    }
+
+    /**
+     * Starts a conversion, scheduled in the lane of its origin.
+     */
+    CompletableFuture<R> convertAsync(URI cadFileUri, URI tmpDirUri, ConversionOrigin origin);
+}
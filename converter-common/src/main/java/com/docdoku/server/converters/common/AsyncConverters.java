@@ -0,0 +1,44 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+/**
+ * Adapts synchronous converters to the {@link AsyncConverter} contract.
+ */
+public class AsyncConverters {
+
+    private static final String LEGACY_EXECUTOR = "legacy";
+
+    private AsyncConverters() {
+    }
+
+    /**
+     * Runs the given synchronous conversion, typically a legacy {@code converter::convert}, on a shared executor.
+     */
+    public static <R> AsyncConverter<R> adapt(ConversionTask<R> conversion) {
+        return adapt(conversion, ConversionExecutor.forConverter(LEGACY_EXECUTOR));
+    }
+
+    public static <R> AsyncConverter<R> adapt(ConversionTask<R> conversion, ConversionExecutor executor) {
+        return (cadFileUri, tmpDirUri, origin) ->
+                executor.submit(origin, () -> conversion.convert(cadFileUri, tmpDirUri));
+    }
+}
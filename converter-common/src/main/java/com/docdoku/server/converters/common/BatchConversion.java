@@ -0,0 +1,190 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Staged pipeline converting many files at once, so that reading inputs and running the external tools overlap:
+ * <ol>
+ * <li>prefetch: inputs are read ahead and checksummed in the same pass, on {@code batch_prefetch_threads}
+ * threads. The read brings them in the OS cache for the tool, and the CRC-32 lets callers recognize inputs
+ * converted before, see {@link BatchItem#getInputChecksum()}</li>
+ * <li>conversion: prefetched files are given to the {@link AsyncConverter}, bounded by its own executor, which
+ * also post-processes the converted meshes</li>
+ * </ol>
+ * At most {@code batch_max_in_flight} files are between the start of their prefetch and their delivery,
+ * so a large batch does not prefetch far ahead of the conversions. The next file is started when one is
+ * delivered, no thread is dedicated to feeding the pipeline.
+ */
+public class BatchConversion<R> {
+
+    public static final String PREFETCH_THREADS = "batch_prefetch_threads";
+    public static final String MAX_IN_FLIGHT = "batch_max_in_flight";
+
+    private static final Logger LOGGER = Logger.getLogger(BatchConversion.class.getName());
+    private static final ConcurrentMap<String, Stages> STAGES = new ConcurrentHashMap<>();
+
+    private final AsyncConverter<R> converter;
+    private final Stages stages;
+    private ConversionOrigin origin = ConversionOrigin.BULK;
+
+    public BatchConversion(String converterName, AsyncConverter<R> converter, Properties conf) {
+        this.converter = converter;
+        this.stages = STAGES.computeIfAbsent(converterName, name -> new Stages(name, conf));
+    }
+
+    /**
+     * Sets the lane the conversions are scheduled in, bulk by default.
+     */
+    public BatchConversion<R> withOrigin(ConversionOrigin origin) {
+        this.origin = origin;
+        return this;
+    }
+
+    public BatchResults<R> convert(List<URI> cadFileUris, URI tmpDirUri) {
+        BatchResults<R> results = new BatchResults<>(cadFileUris.size());
+        Feeder feeder = new Feeder(cadFileUris.iterator(), tmpDirUri, results);
+        for (int i = 0; i < stages.maxInFlight; i++) {
+            feeder.next();
+        }
+        return results;
+    }
+
+    private void start(URI cadFileUri, URI tmpDirUri, BatchResults<R> results, Feeder feeder) {
+        BatchItem<R> item = new BatchItem<>(cadFileUri);
+
+        CompletableFuture<BatchItem<R>> prefetched = CompletableFuture.supplyAsync(() -> prefetch(item), stages.prefetch);
+        CompletableFuture<BatchItem<R>> converted = prefetched.thenCompose(i -> {
+            long start = System.currentTimeMillis();
+            CompletableFuture<R> conversion = converter.convertAsync(cadFileUri, tmpDirUri, origin);
+            results.track(conversion);
+            return conversion.whenComplete((result, t) -> results.untrack(conversion)).thenApply(result -> {
+                i.converted(result, System.currentTimeMillis() - start);
+                return i;
+            });
+        });
+
+        converted.whenComplete((i, t) -> {
+            if (t != null) {
+                item.failed(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                LOGGER.log(Level.FINE, "Batch conversion of " + cadFileUri + " failed", item.getError());
+            }
+            results.deliver(item);
+            feeder.next();
+        });
+    }
+
+    private BatchItem<R> prefetch(BatchItem<R> item) {
+        long start = System.currentTimeMillis();
+        Path file = Paths.get(item.getCadFileUri());
+        CRC32 checksum = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[65536];
+            long size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+                size += read;
+            }
+            item.prefetched(size, OutputChecksums.format(checksum.getValue()), System.currentTimeMillis() - start);
+            return item;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Starts the files of a batch one at a time, as slots of the in flight window are freed.
+     */
+    private class Feeder {
+        private final Iterator<URI> cadFileUris;
+        private final URI tmpDirUri;
+        private final BatchResults<R> results;
+        private int fed;
+        private boolean done;
+
+        private Feeder(Iterator<URI> cadFileUris, URI tmpDirUri, BatchResults<R> results) {
+            this.cadFileUris = cadFileUris;
+            this.tmpDirUri = tmpDirUri;
+            this.results = results;
+        }
+
+        private void next() {
+            URI cadFileUri;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (results.isCancelled() || !cadFileUris.hasNext()) {
+                    done = true;
+                    results.fed(fed);
+                    return;
+                }
+                fed++;
+                cadFileUri = cadFileUris.next();
+            }
+            start(cadFileUri, tmpDirUri, results, this);
+        }
+    }
+
+    private static class Stages {
+        private final ExecutorService prefetch;
+        private final int maxInFlight;
+
+        private Stages(String converterName, Properties conf) {
+            prefetch = pool(converterName + "-prefetch", intProperty(conf, PREFETCH_THREADS, 2));
+            maxInFlight = intProperty(conf, MAX_IN_FLIGHT, 16);
+        }
+
+        private static ExecutorService pool(String name, int size) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(size, runnable -> {
+                Thread thread = new Thread(runnable, "batch-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private static int intProperty(Properties conf, String key, int defaultValue) {
+            String value = conf.getProperty(key, "").trim();
+            return value.isEmpty() ? defaultValue : Math.max(1, Integer.parseInt(value));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Converters able to convert many files at once through a {@link BatchConversion} pipeline.
+ *
+ * @param <R> the conversion result type
+ */
+public interface BatchConverter<R> {
+
+    /**
+     * Starts converting the given files in the bulk lane, the results are delivered as they finish.
+     */
+    default BatchResults<R> convertBatch(List<URI> cadFileUris, URI tmpDirUri) {
+        return convertBatch(cadFileUris, tmpDirUri, ConversionOrigin.BULK);
+    }
+
+    /**
+     * Starts converting the given files in the lane of their origin, the results are delivered as they finish.
+     */
+    BatchResults<R> convertBatch(List<URI> cadFileUris, URI tmpDirUri, ConversionOrigin origin);
+}
@@ -0,0 +1,91 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.net.URI;
+
+/**
+ * Outcome of the conversion of one file of a batch.
+ */
+public class BatchItem<R> {
+
+    private final URI cadFileUri;
+    private long inputSize;
+    private String inputChecksum;
+    private R result;
+    private Throwable error;
+    private long prefetchMillis;
+    private long conversionMillis;
+
+    BatchItem(URI cadFileUri) {
+        this.cadFileUri = cadFileUri;
+    }
+
+    public URI getCadFileUri() {
+        return cadFileUri;
+    }
+
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return the hexadecimal CRC-32 of the input, computed while it was prefetched
+     */
+    public String getInputChecksum() {
+        return inputChecksum;
+    }
+
+    public R getResult() {
+        return result;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSucceeded() {
+        return error == null;
+    }
+
+    public long getPrefetchMillis() {
+        return prefetchMillis;
+    }
+
+    public long getConversionMillis() {
+        return conversionMillis;
+    }
+
+    void prefetched(long size, String checksum, long millis) {
+        inputSize = size;
+        inputChecksum = checksum;
+        prefetchMillis = millis;
+    }
+
+    void converted(R convertedResult, long millis) {
+        result = convertedResult;
+        conversionMillis = millis;
+    }
+
+    void failed(Throwable t) {
+        error = t;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Results of a {@link BatchConversion}, delivered in completion order.
+ */
+public class BatchResults<R> {
+
+    private final int size;
+    private final BlockingQueue<BatchItem<R>> completed = new LinkedBlockingQueue<>();
+    private final AtomicInteger taken = new AtomicInteger();
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final Set<CompletableFuture<?>> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+    private volatile int fedCount = -1;
+
+    BatchResults(int size) {
+        this.size = size;
+        if (size == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * @return the number of files in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Waits for the next finished file.
+     *
+     * @return the next finished file, or null once every file has been returned or the batch has been cancelled
+     */
+    public BatchItem<R> take() throws InterruptedException {
+        while (taken.get() < size) {
+            BatchItem<R> item = completed.poll(100, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                taken.incrementAndGet();
+                return item;
+            }
+            if (cancelled && completion.isDone()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the whole batch and returns the files not taken yet.
+     */
+    public List<BatchItem<R>> awaitAll() throws InterruptedException {
+        List<BatchItem<R>> items = new ArrayList<>();
+        BatchItem<R> item;
+        while ((item = take()) != null) {
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * @return a future completed once every file has been processed, or the batch cancelled
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Stops feeding the pipeline and cancels the conversions in progress.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (CompletableFuture<?> future : running) {
+            future.cancel(true);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void track(CompletableFuture<?> future) {
+        running.add(future);
+        if (cancelled) {
+            future.cancel(true);
+        }
+    }
+
+    void untrack(CompletableFuture<?> future) {
+        running.remove(future);
+    }
+
+    void deliver(BatchItem<R> item) {
+        completed.add(item);
+        int count = delivered.incrementAndGet();
+        if (count == size || count == fedCount) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * Called once the pipeline has been fed, with less files than the batch size if it has been cancelled.
+     */
+    void fed(int count) {
+        fedCount = count;
+        if (delivered.get() == count) {
+            completion.complete(null);
+        }
+    }
+}
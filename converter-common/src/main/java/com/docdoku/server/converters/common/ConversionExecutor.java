@@ -0,0 +1,165 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated executor of the asynchronous conversions of a converter, sized by the
+ * {@code async_pool_size} property of its conf.properties (defaults to the number of processors).
+ * <p>
+ * Conversions wait in {@link ConversionLanes} by {@link ConversionOrigin}, and the
+ * {@code lane_interactive_threads} property (defaults to 1) sets how many threads are kept for interactive
+ * conversions. Latencies of every lane are published as an MBean.
+ */
+public class ConversionExecutor {
+
+    public static final String POOL_SIZE = "async_pool_size";
+    public static final String INTERACTIVE_THREADS = "lane_interactive_threads";
+
+    private static final int NOT_STARTED = 0;
+    private static final int STARTED = 1;
+    private static final int FINISHED = 2;
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionExecutor.class.getName());
+    private static final ConcurrentMap<String, ConversionExecutor> EXECUTORS = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+    private final ConversionLanes lanes;
+
+    private ConversionExecutor(String converterName, int poolSize, int interactiveThreads) {
+        lanes = new ConversionLanes(converterName, poolSize, interactiveThreads);
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "converter-" + converterName + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ConversionExecutor forConverter(String converterName) {
+        return forConverter(converterName, new Properties());
+    }
+
+    public static ConversionExecutor forConverter(String converterName, Properties conf) {
+        return EXECUTORS.computeIfAbsent(converterName, name -> {
+            String size = conf.getProperty(POOL_SIZE, "").trim();
+            int poolSize = size.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(size);
+            int interactiveThreads = Integer.parseInt(conf.getProperty(INTERACTIVE_THREADS, "1").trim());
+            ConversionExecutor executor = new ConversionExecutor(name, Math.max(1, poolSize), interactiveThreads);
+            register(executor.lanes);
+            return executor;
+        });
+    }
+
+    /**
+     * Runs the given interactive conversion on this executor.
+     *
+     * @see #submit(ConversionOrigin, Callable)
+     */
+    public <R> CompletableFuture<R> submit(Callable<R> conversion) {
+        return submit(ConversionOrigin.INTERACTIVE, conversion);
+    }
+
+    /**
+     * Runs the given conversion on this executor once its lane is served. A result produced after the future
+     * has been cancelled is closed, if it is closeable, since nobody will ever get it.
+     */
+    public <R> CompletableFuture<R> submit(ConversionOrigin origin, Callable<R> conversion) {
+        ConversionFuture<R> future = new ConversionFuture<>();
+        lanes.offer(origin, future, submitted -> {
+            // The thread is given back once, by the conversion or by a cancellation preventing it from starting
+            AtomicInteger state = new AtomicInteger(NOT_STARTED);
+            FutureTask<Void> task = new FutureTask<Void>(() -> {
+                if (!state.compareAndSet(NOT_STARTED, STARTED)) {
+                    return;
+                }
+                try {
+                    run(conversion, future);
+                } finally {
+                    state.set(FINISHED);
+                    lanes.finished(origin, System.currentTimeMillis() - submitted);
+                }
+            }, null) {
+                @Override
+                protected void done() {
+                    if (state.compareAndSet(NOT_STARTED, FINISHED)) {
+                        lanes.finished(origin, System.currentTimeMillis() - submitted);
+                    }
+                }
+            };
+            executor.execute(task);
+            future.setTask(task);
+        });
+        return future;
+    }
+
+    private static <R> void run(Callable<R> conversion, ConversionFuture<R> future) {
+        if (future.isDone()) {
+            return;
+        }
+        try {
+            R result = conversion.call();
+            if (!future.complete(result)) {
+                discard(result);
+            }
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    private static void register(ConversionLanes lanes) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = ConversionMetrics.objectName("ConversionLanes", lanes.getConverterName());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(lanes, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot publish lanes of converter " + lanes.getConverterName(), e);
+        }
+    }
+
+    private static void discard(Object result) {
+        if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Cannot discard the result of a cancelled conversion", e);
+            }
+        }
+    }
+}
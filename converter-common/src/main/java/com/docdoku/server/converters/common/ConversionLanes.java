@@ -0,0 +1,213 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Queues of the conversions of a {@link ConversionExecutor}, one per {@link ConversionOrigin}.
+ * <p>
+ * A free thread takes the oldest conversion of the first lane not empty, so that conversions waiting in the bulk
+ * and re-conversion lanes are overtaken by any interactive one. Only interactive conversions can use the last
+ * {@code interactiveThreads} threads, so one of them starts at once however many background conversions are
+ * running or waiting.
+ */
+class ConversionLanes implements ConversionLanesMXBean {
+
+    private final String converterName;
+    private final int poolSize;
+    private final int interactiveThreads;
+    private final Map<ConversionOrigin, Lane> lanes = new EnumMap<>(ConversionOrigin.class);
+    private int running;
+    private int runningInBackground;
+
+    ConversionLanes(String converterName, int poolSize, int interactiveThreads) {
+        this.converterName = converterName;
+        this.poolSize = poolSize;
+        // A background conversion must always be able to run
+        this.interactiveThreads = Math.max(0, Math.min(interactiveThreads, poolSize - 1));
+        for (ConversionOrigin origin : ConversionOrigin.values()) {
+            lanes.put(origin, new Lane());
+        }
+    }
+
+    /**
+     * Queues a conversion, the scheduler is called with every conversion which can start.
+     */
+    synchronized void offer(ConversionOrigin origin, ConversionFuture<?> future, Scheduler scheduler) {
+        lanes.get(origin).queue.add(new Waiting(origin, future, scheduler));
+        dispatch();
+    }
+
+    /**
+     * Frees the thread of a conversion and starts the next ones.
+     *
+     * @param latencyMillis time from the submission to the end of the conversion
+     */
+    synchronized void finished(ConversionOrigin origin, long latencyMillis) {
+        running--;
+        if (origin != ConversionOrigin.INTERACTIVE) {
+            runningInBackground--;
+        }
+        Lane lane = lanes.get(origin);
+        lane.running--;
+        lane.latencies.record(latencyMillis);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (running < poolSize) {
+            Waiting next = null;
+            for (Map.Entry<ConversionOrigin, Lane> lane : lanes.entrySet()) {
+                Queue<Waiting> queue = lane.getValue().queue;
+                // Conversions cancelled while waiting are dropped
+                while (!queue.isEmpty() && queue.peek().future.isDone()) {
+                    queue.poll();
+                }
+                if (!queue.isEmpty() && (lane.getKey() == ConversionOrigin.INTERACTIVE
+                        || runningInBackground < poolSize - interactiveThreads)) {
+                    next = queue.poll();
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            running++;
+            if (next.origin != ConversionOrigin.INTERACTIVE) {
+                runningInBackground++;
+            }
+            Lane lane = lanes.get(next.origin);
+            lane.running++;
+            lane.waits.record(System.currentTimeMillis() - next.submitted);
+            next.scheduler.start(next.submitted);
+        }
+    }
+
+    @Override
+    public String getConverterName() {
+        return converterName;
+    }
+
+    @Override
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    @Override
+    public int getInteractiveThreads() {
+        return interactiveThreads;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getQueuedConversions() {
+        Map<String, Integer> queued = new TreeMap<>();
+        lanes.forEach((origin, lane) -> queued.put(origin.name(), lane.queue.size()));
+        return queued;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getRunningConversions() {
+        Map<String, Integer> running = new TreeMap<>();
+        lanes.forEach((origin, lane) -> running.put(origin.name(), lane.running));
+        return running;
+    }
+
+    @Override
+    public Map<String, Long> getCompletedConversions() {
+        return byLane(lane -> lane.latencies.getCount());
+    }
+
+    @Override
+    public Map<String, Long> getWait95thPercentileMillis() {
+        return byLane(lane -> lane.waits.getPercentile(95));
+    }
+
+    @Override
+    public Map<String, Long> getLatency50thPercentileMillis() {
+        return byLane(lane -> lane.latencies.getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getLatency95thPercentileMillis() {
+        return byLane(lane -> lane.latencies.getPercentile(95));
+    }
+
+    @Override
+    public Map<String, Long> getLatency99thPercentileMillis() {
+        return byLane(lane -> lane.latencies.getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyMillis() {
+        return byLane(lane -> lane.latencies.getMax());
+    }
+
+    @Override
+    public synchronized void reset() {
+        lanes.values().forEach(lane -> {
+            lane.waits = new LatencyHistogram();
+            lane.latencies = new LatencyHistogram();
+        });
+    }
+
+    private synchronized Map<String, Long> byLane(ToLongFunction<Lane> value) {
+        Map<String, Long> values = new TreeMap<>();
+        lanes.forEach((origin, lane) -> values.put(origin.name(), value.applyAsLong(lane)));
+        return values;
+    }
+
+    /**
+     * Starts a conversion taken out of its lane.
+     */
+    interface Scheduler {
+
+        /**
+         * @param submitted time the conversion was queued at
+         */
+        void start(long submitted);
+    }
+
+    private static class Lane {
+        private final Queue<Waiting> queue = new ArrayDeque<>();
+        private int running;
+        private LatencyHistogram waits = new LatencyHistogram();
+        private LatencyHistogram latencies = new LatencyHistogram();
+    }
+
+    private static class Waiting {
+        private final ConversionOrigin origin;
+        private final ConversionFuture<?> future;
+        private final Scheduler scheduler;
+        private final long submitted = System.currentTimeMillis();
+
+        private Waiting(ConversionOrigin origin, ConversionFuture<?> future, Scheduler scheduler) {
+            this.origin = origin;
+            this.future = future;
+            this.scheduler = scheduler;
+        }
+    }
+}
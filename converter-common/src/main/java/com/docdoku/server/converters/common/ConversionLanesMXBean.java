@@ -0,0 +1,64 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.Map;
+
+/**
+ * Management interface of the lanes of a converter executor, published under
+ * {@code com.docdoku.server.converters:type=ConversionLanes,name=<converter>}. Maps are keyed by
+ * {@link ConversionOrigin}.
+ */
+public interface ConversionLanesMXBean {
+
+    String getConverterName();
+
+    int getPoolSize();
+
+    /**
+     * @return the number of threads only interactive conversions can use
+     */
+    int getInteractiveThreads();
+
+    Map<String, Integer> getQueuedConversions();
+
+    Map<String, Integer> getRunningConversions();
+
+    Map<String, Long> getCompletedConversions();
+
+    /**
+     * @return the 95th percentile of the time spent in the queue
+     */
+    Map<String, Long> getWait95thPercentileMillis();
+
+    /**
+     * @return the median time from submission to completion
+     */
+    Map<String, Long> getLatency50thPercentileMillis();
+
+    Map<String, Long> getLatency95thPercentileMillis();
+
+    Map<String, Long> getLatency99thPercentileMillis();
+
+    Map<String, Long> getMaxLatencyMillis();
+
+    void reset();
+}
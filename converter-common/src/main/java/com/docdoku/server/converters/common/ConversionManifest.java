@@ -0,0 +1,313 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Lists the files produced by a conversion with their size and checksum, along with the converter version and
+ * the timings of the conversion, written as JSON next to the converted geometry.
+ * <p>
+ * The checksums are CRC-32s, computed while the converters write their own outputs, see {@link OutputChecksums}:
+ * with the size, they can be served as ETags, and a consumer holding the manifest of a previous conversion can
+ * skip the outputs that did not change. Read from the converters conf.properties:
+ * <ul>
+ * <li>{@code conversion_manifest}: whether a manifest is written with every successful conversion,
+ * defaults to false</li>
+ * </ul>
+ */
+public class ConversionManifest {
+
+    public static final String ENABLED = "conversion_manifest";
+    public static final String DIGEST = "CRC-32";
+
+    public static final String GEOMETRY = "geometry";
+    public static final String MATERIAL = "material";
+    public static final String TEXTURE = "texture";
+    public static final String INSTANCES = "instances";
+    public static final String TRANSFORM = "transform";
+    public static final String OTHER = "other";
+
+    private static final String SUFFIX = ".manifest.json";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private String converterName;
+    private String converterVersion;
+    private String inputName;
+    private long inputBytes;
+    private String createdAt;
+    private String digest;
+    private long totalMillis;
+    private long triangles;
+    private final Map<ConversionStage, Long> stageMillis = new EnumMap<>(ConversionStage.class);
+    private final List<Output> outputs = new ArrayList<>();
+
+    /**
+     * A file produced by a conversion.
+     */
+    public static class Output {
+
+        private final String file;
+        private final String role;
+        private final long size;
+        private final String hash;
+
+        Output(String file, String role, long size, String hash) {
+            this.file = file;
+            this.role = role;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        /**
+         * @return the path of the file, relative to the directory of the manifest
+         */
+        public String getFile() {
+            return file;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the hexadecimal CRC-32 of the content of the file
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the hash as a strong HTTP entity tag
+         */
+        public String getETag() {
+            return "\"" + hash + "\"";
+        }
+    }
+
+    private ConversionManifest() {
+    }
+
+    /**
+     * Writes the manifest of a successful conversion next to its geometry, if manifests are enabled.
+     *
+     * @param others the other outputs of the conversion, may be null
+     * @return the other outputs followed by the manifest, or the other outputs alone if manifests are disabled
+     */
+    public static List<Path> attach(String converterName, String converterVersion, ConversionTelemetry telemetry,
+                                    Path geometry, List<Path> others, Properties conf) throws IOException {
+        List<Path> attached = others == null ? new ArrayList<>() : new ArrayList<>(others);
+        if (Boolean.parseBoolean(conf.getProperty(ENABLED, "false").trim())) {
+            attached.add(write(converterName, converterVersion, telemetry, geometry, others));
+        }
+        return attached;
+    }
+
+    /**
+     * Checksums the outputs and writes their manifest as {@code <geometry>.manifest.json}.
+     */
+    public static Path write(String converterName, String converterVersion, ConversionTelemetry telemetry,
+                             Path geometry, List<Path> others) throws IOException {
+        Path manifestFile = manifestFileFor(geometry);
+        Path directory = manifestFile.toAbsolutePath().getParent();
+
+        List<Path> files = new ArrayList<>();
+        files.add(geometry);
+        if (others != null) {
+            files.addAll(others);
+        }
+
+        try (JsonGenerator json = MAPPER.getFactory().createGenerator(manifestFile.toFile(), JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("converter", converterName);
+            json.writeStringField("converterVersion", converterVersion);
+            json.writeStringField("input", telemetry.getInputName());
+            json.writeNumberField("inputSize", telemetry.getInputBytes());
+            json.writeStringField("createdAt", Instant.now().toString());
+            json.writeNumberField("totalMillis", telemetry.getTotalMillis());
+            json.writeObjectFieldStart("stages");
+            for (ConversionStage stage : ConversionStage.values()) {
+                long millis = telemetry.getStageMillis(stage);
+                if (millis >= 0) {
+                    json.writeNumberField(stage.name(), millis);
+                }
+            }
+            json.writeEndObject();
+            json.writeNumberField("triangles", telemetry.getTriangles());
+            json.writeStringField("digest", DIGEST);
+            json.writeArrayFieldStart("outputs");
+            for (Path file : files) {
+                if (file == null || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                json.writeStartObject();
+                json.writeStringField("file", relativize(directory, file));
+                json.writeStringField("role", file == geometry ? GEOMETRY : roleOf(file));
+                json.writeNumberField("size", Files.size(file));
+                json.writeStringField("hash", OutputChecksums.checksum(file));
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        return manifestFile;
+    }
+
+    public static ConversionManifest read(Path manifestFile) throws IOException {
+        JsonNode json = MAPPER.readTree(manifestFile.toFile());
+        if (json == null || !json.path("outputs").isArray() || !json.path("stages").isObject()) {
+            throw new IOException("Invalid conversion manifest " + manifestFile);
+        }
+
+        ConversionManifest manifest = new ConversionManifest();
+        manifest.converterName = text(json, "converter");
+        manifest.converterVersion = text(json, "converterVersion");
+        manifest.inputName = text(json, "input");
+        manifest.inputBytes = json.path("inputSize").asLong();
+        manifest.createdAt = text(json, "createdAt");
+        manifest.digest = text(json, "digest");
+        manifest.totalMillis = json.path("totalMillis").asLong();
+        manifest.triangles = json.path("triangles").asLong();
+        Iterator<Map.Entry<String, JsonNode>> stages = json.get("stages").fields();
+        while (stages.hasNext()) {
+            Map.Entry<String, JsonNode> stage = stages.next();
+            try {
+                manifest.stageMillis.put(ConversionStage.valueOf(stage.getKey()), stage.getValue().asLong());
+            } catch (IllegalArgumentException e) {
+                // stage of another version, ignored
+            }
+        }
+        for (JsonNode output : json.get("outputs")) {
+            if (!output.hasNonNull("file") || !output.hasNonNull("size") || !output.hasNonNull("hash")) {
+                throw new IOException("Invalid output in conversion manifest " + manifestFile);
+            }
+            manifest.outputs.add(new Output(output.get("file").asText(), text(output, "role"),
+                    output.get("size").asLong(), output.get("hash").asText()));
+        }
+        return manifest;
+    }
+
+    public static Path manifestFileFor(Path geometry) {
+        return geometry.resolveSibling(geometry.getFileName() + SUFFIX);
+    }
+
+    public String getConverterName() {
+        return converterName;
+    }
+
+    public String getConverterVersion() {
+        return converterVersion;
+    }
+
+    public String getInputName() {
+        return inputName;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return the time spent in the given stage, or -1 if the conversion did not go through it
+     */
+    public long getStageMillis(ConversionStage stage) {
+        Long millis = stageMillis.get(stage);
+        return millis == null ? -1 : millis;
+    }
+
+    public long getTriangles() {
+        return triangles;
+    }
+
+    public List<Output> getOutputs() {
+        return Collections.unmodifiableList(outputs);
+    }
+
+    /**
+     * @return the output of the given path relative to the manifest, or null
+     */
+    public Output getOutput(String file) {
+        for (Output output : outputs) {
+            if (output.getFile().equals(file)) {
+                return output;
+            }
+        }
+        return null;
+    }
+
+    private static String text(JsonNode json, String field) {
+        JsonNode value = json.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static String roleOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".mtl")) {
+            return MATERIAL;
+        } else if (name.endsWith(".instances.json")) {
+            return INSTANCES;
+        } else if (name.endsWith(".transform.json")) {
+            return TRANSFORM;
+        } else if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")
+                || name.endsWith(".ktx2") || name.endsWith(".webp")) {
+            return TEXTURE;
+        }
+        return OTHER;
+    }
+
+    private static String relativize(Path directory, Path file) {
+        Path absolute = file.toAbsolutePath();
+        Path relative = absolute.startsWith(directory) ? directory.relativize(absolute) : absolute;
+        return relative.toString().replace('\\', '/');
+    }
+}
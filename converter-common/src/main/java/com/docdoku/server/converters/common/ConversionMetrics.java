@@ -0,0 +1,78 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the {@link ConverterStats}, one per converter, each published as an MBean on the platform server.
+ */
+public class ConversionMetrics {
+
+    public static final String JMX_DOMAIN = "com.docdoku.server.converters";
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionMetrics.class.getName());
+    private static final ConcurrentMap<String, ConverterStats> STATS = new ConcurrentHashMap<>();
+
+    private ConversionMetrics() {
+    }
+
+    /**
+     * Starts measuring a conversion of the given file, in the sanity check stage.
+     */
+    public static ConversionTelemetry begin(String converterName, Path cadFile) {
+        ConversionTelemetry telemetry = new ConversionTelemetry(forConverter(converterName));
+        telemetry.enter(ConversionStage.SANITY_CHECK);
+        telemetry.input(cadFile);
+        return telemetry;
+    }
+
+    public static ConverterStats forConverter(String converterName) {
+        return STATS.computeIfAbsent(converterName, ConversionMetrics::register);
+    }
+
+    private static ConverterStats register(String converterName) {
+        ConverterStats stats = new ConverterStats(converterName);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName("ConverterStats", converterName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(stats, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot publish statistics of converter " + converterName, e);
+        }
+        return stats;
+    }
+
+    static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
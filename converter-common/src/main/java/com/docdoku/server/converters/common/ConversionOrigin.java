@@ -0,0 +1,43 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+/**
+ * Origin of a conversion, deciding the lane it waits in on a {@link ConversionExecutor}. Lanes are served in the
+ * order of this enum.
+ */
+public enum ConversionOrigin {
+
+    /**
+     * A user is waiting for the result, typically the preview of a part just uploaded.
+     */
+    INTERACTIVE,
+
+    /**
+     * One of many files of an import.
+     */
+    BULK,
+
+    /**
+     * A file converted again, for instance after an upgrade of the converter.
+     */
+    RECONVERSION
+}
@@ -0,0 +1,96 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import com.docdoku.server.converters.common.material.MaterialPostProcessor;
+import com.docdoku.server.converters.common.material.TextureSettings;
+import com.docdoku.server.converters.common.mesh.GlbWriter;
+import com.docdoku.server.converters.common.mesh.MeshNormalizer;
+import com.docdoku.server.converters.common.mesh.MeshPostProcessor;
+import com.docdoku.server.converters.common.mesh.MeshSettings;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BiFunction;
+
+/**
+ * Assembles the outputs of a successful conversion the same way for every converter: the OBJ file written by a
+ * tool is normalized and post-processed, written as GLB if asked to, then reported to the telemetry and listed in
+ * the manifest along with the other outputs.
+ * <p>
+ * The results are built by the given function, usually the constructor of the {@code ConversionResult} of the
+ * converters, from the converted file and its other outputs.
+ */
+public final class ConversionOutputs {
+
+    private ConversionOutputs() {
+    }
+
+    /**
+     * Post-processes the OBJ file written by a tool and returns the result of the conversion.
+     *
+     * @param mtlFile the material library written along with the OBJ file, null if the tool writes none
+     * @throws com.docdoku.server.converters.common.mesh.MeshQualityException if the mesh does not pass the quality
+     * gate
+     */
+    public static <R> R mesh(String converterName, String converterVersion, ConversionTelemetry telemetry,
+                             Path cadFile, Path objFile, Path mtlFile, OutputFormat format, Properties conf,
+                             BiFunction<Path, List<Path>, R> result) throws IOException, InterruptedException {
+        telemetry.enter(ConversionStage.POST_PROCESSING);
+        MeshSettings meshSettings = MeshSettings.from(conf);
+        List<Path> transform = MeshNormalizer.normalize(objFile, cadFile, meshSettings);
+        List<Path> written = MeshPostProcessor.process(objFile, meshSettings);
+        List<Path> others = new ArrayList<>();
+        if (mtlFile != null) {
+            // The material library is kept first, then its textures
+            others.add(mtlFile);
+            others.addAll(MaterialPostProcessor.process(objFile, mtlFile, TextureSettings.from(conf)));
+        }
+        others.addAll(written);
+        if (format == OutputFormat.GLB) {
+            String name = String.valueOf(objFile.getFileName());
+            Path glbFile = objFile.resolveSibling(name.substring(0, name.lastIndexOf('.') + 1)
+                    + OutputFormat.GLB.getExtension());
+            telemetry.triangles(GlbWriter.replace(objFile, others, glbFile));
+            return file(converterName, converterVersion, telemetry, glbFile, transform, conf, result);
+        }
+        others.addAll(transform);
+        return file(converterName, converterVersion, telemetry, objFile, others, conf, result);
+    }
+
+    /**
+     * Returns the result of a conversion whose outputs are all written.
+     *
+     * @param converterVersion the version of the tool, null if converted in process
+     * @param others           the other outputs of the conversion, may be null
+     */
+    public static <R> R file(String converterName, String converterVersion, ConversionTelemetry telemetry,
+                             Path file, List<Path> others, Properties conf, BiFunction<Path, List<Path>, R> result)
+            throws IOException {
+        telemetry.output(file, others);
+        telemetry.succeeded();
+        return result.apply(file, ConversionManifest.attach(converterName, converterVersion, telemetry, file, others,
+                conf));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+/**
+ * Live state of a running external conversion, as published by the {@link ConversionProgressRegistry}.
+ */
+public class ConversionProgress {
+
+    private final String id;
+    private final String converterName;
+    private final String fileName;
+    private final long startTime = System.currentTimeMillis();
+    private volatile long lastOutputTime = startTime;
+    private volatile int percent = -1;
+    private volatile boolean cancelled;
+    private volatile Process process;
+
+    ConversionProgress(String id, String converterName, String fileName) {
+        this.id = id;
+        this.converterName = converterName;
+        this.fileName = fileName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getConverterName() {
+        return converterName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the last completion percentage announced by the tool, or -1 if it did not announce any yet
+     */
+    public int getPercent() {
+        return percent;
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * @return the time since the tool last printed anything, a stuck conversion keeps growing it
+     */
+    public long getIdleMillis() {
+        return System.currentTimeMillis() - lastOutputTime;
+    }
+
+    /**
+     * @return the estimated remaining time, linearly extrapolated from the progress, or -1 if unknown
+     */
+    public long getEstimatedRemainingMillis() {
+        int p = percent;
+        if (p <= 0) {
+            return -1;
+        }
+        return getElapsedMillis() * (100 - p) / p;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void attach(Process process) {
+        this.process = process;
+    }
+
+    void outputReceived(int newPercent) {
+        lastOutputTime = System.currentTimeMillis();
+        if (newPercent >= 0) {
+            percent = newPercent;
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+        Process p = process;
+        if (p != null) {
+            p.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the external conversions currently running in this application.
+ */
+public class ConversionProgressRegistry implements ConversionProgressRegistryMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionProgressRegistry.class.getName());
+    private static final ConversionProgressRegistry INSTANCE = new ConversionProgressRegistry();
+
+    private final ConcurrentMap<String, ConversionProgress> conversions = new ConcurrentHashMap<>();
+    private final Set<String> publishedConverters = ConcurrentHashMap.newKeySet();
+
+    private ConversionProgressRegistry() {
+    }
+
+    public static ConversionProgressRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    ConversionProgress register(String converterName, String fileName) {
+        if (publishedConverters.add(converterName)) {
+            publish(converterName);
+        }
+        ConversionProgress progress = new ConversionProgress(UUID.randomUUID().toString(), converterName, fileName);
+        conversions.put(progress.getId(), progress);
+        return progress;
+    }
+
+    void unregister(ConversionProgress progress) {
+        conversions.remove(progress.getId());
+    }
+
+    /**
+     * Each converter is deployed in its own application, with its own copy of this registry:
+     * it is published under the name of the converter so that they do not replace each other.
+     * Converters sharing an application, such as in the conversion worker, each get a view of their own
+     * conversions, an MXBean instance being registrable under a single name.
+     */
+    private void publish(String converterName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = ConversionMetrics.objectName("ConversionProgress", converterName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new ConverterView(converterName), name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot publish the progress of converter " + converterName, e);
+        }
+    }
+
+    public ConversionProgress get(String id) {
+        return conversions.get(id);
+    }
+
+    @Override
+    public int getRunningCount() {
+        return conversions.size();
+    }
+
+    @Override
+    public List<ConversionProgress> getConversions() {
+        return new ArrayList<>(conversions.values());
+    }
+
+    @Override
+    public boolean cancel(String id) {
+        ConversionProgress progress = conversions.get(id);
+        if (progress == null) {
+            return false;
+        }
+        LOGGER.log(Level.WARNING, "Cancelling conversion of " + progress.getFileName() + " by " + progress.getConverterName());
+        progress.cancel();
+        return true;
+    }
+
+    @Override
+    public int cancelIdle(long maxIdleMillis) {
+        int cancelled = 0;
+        for (ConversionProgress progress : conversions.values()) {
+            if (progress.getIdleMillis() > maxIdleMillis && cancel(progress.getId())) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    private class ConverterView implements ConversionProgressRegistryMXBean {
+
+        private final String converterName;
+
+        private ConverterView(String converterName) {
+            this.converterName = converterName;
+        }
+
+        @Override
+        public int getRunningCount() {
+            return getConversions().size();
+        }
+
+        @Override
+        public List<ConversionProgress> getConversions() {
+            List<ConversionProgress> own = new ArrayList<>();
+            for (ConversionProgress progress : conversions.values()) {
+                if (converterName.equals(progress.getConverterName())) {
+                    own.add(progress);
+                }
+            }
+            return own;
+        }
+
+        @Override
+        public boolean cancel(String id) {
+            ConversionProgress progress = conversions.get(id);
+            return progress != null && converterName.equals(progress.getConverterName())
+                    && ConversionProgressRegistry.this.cancel(id);
+        }
+
+        @Override
+        public int cancelIdle(long maxIdleMillis) {
+            int cancelled = 0;
+            for (ConversionProgress progress : getConversions()) {
+                if (progress.getIdleMillis() > maxIdleMillis && cancel(progress.getId())) {
+                    cancelled++;
+                }
+            }
+            return cancelled;
+        }
+    }
+}
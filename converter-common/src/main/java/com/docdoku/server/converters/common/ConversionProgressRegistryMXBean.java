@@ -0,0 +1,48 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.List;
+
+/**
+ * Management interface of the running conversions, published under
+ * {@code com.docdoku.server.converters:type=ConversionProgress,name=<converter>}.
+ */
+public interface ConversionProgressRegistryMXBean {
+
+    int getRunningCount();
+
+    List<ConversionProgress> getConversions();
+
+    /**
+     * Kills the external process of a running conversion.
+     *
+     * @return false if no conversion is running under this id
+     */
+    boolean cancel(String id);
+
+    /**
+     * Kills the conversions whose tool has printed nothing for the given time.
+     *
+     * @return the number of cancelled conversions
+     */
+    int cancelIdle(long maxIdleMillis);
+}
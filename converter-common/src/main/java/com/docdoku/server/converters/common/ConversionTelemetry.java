@@ -0,0 +1,171 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures a single conversion: stage timings, input and output sizes, triangle count and exit code.
+ * <p>
+ * Meant to be used in a try-with-resources block, the measures are published to the
+ * {@link ConverterStats} of the converter on {@link #close()}.
+ */
+public class ConversionTelemetry implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionTelemetry.class.getName());
+
+    private final ConverterStats stats;
+    private final long start = System.nanoTime();
+    private final long[] stageNanos = new long[ConversionStage.values().length];
+
+    private ConversionStage currentStage;
+    private long currentStageStart;
+    private long end;
+    private String inputName;
+    private long inputBytes;
+    private long outputBytes;
+    private long triangles;
+    private Integer exitCode;
+    private boolean succeeded;
+    private boolean closed;
+
+    ConversionTelemetry(ConverterStats stats) {
+        this.stats = stats;
+        Arrays.fill(stageNanos, -1);
+    }
+
+    public void enter(ConversionStage stage) {
+        long now = System.nanoTime();
+        leaveCurrentStage(now);
+        currentStage = stage;
+        currentStageStart = now;
+    }
+
+    public void input(Path file) {
+        inputName = file != null && file.getFileName() != null ? file.getFileName().toString() : null;
+        inputBytes = sizeOf(file);
+    }
+
+    /**
+     * Accounts the size of the given output files, and the triangles of the first one if it is an OBJ file.
+     */
+    public void output(Path geometry, Iterable<Path> others) {
+        outputBytes = sizeOf(geometry);
+        if (others != null) {
+            for (Path other : others) {
+                outputBytes += sizeOf(other);
+            }
+        }
+        if (geometry != null && geometry.toString().endsWith(".obj")) {
+            try {
+                triangles = ObjFileUtils.countTriangles(geometry);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot count triangles of " + geometry, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of triangles of an output they cannot be counted from, such as a GLB file.
+     */
+    public void triangles(long count) {
+        triangles = count;
+    }
+
+    public void exitCode(int code) {
+        exitCode = code;
+    }
+
+    public void succeeded() {
+        succeeded = true;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        end = System.nanoTime();
+        leaveCurrentStage(end);
+        stats.record(this);
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    public String getInputName() {
+        return inputName;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public long getTriangles() {
+        return triangles;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public long getTotalMillis() {
+        return ((closed ? end : System.nanoTime()) - start) / 1000000;
+    }
+
+    /**
+     * @return the time spent in the given stage so far, or -1 if the conversion did not go through it
+     */
+    public long getStageMillis(ConversionStage stage) {
+        long nanos = stageNanos[stage.ordinal()];
+        if (stage == currentStage) {
+            nanos = Math.max(0, nanos) + System.nanoTime() - currentStageStart;
+        }
+        return nanos < 0 ? -1 : nanos / 1000000;
+    }
+
+    private void leaveCurrentStage(long now) {
+        if (currentStage != null) {
+            int i = currentStage.ordinal();
+            stageNanos[i] = Math.max(0, stageNanos[i]) + now - currentStageStart;
+            currentStage = null;
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return file != null && Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Managed scratch space of a converter, configured in its conf.properties:
+ * <ul>
+ * <li>{@code workspace_dir}: root of the scratch space, for instance on a tmpfs mount like /dev/shm. When empty,
+ * conversions use the temporary directory given by the caller, unmanaged</li>
+ * <li>{@code workspace_quota_mb}: total size of the files the converter may keep in the scratch space</li>
+ * <li>{@code workspace_size_factor}: size reserved for a job, as a multiple of its input size</li>
+ * <li>{@code workspace_acquire_timeout_seconds}: how long a job waits for space before failing</li>
+ * <li>{@code workspace_max_age_minutes}: age after which the directories of finished jobs, or left over by a
+ * previous run, are deleted</li>
+ * </ul>
+ * Every job gets its own directory under {@code <workspace_dir>/<converter>}. Jobs wait while the bytes held
+ * by finished jobs, plus the bytes reserved or actually written by running ones, do not leave room for their
+ * reservation. The directory of a succeeded job holds the conversion result: it is kept until its consumer
+ * releases it, either by removing the result files or through {@link #release(Path)}, or until it is older than
+ * the maximum age, and is then reclaimed in the background. The directory of a failed job is deleted when
+ * the job ends.
+ */
+public class ConversionWorkspace implements ConversionWorkspaceMXBean {
+
+    public static final String WORKSPACE_DIR = "workspace_dir";
+    public static final String QUOTA_MB = "workspace_quota_mb";
+    public static final String SIZE_FACTOR = "workspace_size_factor";
+    public static final String ACQUIRE_TIMEOUT_SECONDS = "workspace_acquire_timeout_seconds";
+    public static final String MAX_AGE_MINUTES = "workspace_max_age_minutes";
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionWorkspace.class.getName());
+    private static final ConcurrentMap<String, ConversionWorkspace> WORKSPACES = new ConcurrentHashMap<>();
+    private static final long MB = 1024 * 1024;
+    private static final long RESCAN_MILLIS = 5000;
+
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "conversion-workspace-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path root;
+    private final long quotaBytes;
+    private final double sizeFactor;
+    private final long acquireTimeoutMillis;
+    private final long maxAgeMillis;
+
+    private final Map<String, WorkspaceJob> running = new HashMap<>();
+    private final Set<String> finished = new HashSet<>();
+    // Bytes held by the directories of finished jobs and the ones left over by a previous run, by directory name
+    private final Map<String, Long> held = new HashMap<>();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private int waiting;
+
+    private ConversionWorkspace(Path root, Properties conf) {
+        this.root = root;
+        quotaBytes = Long.parseLong(conf.getProperty(QUOTA_MB, "2048").trim()) * MB;
+        sizeFactor = Double.parseDouble(conf.getProperty(SIZE_FACTOR, "4").trim());
+        acquireTimeoutMillis = Long.parseLong(conf.getProperty(ACQUIRE_TIMEOUT_SECONDS, "600").trim()) * 1000;
+        maxAgeMillis = Long.parseLong(conf.getProperty(MAX_AGE_MINUTES, "60").trim()) * 60000;
+    }
+
+    public static ConversionWorkspace forConverter(String converterName, Properties conf) {
+        return WORKSPACES.computeIfAbsent(converterName, name -> create(name, conf));
+    }
+
+    private static ConversionWorkspace create(String converterName, Properties conf) {
+        String dir = conf.getProperty(WORKSPACE_DIR, "").trim();
+        if (dir.isEmpty()) {
+            return new ConversionWorkspace(null, conf);
+        }
+
+        ConversionWorkspace workspace = new ConversionWorkspace(Paths.get(dir, converterName), conf);
+        try {
+            Files.createDirectories(workspace.root);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Cannot create conversion workspace " + workspace.root, e);
+        }
+        workspace.reclaim();
+        REAPER.scheduleWithFixedDelay(workspace::reclaim, 1, 1, TimeUnit.MINUTES);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = ConversionMetrics.objectName("ConversionWorkspace", converterName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(workspace, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot publish the workspace of converter " + converterName, e);
+        }
+        return workspace;
+    }
+
+    /**
+     * Reserves space for the conversion of the given file and creates its job directory, waiting
+     * for running or finished jobs to free space if the quota is exhausted.
+     *
+     * @param defaultDirectory directory used as is when no workspace is configured
+     * @throws IOException if no space could be reserved before the timeout
+     */
+    public WorkspaceJob open(Path cadFile, Path defaultDirectory) throws IOException, InterruptedException {
+        if (root == null) {
+            return new WorkspaceJob(null, null, defaultDirectory, 0);
+        }
+
+        long estimate = Math.min(quotaBytes, Math.max(MB, (long) (Files.size(cadFile) * sizeFactor)));
+        long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+
+        while (true) {
+            // Directory trees are walked without holding the monitor, jobs are only compared once measured
+            reclaim();
+            measureRunningJobs();
+            synchronized (this) {
+                if (usedBytes() + estimate <= quotaBytes) {
+                    String id = UUID.randomUUID().toString();
+                    WorkspaceJob job = new WorkspaceJob(this, id, Files.createDirectories(root.resolve(id)),
+                            estimate);
+                    running.put(id, job);
+                    return job;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Conversion workspace " + root + " is full, cannot reserve "
+                            + estimate + " bytes for " + cadFile.getFileName());
+                }
+                waiting++;
+                try {
+                    wait(Math.min(remaining, RESCAN_MILLIS));
+                } finally {
+                    waiting--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends the given job: the directory of a succeeded job is kept for its result, the directory of a failed
+     * one is deleted right away with the partial outputs it may hold.
+     */
+    void finish(WorkspaceJob job, boolean succeeded) {
+        long usage = sizeOf(job.getDirectory());
+        if (succeeded) {
+            LOGGER.log(usage > job.getReservedBytes() ? Level.WARNING : Level.FINE, "Conversion job " + job.getId()
+                    + " used " + usage + " bytes of " + job.getReservedBytes() + " reserved");
+        } else {
+            delete(job.getDirectory());
+            reclaimedBytes.addAndGet(usage);
+        }
+        synchronized (this) {
+            running.remove(job.getId());
+            if (succeeded) {
+                finished.add(job.getId());
+                held.put(job.getId(), usage);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases the directory of the finished job holding the given conversion result, once consumed.
+     *
+     * @return false if the file is not in a finished job directory of this workspace
+     */
+    public boolean release(Path resultFile) {
+        if (root == null) {
+            return false;
+        }
+        Path path = resultFile.toAbsolutePath().normalize();
+        Path absoluteRoot = root.toAbsolutePath().normalize();
+        if (!path.startsWith(absoluteRoot) || path.getNameCount() <= absoluteRoot.getNameCount()) {
+            return false;
+        }
+        Path directory = absoluteRoot.resolve(path.getName(absoluteRoot.getNameCount()));
+        String id = String.valueOf(directory.getFileName());
+        synchronized (this) {
+            if (!finished.remove(id)) {
+                return false;
+            }
+        }
+        long size = sizeOf(directory);
+        delete(directory);
+        reclaimedBytes.addAndGet(size);
+        synchronized (this) {
+            held.remove(id);
+            notifyAll();
+        }
+        return true;
+    }
+
+    @Override
+    public void reclaim() {
+        if (root == null || !Files.isDirectory(root)) {
+            return;
+        }
+        Set<String> skipped;
+        Set<String> ended;
+        synchronized (this) {
+            skipped = new HashSet<>(running.keySet());
+            ended = new HashSet<>(finished);
+        }
+        Set<String> listed = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        Map<String, Long> sizes = new HashMap<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                String id = String.valueOf(entry.getFileName());
+                listed.add(id);
+                if (skipped.contains(id)) {
+                    continue;
+                }
+                long size = sizeOf(entry);
+                long age = now - Files.getLastModifiedTime(entry).toMillis();
+                // Finished jobs whose result was consumed, or left over for longer than the maximum age
+                if (size == 0 && (ended.contains(id) || age > RESCAN_MILLIS) || age > maxAgeMillis) {
+                    delete(entry);
+                    removed.add(id);
+                    reclaimedBytes.addAndGet(size);
+                } else {
+                    sizes.put(id, size);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot reclaim conversion workspace " + root, e);
+            return;
+        }
+        synchronized (this) {
+            finished.removeAll(removed);
+            held.keySet().removeAll(removed);
+            held.keySet().removeIf(id -> !listed.contains(id) && !Files.exists(root.resolve(id)));
+            for (Map.Entry<String, Long> size : sizes.entrySet()) {
+                // Released meanwhile if neither finished nor present anymore
+                if (finished.contains(size.getKey()) || Files.isDirectory(root.resolve(size.getKey()))) {
+                    held.put(size.getKey(), size.getValue());
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    @Override
+    public String getRoot() {
+        return String.valueOf(root);
+    }
+
+    @Override
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    @Override
+    public long getUsedBytes() {
+        measureRunningJobs();
+        synchronized (this) {
+            return usedBytes();
+        }
+    }
+
+    @Override
+    public synchronized int getRunningJobs() {
+        return running.size();
+    }
+
+    @Override
+    public synchronized int getWaitingJobs() {
+        return waiting;
+    }
+
+    @Override
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    @Override
+    public Map<String, Long> getJobDiskUsage() {
+        Map<String, WorkspaceJob> jobs;
+        synchronized (this) {
+            jobs = new HashMap<>(running);
+        }
+        Map<String, Long> usage = new TreeMap<>();
+        for (Map.Entry<String, WorkspaceJob> entry : jobs.entrySet()) {
+            usage.put(entry.getKey(), entry.getValue().getDiskUsage());
+        }
+        return usage;
+    }
+
+    private void measureRunningJobs() {
+        List<WorkspaceJob> jobs;
+        synchronized (this) {
+            jobs = new ArrayList<>(running.values());
+        }
+        for (WorkspaceJob job : jobs) {
+            job.getDiskUsage();
+        }
+    }
+
+    /**
+     * @return the bytes in use, from the disk usage last measured for running jobs
+     */
+    private long usedBytes() {
+        long used = 0;
+        for (long size : held.values()) {
+            used += size;
+        }
+        for (WorkspaceJob job : running.values()) {
+            used += Math.max(job.getReservedBytes(), job.getMeasuredDiskUsage());
+        }
+        return used;
+    }
+
+    static long sizeOf(Path path) {
+        final AtomicLong size = new AtomicLong();
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size.addAndGet(attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot compute size of " + path, e);
+        }
+        return size.get();
+    }
+
+    private static void delete(Path path) {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Cannot delete " + p, e);
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot delete " + path, e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.Map;
+
+/**
+ * Management interface of a converter scratch space, published under
+ * {@code com.docdoku.server.converters:type=ConversionWorkspace,name=<converter>}.
+ */
+public interface ConversionWorkspaceMXBean {
+
+    String getRoot();
+
+    long getQuotaBytes();
+
+    /**
+     * @return bytes held by finished jobs plus bytes reserved or written by running ones, the larger
+     */
+    long getUsedBytes();
+
+    int getRunningJobs();
+
+    int getWaitingJobs();
+
+    long getReclaimedBytes();
+
+    /**
+     * @return the current disk usage of every running job, by job id
+     */
+    Map<String, Long> getJobDiskUsage();
+
+    /**
+     * Reclaims now the directories of finished jobs whose result was consumed, and the directories of finished
+     * jobs or left over by a previous run older than the configured maximum age.
+     */
+    void reclaim();
+}
@@ -0,0 +1,206 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * External converter process whose standard and error outputs are read line by line while it runs,
+ * so that the progress it prints is published in the {@link ConversionProgressRegistry}.
+ * <p>
+ * Output lines are logged as they arrive and only the end of each output is kept in memory,
+ * whatever the amount the tool prints.
+ */
+public class ConverterProcess {
+
+    private static final Logger LOGGER = Logger.getLogger(ConverterProcess.class.getName());
+
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(new PumpThreadFactory());
+
+    private final Process process;
+    private final ConversionProgress progress;
+    private final ProcessSettings settings;
+    private final OutputTail stdOutput;
+    private final OutputTail errorOutput;
+    private final Future<?> stdPump;
+    private final Future<?> errorPump;
+
+    private ConverterProcess(Process process, ConversionProgress progress, ProgressParser parser,
+                             ProcessSettings settings) {
+        this.process = process;
+        this.progress = progress;
+        this.settings = settings;
+        stdOutput = new OutputTail(settings.getOutputTailSize());
+        errorOutput = new OutputTail(settings.getOutputTailSize());
+        progress.attach(process);
+        stdPump = PUMPS.submit(() -> pump(process.getInputStream(), stdOutput, parser, "out"));
+        errorPump = PUMPS.submit(() -> pump(process.getErrorStream(), errorOutput, parser, "err"));
+    }
+
+    /**
+     * Starts the process with the default settings.
+     */
+    public static ConverterProcess start(ProcessBuilder processBuilder, String converterName, Path cadFile,
+                                         ProgressParser parser) throws IOException {
+        return start(processBuilder, converterName, cadFile, parser, ProcessSettings.defaults());
+    }
+
+    /**
+     * Starts the process under the settings resource limits and registers it as a running conversion of the given file.
+     */
+    public static ConverterProcess start(ProcessBuilder processBuilder, String converterName, Path cadFile,
+                                         ProgressParser parser, ProcessSettings settings) throws IOException {
+        ConversionProgressRegistry registry = ConversionProgressRegistry.getInstance();
+        ConversionProgress progress = registry.register(converterName, String.valueOf(cadFile.getFileName()));
+        try {
+            processBuilder.command(settings.getLimits().wrap(processBuilder.command()));
+            return new ConverterProcess(processBuilder.start(), progress, parser, settings);
+        } catch (IOException | RuntimeException e) {
+            registry.unregister(progress);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the process to exit and for its outputs to be fully read.
+     *
+     * @throws ConversionCancelledException if the conversion has been cancelled from the registry
+     * @throws ResourceLimitExceededException if the process has been stopped by one of its resource limits
+     */
+    public int waitFor() throws IOException, InterruptedException {
+        try {
+            int exitValue = process.waitFor();
+            // Children of a killed process may still hold its outputs, do not wait for them
+            if (progress.isCancelled()) {
+                throw new ConversionCancelledException("Conversion of " + progress.getFileName() + " has been cancelled");
+            }
+            stdPump.get();
+            errorPump.get();
+            ResourceLimitExceededException breach = settings.getLimits()
+                    .check(progress.getConverterName(), exitValue, errorOutput.toString());
+            if (breach != null) {
+                ConversionMetrics.forConverter(progress.getConverterName()).recordLimitBreach(breach.getLimit());
+                throw breach;
+            }
+            int signal = ResourceLimits.crashSignal(exitValue);
+            if (signal != 0) {
+                LOGGER.log(Level.WARNING, progress.getConverterName() + " crashed with signal " + signal
+                        + " while converting " + progress.getFileName());
+            }
+            return exitValue;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        } finally {
+            ConversionProgressRegistry.getInstance().unregister(progress);
+        }
+    }
+
+    public int exitValue() {
+        return process.exitValue();
+    }
+
+    /**
+     * @return the end of the standard output, truncated to the configured tail size
+     */
+    public String getStdOutput() {
+        return stdOutput.toString();
+    }
+
+    /**
+     * @return the end of the error output, truncated to the configured tail size
+     */
+    public String getErrorOutput() {
+        return errorOutput.toString();
+    }
+
+    public ConversionProgress getProgress() {
+        return progress;
+    }
+
+    private Void pump(InputStream inputStream, OutputTail output, ProgressParser parser, String streamName)
+            throws IOException {
+        try (Reader reader = new InputStreamReader(inputStream, Charset.defaultCharset())) {
+            StringBuilder line = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                output.append(buffer, 0, read);
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    // Progress bars are redrawn with carriage returns
+                    if (c == '\n' || c == '\r') {
+                        lineRead(line, parser, streamName);
+                    } else if (line.length() < MAX_LINE_LENGTH) {
+                        line.append(c);
+                    }
+                }
+            }
+            lineRead(line, parser, streamName);
+        }
+        return null;
+    }
+
+    private void lineRead(StringBuilder line, ProgressParser parser, String streamName) {
+        if (line.length() == 0) {
+            return;
+        }
+        if (LOGGER.isLoggable(settings.getOutputLogLevel())) {
+            LOGGER.log(settings.getOutputLogLevel(), "[" + progress.getConverterName() + " " + streamName + "] " + line);
+        }
+        int percent = -1;
+        try {
+            percent = parser.parse(line.toString());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Cannot parse progress from: " + line, e);
+        }
+        progress.outputReceived(percent);
+        line.setLength(0);
+    }
+
+    private static class PumpThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "converter-output-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregated statistics of all the conversions run by one converter.
+ */
+public class ConverterStats implements ConverterStatsMXBean {
+
+    private final String converterName;
+    private volatile Counters counters = new Counters();
+
+    public ConverterStats(String converterName) {
+        this.converterName = converterName;
+    }
+
+    void record(ConversionTelemetry telemetry) {
+        Counters c = counters;
+        c.conversions.incrementAndGet();
+        if (!telemetry.isSucceeded()) {
+            c.failures.incrementAndGet();
+        }
+        c.inputBytes.addAndGet(telemetry.getInputBytes());
+        c.outputBytes.addAndGet(telemetry.getOutputBytes());
+        c.triangles.addAndGet(telemetry.getTriangles());
+        c.latency.record(telemetry.getTotalMillis());
+        for (ConversionStage stage : ConversionStage.values()) {
+            long millis = telemetry.getStageMillis(stage);
+            if (millis >= 0) {
+                c.stages.get(stage).record(millis);
+            }
+        }
+        Integer exitCode = telemetry.getExitCode();
+        if (exitCode != null) {
+            c.exitCodes.computeIfAbsent(exitCode, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    void recordLimitBreach(String limit) {
+        counters.limitBreaches.computeIfAbsent(limit, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public String getConverterName() {
+        return converterName;
+    }
+
+    @Override
+    public long getConversionCount() {
+        return counters.conversions.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return counters.failures.get();
+    }
+
+    @Override
+    public long getInputBytes() {
+        return counters.inputBytes.get();
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return counters.outputBytes.get();
+    }
+
+    @Override
+    public long getTriangleCount() {
+        return counters.triangles.get();
+    }
+
+    @Override
+    public double getConversionsPerMinute() {
+        Counters c = counters;
+        return c.conversions.get() * 60000.0 / c.elapsedMillis();
+    }
+
+    @Override
+    public double getInputBytesPerSecond() {
+        Counters c = counters;
+        return c.inputBytes.get() * 1000.0 / c.elapsedMillis();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return counters.latency.getMean();
+    }
+
+    @Override
+    public long getMaxLatencyMillis() {
+        return counters.latency.getMax();
+    }
+
+    @Override
+    public long getLatency50thPercentileMillis() {
+        return counters.latency.getPercentile(50);
+    }
+
+    @Override
+    public long getLatency95thPercentileMillis() {
+        return counters.latency.getPercentile(95);
+    }
+
+    @Override
+    public long getLatency99thPercentileMillis() {
+        return counters.latency.getPercentile(99);
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        Map<String, Double> means = new TreeMap<>();
+        for (Map.Entry<ConversionStage, LatencyHistogram> entry : counters.stages.entrySet()) {
+            means.put(entry.getKey().name(), entry.getValue().getMean());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getStage95thPercentileMillis() {
+        Map<String, Long> percentiles = new TreeMap<>();
+        for (Map.Entry<ConversionStage, LatencyHistogram> entry : counters.stages.entrySet()) {
+            percentiles.put(entry.getKey().name(), entry.getValue().getPercentile(95));
+        }
+        return percentiles;
+    }
+
+    @Override
+    public Map<Integer, Long> getExitCodes() {
+        Map<Integer, Long> exitCodes = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : counters.exitCodes.entrySet()) {
+            exitCodes.put(entry.getKey(), entry.getValue().get());
+        }
+        return exitCodes;
+    }
+
+    @Override
+    public Map<String, Long> getLimitBreaches() {
+        Map<String, Long> limitBreaches = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.limitBreaches.entrySet()) {
+            limitBreaches.put(entry.getKey(), entry.getValue().get());
+        }
+        return limitBreaches;
+    }
+
+    @Override
+    public void reset() {
+        counters = new Counters();
+    }
+
+    private static class Counters {
+        private final long since = System.currentTimeMillis();
+        private final AtomicLong conversions = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong inputBytes = new AtomicLong();
+        private final AtomicLong outputBytes = new AtomicLong();
+        private final AtomicLong triangles = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Map<ConversionStage, LatencyHistogram> stages = new EnumMap<>(ConversionStage.class);
+        private final ConcurrentMap<Integer, AtomicLong> exitCodes = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> limitBreaches = new ConcurrentHashMap<>();
+
+        private Counters() {
+            for (ConversionStage stage : ConversionStage.values()) {
+                stages.put(stage, new LatencyHistogram());
+            }
+        }
+
+        private long elapsedMillis() {
+            return Math.max(1, System.currentTimeMillis() - since);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.Map;
+
+/**
+ * Management interface of the per converter statistics published under
+ * {@code com.docdoku.server.converters:type=ConverterStats,name=<converter>}.
+ */
+public interface ConverterStatsMXBean {
+
+    String getConverterName();
+
+    long getConversionCount();
+
+    long getFailureCount();
+
+    long getInputBytes();
+
+    long getOutputBytes();
+
+    long getTriangleCount();
+
+    double getConversionsPerMinute();
+
+    double getInputBytesPerSecond();
+
+    double getMeanLatencyMillis();
+
+    long getMaxLatencyMillis();
+
+    long getLatency50thPercentileMillis();
+
+    long getLatency95thPercentileMillis();
+
+    long getLatency99thPercentileMillis();
+
+    Map<String, Double> getStageMeanMillis();
+
+    Map<String, Long> getStage95thPercentileMillis();
+
+    Map<Integer, Long> getExitCodes();
+
+    /**
+     * @return the number of processes stopped by each of their {@link ResourceLimits}
+     */
+    Map<String, Long> getLimitBreaches();
+
+    void reset();
+}
@@ -0,0 +1,127 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+/**
+ * Availability of the external tool of a converter, as found by its {@link ToolProbe}.
+ */
+public class ConverterTool implements ConverterToolMXBean {
+
+    private final ToolProbe toolProbe;
+    private volatile boolean probed;
+    private volatile String problem;
+    private volatile String version;
+    private volatile String warmUpProblem;
+    private volatile long probeMillis;
+    private volatile long warmUpMillis = -1;
+    private volatile long probedAt;
+
+    ConverterTool(ToolProbe toolProbe) {
+        this.toolProbe = toolProbe;
+    }
+
+    @Override
+    public String getConverterName() {
+        return toolProbe.getConverterName();
+    }
+
+    @Override
+    public String getExecutable() {
+        return toolProbe.getExecutable();
+    }
+
+    /**
+     * @return true if the tool was found and could be run
+     */
+    @Override
+    public boolean isAvailable() {
+        return problem == null;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return why the tool is unavailable, or null
+     */
+    @Override
+    public String getProblem() {
+        return problem;
+    }
+
+    @Override
+    public String getWarmUpProblem() {
+        return warmUpProblem;
+    }
+
+    @Override
+    public long getProbeMillis() {
+        return probeMillis;
+    }
+
+    /**
+     * @return the duration of the sample conversion, or -1 if it was not run
+     */
+    @Override
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    @Override
+    public long getProbedAt() {
+        return probedAt;
+    }
+
+    @Override
+    public synchronized void probe() {
+        toolProbe.probe(this, false);
+    }
+
+    synchronized void probe(boolean warmUp) {
+        toolProbe.probe(this, warmUp);
+    }
+
+    void probeOnce() {
+        // Checked before locking, conversions do not wait for a warm-up running once the tool is probed
+        if (!probed) {
+            synchronized (this) {
+                if (!probed) {
+                    toolProbe.probe(this, false);
+                }
+            }
+        }
+    }
+
+    void probed(String problem, String version, long millis) {
+        this.problem = problem;
+        this.version = version;
+        this.probeMillis = millis;
+        this.probedAt = System.currentTimeMillis();
+        this.probed = true;
+    }
+
+    void warmedUp(String problem, long millis) {
+        this.warmUpProblem = problem;
+        this.warmUpMillis = millis;
+    }
+}
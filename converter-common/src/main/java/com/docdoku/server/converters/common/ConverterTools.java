@@ -0,0 +1,90 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the {@link ConverterTool}s, one per converter, each published as an MBean on the platform server.
+ * <p>
+ * Tools are probed once, at deployment with a warm-up conversion, or else on the first request. Converters then
+ * route on the recorded availability instead of checking their tool on every conversion.
+ */
+public class ConverterTools {
+
+    private static final Logger LOGGER = Logger.getLogger(ConverterTools.class.getName());
+    private static final ConcurrentMap<String, ConverterTool> TOOLS = new ConcurrentHashMap<>();
+
+    private ConverterTools() {
+    }
+
+    /**
+     * Probes the tool and warms it up with its sample conversion, as done at deployment.
+     */
+    public static ConverterTool probe(ToolProbe toolProbe) {
+        ConverterTool tool = TOOLS.computeIfAbsent(toolProbe.getConverterName(), n -> register(toolProbe));
+        tool.probe(true);
+        return tool;
+    }
+
+    /**
+     * @return the tool of the converter, probed without warm-up if it was not yet
+     */
+    public static ConverterTool forConverter(ToolProbe toolProbe) {
+        ConverterTool tool = TOOLS.computeIfAbsent(toolProbe.getConverterName(), n -> register(toolProbe));
+        tool.probeOnce();
+        return tool;
+    }
+
+    /**
+     * @return whether the tool of each probed converter is available, by converter name
+     */
+    public static Map<String, Boolean> getAvailability() {
+        Map<String, Boolean> availability = new TreeMap<>();
+        TOOLS.forEach((name, tool) -> availability.put(name, tool.isAvailable()));
+        return availability;
+    }
+
+    private static ConverterTool register(ToolProbe toolProbe) {
+        ConverterTool tool = new ConverterTool(toolProbe);
+        String converterName = toolProbe.getConverterName();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = ConversionMetrics.objectName("ConverterTool", converterName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(tool, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot publish the tool of converter " + converterName, e);
+        }
+        return tool;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Conversion job queue shared through a directory, typically on an NFS mount, without any broker.
+ * <p>
+ * A job is a directory moving between the spool sub-directories by atomic renames:
+ * <ul>
+ * <li>{@code staging}: job being written by the submitter</li>
+ * <li>{@code incoming}: job waiting for a worker</li>
+ * <li>{@code claimed}: job being converted, the worker renamed it here and refreshes its lease file</li>
+ * <li>{@code done}: job converted or failed, with its outputs and a result file</li>
+ * </ul>
+ * Only one worker can win the rename of a job, and a job whose lease has not been refreshed in time is
+ * put back in {@code incoming} by any other worker.
+ */
+public class FileSpool {
+
+    static final String STAGING = "staging";
+    static final String INCOMING = "incoming";
+    static final String CLAIMED = "claimed";
+    static final String DONE = "done";
+
+    static final String JOB_FILE = "job.properties";
+    static final String RESULT_FILE = "result.properties";
+    static final String LEASE_FILE = "lease";
+    static final String OUTPUT_DIR = "out";
+
+    private static final Logger LOGGER = Logger.getLogger(FileSpool.class.getName());
+
+    private final Path root;
+
+    public FileSpool(Path root) throws IOException {
+        this.root = root;
+        for (String dir : new String[]{STAGING, INCOMING, CLAIMED, DONE}) {
+            Files.createDirectories(root.resolve(dir));
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Copies the given file in the spool as a new job.
+     *
+     * @return the id of the job
+     */
+    public String submit(Path cadFile) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path staging = Files.createDirectories(root.resolve(STAGING).resolve(id));
+        Path input = staging.resolve(String.valueOf(cadFile.getFileName()));
+        Files.copy(cadFile, input);
+
+        Properties job = new Properties();
+        job.setProperty("id", id);
+        job.setProperty("input", String.valueOf(input.getFileName()));
+        job.setProperty("attempts", "0");
+        job.setProperty("submitted", String.valueOf(System.currentTimeMillis()));
+        store(job, staging.resolve(JOB_FILE));
+
+        Files.move(staging, root.resolve(INCOMING).resolve(id), StandardCopyOption.ATOMIC_MOVE);
+        return id;
+    }
+
+    /**
+     * @return the result of the given job, or null if it is not done yet
+     */
+    public SpoolResult getResult(String jobId) throws IOException {
+        Path dir = root.resolve(DONE).resolve(jobId);
+        Path resultFile = dir.resolve(RESULT_FILE);
+        if (!Files.exists(resultFile)) {
+            return null;
+        }
+        Properties result = load(resultFile);
+        Path convertedFile = null;
+        List<Path> materials = new ArrayList<>();
+        String converted = result.getProperty("converted", "");
+        if (!converted.isEmpty()) {
+            convertedFile = dir.resolve(OUTPUT_DIR).resolve(converted);
+        }
+        for (String material : result.getProperty("materials", "").split("/")) {
+            if (!material.isEmpty()) {
+                materials.add(dir.resolve(OUTPUT_DIR).resolve(material));
+            }
+        }
+        return new SpoolResult(jobId, Boolean.parseBoolean(result.getProperty("succeeded")),
+                result.getProperty("error"), result.getProperty("worker"), convertedFile, materials);
+    }
+
+    /**
+     * Deletes a done job and its outputs.
+     */
+    public void remove(String jobId) throws IOException {
+        delete(root.resolve(DONE).resolve(jobId));
+    }
+
+    /**
+     * Claims the oldest waiting job.
+     *
+     * @return the directory of the claimed job, or null if no job is waiting
+     */
+    Path claim(String workerId) throws IOException {
+        for (Path job : waitingJobs()) {
+            Path claimed = root.resolve(CLAIMED).resolve(job.getFileName());
+            try {
+                Files.move(job, claimed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                throw e;
+            } catch (FileSystemException e) {
+                // Another worker won this job
+                continue;
+            }
+            heartbeat(claimed, workerId);
+            return claimed;
+        }
+        return null;
+    }
+
+    /**
+     * Refreshes the lease of a claimed job, the modification time of the lease file is the heartbeat.
+     */
+    void heartbeat(Path claimed, String workerId) throws IOException {
+        Files.write(claimed.resolve(LEASE_FILE), workerId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return true if the given worker still holds the lease of the claimed job
+     */
+    boolean holdsLease(Path claimed, String workerId) {
+        try {
+            return workerId.equals(new String(Files.readAllBytes(claimed.resolve(LEASE_FILE)), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves a claimed job to the done jobs, with its result.
+     */
+    void complete(Path claimed, String jobId, String workerId, List<Path> outputs, Throwable error)
+            throws IOException {
+        Properties result = new Properties();
+        result.setProperty("succeeded", String.valueOf(error == null));
+        result.setProperty("worker", workerId);
+        if (error != null) {
+            result.setProperty("error", String.valueOf(error.getMessage()));
+        }
+        if (outputs != null && !outputs.isEmpty()) {
+            result.setProperty("converted", String.valueOf(outputs.get(0).getFileName()));
+            StringBuilder materials = new StringBuilder();
+            for (Path material : outputs.subList(1, outputs.size())) {
+                materials.append(materials.length() == 0 ? "" : "/").append(material.getFileName());
+            }
+            result.setProperty("materials", materials.toString());
+        }
+        store(result, claimed.resolve(RESULT_FILE));
+        Files.move(claimed, root.resolve(DONE).resolve(jobId), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Puts back in the queue the claimed jobs whose lease expired, their worker is considered dead.
+     * Jobs which already went through the maximum number of attempts are failed instead.
+     *
+     * @return the number of reclaimed jobs
+     */
+    int reclaimExpired(long leaseTimeoutMillis, int maxAttempts, String workerId) throws IOException {
+        int reclaimed = 0;
+        long now = System.currentTimeMillis();
+        List<Path> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.resolve(CLAIMED))) {
+            for (Path job : stream) {
+                jobs.add(job);
+            }
+        }
+        for (Path job : jobs) {
+            Path lease = job.resolve(LEASE_FILE);
+            if (now - lastModified(Files.exists(lease) ? lease : job) <= leaseTimeoutMillis) {
+                continue;
+            }
+            // Rename the expired job to a name of ours first, only one worker can win it
+            Path reclaiming = job.resolveSibling(job.getFileName() + "." + workerId);
+            try {
+                Files.move(job, reclaiming, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileSystemException e) {
+                continue;
+            }
+
+            Properties properties = load(reclaiming.resolve(JOB_FILE));
+            String jobId = properties.getProperty("id");
+            int attempts = Integer.parseInt(properties.getProperty("attempts", "0")) + 1;
+            properties.setProperty("attempts", String.valueOf(attempts));
+            store(properties, reclaiming.resolve(JOB_FILE));
+            Files.deleteIfExists(reclaiming.resolve(LEASE_FILE));
+
+            if (attempts >= maxAttempts) {
+                LOGGER.log(Level.WARNING, "Giving up spool job " + jobId + " after " + attempts + " attempts");
+                complete(reclaiming, jobId, workerId, null, new IOException("Workers died " + attempts + " times on this job"));
+            } else {
+                LOGGER.log(Level.INFO, "Reclaimed spool job " + jobId + " from a dead worker");
+                Files.move(reclaiming, root.resolve(INCOMING).resolve(jobId), StandardCopyOption.ATOMIC_MOVE);
+            }
+            reclaimed++;
+        }
+        return reclaimed;
+    }
+
+    private List<Path> waitingJobs() throws IOException {
+        List<Path> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.resolve(INCOMING))) {
+            for (Path job : stream) {
+                jobs.add(job);
+            }
+        }
+        Collections.sort(jobs, Comparator.comparingLong(FileSpool::lastModified));
+        return jobs;
+    }
+
+    static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the properties in a temporary file renamed over the target, readers never see a partial file.
+     */
+    static void store(Properties properties, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, null);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
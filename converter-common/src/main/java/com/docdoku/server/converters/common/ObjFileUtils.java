@@ -0,0 +1,79 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ObjFileUtils {
+
+    private static final int LINE_START = 0;
+    private static final int KEYWORD = 1;
+    private static final int FACE = 2;
+    private static final int SKIP = 3;
+
+    private ObjFileUtils() {
+    }
+
+    /**
+     * Counts the triangles of an OBJ file without decoding it: every face of n vertices counts for n - 2.
+     */
+    public static long countTriangles(Path objFile) throws IOException {
+        long triangles = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(objFile), 65536)) {
+            int state = LINE_START;
+            int vertices = 0;
+            boolean inToken = false;
+            int b;
+            while ((b = in.read()) != -1) {
+                boolean blank = b == ' ' || b == '\t';
+                if (b == '\n' || b == '\r') {
+                    if (state == FACE) {
+                        triangles += Math.max(0, vertices - 2);
+                    }
+                    state = LINE_START;
+                    vertices = 0;
+                    inToken = false;
+                } else if (state == LINE_START) {
+                    if (!blank) {
+                        state = b == 'f' ? KEYWORD : SKIP;
+                    }
+                } else if (state == KEYWORD) {
+                    state = blank ? FACE : SKIP;
+                } else if (state == FACE) {
+                    if (blank) {
+                        inToken = false;
+                    } else if (!inToken) {
+                        vertices++;
+                        inToken = true;
+                    }
+                }
+            }
+            if (state == FACE) {
+                triangles += Math.max(0, vertices - 2);
+            }
+        }
+        return triangles;
+    }
+}
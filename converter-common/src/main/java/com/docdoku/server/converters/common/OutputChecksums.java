@@ -0,0 +1,119 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * CRC-32 checksums of the files produced by conversions, listed in their {@link ConversionManifest}.
+ * <p>
+ * The outputs written by the converters themselves, post-processed OBJ files and GLB files, are checksummed
+ * while they are streamed to disk and recorded here, so that only the files written by the external tools
+ * are read again. Checksums are recorded by file key, which a rewritten file moved over the original keeps,
+ * and are trusted as long as the size and the modification time of the file are unchanged.
+ */
+public final class OutputChecksums {
+
+    private static final int MAX_RECORDED = 1024;
+
+    private static final Map<Object, Recorded> RECORDED = new LinkedHashMap<Object, Recorded>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Recorded> eldest) {
+            return size() > MAX_RECORDED;
+        }
+    };
+
+    private static class Recorded {
+        private final long size;
+        private final long lastModifiedMillis;
+        private final long checksum;
+
+        private Recorded(BasicFileAttributes attributes, long checksum) {
+            this.size = attributes.size();
+            this.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+            this.checksum = checksum;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModifiedMillis == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    private OutputChecksums() {
+    }
+
+    /**
+     * Adds the bytes between the position and the limit of the given buffer, left unchanged, to the checksum.
+     */
+    public static void update(CRC32 checksum, ByteBuffer buffer) {
+        checksum.update(buffer.duplicate());
+    }
+
+    /**
+     * Records the checksum of a file fully written and closed.
+     */
+    public static void record(Path file, CRC32 checksum) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (RECORDED) {
+            RECORDED.put(keyOf(file, attributes), new Recorded(attributes, checksum.getValue()));
+        }
+    }
+
+    /**
+     * @return the hexadecimal CRC-32 of the given file, recorded when it was written or else read from it
+     */
+    public static String checksum(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Recorded recorded;
+        synchronized (RECORDED) {
+            recorded = RECORDED.remove(keyOf(file, attributes));
+        }
+        if (recorded != null && recorded.matches(attributes)) {
+            return format(recorded.checksum);
+        }
+        CRC32 checksum = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+            }
+        }
+        return format(checksum.getValue());
+    }
+
+    public static String format(long checksum) {
+        return String.format("%08x", checksum);
+    }
+
+    private static Object keyOf(Path file, BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key != null ? key : file.toAbsolutePath().normalize();
+    }
+}
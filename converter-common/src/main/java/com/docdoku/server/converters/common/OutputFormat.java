@@ -0,0 +1,69 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.Locale;
+
+/**
+ * Output formats of the converters.
+ */
+public enum OutputFormat {
+
+    /**
+     * OBJ with its MTL material libraries and textures, the historical output.
+     */
+    OBJ("obj"),
+
+    /**
+     * Binary glTF 2.0, a single file embedding the geometry, materials and textures.
+     */
+    GLB("glb"),
+
+    /**
+     * Vector tiles of a 2D drawing in a single
+     * {@link com.docdoku.server.converters.common.drawing.TileArchive}, only for DXF drawings.
+     */
+    TILES("tiles"),
+
+    /**
+     * Levels of a downsampled point cloud in a single
+     * {@link com.docdoku.server.converters.common.points.PointCloudArchive}, only for PLY and OBJ scans.
+     */
+    POINTS("points");
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the format of the given name or extension, case insensitive
+     * @throws IllegalArgumentException if there is none
+     */
+    public static OutputFormat of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+}
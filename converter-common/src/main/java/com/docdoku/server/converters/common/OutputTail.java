@@ -0,0 +1,69 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+/**
+ * Fixed size ring buffer keeping the last characters written by a process.
+ */
+public class OutputTail {
+
+    private static final String TRUNCATED = "[...]";
+
+    private final char[] buffer;
+    private int position;
+    private long written;
+
+    public OutputTail(int capacity) {
+        buffer = new char[Math.max(1, capacity)];
+    }
+
+    public synchronized void append(char[] chars, int offset, int length) {
+        written += length;
+        if (length >= buffer.length) {
+            System.arraycopy(chars, offset + length - buffer.length, buffer, 0, buffer.length);
+            position = 0;
+            return;
+        }
+        int first = Math.min(length, buffer.length - position);
+        System.arraycopy(chars, offset, buffer, position, first);
+        System.arraycopy(chars, offset + first, buffer, 0, length - first);
+        position = (position + length) % buffer.length;
+    }
+
+    /**
+     * @return the total number of characters written, including the ones no longer held
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (written <= buffer.length) {
+            return new String(buffer, 0, (int) written);
+        }
+        StringBuilder sb = new StringBuilder(TRUNCATED.length() + buffer.length);
+        sb.append(TRUNCATED);
+        sb.append(buffer, position, buffer.length - position);
+        sb.append(buffer, 0, position);
+        return sb.toString();
+    }
+}
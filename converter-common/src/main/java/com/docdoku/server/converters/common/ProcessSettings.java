@@ -0,0 +1,75 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.Properties;
+import java.util.logging.Level;
+
+/**
+ * Settings of the external converter processes, read from the converters conf.properties:
+ * <ul>
+ * <li>{@code process_output_log_level}: level the process output lines are logged at, defaults to INFO</li>
+ * <li>{@code process_output_tail_kb}: how much of the end of each output is kept for error messages, defaults to 64</li>
+ * </ul>
+ * along with the {@link ResourceLimits} the processes run under.
+ */
+public class ProcessSettings {
+
+    public static final String OUTPUT_LOG_LEVEL = "process_output_log_level";
+    public static final String OUTPUT_TAIL_KB = "process_output_tail_kb";
+
+    private Level outputLogLevel = Level.INFO;
+    private int outputTailSize = 64 * 1024;
+    private ResourceLimits limits = ResourceLimits.none();
+
+    public static ProcessSettings defaults() {
+        return new ProcessSettings();
+    }
+
+    public static ProcessSettings from(Properties conf) {
+        ProcessSettings settings = new ProcessSettings();
+        String level = conf.getProperty(OUTPUT_LOG_LEVEL);
+        if (level != null && !level.trim().isEmpty()) {
+            settings.outputLogLevel = Level.parse(level.trim());
+        }
+        String tail = conf.getProperty(OUTPUT_TAIL_KB);
+        if (tail != null && !tail.trim().isEmpty()) {
+            settings.outputTailSize = Integer.parseInt(tail.trim()) * 1024;
+        }
+        settings.limits = ResourceLimits.from(conf);
+        return settings;
+    }
+
+    public Level getOutputLogLevel() {
+        return outputLogLevel;
+    }
+
+    /**
+     * @return the number of characters kept from the end of each output
+     */
+    public int getOutputTailSize() {
+        return outputTailSize;
+    }
+
+    public ResourceLimits getLimits() {
+        return limits;
+    }
+}
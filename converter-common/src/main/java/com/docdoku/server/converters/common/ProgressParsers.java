@@ -0,0 +1,108 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ProgressParser} implementations for the external tools used by the converters.
+ */
+public class ProgressParsers {
+
+    private static final Pattern PERCENT = Pattern.compile("(\\d{1,3}(?:\\.\\d+)?)\\s*%");
+    private static final Pattern PROGRESS_BAR = Pattern.compile("\\[(#*)([ .]*)\\]");
+    private static final Pattern MARKER = Pattern.compile("^PROGRESS\\s+(\\d{1,3})");
+
+    private ProgressParsers() {
+    }
+
+    /**
+     * Parses any "42%" found in a line.
+     */
+    public static ProgressParser percent() {
+        return ProgressParsers::parsePercent;
+    }
+
+    /**
+     * Parses the "[#####     ]" progress bar IfcConvert redraws while creating geometry,
+     * or the percentage printed by recent versions.
+     */
+    public static ProgressParser ifcConvert() {
+        return line -> {
+            int percent = parsePercent(line);
+            if (percent >= 0) {
+                return percent;
+            }
+            Matcher matcher = PROGRESS_BAR.matcher(line);
+            if (matcher.find()) {
+                int done = matcher.group(1).length();
+                int total = done + matcher.group(2).length();
+                return total == 0 ? -1 : done * 100 / total;
+            }
+            if (line.contains("Done creating geometry")) {
+                return 100;
+            }
+            return -1;
+        };
+    }
+
+    /**
+     * assimp does not print percentages, only the steps of an export.
+     */
+    public static ProgressParser assimp() {
+        return line -> {
+            String lower = line.toLowerCase();
+            if (lower.contains("launching asset import")) {
+                return 5;
+            }
+            if (lower.contains("import took")) {
+                return 60;
+            }
+            if (lower.contains("export took") || lower.contains("exporting took")) {
+                return 100;
+            }
+            if (lower.contains("exporting")) {
+                return 70;
+            }
+            return -1;
+        };
+    }
+
+    /**
+     * Parses "PROGRESS 42" lines, as printed by our own conversion scripts.
+     */
+    public static ProgressParser markers() {
+        return line -> {
+            Matcher matcher = MARKER.matcher(line.trim());
+            return matcher.find() ? Math.min(100, Integer.parseInt(matcher.group(1))) : -1;
+        };
+    }
+
+    private static int parsePercent(String line) {
+        Matcher matcher = PERCENT.matcher(line);
+        int percent = -1;
+        while (matcher.find()) {
+            percent = (int) Math.min(100, Double.parseDouble(matcher.group(1)));
+        }
+        return percent;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+
+/**
+ * Thrown while waiting for a converter process killed for exceeding one of its {@link ResourceLimits}.
+ */
+public class ResourceLimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String limit;
+
+    public ResourceLimitExceededException(String limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return the exceeded limit, {@link ResourceLimits#MEMORY} or {@link ResourceLimits#CPU_TIME}
+     */
+    public String getLimit() {
+        return limit;
+    }
+}
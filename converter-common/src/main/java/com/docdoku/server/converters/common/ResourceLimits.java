@@ -0,0 +1,181 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Per process resource limits of the external converters, read from the converters conf.properties:
+ * <ul>
+ * <li>{@code process_memory_limit_mb}: address space limit, 0 for none. Linux does not enforce RSS limits,
+ * so this caps the virtual memory of the tool, allocations beyond it fail</li>
+ * <li>{@code process_cpu_time_limit_seconds}: CPU time limit, 0 for none</li>
+ * <li>{@code process_nice}: nice level the tool runs at, 0 to keep the server one</li>
+ * <li>{@code process_prlimit}: path of prlimit, the limits are set with the shell ulimit builtin if missing</li>
+ * </ul>
+ * The converters are shipped without limits. Sizing depends on the host and on the models converted, so they are
+ * opted in per converter, for instance with {@code process_memory_limit_mb=8192} and {@code process_nice=10}.
+ */
+public class ResourceLimits {
+
+    public static final String MEMORY_LIMIT_MB = "process_memory_limit_mb";
+    public static final String CPU_TIME_LIMIT_SECONDS = "process_cpu_time_limit_seconds";
+    public static final String NICE = "process_nice";
+    public static final String PRLIMIT = "process_prlimit";
+
+    public static final String MEMORY = "memory";
+    public static final String CPU_TIME = "cpu-time";
+
+    private static final int SIGNAL_EXIT = 128;
+    private static final int SIGKILL = 9;
+    private static final int SIGXCPU = 24;
+
+    private static final String[] OUT_OF_MEMORY_MESSAGES = {
+            "bad_alloc", "memoryerror", "out of memory", "cannot allocate memory"
+    };
+
+    private long memoryLimitMb;
+    private long cpuTimeLimitSeconds;
+    private int nice;
+    private String prlimit = "/usr/bin/prlimit";
+
+    public static ResourceLimits none() {
+        return new ResourceLimits();
+    }
+
+    public static ResourceLimits from(Properties conf) {
+        ResourceLimits limits = new ResourceLimits();
+        limits.memoryLimitMb = Long.parseLong(conf.getProperty(MEMORY_LIMIT_MB, "0").trim());
+        limits.cpuTimeLimitSeconds = Long.parseLong(conf.getProperty(CPU_TIME_LIMIT_SECONDS, "0").trim());
+        limits.nice = Integer.parseInt(conf.getProperty(NICE, "0").trim());
+        limits.prlimit = conf.getProperty(PRLIMIT, limits.prlimit).trim();
+        return limits;
+    }
+
+    public long getMemoryLimitMb() {
+        return memoryLimitMb;
+    }
+
+    public long getCpuTimeLimitSeconds() {
+        return cpuTimeLimitSeconds;
+    }
+
+    public int getNice() {
+        return nice;
+    }
+
+    public boolean isEmpty() {
+        return memoryLimitMb <= 0 && cpuTimeLimitSeconds <= 0 && nice == 0;
+    }
+
+    /**
+     * @return the given command, run under prlimit or ulimit and nice according to the limits
+     */
+    public List<String> wrap(List<String> command) {
+        if (isEmpty()) {
+            return command;
+        }
+        List<String> wrapped = new ArrayList<>();
+        if (memoryLimitMb > 0 || cpuTimeLimitSeconds > 0) {
+            if (Files.isExecutable(Paths.get(prlimit))) {
+                wrapped.add(prlimit);
+                if (memoryLimitMb > 0) {
+                    wrapped.add("--as=" + memoryLimitMb * 1024 * 1024);
+                }
+                if (cpuTimeLimitSeconds > 0) {
+                    wrapped.add("--cpu=" + cpuTimeLimitSeconds);
+                }
+            } else {
+                StringBuilder script = new StringBuilder();
+                if (memoryLimitMb > 0) {
+                    script.append("ulimit -v ").append(memoryLimitMb * 1024).append(" && ");
+                }
+                if (cpuTimeLimitSeconds > 0) {
+                    script.append("ulimit -t ").append(cpuTimeLimitSeconds).append(" && ");
+                }
+                script.append("exec \"$@\"");
+                wrapped.add("/bin/sh");
+                wrapped.add("-c");
+                wrapped.add(script.toString());
+                wrapped.add("converter");
+            }
+        }
+        if (nice != 0) {
+            wrapped.add("nice");
+            wrapped.add("-n");
+            wrapped.add(String.valueOf(nice));
+        }
+        wrapped.addAll(command);
+        return wrapped;
+    }
+
+    /**
+     * Tells from its exit code and error output whether a process has been stopped by one of the limits.
+     * Only SIGXCPU and SIGKILL, or an allocation failure reported while a memory limit is set, are breaches:
+     * other signals are crashes of the tool, see {@link #crashSignal(int)}.
+     *
+     * @return the breach, or null if the process did not exceed any limit
+     */
+    public ResourceLimitExceededException check(String tool, int exitValue, String errorOutput) {
+        if (exitValue == 0) {
+            return null;
+        }
+        if (cpuTimeLimitSeconds > 0 && exitValue == SIGNAL_EXIT + SIGXCPU) {
+            return new ResourceLimitExceededException(CPU_TIME,
+                    tool + " exceeded its CPU time limit of " + cpuTimeLimitSeconds + " seconds");
+        }
+        if (cpuTimeLimitSeconds > 0 && exitValue == SIGNAL_EXIT + SIGKILL) {
+            return new ResourceLimitExceededException(CPU_TIME,
+                    tool + " has been killed, it probably exceeded its CPU time limit of " + cpuTimeLimitSeconds + " seconds");
+        }
+        if (memoryLimitMb > 0 && exitValue == SIGNAL_EXIT + SIGKILL) {
+            return new ResourceLimitExceededException(MEMORY,
+                    tool + " has been killed, it probably exceeded its memory limit of " + memoryLimitMb + " MB");
+        }
+        if (memoryLimitMb > 0 && isAllocationFailure(errorOutput)) {
+            return new ResourceLimitExceededException(MEMORY,
+                    tool + " exceeded its memory limit of " + memoryLimitMb + " MB");
+        }
+        return null;
+    }
+
+    /**
+     * @return the signal which stopped a process with the given exit code, 0 if it exited by itself
+     */
+    public static int crashSignal(int exitValue) {
+        return exitValue > SIGNAL_EXIT && exitValue < SIGNAL_EXIT + 64 ? exitValue - SIGNAL_EXIT : 0;
+    }
+
+    private static boolean isAllocationFailure(String errorOutput) {
+        String lower = errorOutput == null ? "" : errorOutput.toLowerCase(Locale.ENGLISH);
+        for (String message : OUT_OF_MEMORY_MESSAGES) {
+            if (lower.contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
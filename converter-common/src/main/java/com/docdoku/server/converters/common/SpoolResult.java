@@ -0,0 +1,73 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Outcome of a job processed through a {@link FileSpool}.
+ */
+public class SpoolResult {
+
+    private final String jobId;
+    private final boolean succeeded;
+    private final String error;
+    private final String worker;
+    private final Path convertedFile;
+    private final List<Path> materials;
+
+    SpoolResult(String jobId, boolean succeeded, String error, String worker, Path convertedFile, List<Path> materials) {
+        this.jobId = jobId;
+        this.succeeded = succeeded;
+        this.error = error;
+        this.worker = worker;
+        this.convertedFile = convertedFile;
+        this.materials = materials;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the id of the worker which processed the job
+     */
+    public String getWorker() {
+        return worker;
+    }
+
+    public Path getConvertedFile() {
+        return convertedFile;
+    }
+
+    public List<Path> getMaterials() {
+        return materials;
+    }
+}
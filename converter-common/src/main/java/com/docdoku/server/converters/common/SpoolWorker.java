@@ -0,0 +1,182 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Worker converting the jobs of a {@link FileSpool}. Any number of workers, on any number of nodes,
+ * can share the same spool.
+ * <p>
+ * The lease of the job being converted is refreshed every {@code heartbeatMillis}, and the jobs of
+ * workers which did not refresh their lease for {@code leaseTimeoutMillis} are put back in the queue.
+ */
+public class SpoolWorker implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(SpoolWorker.class.getName());
+
+    private final FileSpool spool;
+    private final SpoolHandler handler;
+    private final String workerId;
+    private final long heartbeatMillis;
+    private final long leaseTimeoutMillis;
+    private final int maxAttempts;
+    private final long pollMillis;
+    private final ScheduledExecutorService heartbeats;
+    private volatile boolean stopped;
+
+    public SpoolWorker(FileSpool spool, SpoolHandler handler, long heartbeatMillis, long leaseTimeoutMillis,
+                       int maxAttempts, long pollMillis) {
+        this.spool = spool;
+        this.handler = handler;
+        this.workerId = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9@.-]", "_")
+                + "-" + Integer.toHexString(System.identityHashCode(this));
+        this.heartbeatMillis = heartbeatMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.pollMillis = pollMillis;
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spool-heartbeat-" + workerId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * Converts jobs until {@link #stop()} is called.
+     */
+    @Override
+    public void run() {
+        LOGGER.log(Level.INFO, "Spool worker " + workerId + " started on " + spool.getRoot());
+        while (!stopped) {
+            try {
+                if (!runOnce()) {
+                    Thread.sleep(pollMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Spool worker " + workerId + " failed", e);
+                sleepQuietly();
+            }
+        }
+        heartbeats.shutdownNow();
+        LOGGER.log(Level.INFO, "Spool worker " + workerId + " stopped");
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Reclaims the expired jobs, then claims and converts one job.
+     *
+     * @return false if there was no job to convert
+     */
+    public boolean runOnce() throws IOException {
+        spool.reclaimExpired(leaseTimeoutMillis, maxAttempts, workerId);
+
+        Path job = spool.claim(workerId);
+        if (job == null) {
+            return false;
+        }
+
+        String jobId = String.valueOf(job.getFileName());
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+            try {
+                if (spool.holdsLease(job, workerId)) {
+                    spool.heartbeat(job, workerId);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot refresh the lease of spool job " + jobId, e);
+            }
+        }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+
+        List<Path> outputs = null;
+        Throwable error = null;
+        try {
+            Properties properties = FileSpool.load(job.resolve(FileSpool.JOB_FILE));
+            Path input = job.resolve(properties.getProperty("input"));
+            Path outputDirectory = Files.createDirectories(job.resolve(FileSpool.OUTPUT_DIR));
+            outputs = collect(handler.convert(input, outputDirectory), outputDirectory);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Spool job " + jobId + " failed", e);
+            error = e;
+        } finally {
+            heartbeat.cancel(false);
+        }
+
+        if (!spool.holdsLease(job, workerId)) {
+            LOGGER.log(Level.WARNING, "Lease of spool job " + jobId + " has been lost, dropping its result");
+            return true;
+        }
+        spool.complete(job, jobId, workerId, outputs, error);
+        return true;
+    }
+
+    /**
+     * Moves the outputs written elsewhere to the output directory of the job.
+     */
+    private static List<Path> collect(List<Path> outputs, Path outputDirectory) throws IOException {
+        if (outputs.isEmpty() || !Files.exists(outputs.get(0))) {
+            throw new IOException("The converter did not produce any file");
+        }
+        List<Path> collected = new ArrayList<>();
+        for (Path output : outputs) {
+            if (!Files.exists(output)) {
+                continue;
+            }
+            Path target = outputDirectory.resolve(output.getFileName());
+            if (!output.toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize())) {
+                Files.move(output, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            collected.add(target);
+        }
+        return collected;
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(pollMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Describes how to check the external tool of a converter: the files it needs, the command printing its version,
+ * and a tiny sample conversion run once at deployment to warm the OS caches. Settings, read from the converters
+ * conf.properties:
+ * <ul>
+ * <li>{@code tool_probe_timeout_seconds}: how long the version and sample commands may run, defaults to 60</li>
+ * <li>{@code tool_warm_up}: whether the sample conversion is run, defaults to true</li>
+ * </ul>
+ * A tool is unavailable if one of its files is missing or if its version command cannot be run. A failing sample
+ * conversion is only reported, the version command having shown the tool can start.
+ */
+public class ToolProbe {
+
+    public static final String TIMEOUT_SECONDS = "tool_probe_timeout_seconds";
+    public static final String WARM_UP = "tool_warm_up";
+
+    private static final Logger LOGGER = Logger.getLogger(ToolProbe.class.getName());
+    private static final int MAX_VERSION_LENGTH = 200;
+
+    /**
+     * Builds the sample conversion command.
+     */
+    @FunctionalInterface
+    public interface SampleCommand {
+        List<String> build(Path sample, Path outputDirectory);
+    }
+
+    private final String converterName;
+    private final Properties conf;
+    private final List<String> executables = new ArrayList<>();
+    private final List<String> directories = new ArrayList<>();
+    private List<String> versionCommand = Collections.emptyList();
+    private URL sample;
+    private SampleCommand sampleCommand;
+
+    private ToolProbe(String converterName, Properties conf) {
+        this.converterName = converterName;
+        this.conf = conf;
+    }
+
+    public static ToolProbe forConverter(String converterName, Properties conf) {
+        return new ToolProbe(converterName, conf);
+    }
+
+    /**
+     * Requires an executable file, the first one being reported as the tool of the converter.
+     */
+    public ToolProbe executable(String path) {
+        executables.add(path);
+        return this;
+    }
+
+    public ToolProbe directory(String path) {
+        directories.add(path);
+        return this;
+    }
+
+    /**
+     * Sets the command printing the tool version, whose first output line is kept.
+     */
+    public ToolProbe version(String... command) {
+        versionCommand = Arrays.asList(command);
+        return this;
+    }
+
+    public ToolProbe sample(URL resource, SampleCommand command) {
+        sample = resource;
+        sampleCommand = command;
+        return this;
+    }
+
+    public String getConverterName() {
+        return converterName;
+    }
+
+    String getExecutable() {
+        return executables.isEmpty() ? null : executables.get(0);
+    }
+
+    /**
+     * Checks the tool, then runs the sample conversion if asked to and enabled.
+     */
+    void probe(ConverterTool tool, boolean warmUp) {
+        long start = System.nanoTime();
+        String problem = checkFiles();
+        String version = null;
+        if (problem == null && !versionCommand.isEmpty()) {
+            try {
+                CommandResult result = run(versionCommand, null);
+                if (result.exitValue == 126 || result.exitValue == 127) {
+                    problem = "\"" + versionCommand.get(0) + "\" cannot be run: " + result.firstLine;
+                } else {
+                    version = result.firstLine;
+                }
+            } catch (IOException e) {
+                problem = "\"" + versionCommand.get(0) + "\" cannot be run: " + e.getMessage();
+            }
+        }
+        tool.probed(problem, version, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (problem != null) {
+            LOGGER.log(Level.WARNING, "Converter " + converterName + " is unavailable, " + problem);
+            return;
+        }
+        LOGGER.log(Level.INFO, "Converter " + converterName + " uses " + (version != null ? version : getExecutable()));
+        if (warmUp && sample != null && !"false".equalsIgnoreCase(conf.getProperty(WARM_UP, "true").trim())) {
+            warmUp(tool);
+        }
+    }
+
+    private String checkFiles() {
+        for (String executable : executables) {
+            Path path = Paths.get(executable);
+            if (!Files.exists(path)) {
+                return "\"" + executable + "\" is not available";
+            }
+            if (!Files.isExecutable(path)) {
+                return "\"" + executable + "\" has no execution rights";
+            }
+        }
+        for (String directory : directories) {
+            if (!Files.isDirectory(Paths.get(directory))) {
+                return "\"" + directory + "\" is not available";
+            }
+        }
+        return null;
+    }
+
+    private void warmUp(ConverterTool tool) {
+        long start = System.nanoTime();
+        String problem = null;
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("tool-probe-" + converterName);
+            String path = sample.getPath();
+            Path sampleFile = directory.resolve(path.substring(path.lastIndexOf('/') + 1));
+            try (InputStream in = sample.openStream()) {
+                Files.copy(in, sampleFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            CommandResult result = run(sampleCommand.build(sampleFile, directory), directory);
+            if (result.exitValue != 0) {
+                problem = "sample conversion exited with " + result.exitValue + ": " + result.firstLine;
+            }
+        } catch (IOException e) {
+            problem = "sample conversion failed: " + e.getMessage();
+        } finally {
+            delete(directory);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        tool.warmedUp(problem, millis);
+        if (problem != null) {
+            LOGGER.log(Level.WARNING, "Converter " + converterName + " " + problem);
+        } else {
+            LOGGER.log(Level.FINE, "Converter " + converterName + " warmed up in " + millis + " ms");
+        }
+    }
+
+    private CommandResult run(List<String> command, Path directory) throws IOException {
+        long timeoutSeconds = Long.parseLong(conf.getProperty(TIMEOUT_SECONDS, "60").trim());
+        Path output = Files.createTempFile("tool-probe-" + converterName, ".log");
+        try {
+            ProcessBuilder pb = new ProcessBuilder(ProcessSettings.from(conf).getLimits().wrap(command))
+                    .redirectErrorStream(true)
+                    .redirectOutput(output.toFile());
+            if (directory != null) {
+                pb.directory(directory.toFile());
+            }
+            Process process = pb.start();
+            try {
+                if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    throw new IOException("no answer in " + timeoutSeconds + " s");
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", e);
+            }
+            return new CommandResult(process.exitValue(), firstLine(output));
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static String firstLine(Path output) throws IOException {
+        try (Stream<String> lines = Files.lines(output, StandardCharsets.ISO_8859_1)) {
+            String line = lines.map(String::trim).filter(l -> !l.isEmpty()).findFirst().orElse("");
+            return line.length() > MAX_VERSION_LENGTH ? line.substring(0, MAX_VERSION_LENGTH) : line;
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot delete " + directory, e);
+        }
+    }
+
+    private static final class CommandResult {
+        private final int exitValue;
+        private final String firstLine;
+
+        private CommandResult(int exitValue, String firstLine) {
+            this.exitValue = exitValue;
+            this.firstLine = firstLine;
+        }
+    }
+}
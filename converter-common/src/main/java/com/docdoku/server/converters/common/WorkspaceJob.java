@@ -0,0 +1,88 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common;
+
+import java.nio.file.Path;
+
+/**
+ * Scratch directory given to a single conversion by a {@link ConversionWorkspace}.
+ * <p>
+ * Closing the job releases its reservation. The files of a job marked {@link #succeeded()} are accounted in the
+ * workspace until the consumer of the conversion result releases them, the directory of any other job is deleted.
+ */
+public class WorkspaceJob implements AutoCloseable {
+
+    private final ConversionWorkspace workspace;
+    private final String id;
+    private final Path directory;
+    private final long reservedBytes;
+    private volatile long measuredDiskUsage;
+    private boolean succeeded;
+    private boolean closed;
+
+    WorkspaceJob(ConversionWorkspace workspace, String id, Path directory, long reservedBytes) {
+        this.workspace = workspace;
+        this.id = id;
+        this.directory = directory;
+        this.reservedBytes = reservedBytes;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return the bytes currently written in the job directory
+     */
+    public long getDiskUsage() {
+        measuredDiskUsage = workspace == null ? 0 : ConversionWorkspace.sizeOf(directory);
+        return measuredDiskUsage;
+    }
+
+    long getMeasuredDiskUsage() {
+        return measuredDiskUsage;
+    }
+
+    /**
+     * Marks the conversion as succeeded, its directory then holds the conversion result.
+     */
+    public void succeeded() {
+        succeeded = true;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (workspace != null) {
+                workspace.finish(this, succeeded);
+            }
+        }
+    }
+}
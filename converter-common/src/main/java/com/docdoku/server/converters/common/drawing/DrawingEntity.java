@@ -0,0 +1,93 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.drawing;
+
+/**
+ * Entity of a 2D drawing, reduced to what is drawn: a line through points, or a text at a point.
+ */
+public final class DrawingEntity {
+
+    private final String layer;
+    private final double[] points;
+    private final boolean closed;
+    private final String text;
+    private final double height;
+    private final double rotation;
+
+    private DrawingEntity(String layer, double[] points, boolean closed, String text, double height, double rotation) {
+        this.layer = layer;
+        this.points = points;
+        this.closed = closed;
+        this.text = text;
+        this.height = height;
+        this.rotation = rotation;
+    }
+
+    /**
+     * @param points x and y of every point
+     * @param closed whether the last point joins the first one
+     */
+    public static DrawingEntity line(String layer, double[] points, boolean closed) {
+        return new DrawingEntity(layer, points, closed, null, 0, 0);
+    }
+
+    /**
+     * @param rotation angle of the text baseline, in degrees counterclockwise
+     */
+    public static DrawingEntity text(String layer, double x, double y, String text, double height, double rotation) {
+        return new DrawingEntity(layer, new double[]{x, y}, false, text, height, rotation);
+    }
+
+    public String getLayer() {
+        return layer;
+    }
+
+    public boolean isText() {
+        return text != null;
+    }
+
+    /**
+     * @return x and y of every point, of the insertion point for a text
+     */
+    public double[] getPoints() {
+        return points;
+    }
+
+    public int getPointCount() {
+        return points.length / 2;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getRotation() {
+        return rotation;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.drawing;
+
+import java.util.Properties;
+
+/**
+ * Settings of the conversion of 2D drawings to vector tiles, asked for with {@code OutputFormat.TILES}, read from
+ * the converters conf.properties:
+ * <ul>
+ * <li>{@code dxf_tile_max_zoom}: deepest zoom level, at which the drawing spans 2^zoom tiles across,
+ * defaults to 6</li>
+ * <li>{@code dxf_tile_extent}: units across a tile, the precision of the coordinates, defaults to 4096</li>
+ * <li>{@code dxf_tile_buffer}: units drawn past the edges of a tile, so that strokes are not cut at the
+ * seams, defaults to 64</li>
+ * <li>{@code dxf_tile_min_text_units}: smallest height of a text kept in a tile, in tile units, defaults to 4</li>
+ * </ul>
+ */
+public class DrawingSettings {
+
+    public static final String MAX_ZOOM = "dxf_tile_max_zoom";
+    public static final String EXTENT = "dxf_tile_extent";
+    public static final String BUFFER = "dxf_tile_buffer";
+    public static final String MIN_TEXT_UNITS = "dxf_tile_min_text_units";
+
+    private int maxZoom = 6;
+    private int extent = 4096;
+    private int buffer = 64;
+    private double minTextUnits = 4;
+
+    public static DrawingSettings from(Properties conf) {
+        DrawingSettings settings = new DrawingSettings();
+        settings.maxZoom = Math.max(0, Math.min(20, Integer.parseInt(conf.getProperty(MAX_ZOOM, "6").trim())));
+        settings.extent = Math.max(16, Integer.parseInt(conf.getProperty(EXTENT, "4096").trim()));
+        settings.buffer = Math.max(0, Integer.parseInt(conf.getProperty(BUFFER, "64").trim()));
+        settings.minTextUnits = Double.parseDouble(conf.getProperty(MIN_TEXT_UNITS, "4").trim());
+        return settings;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public int getExtent() {
+        return extent;
+    }
+
+    public int getBuffer() {
+        return buffer;
+    }
+
+    public double getMinTextUnits() {
+        return minTextUnits;
+    }
+}
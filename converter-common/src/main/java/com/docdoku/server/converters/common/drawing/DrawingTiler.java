@@ -0,0 +1,388 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.drawing;
+
+import com.docdoku.server.converters.common.mesh.IntArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts a DXF drawing to a pyramid of vector tiles, so that large 2D drawings are shown at the detail of the
+ * current view instead of being triangulated as a flat mesh.
+ * <p>
+ * The drawing fills the single tile of zoom 0 and every zoom level doubles the tiles across. At every level the
+ * lines are simplified within a tile unit and the features smaller than a unit are left out, down to the deepest
+ * level which keeps them all. Levels are tiled one at a time, only the geometry of the drawing and the tiles of
+ * the current level are kept in memory. The tiles are written to a {@link TileArchive}.
+ */
+public class DrawingTiler {
+
+    private static final Logger LOGGER = Logger.getLogger(DrawingTiler.class.getName());
+
+    private final DrawingSettings settings;
+
+    public DrawingTiler(DrawingSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return the number of tiles written
+     */
+    public int convert(Path dxfFile, Path tilesFile) throws IOException {
+        long start = System.currentTimeMillis();
+        List<DrawingEntity> entities = new ArrayList<>();
+        DxfReader reader = new DxfReader(entities::add);
+        reader.read(dxfFile);
+        int tiles = write(entities, reader.getSkipped(), tilesFile);
+        LOGGER.log(Level.INFO, "Tiled " + dxfFile.getFileName() + ": " + entities.size() + " entities in " + tiles
+                + " tiles, " + (System.currentTimeMillis() - start) + " ms");
+        return tiles;
+    }
+
+    /**
+     * @param skipped number of entities of every type which were not read, reported in the metadata
+     * @return the number of tiles written
+     */
+    public int write(List<DrawingEntity> entities, Map<String, Integer> skipped, Path tilesFile) throws IOException {
+        double[] bounds = bounds(entities);
+        double size = Math.max(Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]), 1e-9);
+        Set<String> layers = new TreeSet<>();
+        for (DrawingEntity entity : entities) {
+            layers.add(entity.getLayer());
+        }
+
+        List<long[]> index = new ArrayList<>();
+        Path dataFile = Files.createTempFile(tilesFile.toAbsolutePath().getParent(), "tiles", ".data");
+        try {
+            try (OutputStream data = new BufferedOutputStream(Files.newOutputStream(dataFile))) {
+                long offset = 0;
+                for (int zoom = 0; zoom <= settings.getMaxZoom(); zoom++) {
+                    Map<Long, TileEncoder> level = tile(entities, bounds, size, zoom);
+                    List<Long> keys = new ArrayList<>(level.keySet());
+                    keys.sort(null);
+                    for (long key : keys) {
+                        byte[] tile = level.get(key).encode();
+                        data.write(tile);
+                        index.add(new long[]{zoom, key >>> 32, key & 0xFFFFFFFFL, offset, tile.length});
+                        offset += tile.length;
+                    }
+                }
+            }
+
+            String metadata = "{\"bounds\":[" + bounds[0] + "," + bounds[1] + "," + bounds[2] + "," + bounds[3] + "]"
+                    + ",\"origin\":[" + bounds[0] + "," + bounds[3] + "],\"size\":" + size
+                    + ",\"extent\":" + settings.getExtent() + ",\"maxZoom\":" + settings.getMaxZoom()
+                    + ",\"layers\":" + strings(layers) + ",\"entities\":" + entities.size()
+                    + ",\"skipped\":" + counts(skipped) + "}";
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tilesFile)));
+                 InputStream data = new BufferedInputStream(Files.newInputStream(dataFile))) {
+                TileArchive.writeHeader(out, metadata, index);
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = data.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(dataFile);
+        }
+        return index.size();
+    }
+
+    private static double[] bounds(List<DrawingEntity> entities) {
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (DrawingEntity entity : entities) {
+            double[] points = entity.getPoints();
+            for (int i = 0; i < points.length; i += 2) {
+                bounds[0] = Math.min(bounds[0], points[i]);
+                bounds[1] = Math.min(bounds[1], points[i + 1]);
+                bounds[2] = Math.max(bounds[2], points[i]);
+                bounds[3] = Math.max(bounds[3], points[i + 1]);
+            }
+        }
+        return bounds[0] <= bounds[2] ? bounds : new double[4];
+    }
+
+    /**
+     * Tiles a zoom level, in units of the level: the extent of a tile, from the top left corner of the drawing
+     * and with y going down as in the tiles.
+     *
+     * @return the tiles by their x in the high bits and their y in the low bits
+     */
+    private Map<Long, TileEncoder> tile(List<DrawingEntity> entities, double[] bounds, double size, int zoom) {
+        int tiles = 1 << zoom;
+        int extent = settings.getExtent();
+        double unit = size / tiles / extent;
+        boolean deepest = zoom == settings.getMaxZoom();
+        Map<Long, TileEncoder> level = new HashMap<>();
+        for (DrawingEntity entity : entities) {
+            double[] world = entity.getPoints();
+            double[] points = new double[world.length + (entity.isClosed() ? 2 : 0)];
+            for (int i = 0; i < world.length; i += 2) {
+                points[i] = (world[i] - bounds[0]) / unit;
+                points[i + 1] = (bounds[3] - world[i + 1]) / unit;
+            }
+            if (entity.isText()) {
+                text(level, entity, points[0], points[1], entity.getHeight() / unit, zoom);
+                continue;
+            }
+            if (entity.isClosed()) {
+                points[world.length] = points[0];
+                points[world.length + 1] = points[1];
+            }
+            if (!deepest && smallerThanUnit(points)) {
+                continue;
+            }
+            line(level, entity.getLayer(), simplify(points, 1), zoom);
+        }
+        return level;
+    }
+
+    private static boolean smallerThanUnit(double[] points) {
+        double minX = points[0];
+        double maxX = points[0];
+        double minY = points[1];
+        double maxY = points[1];
+        for (int i = 2; i < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            maxX = Math.max(maxX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        return maxX - minX < 1 && maxY - minY < 1;
+    }
+
+    private void text(Map<Long, TileEncoder> level, DrawingEntity entity, double x, double y, double height, int zoom) {
+        if (height < settings.getMinTextUnits()) {
+            return;
+        }
+        int extent = settings.getExtent();
+        int buffer = settings.getBuffer();
+        int last = (1 << zoom) - 1;
+        for (int tx = tileOf(x - buffer, extent, last); tx <= tileOf(x + buffer, extent, last); tx++) {
+            for (int ty = tileOf(y - buffer, extent, last); ty <= tileOf(y + buffer, extent, last); ty++) {
+                long localX = Math.round(x - (double) tx * extent);
+                long localY = Math.round(y - (double) ty * extent);
+                if (localX >= -buffer && localX <= extent + buffer && localY >= -buffer && localY <= extent + buffer) {
+                    // Rotations are counterclockwise in the drawing, clockwise once y goes down
+                    encoder(level, tx, ty).addText(entity.getLayer(), (int) localX, (int) localY, entity.getText(),
+                            Math.round(height * 100) / 100.0, Math.round(-entity.getRotation() * 100) / 100.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clips every segment of a line to the tiles it crosses, pieces joining in a tile are kept as one part.
+     */
+    private void line(Map<Long, TileEncoder> level, String layer, double[] points, int zoom) {
+        int extent = settings.getExtent();
+        int buffer = settings.getBuffer();
+        int last = (1 << zoom) - 1;
+        Map<Long, List<IntArray>> parts = new HashMap<>();
+        double[] clipped = new double[4];
+        for (int i = 2; i < points.length; i += 2) {
+            double x0 = points[i - 2];
+            double y0 = points[i - 1];
+            double x1 = points[i];
+            double y1 = points[i + 1];
+            for (int tx = tileOf(Math.min(x0, x1) - buffer, extent, last); tx <= tileOf(Math.max(x0, x1) + buffer, extent, last); tx++) {
+                for (int ty = tileOf(Math.min(y0, y1) - buffer, extent, last); ty <= tileOf(Math.max(y0, y1) + buffer, extent, last); ty++) {
+                    double left = (double) tx * extent;
+                    double top = (double) ty * extent;
+                    if (!clip(x0 - left, y0 - top, x1 - left, y1 - top, -buffer, extent + buffer, clipped)) {
+                        continue;
+                    }
+                    int ax = (int) Math.round(clipped[0]);
+                    int ay = (int) Math.round(clipped[1]);
+                    int bx = (int) Math.round(clipped[2]);
+                    int by = (int) Math.round(clipped[3]);
+                    List<IntArray> tileParts = parts.computeIfAbsent(key(tx, ty), k -> new ArrayList<>());
+                    IntArray part = tileParts.isEmpty() ? null : tileParts.get(tileParts.size() - 1);
+                    if (part != null && part.get(part.size() - 2) == ax && part.get(part.size() - 1) == ay) {
+                        if (bx != ax || by != ay) {
+                            part.add(bx);
+                            part.add(by);
+                        }
+                    } else if (bx != ax || by != ay) {
+                        part = new IntArray(16);
+                        part.add(ax);
+                        part.add(ay);
+                        part.add(bx);
+                        part.add(by);
+                        tileParts.add(part);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Long, List<IntArray>> tile : parts.entrySet()) {
+            if (!tile.getValue().isEmpty()) {
+                level.computeIfAbsent(tile.getKey(), k -> new TileEncoder(extent)).addLine(layer, tile.getValue());
+            }
+        }
+    }
+
+    private TileEncoder encoder(Map<Long, TileEncoder> level, int tx, int ty) {
+        return level.computeIfAbsent(key(tx, ty), k -> new TileEncoder(settings.getExtent()));
+    }
+
+    private static long key(int tx, int ty) {
+        return (long) tx << 32 | ty;
+    }
+
+    private static int tileOf(double coordinate, int extent, int last) {
+        return (int) Math.max(0, Math.min(last, Math.floor(coordinate / extent)));
+    }
+
+    /**
+     * Liang-Barsky clipping of a segment to a square.
+     *
+     * @param clipped where the ends of the clipped segment are stored
+     * @return false if the segment is outside the square
+     */
+    static boolean clip(double x0, double y0, double x1, double y1, double min, double max, double[] clipped) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x0 - min, max - x0, y0 - min, max - y0};
+        double t0 = 0;
+        double t1 = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+            }
+        }
+        if (t0 > t1) {
+            return false;
+        }
+        clipped[0] = x0 + t0 * dx;
+        clipped[1] = y0 + t0 * dy;
+        clipped[2] = x0 + t1 * dx;
+        clipped[3] = y0 + t1 * dy;
+        return true;
+    }
+
+    /**
+     * Douglas-Peucker simplification of a line, iterative so that long lines do not overflow the stack.
+     */
+    static double[] simplify(double[] points, double tolerance) {
+        int count = points.length / 2;
+        if (count <= 2) {
+            return points;
+        }
+        boolean[] kept = new boolean[count];
+        kept[0] = true;
+        kept[count - 1] = true;
+        IntArray ranges = new IntArray(64);
+        ranges.add(0);
+        ranges.add(count - 1);
+        double squaredTolerance = tolerance * tolerance;
+        while (ranges.size() > 0) {
+            int last = ranges.get(ranges.size() - 1);
+            int first = ranges.get(ranges.size() - 2);
+            ranges.truncate(ranges.size() - 2);
+            int farthest = -1;
+            double farthestDistance = squaredTolerance;
+            for (int i = first + 1; i < last; i++) {
+                double distance = squaredDistance(points, i, first, last);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest >= 0) {
+                kept[farthest] = true;
+                ranges.add(first);
+                ranges.add(farthest);
+                ranges.add(farthest);
+                ranges.add(last);
+            }
+        }
+        IntArray indexes = new IntArray(count);
+        for (int i = 0; i < count; i++) {
+            if (kept[i]) {
+                indexes.add(i);
+            }
+        }
+        double[] simplified = new double[indexes.size() * 2];
+        for (int i = 0; i < indexes.size(); i++) {
+            simplified[2 * i] = points[2 * indexes.get(i)];
+            simplified[2 * i + 1] = points[2 * indexes.get(i) + 1];
+        }
+        return simplified;
+    }
+
+    private static double squaredDistance(double[] points, int point, int first, int last) {
+        double x = points[2 * point];
+        double y = points[2 * point + 1];
+        double x0 = points[2 * first];
+        double y0 = points[2 * first + 1];
+        double dx = points[2 * last] - x0;
+        double dy = points[2 * last + 1] - y0;
+        double squaredLength = dx * dx + dy * dy;
+        double t = squaredLength == 0 ? 0 : Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / squaredLength));
+        double ex = x0 + t * dx - x;
+        double ey = y0 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+
+    private static String strings(Set<String> values) {
+        StringBuilder json = new StringBuilder("[");
+        for (String value : values) {
+            json.append(json.length() > 1 ? "," : "").append(TileArchive.string(value));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String counts(Map<String, Integer> counts) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Integer> count : new TreeMap<>(counts).entrySet()) {
+            json.append(json.length() > 1 ? "," : "").append(TileArchive.string(count.getKey())).append(':')
+                    .append(count.getValue());
+        }
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,671 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.drawing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming reader of ASCII DXF drawings, which hands what is drawn to a consumer as lines and texts.
+ * <p>
+ * The file is read one group code and value pair at a time and only the definitions of the blocks are kept,
+ * to be expanded at every insertion. Lines, polylines with their arcs, arcs, circles, ellipses, splines, texts
+ * and the blocks of inserts and dimensions are read, other entities are counted as skipped. Coordinates are
+ * read in 2D, in the plane of the drawing.
+ */
+public class DxfReader {
+
+    private static final Logger LOGGER = Logger.getLogger(DxfReader.class.getName());
+
+    /**
+     * Largest angle between two points of a tessellated arc.
+     */
+    private static final double ARC_STEP = Math.toRadians(5);
+    private static final int MAX_BLOCK_DEPTH = 16;
+    private static final int SPLINE_POINTS_PER_SPAN = 8;
+    private static final Pattern UNICODE = Pattern.compile("\\\\U\\+([0-9A-Fa-f]{4})");
+    private static final Pattern MTEXT_FORMAT = Pattern.compile("\\\\[ACcFfHQTWp][^;]*;|\\\\S([^;]*);|\\\\[LlOoKk]|[{}]");
+
+    private final Consumer<DrawingEntity> consumer;
+    private final Map<String, Block> blocks = new HashMap<>();
+    private final Map<String, Integer> skipped = new TreeMap<>();
+    private int entityCount;
+
+    private String section;
+    private Block block;
+    private Fields entity;
+    private Fields polyline;
+    private List<double[]> polylineVertices;
+
+    public DxfReader(Consumer<DrawingEntity> consumer) {
+        this.consumer = consumer;
+    }
+
+    public void read(Path dxfFile) throws IOException {
+        try (InputStream in = Files.newInputStream(dxfFile)) {
+            read(in);
+        }
+    }
+
+    public void read(InputStream in) throws IOException {
+        // Texts of recent drawings are UTF-8, older ones are read as well as they can be rather than rejected
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)));
+        String codeLine;
+        boolean first = true;
+        while ((codeLine = reader.readLine()) != null) {
+            if (first && codeLine.startsWith("AutoCAD Binary DXF")) {
+                throw new IOException("Binary DXF files are not supported");
+            }
+            first = false;
+            String value = reader.readLine();
+            if (value == null) {
+                break;
+            }
+            int code;
+            try {
+                code = Integer.parseInt(codeLine.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid group code '" + codeLine.trim() + "', not an ASCII DXF file");
+            }
+            if (code == 0 && "EOF".equals(value.trim())) {
+                break;
+            }
+            pair(code, value);
+        }
+        pair(0, "EOF");
+        if (!skipped.isEmpty()) {
+            LOGGER.log(Level.FINE, "Skipped DXF entities: " + skipped);
+        }
+    }
+
+    /**
+     * @return the number of lines and texts handed to the consumer
+     */
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * @return the number of entities of every type which were not read
+     */
+    public Map<String, Integer> getSkipped() {
+        return skipped;
+    }
+
+    private void pair(int code, String value) {
+        if (code != 0) {
+            if (entity != null) {
+                entity.add(code, value);
+            } else if (block != null && code == 2 && block.name == null) {
+                block.name = value.trim();
+            } else if (block != null && (code == 10 || code == 20)) {
+                block.base[code == 10 ? 0 : 1] = parse(value);
+            } else if (code == 2 && "SECTION".equals(section)) {
+                section = value.trim();
+            }
+            return;
+        }
+        if (entity != null) {
+            finish(entity);
+            entity = null;
+        }
+        String type = value.trim();
+        switch (type) {
+            case "SECTION":
+                section = "SECTION";
+                break;
+            case "ENDSEC":
+                section = null;
+                break;
+            case "BLOCK":
+                block = new Block();
+                break;
+            case "ENDBLK":
+                if (block != null && block.name != null) {
+                    blocks.put(block.name, block);
+                }
+                block = null;
+                break;
+            case "EOF":
+                endPolyline();
+                break;
+            default:
+                if ("ENTITIES".equals(section) || "BLOCKS".equals(section) && block != null) {
+                    entity = new Fields(type);
+                }
+                break;
+        }
+    }
+
+    private void finish(Fields fields) {
+        switch (fields.type) {
+            case "POLYLINE":
+                endPolyline();
+                if ((fields.flags() & (16 | 64)) != 0) {
+                    skip("POLYLINE mesh");
+                } else {
+                    polyline = fields;
+                    polylineVertices = new ArrayList<>();
+                }
+                return;
+            case "VERTEX":
+                if (polyline != null && (fields.flags() & 16) == 0 && !fields.vertices.isEmpty()) {
+                    polylineVertices.add(fields.vertices.get(0));
+                }
+                return;
+            case "SEQEND":
+                endPolyline();
+                return;
+            default:
+                endPolyline();
+                break;
+        }
+        if (block != null) {
+            block.entities.add(fields);
+        } else {
+            draw(fields, Transform.IDENTITY, null, 0);
+        }
+    }
+
+    private void endPolyline() {
+        if (polyline != null) {
+            polyline.vertices.clear();
+            polyline.vertices.addAll(polylineVertices);
+            Fields fields = polyline;
+            fields.type = "LWPOLYLINE";
+            polyline = null;
+            polylineVertices = null;
+            if (block != null) {
+                block.entities.add(fields);
+            } else {
+                draw(fields, Transform.IDENTITY, null, 0);
+            }
+        }
+    }
+
+    /**
+     * Draws an entity of the drawing or of a block.
+     *
+     * @param transform from the coordinates of the entity to the coordinates of the drawing
+     * @param insertLayer layer of the insert the entity is drawn by, null outside blocks
+     */
+    private void draw(Fields fields, Transform transform, String insertLayer, int depth) {
+        String layer = fields.get(8, "0");
+        if (insertLayer != null && "0".equals(layer)) {
+            layer = insertLayer;
+        }
+        // Entities of a plane facing away are drawn mirrored, their coordinates are along the mirrored x axis
+        Transform ocs = fields.getDouble(230, 1) < 0 ? Transform.MIRROR_X.then(transform) : transform;
+        switch (fields.type) {
+            case "LINE":
+                if (!fields.vertices.isEmpty()) {
+                    double[] start = fields.vertices.get(0);
+                    line(layer, transform, new double[]{start[0], start[1], fields.getDouble(11, 0), fields.getDouble(21, 0)}, false);
+                }
+                break;
+            case "LWPOLYLINE":
+                lwPolyline(fields, layer, ocs);
+                break;
+            case "ARC":
+            case "CIRCLE":
+                arc(fields, layer, ocs);
+                break;
+            case "ELLIPSE":
+                ellipse(fields, layer, transform);
+                break;
+            case "SPLINE":
+                spline(fields, layer, transform);
+                break;
+            case "TEXT":
+            case "ATTRIB":
+            case "MTEXT":
+                text(fields, layer, fields.type.equals("MTEXT") ? transform : ocs);
+                break;
+            case "INSERT":
+                insert(fields, layer, ocs, depth);
+                break;
+            case "DIMENSION":
+                // The graphics of a dimension are an anonymous block, in the coordinates of the drawing
+                expand(fields.get(2, null), layer, transform, depth);
+                break;
+            default:
+                skip(fields.type);
+                break;
+        }
+    }
+
+    private void lwPolyline(Fields fields, String layer, Transform transform) {
+        List<double[]> vertices = fields.vertices;
+        if (vertices.size() < 2) {
+            return;
+        }
+        boolean closed = (fields.flags() & 1) != 0;
+        Points points = new Points();
+        double[] first = vertices.get(0);
+        points.add(first[0], first[1]);
+        int segments = closed ? vertices.size() : vertices.size() - 1;
+        for (int i = 0; i < segments; i++) {
+            double[] from = vertices.get(i);
+            double[] to = vertices.get((i + 1) % vertices.size());
+            bulge(points, from[0], from[1], to[0], to[1], from[2]);
+        }
+        if (closed) {
+            // The closing point is drawn by the closing segment already
+            points.removeLast();
+        }
+        line(layer, transform, points.toArray(), closed);
+    }
+
+    /**
+     * Adds the points of a polyline segment to its end, along an arc if the segment has a bulge: the tangent
+     * of a quarter of the included angle, positive counterclockwise.
+     */
+    private static void bulge(Points points, double x0, double y0, double x1, double y1, double bulge) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double chord = Math.hypot(dx, dy);
+        if (bulge == 0 || chord == 0) {
+            points.add(x1, y1);
+            return;
+        }
+        double angle = 4 * Math.atan(bulge);
+        double radius = chord / (2 * Math.sin(angle / 2));
+        double offset = radius * Math.cos(angle / 2);
+        double cx = (x0 + x1) / 2 - offset * dy / chord;
+        double cy = (y0 + y1) / 2 + offset * dx / chord;
+        double start = Math.atan2(y0 - cy, x0 - cx);
+        int steps = (int) Math.ceil(Math.abs(angle) / ARC_STEP);
+        for (int i = 1; i < steps; i++) {
+            double a = start + angle * i / steps;
+            points.add(cx + Math.abs(radius) * Math.cos(a), cy + Math.abs(radius) * Math.sin(a));
+        }
+        points.add(x1, y1);
+    }
+
+    private void arc(Fields fields, String layer, Transform transform) {
+        if (fields.vertices.isEmpty()) {
+            return;
+        }
+        double[] center = fields.vertices.get(0);
+        double radius = fields.getDouble(40, 0);
+        boolean circle = "CIRCLE".equals(fields.type);
+        double start = circle ? 0 : Math.toRadians(fields.getDouble(50, 0));
+        double end = circle ? 2 * Math.PI : Math.toRadians(fields.getDouble(51, 360));
+        while (end <= start) {
+            end += 2 * Math.PI;
+        }
+        double sweep = end - start;
+        int steps = Math.max(circle ? 8 : 1, (int) Math.ceil(sweep / ARC_STEP));
+        Points points = new Points();
+        for (int i = 0; i <= (circle ? steps - 1 : steps); i++) {
+            double a = start + sweep * i / steps;
+            points.add(center[0] + radius * Math.cos(a), center[1] + radius * Math.sin(a));
+        }
+        line(layer, transform, points.toArray(), circle);
+    }
+
+    private void ellipse(Fields fields, String layer, Transform transform) {
+        if (fields.vertices.isEmpty()) {
+            return;
+        }
+        double[] center = fields.vertices.get(0);
+        double mx = fields.getDouble(11, 0);
+        double my = fields.getDouble(21, 0);
+        double ratio = fields.getDouble(40, 1);
+        double start = fields.getDouble(41, 0);
+        double end = fields.getDouble(42, 2 * Math.PI);
+        while (end <= start) {
+            end += 2 * Math.PI;
+        }
+        double sweep = end - start;
+        boolean closed = sweep >= 2 * Math.PI - 1e-9;
+        int steps = Math.max(8, (int) Math.ceil(sweep / ARC_STEP));
+        Points points = new Points();
+        for (int i = 0; i <= (closed ? steps - 1 : steps); i++) {
+            double t = start + sweep * i / steps;
+            double cos = Math.cos(t);
+            double sin = Math.sin(t) * ratio;
+            points.add(center[0] + cos * mx - sin * my, center[1] + cos * my + sin * mx);
+        }
+        line(layer, fields.getDouble(230, 1) < 0 ? Transform.MIRROR_X.then(transform) : transform, points.toArray(), closed);
+    }
+
+    /**
+     * Draws a spline through points evaluated on its control points and knots, or along its control points if
+     * they do not describe a valid curve.
+     */
+    private void spline(Fields fields, String layer, Transform transform) {
+        List<double[]> control = fields.vertices;
+        int degree = (int) fields.getDouble(71, 3);
+        double[] knots = fields.knots.stream().mapToDouble(Double::doubleValue).toArray();
+        boolean closed = (fields.flags() & 1) != 0;
+        if (control.size() < 2) {
+            skip("SPLINE");
+            return;
+        }
+        Points points = new Points();
+        if (degree < 1 || knots.length != control.size() + degree + 1) {
+            for (double[] point : control) {
+                points.add(point[0], point[1]);
+            }
+        } else {
+            double from = knots[degree];
+            double to = knots[control.size()];
+            int steps = (control.size() - degree) * SPLINE_POINTS_PER_SPAN;
+            for (int i = 0; i <= steps; i++) {
+                double[] point = deBoor(degree, knots, control, from + (to - from) * i / steps);
+                points.add(point[0], point[1]);
+            }
+        }
+        line(layer, transform, points.toArray(), closed);
+    }
+
+    private static double[] deBoor(int degree, double[] knots, List<double[]> control, double t) {
+        int span = degree;
+        while (span < control.size() - 1 && t >= knots[span + 1]) {
+            span++;
+        }
+        double[][] d = new double[degree + 1][];
+        for (int j = 0; j <= degree; j++) {
+            double[] point = control.get(span - degree + j);
+            d[j] = new double[]{point[0], point[1]};
+        }
+        for (int r = 1; r <= degree; r++) {
+            for (int j = degree; j >= r; j--) {
+                int i = span - degree + j;
+                double denominator = knots[i + degree + 1 - r] - knots[i];
+                double alpha = denominator == 0 ? 0 : (t - knots[i]) / denominator;
+                d[j][0] = (1 - alpha) * d[j - 1][0] + alpha * d[j][0];
+                d[j][1] = (1 - alpha) * d[j - 1][1] + alpha * d[j][1];
+            }
+        }
+        return d[degree];
+    }
+
+    private void text(Fields fields, String layer, Transform transform) {
+        String text = fields.get(1, "");
+        double rotation = fields.getDouble(50, 0);
+        if ("MTEXT".equals(fields.type)) {
+            text = mtext(fields.chunks.append(text).toString());
+            if (fields.values.containsKey(11)) {
+                rotation = Math.toDegrees(Math.atan2(fields.getDouble(21, 0), fields.getDouble(11, 1)));
+            }
+        }
+        text = unicode(text).trim();
+        if (text.isEmpty() || fields.vertices.isEmpty()) {
+            return;
+        }
+        double[] position = fields.vertices.get(0);
+        // Aligned texts are placed by their alignment point
+        if (!"MTEXT".equals(fields.type) && (fields.getDouble(72, 0) != 0 || fields.getDouble(74, 0) != 0)
+                && fields.values.containsKey(11)) {
+            position = new double[]{fields.getDouble(11, 0), fields.getDouble(21, 0)};
+        }
+        double[] point = transform.apply(position[0], position[1]);
+        entityCount++;
+        consumer.accept(DrawingEntity.text(layer, point[0], point[1], text, fields.getDouble(40, 1) * transform.scale(),
+                transform.angle(rotation)));
+    }
+
+    private static String mtext(String text) {
+        String plain = text.replace("\\P", "\n").replace("\\~", " ");
+        return MTEXT_FORMAT.matcher(plain).replaceAll("$1").replace("\\\\", "\\");
+    }
+
+    private static String unicode(String text) {
+        if (text.indexOf("\\U+") < 0) {
+            return text;
+        }
+        Matcher matcher = UNICODE.matcher(text);
+        StringBuffer decoded = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(decoded, Matcher.quoteReplacement(
+                    String.valueOf((char) Integer.parseInt(matcher.group(1), 16))));
+        }
+        matcher.appendTail(decoded);
+        return decoded.toString();
+    }
+
+    private void insert(Fields fields, String layer, Transform transform, int depth) {
+        Block inserted = blocks.get(fields.get(2, ""));
+        if (inserted == null) {
+            skip("INSERT of an unknown block");
+            return;
+        }
+        double[] position = fields.vertices.isEmpty() ? new double[2] : fields.vertices.get(0);
+        double scaleX = fields.getDouble(41, 1);
+        double scaleY = fields.getDouble(42, 1);
+        double rotation = Math.toRadians(fields.getDouble(50, 0));
+        int columns = Math.max(1, (int) fields.getDouble(70, 1));
+        int rows = Math.max(1, (int) fields.getDouble(71, 1));
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                Transform placement = Transform.translate(-inserted.base[0], -inserted.base[1])
+                        .then(Transform.scale(scaleX, scaleY))
+                        .then(Transform.translate(column * fields.getDouble(44, 0), row * fields.getDouble(45, 0)))
+                        .then(Transform.rotate(rotation))
+                        .then(Transform.translate(position[0], position[1]))
+                        .then(transform);
+                expand(inserted, layer, placement, depth);
+            }
+        }
+    }
+
+    private void expand(String name, String layer, Transform transform, int depth) {
+        Block expanded = name != null ? blocks.get(name) : null;
+        if (expanded != null) {
+            expand(expanded, layer, transform, depth);
+        }
+    }
+
+    private void expand(Block expanded, String layer, Transform transform, int depth) {
+        if (depth >= MAX_BLOCK_DEPTH) {
+            skip("INSERT nested too deep");
+            return;
+        }
+        for (Fields fields : expanded.entities) {
+            draw(fields, transform, layer, depth + 1);
+        }
+    }
+
+    private void line(String layer, Transform transform, double[] points, boolean closed) {
+        for (int i = 0; i < points.length; i += 2) {
+            double[] point = transform.apply(points[i], points[i + 1]);
+            points[i] = point[0];
+            points[i + 1] = point[1];
+        }
+        entityCount++;
+        consumer.accept(DrawingEntity.line(layer, points, closed));
+    }
+
+    private void skip(String type) {
+        skipped.merge(type, 1, Integer::sum);
+    }
+
+    private static double parse(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static final class Block {
+        private String name;
+        private final double[] base = new double[2];
+        private final List<Fields> entities = new ArrayList<>();
+    }
+
+    /**
+     * Group codes of an entity: the first value of every code, the points and the knots which repeat.
+     */
+    private static final class Fields {
+        private String type;
+        private final Map<Integer, String> values = new HashMap<>();
+        private final List<double[]> vertices = new ArrayList<>(1);
+        private final List<Double> knots = new ArrayList<>(0);
+        private final StringBuilder chunks = new StringBuilder();
+
+        private Fields(String type) {
+            this.type = type;
+        }
+
+        private void add(int code, String value) {
+            boolean vertexList = "LWPOLYLINE".equals(type) || "VERTEX".equals(type) || "SPLINE".equals(type);
+            if (code == 10) {
+                if (vertices.isEmpty() || vertexList) {
+                    vertices.add(new double[]{parse(value), 0, 0});
+                }
+            } else if (code == 20) {
+                if (!vertices.isEmpty()) {
+                    vertices.get(vertices.size() - 1)[1] = parse(value);
+                }
+            } else if (code == 42 && vertexList && !"SPLINE".equals(type)) {
+                if (!vertices.isEmpty()) {
+                    vertices.get(vertices.size() - 1)[2] = parse(value);
+                }
+            } else if (code == 40 && "SPLINE".equals(type)) {
+                knots.add(parse(value));
+            } else if (code == 3 && "MTEXT".equals(type)) {
+                chunks.append(value);
+            } else {
+                values.putIfAbsent(code, value);
+            }
+        }
+
+        private String get(int code, String defaultValue) {
+            String value = values.get(code);
+            return value != null ? value.trim() : defaultValue;
+        }
+
+        private double getDouble(int code, double defaultValue) {
+            String value = values.get(code);
+            return value != null ? parse(value) : defaultValue;
+        }
+
+        private int flags() {
+            return (int) getDouble(70, 0);
+        }
+    }
+
+    private static final class Points {
+        private double[] values = new double[16];
+        private int size;
+
+        private void add(double x, double y) {
+            if (size + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = x;
+            values[size++] = y;
+        }
+
+        private void removeLast() {
+            size -= 2;
+        }
+
+        private double[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Affine transform of the plane: x' = a x + b y + c, y' = d x + e y + f.
+     */
+    private static final class Transform {
+        private static final Transform IDENTITY = new Transform(1, 0, 0, 0, 1, 0);
+        private static final Transform MIRROR_X = new Transform(-1, 0, 0, 0, 1, 0);
+
+        private final double a;
+        private final double b;
+        private final double c;
+        private final double d;
+        private final double e;
+        private final double f;
+
+        private Transform(double a, double b, double c, double d, double e, double f) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.e = e;
+            this.f = f;
+        }
+
+        private static Transform translate(double x, double y) {
+            return new Transform(1, 0, x, 0, 1, y);
+        }
+
+        private static Transform scale(double x, double y) {
+            return new Transform(x, 0, 0, 0, y, 0);
+        }
+
+        private static Transform rotate(double radians) {
+            double cos = Math.cos(radians);
+            double sin = Math.sin(radians);
+            return new Transform(cos, -sin, 0, sin, cos, 0);
+        }
+
+        /**
+         * @return this transform followed by the given one
+         */
+        private Transform then(Transform next) {
+            return new Transform(next.a * a + next.b * d, next.a * b + next.b * e, next.a * c + next.b * f + next.c,
+                    next.d * a + next.e * d, next.d * b + next.e * e, next.d * c + next.e * f + next.f);
+        }
+
+        private double[] apply(double x, double y) {
+            return new double[]{a * x + b * y + c, d * x + e * y + f};
+        }
+
+        private double scale() {
+            return Math.sqrt(Math.abs(a * e - b * d));
+        }
+
+        /**
+         * @return the angle in degrees of a direction at the given angle once transformed
+         */
+        private double angle(double degrees) {
+            double radians = Math.toRadians(degrees);
+            double[] origin = apply(0, 0);
+            double[] direction = apply(Math.cos(radians), Math.sin(radians));
+            return Math.toDegrees(Math.atan2(direction[1] - origin[1], direction[0] - origin[0]));
+        }
+    }
+}
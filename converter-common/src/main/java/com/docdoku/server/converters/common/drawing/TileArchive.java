@@ -0,0 +1,162 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.drawing;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single file holding the vector tiles of a drawing, read a tile at a time by its zoom level and position.
+ * <p>
+ * Layout, big endian: the magic {@code DDVT}, the version, the length and the UTF-8 JSON metadata, the number of
+ * tiles, then for every tile its zoom, x and y, the offset of its data from the end of the index and its length,
+ * and finally the data of the tiles. Tiles are encoded as Mapbox Vector Tiles and empty tiles are not stored.
+ */
+public class TileArchive implements Closeable {
+
+    private static final int MAGIC = 0x44445654;
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 24;
+
+    private final FileChannel channel;
+    private final String metadata;
+    private final Map<Long, long[]> entries;
+    private final long dataOffset;
+
+    private TileArchive(FileChannel channel, String metadata, Map<Long, long[]> entries, long dataOffset) {
+        this.channel = channel;
+        this.metadata = metadata;
+        this.entries = entries;
+        this.dataOffset = dataOffset;
+    }
+
+    public static TileArchive open(Path tilesFile) throws IOException {
+        FileChannel channel = FileChannel.open(tilesFile, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(channel, 0, 12);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a tile archive: " + tilesFile);
+            }
+            int metadataLength = header.getInt();
+            ByteBuffer metadata = read(channel, 12, metadataLength + 4);
+            byte[] json = new byte[metadataLength];
+            metadata.get(json);
+            int count = metadata.getInt();
+            long indexOffset = 16L + metadataLength;
+            ByteBuffer index = read(channel, indexOffset, count * ENTRY_SIZE);
+            Map<Long, long[]> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                int zoom = index.getInt();
+                int x = index.getInt();
+                int y = index.getInt();
+                entries.put(key(zoom, x, y), new long[]{index.getLong(), index.getInt()});
+            }
+            return new TileArchive(channel, new String(json, StandardCharsets.UTF_8), entries,
+                    indexOffset + (long) count * ENTRY_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the bounds, origin and size of the drawing, the extent and deepest zoom of the tiles, its layers
+     * and the number of entities drawn and skipped, as JSON
+     */
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public int getTileCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the tile, null if it is empty
+     */
+    public byte[] getTile(int zoom, int x, int y) throws IOException {
+        long[] entry = entries.get(key(zoom, x, y));
+        return entry != null ? read(channel, dataOffset + entry[0], (int) entry[1]).array() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param index zoom, x, y, offset and length of every tile
+     */
+    static void writeHeader(DataOutputStream out, String metadata, List<long[]> index) throws IOException {
+        byte[] json = metadata.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(json.length);
+        out.write(json);
+        out.writeInt(index.size());
+        for (long[] entry : index) {
+            out.writeInt((int) entry[0]);
+            out.writeInt((int) entry[1]);
+            out.writeInt((int) entry[2]);
+            out.writeLong(entry[3]);
+            out.writeInt((int) entry[4]);
+        }
+    }
+
+    static String string(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static long key(int zoom, int x, int y) {
+        return (long) zoom << 48 | (long) x << 24 | y;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated tile archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.drawing;
+
+import com.docdoku.server.converters.common.mesh.IntArray;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoder of a vector tile in the Mapbox Vector Tile 2.1 protobuf layout, which web viewers render as is:
+ * one layer per layer of the drawing, lines as line strings and texts as points tagged with their string.
+ */
+final class TileEncoder {
+
+    private static final int VERSION = 2;
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+    private static final int POINT = 1;
+    private static final int LINE_STRING = 2;
+
+    private final int extent;
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+    private int featureCount;
+
+    TileEncoder(int extent) {
+        this.extent = extent;
+    }
+
+    /**
+     * @param parts x and y of every point of every part, in tile units
+     */
+    void addLine(String layer, List<IntArray> parts) {
+        IntArray geometry = new IntArray(64);
+        int x = 0;
+        int y = 0;
+        for (IntArray part : parts) {
+            geometry.add(command(MOVE_TO, 1));
+            geometry.add(zigZag(part.get(0) - x));
+            geometry.add(zigZag(part.get(1) - y));
+            geometry.add(command(LINE_TO, part.size() / 2 - 1));
+            for (int i = 2; i < part.size(); i += 2) {
+                geometry.add(zigZag(part.get(i) - part.get(i - 2)));
+                geometry.add(zigZag(part.get(i + 1) - part.get(i - 1)));
+            }
+            x = part.get(part.size() - 2);
+            y = part.get(part.size() - 1);
+        }
+        layer(layer).add(LINE_STRING, new IntArray(16), geometry);
+    }
+
+    void addText(String layer, int x, int y, String text, double height, double rotation) {
+        Layer target = layer(layer);
+        IntArray tags = new IntArray(16);
+        tags.add(target.key("text"));
+        tags.add(target.value(text));
+        tags.add(target.key("height"));
+        tags.add(target.value(height));
+        tags.add(target.key("rotation"));
+        tags.add(target.value(rotation));
+        IntArray geometry = new IntArray(16);
+        geometry.add(command(MOVE_TO, 1));
+        geometry.add(zigZag(x));
+        geometry.add(zigZag(y));
+        target.add(POINT, tags, geometry);
+    }
+
+    boolean isEmpty() {
+        return featureCount == 0;
+    }
+
+    byte[] encode() {
+        Protobuf tile = new Protobuf();
+        for (Layer layer : layers.values()) {
+            Protobuf message = new Protobuf();
+            message.tag(15, 0).varint(VERSION);
+            message.string(1, layer.name);
+            message.bytes(2, layer.features.toByteArray());
+            for (String key : layer.keys) {
+                message.string(3, key);
+            }
+            for (Object value : layer.values) {
+                Protobuf encoded = new Protobuf();
+                if (value instanceof String) {
+                    encoded.string(1, (String) value);
+                } else {
+                    encoded.tag(3, 1).fixed64(Double.doubleToLongBits((Double) value));
+                }
+                message.bytes(4, encoded.toByteArray());
+            }
+            message.tag(5, 0).varint(extent);
+            tile.bytes(3, message.toByteArray());
+        }
+        return tile.toByteArray();
+    }
+
+    private Layer layer(String name) {
+        return layers.computeIfAbsent(name, Layer::new);
+    }
+
+    private static int command(int id, int count) {
+        return id & 0x7 | count << 3;
+    }
+
+    private static int zigZag(int value) {
+        return value << 1 ^ value >> 31;
+    }
+
+    private final class Layer {
+        private final String name;
+        private final Protobuf features = new Protobuf();
+        private final List<String> keys = new ArrayList<>();
+        private final Map<String, Integer> keyIndexes = new HashMap<>();
+        private final List<Object> values = new ArrayList<>();
+        private final Map<Object, Integer> valueIndexes = new HashMap<>();
+        private int nextId = 1;
+
+        private Layer(String name) {
+            this.name = name;
+        }
+
+        private int key(String key) {
+            return keyIndexes.computeIfAbsent(key, k -> {
+                keys.add(k);
+                return keys.size() - 1;
+            });
+        }
+
+        private int value(Object value) {
+            return valueIndexes.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+
+        private void add(int type, IntArray tags, IntArray geometry) {
+            Protobuf feature = new Protobuf();
+            feature.tag(1, 0).varint(nextId++);
+            if (tags.size() > 0) {
+                feature.packed(2, tags);
+            }
+            feature.tag(3, 0).varint(type);
+            feature.packed(4, geometry);
+            features.bytes(2, feature.toByteArray());
+            featureCount++;
+        }
+    }
+
+    /**
+     * Writer of the protobuf wire format, enough of it for vector tiles.
+     */
+    private static final class Protobuf extends ByteArrayOutputStream {
+
+        private Protobuf tag(int field, int wireType) {
+            return varint(field << 3 | wireType);
+        }
+
+        private Protobuf varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+            return this;
+        }
+
+        private Protobuf fixed64(long value) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (value >>> 8 * i) & 0xFF);
+            }
+            return this;
+        }
+
+        private Protobuf bytes(int field, byte[] value) {
+            tag(field, 2).varint(value.length);
+            write(value, 0, value.length);
+            return this;
+        }
+
+        private Protobuf string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private Protobuf packed(int field, IntArray values) {
+            Protobuf packed = new Protobuf();
+            for (int i = 0; i < values.size(); i++) {
+                packed.varint(values.get(i) & 0xFFFFFFFFL);
+            }
+            return bytes(field, packed.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.material;
+
+import com.docdoku.server.converters.common.material.MtlFile.TextureReference;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shrinks the textures of a converted MTL file so that the viewer does not download them at full resolution:
+ * textures larger than the maximum size are downscaled, and small ones are packed into atlases the MTL references
+ * with scale and offset options. Textures are decoded and resized in parallel.
+ * <p>
+ * Packing is only done when all the texture coordinates of the OBJ file lie in the unit square,
+ * since an atlas cannot repeat a tile.
+ */
+public class MaterialPostProcessor {
+
+    private static final Logger LOGGER = Logger.getLogger(MaterialPostProcessor.class.getName());
+
+    private static final float UV_EPSILON = 0.0001f;
+
+    private MaterialPostProcessor() {
+    }
+
+    /**
+     * Rewrites the MTL file in place if the post-processing is enabled.
+     *
+     * @return the texture files written, to be stored along with the MTL file
+     */
+    public static List<Path> process(Path objFile, Path mtlFile, TextureSettings settings)
+            throws IOException, InterruptedException {
+        List<Path> written = new ArrayList<>();
+        if (!settings.isEnabled() || !Files.exists(mtlFile)) {
+            return written;
+        }
+        MtlFile mtl = MtlFile.read(mtlFile);
+        Path directory = mtlFile.toAbsolutePath().getParent();
+        String baseName = mtlFile.getFileName().toString().replaceFirst("\\.mtl$", "");
+
+        Map<Path, List<TextureReference>> textures = new LinkedHashMap<>();
+        for (TextureReference reference : mtl.getTextureReferences()) {
+            Path texture = directory.resolve(reference.getTexture()).normalize();
+            if (Files.isRegularFile(texture)) {
+                textures.computeIfAbsent(texture, k -> new ArrayList<>()).add(reference);
+            }
+        }
+        if (textures.isEmpty()) {
+            return written;
+        }
+        boolean packing = settings.isPackingAtlases() && hasUnitTexCoords(objFile);
+
+        List<Texture> processed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(settings.getThreads(), textures.size()));
+        try {
+            List<Future<Texture>> futures = new ArrayList<>();
+            int index = 0;
+            for (Map.Entry<Path, List<TextureReference>> entry : textures.entrySet()) {
+                Path output = directory.resolve(baseName + ".texture" + index++);
+                futures.add(executor.submit(() -> load(entry.getKey(), entry.getValue(), output, packing, settings)));
+            }
+            for (Future<Texture> future : futures) {
+                Texture texture = future.get();
+                if (texture != null) {
+                    processed.add(texture);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Texture texture : processed) {
+            if (texture.resized != null) {
+                written.add(texture.resized);
+                for (TextureReference reference : texture.references) {
+                    mtl.replace(reference, null, texture.resized.getFileName().toString());
+                }
+            }
+        }
+        written.addAll(pack(processed, mtl, directory, baseName, settings));
+
+        if (!written.isEmpty()) {
+            Path rewritten = mtlFile.resolveSibling(mtlFile.getFileName() + ".processing");
+            try {
+                mtl.write(rewritten);
+                Files.move(rewritten, mtlFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(rewritten);
+            }
+        }
+        LOGGER.log(Level.FINE, "Post-processed textures of {0}: {1} files written",
+                new Object[]{mtlFile.getFileName(), written.size()});
+        return written;
+    }
+
+    /**
+     * Downscales a texture larger than the maximum size, or decodes a small one for packing.
+     *
+     * @return the processed texture, or null if it is left as is
+     */
+    private static Texture load(Path file, List<TextureReference> references, Path output, boolean packing,
+                                TextureSettings settings) throws IOException {
+        TextureImages.Probe probe = TextureImages.probe(file);
+        if (probe == null) {
+            LOGGER.log(Level.WARNING, "Cannot read texture {0}, it is left as is", file);
+            return null;
+        }
+        boolean small = probe.width <= settings.getAtlasTileMaxSize() && probe.height <= settings.getAtlasTileMaxSize();
+        boolean optionless = references.stream().allMatch(r -> r.getOptions().isEmpty());
+        if (packing && small && optionless) {
+            return new Texture(references, TextureImages.read(file, 0), null);
+        }
+        if (settings.getMaxSize() > 0 && Math.max(probe.width, probe.height) > settings.getMaxSize()) {
+            BufferedImage image = TextureImages.downscale(TextureImages.read(file, settings.getMaxSize()),
+                    settings.getMaxSize());
+            String format = TextureImages.outputFormat(probe.format, image);
+            Path resized = output.resolveSibling(output.getFileName() + "." + format);
+            TextureImages.write(image, format, resized);
+            return new Texture(references, null, resized);
+        }
+        return null;
+    }
+
+    private static List<Path> pack(List<Texture> textures, MtlFile mtl, Path directory, String baseName,
+                                   TextureSettings settings) throws IOException {
+        List<Texture> tiles = new ArrayList<>();
+        for (Texture texture : textures) {
+            if (texture.image != null) {
+                tiles.add(texture);
+            }
+        }
+        List<Path> atlases = new ArrayList<>();
+        // A single small texture gains nothing from being packed
+        if (tiles.size() < 2) {
+            return atlases;
+        }
+        tiles.sort(Comparator.comparingInt((Texture t) -> t.image.getHeight()).reversed());
+
+        List<Texture> pending = tiles;
+        while (!pending.isEmpty()) {
+            TextureAtlas atlas = new TextureAtlas(settings.getAtlasSize());
+            List<Texture> remaining = new ArrayList<>();
+            Map<Texture, TextureAtlas.Tile> placed = new LinkedHashMap<>();
+            for (Texture texture : pending) {
+                TextureAtlas.Tile tile = atlas.place(texture.image);
+                if (tile == null) {
+                    remaining.add(texture);
+                } else {
+                    placed.put(texture, tile);
+                }
+            }
+            if (placed.isEmpty()) {
+                break;
+            }
+            Path file = directory.resolve(baseName + ".atlas" + atlases.size() + (atlas.hasAlpha() ? ".png" : ".jpg"));
+            TextureImages.write(atlas.render(), atlas.hasAlpha() ? "png" : "jpg", file);
+            atlases.add(file);
+            for (Map.Entry<Texture, TextureAtlas.Tile> entry : placed.entrySet()) {
+                for (TextureReference reference : entry.getKey().references) {
+                    mtl.replace(reference, atlas.options(entry.getValue()), file.getFileName().toString());
+                }
+            }
+            pending = remaining;
+        }
+        return atlases;
+    }
+
+    /**
+     * @return true if all the texture coordinates of the OBJ file lie in the unit square
+     */
+    static boolean hasUnitTexCoords(Path objFile) throws IOException {
+        if (objFile == null || !Files.exists(objFile)) {
+            return false;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(objFile, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("vt ")) {
+                    String[] tokens = line.trim().split("\\s+");
+                    for (int i = 1; i < Math.min(tokens.length, 3); i++) {
+                        float value = Float.parseFloat(tokens[i]);
+                        if (value < -UV_EPSILON || value > 1 + UV_EPSILON) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static final class Texture {
+
+        private final List<TextureReference> references;
+        private final BufferedImage image;
+        private final Path resized;
+
+        private Texture(List<TextureReference> references, BufferedImage image, Path resized) {
+            this.references = references;
+            this.image = image;
+            this.resized = resized;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.material;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * MTL material library, kept line by line so that it can be written back with only its texture references changed.
+ */
+public class MtlFile {
+
+    private static final Set<String> MAP_KEYWORDS = new HashSet<>(Arrays.asList("bump", "disp", "decal", "refl", "norm"));
+
+    // Options and their number of arguments, the numbers following -o, -s and -t being optional
+    private static final Set<String> ONE_ARGUMENT_OPTIONS = new HashSet<>(Arrays.asList(
+            "-blendu", "-blendv", "-cc", "-clamp", "-texres", "-bm", "-imfchan", "-type", "-boost"));
+    private static final Set<String> VECTOR_OPTIONS = new HashSet<>(Arrays.asList("-o", "-s", "-t", "-mm"));
+
+    private final List<String> lines;
+    private final List<TextureReference> references = new ArrayList<>();
+
+    private MtlFile(List<String> lines) {
+        this.lines = lines;
+        for (int i = 0; i < lines.size(); i++) {
+            TextureReference reference = parse(i, lines.get(i));
+            if (reference != null) {
+                references.add(reference);
+            }
+        }
+    }
+
+    public static MtlFile read(Path mtlFile) throws IOException {
+        return new MtlFile(new ArrayList<>(Files.readAllLines(mtlFile, StandardCharsets.ISO_8859_1)));
+    }
+
+    public List<TextureReference> getTextureReferences() {
+        return Collections.unmodifiableList(references);
+    }
+
+    /**
+     * @return the materials defined in the library, in file order
+     */
+    public List<Material> getMaterials() {
+        List<Material> materials = new ArrayList<>();
+        Material material = null;
+        int nextReference = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String[] tokens = lines.get(i).trim().split("\\s+");
+            String keyword = tokens[0].toLowerCase(Locale.ENGLISH);
+            while (nextReference < references.size() && references.get(nextReference).line < i) {
+                nextReference++;
+            }
+            if ("newmtl".equals(keyword) && tokens.length > 1) {
+                material = new Material(String.join(" ", Arrays.asList(tokens).subList(1, tokens.length)));
+                materials.add(material);
+            } else if (material == null) {
+                continue;
+            } else if ("kd".equals(keyword) && tokens.length > 3 && isNumber(tokens[1])) {
+                for (int c = 0; c < 3; c++) {
+                    material.diffuse[c] = Float.parseFloat(tokens[c + 1]);
+                }
+            } else if ("d".equals(keyword) && tokens.length > 1 && isNumber(tokens[1])) {
+                material.opacity = Float.parseFloat(tokens[1]);
+            } else if ("tr".equals(keyword) && tokens.length > 1 && isNumber(tokens[1])) {
+                material.opacity = 1 - Float.parseFloat(tokens[1]);
+            } else if ("ns".equals(keyword) && tokens.length > 1 && isNumber(tokens[1])) {
+                material.shininess = Float.parseFloat(tokens[1]);
+            } else if ("map_kd".equals(keyword) && nextReference < references.size()
+                    && references.get(nextReference).line == i) {
+                material.diffuseTexture = references.get(nextReference);
+            }
+        }
+        return materials;
+    }
+
+    /**
+     * Points a texture reference to another file, prepending the given options to its own.
+     */
+    public void replace(TextureReference reference, String options, String texture) {
+        StringBuilder line = new StringBuilder(reference.getKeyword());
+        if (options != null && !options.isEmpty()) {
+            line.append(' ').append(options);
+        }
+        if (!reference.getOptions().isEmpty()) {
+            line.append(' ').append(reference.getOptions());
+        }
+        line.append(' ').append(texture);
+        lines.set(reference.line, line.toString());
+    }
+
+    public void write(Path mtlFile) throws IOException {
+        Files.write(mtlFile, lines, StandardCharsets.ISO_8859_1);
+    }
+
+    private static TextureReference parse(int index, String line) {
+        String[] tokens = line.trim().split("\\s+");
+        String keyword = tokens[0];
+        String lowerKeyword = keyword.toLowerCase(Locale.ENGLISH);
+        if (tokens.length < 2 || !(lowerKeyword.startsWith("map_") || MAP_KEYWORDS.contains(lowerKeyword))) {
+            return null;
+        }
+        int i = 1;
+        while (i < tokens.length - 1 && tokens[i].startsWith("-")) {
+            String option = tokens[i++].toLowerCase(Locale.ENGLISH);
+            if (ONE_ARGUMENT_OPTIONS.contains(option)) {
+                i++;
+            } else if (VECTOR_OPTIONS.contains(option)) {
+                int max = i + 3;
+                while (i < Math.min(max, tokens.length - 1) && isNumber(tokens[i])) {
+                    i++;
+                }
+            }
+        }
+        if (i >= tokens.length) {
+            return null;
+        }
+        String options = String.join(" ", Arrays.asList(tokens).subList(1, i));
+        String texture = String.join(" ", Arrays.asList(tokens).subList(i, tokens.length));
+        return new TextureReference(index, keyword, options, texture);
+    }
+
+    private static boolean isNumber(String token) {
+        try {
+            Double.parseDouble(token);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The colors of a material, as far as a physically based renderer can use them.
+     */
+    public static class Material {
+
+        private final String name;
+        private final float[] diffuse = {0.8f, 0.8f, 0.8f};
+        private float opacity = 1;
+        private float shininess;
+        private TextureReference diffuseTexture;
+
+        Material(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the red, green and blue components of {@code Kd}
+         */
+        public float[] getDiffuse() {
+            return diffuse.clone();
+        }
+
+        /**
+         * @return {@code d}, or 1 - {@code Tr}
+         */
+        public float getOpacity() {
+            return opacity;
+        }
+
+        /**
+         * @return the specular exponent {@code Ns}
+         */
+        public float getShininess() {
+            return shininess;
+        }
+
+        /**
+         * @return the {@code map_Kd} statement, or null
+         */
+        public TextureReference getDiffuseTexture() {
+            return diffuseTexture;
+        }
+    }
+
+    /**
+     * A texture map statement, such as {@code map_Kd -s 2 2 1 wood.jpg}.
+     */
+    public static class TextureReference {
+
+        private final int line;
+        private final String keyword;
+        private final String options;
+        private final String texture;
+
+        TextureReference(int line, String keyword, String options, String texture) {
+            this.line = line;
+            this.keyword = keyword;
+            this.options = options;
+            this.texture = texture;
+        }
+
+        public String getKeyword() {
+            return keyword;
+        }
+
+        /**
+         * @return the options of the statement, empty if none
+         */
+        public String getOptions() {
+            return options;
+        }
+
+        /**
+         * @return the texture file, relative to the MTL file
+         */
+        public String getTexture() {
+            return texture;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.material;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shelf packing of small textures into one image. Tiles are separated by a padding filled with their repeated
+ * edges, so that filtering does not bleed neighbouring tiles in.
+ */
+final class TextureAtlas {
+
+    static final int PADDING = 2;
+
+    private final int width;
+    private final int maxHeight;
+    private final List<Tile> tiles = new ArrayList<>();
+    private int shelfY;
+    private int shelfHeight;
+    private int cursorX;
+    private boolean alpha;
+
+    TextureAtlas(int size) {
+        this.width = size;
+        this.maxHeight = size;
+    }
+
+    /**
+     * Places a tile, tiles being expected by decreasing height.
+     *
+     * @return the tile, or null if the atlas is full
+     */
+    Tile place(BufferedImage image) {
+        int w = image.getWidth() + 2 * PADDING;
+        int h = image.getHeight() + 2 * PADDING;
+        if (w > width) {
+            return null;
+        }
+        if (cursorX + w > width) {
+            shelfY += shelfHeight;
+            shelfHeight = 0;
+            cursorX = 0;
+        }
+        if (shelfY + h > maxHeight) {
+            return null;
+        }
+        Tile tile = new Tile(image, cursorX + PADDING, shelfY + PADDING);
+        tiles.add(tile);
+        alpha |= image.getColorModel().hasAlpha();
+        cursorX += w;
+        shelfHeight = Math.max(shelfHeight, h);
+        return tile;
+    }
+
+    int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return the atlas height, the smallest power of two holding all the shelves
+     */
+    int getHeight() {
+        int used = shelfY + shelfHeight;
+        int height = 1;
+        while (height < used) {
+            height <<= 1;
+        }
+        return height;
+    }
+
+    boolean hasAlpha() {
+        return alpha;
+    }
+
+    BufferedImage render() {
+        int height = getHeight();
+        BufferedImage atlas = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = atlas.createGraphics();
+        try {
+            for (Tile tile : tiles) {
+                BufferedImage image = tile.image;
+                int x = tile.x;
+                int y = tile.y;
+                int w = image.getWidth();
+                int h = image.getHeight();
+                g.drawImage(image, x, y, null);
+                // Edges stretched over the padding
+                g.drawImage(image, x - PADDING, y, x, y + h, 0, 0, 1, h, null);
+                g.drawImage(image, x + w, y, x + w + PADDING, y + h, w - 1, 0, w, h, null);
+                g.drawImage(image, x, y - PADDING, x + w, y, 0, 0, w, 1, null);
+                g.drawImage(image, x, y + h, x + w, y + h + PADDING, 0, h - 1, w, h, null);
+            }
+        } finally {
+            g.dispose();
+        }
+        return atlas;
+    }
+
+    /**
+     * @return the MTL options mapping the whole texture coordinates range of a tile to its place in the atlas,
+     * v going up from the bottom of the image
+     */
+    String options(Tile tile) {
+        int height = getHeight();
+        double scaleU = (double) tile.image.getWidth() / width;
+        double scaleV = (double) tile.image.getHeight() / height;
+        double offsetU = (double) tile.x / width;
+        double offsetV = 1 - (double) (tile.y + tile.image.getHeight()) / height;
+        return "-s " + scaleU + " " + scaleV + " 1 -o " + offsetU + " " + offsetV + " 0";
+    }
+
+    static final class Tile {
+
+        private final BufferedImage image;
+        private final int x;
+        private final int y;
+
+        private Tile(BufferedImage image, int x, int y) {
+            this.image = image;
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
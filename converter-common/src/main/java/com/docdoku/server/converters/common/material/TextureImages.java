@@ -0,0 +1,165 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.material;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Texture decoding, resizing and encoding with ImageIO.
+ */
+final class TextureImages {
+
+    private TextureImages() {
+    }
+
+    /**
+     * Reads the dimensions and format of an image without decoding it.
+     *
+     * @return width, height and format, or null if ImageIO cannot read the file
+     */
+    static Probe probe(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            ImageReader reader = reader(in);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new Probe(reader.getWidth(0), reader.getHeight(0),
+                        reader.getFormatName().toLowerCase(Locale.ENGLISH));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image, skipping source pixels while it stays at least twice the given size,
+     * so that huge textures are never fully held in memory.
+     */
+    static BufferedImage read(Path file, int maxSize) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            ImageReader reader = reader(in);
+            if (reader == null) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            try {
+                int largest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = maxSize > 0 ? Math.max(1, largest / (2 * maxSize)) : 1;
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Downscales an image so that neither its width nor its height exceeds the given size, halving it with bilinear
+     * filtering until the last step so that no source pixel is skipped.
+     */
+    static BufferedImage downscale(BufferedImage image, int maxSize) {
+        int largest = Math.max(image.getWidth(), image.getHeight());
+        if (largest <= maxSize) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) ((long) image.getWidth() * maxSize / largest));
+        int targetHeight = Math.max(1, (int) ((long) image.getHeight() * maxSize / largest));
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = resize(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, imageType(image));
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return resized;
+    }
+
+    static int imageType(BufferedImage image) {
+        return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * @return the format to encode an image read in the given format with, JPEG having no alpha channel
+     */
+    static String outputFormat(String format, BufferedImage image) {
+        boolean jpeg = "jpeg".equals(format) || "jpg".equals(format);
+        if (jpeg && !image.getColorModel().hasAlpha()) {
+            return "jpg";
+        }
+        return "png";
+    }
+
+    static void write(BufferedImage image, String format, Path file) throws IOException {
+        if (!ImageIO.write(image, format, file.toFile())) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream in) {
+        if (in == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    static final class Probe {
+
+        final int width;
+        final int height;
+        final String format;
+
+        Probe(int width, int height, String format) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+        }
+    }
+}
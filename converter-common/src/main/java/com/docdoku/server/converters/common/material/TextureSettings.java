@@ -0,0 +1,85 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.material;
+
+import java.util.Properties;
+
+/**
+ * Settings of the texture post-processing of converted materials, read from the converters conf.properties:
+ * <ul>
+ * <li>{@code texture_post_processing}: whether textures are processed at all, defaults to false</li>
+ * <li>{@code texture_max_size}: largest width or height of a texture, bigger ones are downscaled, defaults to 2048</li>
+ * <li>{@code texture_atlas_tile_max_size}: textures no wider nor taller than this are packed into atlases,
+ * 0 disables packing, defaults to 256</li>
+ * <li>{@code texture_atlas_size}: width of the atlases, defaults to 2048</li>
+ * <li>{@code texture_threads}: number of textures decoded and resized at the same time, defaults to 2</li>
+ * </ul>
+ * Textures are left untouched by the shipped converters, {@code texture_post_processing=true} in the
+ * conf.properties of the DAE or IFC converter enables this processing.
+ */
+public class TextureSettings {
+
+    public static final String POST_PROCESSING = "texture_post_processing";
+    public static final String MAX_SIZE = "texture_max_size";
+    public static final String ATLAS_TILE_MAX_SIZE = "texture_atlas_tile_max_size";
+    public static final String ATLAS_SIZE = "texture_atlas_size";
+    public static final String THREADS = "texture_threads";
+
+    private boolean enabled;
+    private int maxSize = 2048;
+    private int atlasTileMaxSize = 256;
+    private int atlasSize = 2048;
+    private int threads = 2;
+
+    public static TextureSettings from(Properties conf) {
+        TextureSettings settings = new TextureSettings();
+        settings.enabled = Boolean.parseBoolean(conf.getProperty(POST_PROCESSING, "false").trim());
+        settings.maxSize = Integer.parseInt(conf.getProperty(MAX_SIZE, "2048").trim());
+        settings.atlasTileMaxSize = Integer.parseInt(conf.getProperty(ATLAS_TILE_MAX_SIZE, "256").trim());
+        settings.atlasSize = Integer.parseInt(conf.getProperty(ATLAS_SIZE, "2048").trim());
+        settings.threads = Math.max(1, Integer.parseInt(conf.getProperty(THREADS, "2").trim()));
+        return settings;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isPackingAtlases() {
+        return atlasTileMaxSize > 0 && atlasSize > atlasTileMaxSize;
+    }
+
+    public int getAtlasTileMaxSize() {
+        return atlasTileMaxSize;
+    }
+
+    public int getAtlasSize() {
+        return atlasSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+}
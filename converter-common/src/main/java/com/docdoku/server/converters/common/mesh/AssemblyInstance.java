@@ -0,0 +1,64 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.nio.file.Path;
+
+/**
+ * Occurrence of a converted part in an assembly: the part OBJ file and where it is placed.
+ */
+public final class AssemblyInstance {
+
+    private static final double[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0};
+
+    private final String id;
+    private final Path objFile;
+    private final double[] transform;
+
+    public AssemblyInstance(String id, Path objFile) {
+        this(id, objFile, IDENTITY);
+    }
+
+    /**
+     * @param transform affine transformation as a row-major 3x4 matrix: x' = t[0] x + t[1] y + t[2] z + t[3],
+     *                  y' = t[4] x + ... + t[7], z' = t[8] x + ... + t[11]
+     */
+    public AssemblyInstance(String id, Path objFile, double[] transform) {
+        if (transform.length != 12) {
+            throw new IllegalArgumentException("Expected a 3x4 matrix, got " + transform.length + " values");
+        }
+        this.id = id;
+        this.objFile = objFile;
+        this.transform = transform.clone();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Path getObjFile() {
+        return objFile;
+    }
+
+    public double[] getTransform() {
+        return transform.clone();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges the converted meshes of the parts of an assembly into a single OBJ file, so that a whole product is
+ * opened with one request rather than one per leaf part.
+ * <p>
+ * Memory is bounded by the chunk size and the largest part: parts are read one at a time, transformed and encoded
+ * in chunks which are sorted and spilled to disk once full, then the sorted chunks are merged. Parts are sorted
+ * by a spatial key so that parts close in space are close in the file. Every instance is written as an OBJ object
+ * named after its id, and its range is returned to keep it selectable.
+ */
+public class AssemblyMerger {
+
+    public static final String CHUNK_MB = "assembly_merge_chunk_mb";
+    public static final String SPILL_DIR = "assembly_merge_spill_dir";
+
+    private static final Logger LOGGER = Logger.getLogger(AssemblyMerger.class.getName());
+    private static final int MAX_FAN_IN = 64;
+    private static final Comparator<byte[]> BY_KEY = Comparator.comparingLong(record -> ByteBuffer.wrap(record).getLong(0));
+
+    private final long chunkBytes;
+    private final Path spillDirectory;
+    private final int maxFanIn;
+
+    /**
+     * @param spillDirectory where sorted chunks are spilled, next to the merged file if null
+     */
+    public AssemblyMerger(long chunkBytes, Path spillDirectory) {
+        this(chunkBytes, spillDirectory, MAX_FAN_IN);
+    }
+
+    AssemblyMerger(long chunkBytes, Path spillDirectory, int maxFanIn) {
+        this.chunkBytes = chunkBytes;
+        this.spillDirectory = spillDirectory;
+        this.maxFanIn = Math.max(2, maxFanIn);
+    }
+
+    public static AssemblyMerger from(Properties conf) {
+        long chunkMb = Long.parseLong(conf.getProperty(CHUNK_MB, "64").trim());
+        String spillDir = conf.getProperty(SPILL_DIR, "").trim();
+        return new AssemblyMerger(chunkMb * 1024 * 1024, spillDir.isEmpty() ? null : Paths.get(spillDir));
+    }
+
+    /**
+     * Writes the instances as a single OBJ file, without their materials.
+     *
+     * @return the range of every instance in the merged file, in the order they were written
+     */
+    public List<AssemblyRange> merge(List<AssemblyInstance> instances, Path objFile) throws IOException {
+        long start = System.currentTimeMillis();
+        Path directory = spillDirectory != null ? spillDirectory : objFile.toAbsolutePath().getParent();
+        List<Path> runFiles = new ArrayList<>();
+        List<AssemblyRun> runs = new ArrayList<>();
+        try {
+            List<byte[]> chunk = new ArrayList<>();
+            long chunkSize = 0;
+            Path partFile = null;
+            ObjMesh part = null;
+            for (AssemblyInstance instance : instances) {
+                // Instances of a same part are usually listed together, the part is only read again when it changes
+                if (!instance.getObjFile().equals(partFile)) {
+                    partFile = instance.getObjFile();
+                    part = ObjReader.read(partFile);
+                    Path index = MeshInstancer.indexFileFor(partFile);
+                    if (Files.isRegularFile(index)) {
+                        MeshInstancer.expand(part, MeshInstancer.readIndex(index));
+                    }
+                }
+                byte[] record = AssemblyRun.encode(instance, part);
+                chunk.add(record);
+                chunkSize += record.length;
+                if (chunkSize >= chunkBytes) {
+                    runFiles.add(spill(chunk, directory));
+                    chunk.clear();
+                    chunkSize = 0;
+                }
+            }
+            // Only the sorted chunks are needed from now on
+            part = null;
+            int spilled = runFiles.size();
+            while (runFiles.size() + 1 > maxFanIn) {
+                List<Path> group = new ArrayList<>(runFiles.subList(0, maxFanIn));
+                runFiles.removeAll(group);
+                runFiles.add(mergeRuns(group, directory));
+            }
+
+            for (Path runFile : runFiles) {
+                runs.add(AssemblyRun.open(runFile));
+            }
+            // The last chunk is merged straight from memory
+            chunk.sort(BY_KEY);
+            List<InputStream> records = new ArrayList<>();
+            for (byte[] record : chunk) {
+                records.add(new ByteArrayInputStream(record));
+            }
+            Enumeration<InputStream> last = Collections.enumeration(records);
+            runs.add(new AssemblyRun(new SequenceInputStream(last)));
+
+            List<AssemblyRange> ranges = new ArrayList<>(instances.size());
+            try (ObjOutput out = new ObjOutput(objFile)) {
+                long[] offsets = new long[4];
+                merge(runs, run -> {
+                    ranges.add(new AssemblyRange(run.getId(), offsets[0], run.getTriangleCount(), offsets[1],
+                            run.getPositionCount(), run.getBounds()));
+                    run.writeObj(out, offsets[1], offsets[2], offsets[3]);
+                    offsets[0] += run.getTriangleCount();
+                    offsets[1] += run.getPositionCount();
+                    offsets[2] += run.getTexCoordCount();
+                    offsets[3] += run.getNormalCount();
+                });
+            }
+            LOGGER.log(Level.INFO, "Merged " + instances.size() + " instances into " + objFile.getFileName()
+                    + " in " + (System.currentTimeMillis() - start) + " ms, " + spilled + " chunks spilled");
+            return ranges;
+        } finally {
+            for (AssemblyRun run : runs) {
+                run.close();
+            }
+            for (Path runFile : runFiles) {
+                Files.deleteIfExists(runFile);
+            }
+        }
+    }
+
+    /**
+     * Writes the ranges as JSON, to be given to the viewer along with the merged file.
+     */
+    public static void writeIndex(List<AssemblyRange> ranges, Path jsonFile) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            writer.write("{\"parts\":[");
+            for (int i = 0; i < ranges.size(); i++) {
+                AssemblyRange range = ranges.get(i);
+                Bounds bounds = range.getBounds();
+                writer.write((i > 0 ? ",\n" : "\n") + "{\"id\":" + GlbWriter.string(range.getId())
+                        + ",\"firstTriangle\":" + range.getFirstTriangle()
+                        + ",\"triangleCount\":" + range.getTriangleCount()
+                        + ",\"firstPosition\":" + range.getFirstPosition()
+                        + ",\"positionCount\":" + range.getPositionCount());
+                if (!bounds.isEmpty()) {
+                    writer.write(",\"min\":[" + (float) bounds.getMinX() + "," + (float) bounds.getMinY() + ","
+                            + (float) bounds.getMinZ() + "],\"max\":[" + (float) bounds.getMaxX() + ","
+                            + (float) bounds.getMaxY() + "," + (float) bounds.getMaxZ() + "]");
+                }
+                writer.write('}');
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    private static Path spill(List<byte[]> chunk, Path directory) throws IOException {
+        chunk.sort(BY_KEY);
+        Path runFile = Files.createTempFile(directory, "assembly", ".run");
+        AssemblyRun.write(chunk, runFile);
+        return runFile;
+    }
+
+    /**
+     * Merges sorted runs into a single one, when there are too many to be read at once.
+     */
+    private static Path mergeRuns(List<Path> runFiles, Path directory) throws IOException {
+        Path merged = Files.createTempFile(directory, "assembly", ".run");
+        List<AssemblyRun> runs = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged),
+                1 << 16))) {
+            for (Path runFile : runFiles) {
+                runs.add(AssemblyRun.open(runFile));
+            }
+            merge(runs, run -> run.copyTo(out));
+        } catch (IOException e) {
+            Files.deleteIfExists(merged);
+            throw e;
+        } finally {
+            for (AssemblyRun run : runs) {
+                run.close();
+            }
+            for (Path runFile : runFiles) {
+                Files.deleteIfExists(runFile);
+            }
+        }
+        return merged;
+    }
+
+    private static void merge(List<AssemblyRun> runs, RecordSink sink) throws IOException {
+        PriorityQueue<AssemblyRun> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                Comparator.comparingLong(AssemblyRun::getKey));
+        for (AssemblyRun run : runs) {
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        while (!queue.isEmpty()) {
+            AssemblyRun run = queue.poll();
+            sink.accept(run);
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+    }
+
+    private interface RecordSink {
+        void accept(AssemblyRun run) throws IOException;
+    }
+}
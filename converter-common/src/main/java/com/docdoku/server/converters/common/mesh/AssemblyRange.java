@@ -0,0 +1,71 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+/**
+ * Where an assembly instance lies in the merged mesh, so that it can still be picked and highlighted.
+ */
+public final class AssemblyRange {
+
+    private final String id;
+    private final long firstTriangle;
+    private final int triangleCount;
+    private final long firstPosition;
+    private final int positionCount;
+    private final Bounds bounds;
+
+    AssemblyRange(String id, long firstTriangle, int triangleCount, long firstPosition, int positionCount,
+                  Bounds bounds) {
+        this.id = id;
+        this.firstTriangle = firstTriangle;
+        this.triangleCount = triangleCount;
+        this.firstPosition = firstPosition;
+        this.positionCount = positionCount;
+        this.bounds = bounds;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getFirstTriangle() {
+        return firstTriangle;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public long getFirstPosition() {
+        return firstPosition;
+    }
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    /**
+     * @return the bounds of the instance, in assembly coordinates
+     */
+    public Bounds getBounds() {
+        return bounds;
+    }
+}
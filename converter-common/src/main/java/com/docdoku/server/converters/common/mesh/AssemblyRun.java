@@ -0,0 +1,307 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Sequence of transformed parts sorted by spatial key, read one record at a time: a header with the key, the
+ * instance id, the element counts and bounds, then the positions, texture coordinates, normals and triangle
+ * corners of the part, in part local indices.
+ */
+final class AssemblyRun implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataInputStream in;
+
+    private long key;
+    private String id;
+    private int positionCount;
+    private int texCoordCount;
+    private int normalCount;
+    private int triangleCount;
+    private final float[] bounds = new float[6];
+
+    AssemblyRun(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+    }
+
+    static AssemblyRun open(Path file) throws IOException {
+        return new AssemblyRun(Files.newInputStream(file));
+    }
+
+    /**
+     * Writes the records in their order, which must be sorted by key.
+     */
+    static void write(List<byte[]> records, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE)) {
+            for (byte[] record : records) {
+                out.write(record);
+            }
+        }
+    }
+
+    /**
+     * @return the record of the part placed by the instance, its first 8 bytes being the key
+     */
+    static byte[] encode(AssemblyInstance instance, ObjMesh mesh) throws IOException {
+        double[] m = instance.getTransform();
+        // Cofactors of the linear part: the inverse transpose up to the determinant, for the normals
+        double[] c = {
+                m[5] * m[10] - m[6] * m[9], m[6] * m[8] - m[4] * m[10], m[4] * m[9] - m[5] * m[8],
+                m[2] * m[9] - m[1] * m[10], m[0] * m[10] - m[2] * m[8], m[1] * m[8] - m[0] * m[9],
+                m[1] * m[6] - m[2] * m[5], m[2] * m[4] - m[0] * m[6], m[0] * m[5] - m[1] * m[4]};
+        double determinant = m[0] * c[0] + m[1] * c[1] + m[2] * c[2];
+        // A mirroring transform turns the triangles inside out, unless their winding is reversed
+        boolean mirrored = determinant < 0;
+
+        float[] positions = new float[mesh.getPositionCount() * 3];
+        float[] source = mesh.getPositions().array();
+        Bounds bounds = new Bounds();
+        for (int i = 0; i < positions.length; i += 3) {
+            double x = source[i];
+            double y = source[i + 1];
+            double z = source[i + 2];
+            positions[i] = (float) (m[0] * x + m[1] * y + m[2] * z + m[3]);
+            positions[i + 1] = (float) (m[4] * x + m[5] * y + m[6] * z + m[7]);
+            positions[i + 2] = (float) (m[8] * x + m[9] * y + m[10] * z + m[11]);
+            bounds.add(positions[i], positions[i + 1], positions[i + 2]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + positions.length * 8
+                + mesh.getTriangleCount() * 36);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(bounds.isEmpty() ? 0 : mortonKey((bounds.getMinX() + bounds.getMaxX()) / 2,
+                (bounds.getMinY() + bounds.getMaxY()) / 2, (bounds.getMinZ() + bounds.getMaxZ()) / 2));
+        out.writeUTF(instance.getId());
+        out.writeInt(mesh.getPositionCount());
+        out.writeInt(mesh.getTexCoordCount());
+        out.writeInt(mesh.getNormalCount());
+        out.writeInt(mesh.getTriangleCount());
+        if (bounds.isEmpty()) {
+            for (int k = 0; k < 6; k++) {
+                out.writeFloat(0);
+            }
+        } else {
+            out.writeFloat((float) bounds.getMinX());
+            out.writeFloat((float) bounds.getMinY());
+            out.writeFloat((float) bounds.getMinZ());
+            out.writeFloat((float) bounds.getMaxX());
+            out.writeFloat((float) bounds.getMaxY());
+            out.writeFloat((float) bounds.getMaxZ());
+        }
+
+        for (float value : positions) {
+            out.writeFloat(value);
+        }
+        float[] texCoords = mesh.getTexCoords().array();
+        for (int i = 0, n = mesh.getTexCoordCount() * 2; i < n; i++) {
+            out.writeFloat(texCoords[i]);
+        }
+        float[] normals = mesh.getNormals().array();
+        double sign = mirrored ? -1 : 1;
+        for (int i = 0, n = mesh.getNormalCount() * 3; i < n; i += 3) {
+            double x = sign * (c[0] * normals[i] + c[1] * normals[i + 1] + c[2] * normals[i + 2]);
+            double y = sign * (c[3] * normals[i] + c[4] * normals[i + 1] + c[5] * normals[i + 2]);
+            double z = sign * (c[6] * normals[i] + c[7] * normals[i + 1] + c[8] * normals[i + 2]);
+            double length = Math.sqrt(x * x + y * y + z * z);
+            double scale = length > 0 ? 1 / length : 0;
+            out.writeFloat((float) (x * scale));
+            out.writeFloat((float) (y * scale));
+            out.writeFloat((float) (z * scale));
+        }
+        int[] cornerPositions = mesh.getCornerPositions().array();
+        int[] cornerTexCoords = mesh.getCornerTexCoords().array();
+        int[] cornerNormals = mesh.getCornerNormals().array();
+        for (int t = 0, n = mesh.getTriangleCount(); t < n; t++) {
+            for (int k = 0; k < 3; k++) {
+                int corner = t * 3 + (mirrored && k > 0 ? 3 - k : k);
+                out.writeInt(cornerPositions[corner]);
+                out.writeInt(cornerTexCoords[corner]);
+                out.writeInt(cornerNormals[corner]);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Morton code interleaving the first 21 bits of the coordinates in an order preserving encoding of floats:
+     * close keys mean close places at any scale, with no pass over the whole assembly to find its bounds.
+     */
+    static long mortonKey(double x, double y, double z) {
+        return spread(orderedBits(x)) | spread(orderedBits(y)) << 1 | spread(orderedBits(z)) << 2;
+    }
+
+    private static long orderedBits(double value) {
+        int bits = Float.floatToIntBits((float) value);
+        int ordered = bits < 0 ? ~bits : bits | Integer.MIN_VALUE;
+        return ordered >>> 11;
+    }
+
+    private static long spread(long value) {
+        long v = value & 0x1FFFFFL;
+        v = (v | v << 32) & 0x1F00000000FFFFL;
+        v = (v | v << 16) & 0x1F0000FF0000FFL;
+        v = (v | v << 8) & 0x100F00F00F00F00FL;
+        v = (v | v << 4) & 0x10C30C30C30C30C3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+    /**
+     * Reads the header of the next record, whose body must then be copied or written before going on.
+     *
+     * @return false at the end of the run
+     */
+    boolean next() throws IOException {
+        try {
+            key = in.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        id = in.readUTF();
+        positionCount = in.readInt();
+        texCoordCount = in.readInt();
+        normalCount = in.readInt();
+        triangleCount = in.readInt();
+        for (int k = 0; k < 6; k++) {
+            bounds[k] = in.readFloat();
+        }
+        return true;
+    }
+
+    long getKey() {
+        return key;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    int getPositionCount() {
+        return positionCount;
+    }
+
+    int getTexCoordCount() {
+        return texCoordCount;
+    }
+
+    int getNormalCount() {
+        return normalCount;
+    }
+
+    int getTriangleCount() {
+        return triangleCount;
+    }
+
+    Bounds getBounds() {
+        Bounds result = new Bounds();
+        if (positionCount > 0) {
+            result.add(bounds[0], bounds[1], bounds[2]);
+            result.add(bounds[3], bounds[4], bounds[5]);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the current record as is, into a run being merged.
+     */
+    void copyTo(DataOutputStream out) throws IOException {
+        out.writeLong(key);
+        out.writeUTF(id);
+        out.writeInt(positionCount);
+        out.writeInt(texCoordCount);
+        out.writeInt(normalCount);
+        out.writeInt(triangleCount);
+        for (float value : bounds) {
+            out.writeFloat(value);
+        }
+        long remaining = 4L * (positionCount * 3L + texCoordCount * 2L + normalCount * 3L + triangleCount * 9L);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (remaining > 0) {
+            int read = (int) Math.min(buffer.length, remaining);
+            in.readFully(buffer, 0, read);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Writes the current record as an OBJ object, its indices shifted by the elements already written.
+     */
+    void writeObj(ObjOutput out, long positionOffset, long texCoordOffset, long normalOffset) throws IOException {
+        out.ascii("o ").ascii(id.replaceAll("\\s", "_")).put('\n');
+        writeVectors(out, "v ", positionCount, 3);
+        writeVectors(out, "vt ", texCoordCount, 2);
+        writeVectors(out, "vn ", normalCount, 3);
+        for (int t = 0; t < triangleCount; t++) {
+            out.put('f');
+            for (int k = 0; k < 3; k++) {
+                int position = in.readInt();
+                int texCoord = in.readInt();
+                int normal = in.readInt();
+                out.put(' ').integer(positionOffset + position + 1);
+                if (texCoord != ObjMesh.NONE || normal != ObjMesh.NONE) {
+                    out.put('/');
+                    if (texCoord != ObjMesh.NONE) {
+                        out.integer(texCoordOffset + texCoord + 1);
+                    }
+                    if (normal != ObjMesh.NONE) {
+                        out.put('/').integer(normalOffset + normal + 1);
+                    }
+                }
+            }
+            out.put('\n');
+        }
+    }
+
+    private void writeVectors(ObjOutput out, String keyword, int count, int dimension) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.ascii(keyword);
+            for (int k = 0; k < dimension; k++) {
+                if (k > 0) {
+                    out.put(' ');
+                }
+                out.decimal(in.readFloat(), -1);
+            }
+            out.put('\n');
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
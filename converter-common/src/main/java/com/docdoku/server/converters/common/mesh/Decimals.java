@@ -0,0 +1,219 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Allocation free conversions between ASCII decimal numbers and doubles, working directly on byte buffers.
+ */
+public final class Decimals {
+
+    public static final int MAX_DECIMALS = 9;
+
+    private static final long[] LONG_POWERS = new long[19];
+    private static final double[] DOUBLE_POWERS = new double[23];
+    // Beyond this, scaled values no longer fit a long
+    private static final double MAX_SCALED = 1e18;
+
+    static {
+        LONG_POWERS[0] = 1;
+        for (int i = 1; i < LONG_POWERS.length; i++) {
+            LONG_POWERS[i] = LONG_POWERS[i - 1] * 10;
+        }
+        DOUBLE_POWERS[0] = 1;
+        for (int i = 1; i < DOUBLE_POWERS.length; i++) {
+            DOUBLE_POWERS[i] = DOUBLE_POWERS[i - 1] * 10;
+        }
+    }
+
+    private Decimals() {
+    }
+
+    /**
+     * Writes a value rounded to the given number of decimals, without trailing zeros nor exponent.
+     *
+     * @return false if the value is too large, or not a number, to be written that way
+     */
+    public static boolean write(ByteBuffer out, double value, int decimals) {
+        double scaledValue = value * DOUBLE_POWERS[decimals];
+        if (!(Math.abs(scaledValue) < MAX_SCALED)) {
+            return false;
+        }
+        long scaled = Math.round(scaledValue);
+        if (scaled == 0) {
+            out.put((byte) '0');
+            return true;
+        }
+        if (scaled < 0) {
+            out.put((byte) '-');
+            scaled = -scaled;
+        }
+        long integer = scaled / LONG_POWERS[decimals];
+        long fraction = scaled % LONG_POWERS[decimals];
+        writeDigits(out, integer, digitCount(integer));
+        if (fraction != 0) {
+            int digits = decimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            out.put((byte) '.');
+            writeDigits(out, fraction, digits);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a positive or negative integer.
+     */
+    public static void write(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        writeDigits(out, value, digitCount(value));
+    }
+
+    /**
+     * Parses a decimal number, with an optional exponent, from the bytes between start and end.
+     *
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    public static double parse(ByteBuffer in, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (in.get(i) == '-' || in.get(i) == '+')) {
+            negative = in.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = in.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa < 100_000_000_000_000_000L) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point) {
+                        exponent--;
+                    }
+                } else if (!point) {
+                    // Digits beyond the long precision only scale the value
+                    exponent++;
+                }
+                digits++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end && (in.get(i) == 'e' || in.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (in.get(i) == '-' || in.get(i) == '+')) {
+                negativeExponent = in.get(i) == '-';
+                i++;
+            }
+            int value = 0;
+            int exponentStart = i;
+            for (; i < end && in.get(i) >= '0' && in.get(i) <= '9'; i++) {
+                value = Math.min(value * 10 + (in.get(i) - '0'), 10_000);
+            }
+            if (i == exponentStart) {
+                throw invalid(in, start, end);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (digits == 0 || i != end) {
+            return fallback(in, start, end);
+        }
+        double result;
+        if (exponent == 0) {
+            result = mantissa;
+        } else if (exponent > 0 && exponent < DOUBLE_POWERS.length && mantissa < 1L << 53) {
+            result = mantissa * DOUBLE_POWERS[exponent];
+        } else if (exponent < 0 && -exponent < DOUBLE_POWERS.length && mantissa < 1L << 53) {
+            // Both exact as doubles, the division is correctly rounded
+            result = mantissa / DOUBLE_POWERS[-exponent];
+        } else {
+            result = mantissa * Math.pow(10, exponent);
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * @return the number of decimals needed to write values at the given absolute tolerance
+     */
+    public static int decimalsFor(double tolerance) {
+        if (!(tolerance > 0)) {
+            return MAX_DECIMALS;
+        }
+        int decimals = (int) Math.ceil(-Math.log10(tolerance) - 1e-9);
+        return Math.max(0, Math.min(MAX_DECIMALS, decimals));
+    }
+
+    // Spelled out values, as printed by C tools
+    private static double fallback(ByteBuffer in, int start, int end) {
+        String text = text(in, start, end).toLowerCase(Locale.ENGLISH);
+        if (text.endsWith("nan")) {
+            return Double.NaN;
+        }
+        if (text.endsWith("inf") || text.endsWith("infinity")) {
+            return text.startsWith("-") ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        throw invalid(in, start, end);
+    }
+
+    private static NumberFormatException invalid(ByteBuffer in, int start, int end) {
+        return new NumberFormatException("Invalid number: " + text(in, start, end));
+    }
+
+    private static String text(ByteBuffer in, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = in.get(i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (count < LONG_POWERS.length && value >= LONG_POWERS[count]) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void writeDigits(ByteBuffer out, long value, int count) {
+        int position = out.position();
+        long remaining = value;
+        for (int i = count - 1; i >= 0; i--) {
+            out.put(position + i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        out.position(position + count);
+    }
+}
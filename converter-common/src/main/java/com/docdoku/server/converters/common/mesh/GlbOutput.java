@@ -0,0 +1,121 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import com.docdoku.server.converters.common.OutputChecksums;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Little-endian binary output through a direct buffer, as glTF buffers are laid out.
+ */
+final class GlbOutput implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final CRC32 checksum = new CRC32();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long written;
+
+    GlbOutput(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    GlbOutput putInt(int value) throws IOException {
+        ensureRoom(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    GlbOutput putShort(int value) throws IOException {
+        ensureRoom(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    GlbOutput putFloat(float value) throws IOException {
+        ensureRoom(4);
+        buffer.putFloat(value);
+        return this;
+    }
+
+    GlbOutput put(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensureRoom(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        return this;
+    }
+
+    /**
+     * Pads with the given byte up to the next multiple of 4 bytes.
+     */
+    GlbOutput align(byte padding) throws IOException {
+        while ((position() & 3) != 0) {
+            ensureRoom(1);
+            buffer.put(padding);
+        }
+        return this;
+    }
+
+    long position() {
+        return written + buffer.position();
+    }
+
+    private void ensureRoom(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        OutputChecksums.update(checksum, buffer);
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+        OutputChecksums.record(file, checksum);
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import com.docdoku.server.converters.common.material.MtlFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes an {@link ObjMesh} as binary glTF 2.0 (GLB), the format the browser viewer loads the fastest: one node per
+ * OBJ group or object under a root node, one primitive per material, vertex attributes and indices in a single
+ * binary buffer along with the PNG and JPEG diffuse textures.
+ * <p>
+ * glTF vertices carry all their attributes, OBJ corners sharing a position, texture coordinate and normal become
+ * one vertex. Texture scales and offsets of the materials, such as those of a texture atlas, are applied to the
+ * texture coordinates.
+ */
+public final class GlbWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(GlbWriter.class.getName());
+
+    private static final int GLB_MAGIC = 0x46546C67;
+    private static final int GLB_VERSION = 2;
+    private static final int JSON_CHUNK = 0x4E4F534A;
+    private static final int BIN_CHUNK = 0x004E4942;
+
+    private static final int UNSIGNED_SHORT = 5123;
+    private static final int UNSIGNED_INT = 5125;
+    private static final int FLOAT = 5126;
+    private static final int ARRAY_BUFFER = 34962;
+    private static final int ELEMENT_ARRAY_BUFFER = 34963;
+    private static final int TRIANGLES = 4;
+
+    private final ObjMesh mesh;
+    private final Path textureDirectory;
+    private final List<MeshPrototype> prototypes;
+    private final List<View> views = new ArrayList<>();
+    private final List<String> accessors = new ArrayList<>();
+    private final List<String> materials = new ArrayList<>();
+    private final List<String> images = new ArrayList<>();
+    private final Map<String, Integer> materialIndices = new HashMap<>();
+    private final Map<String, TextureTransform> materialTransforms = new HashMap<>();
+    private final Map<Path, Integer> imageIndices = new HashMap<>();
+    private long bufferLength;
+
+    private GlbWriter(ObjMesh mesh, Path textureDirectory, List<MeshPrototype> prototypes) {
+        this.mesh = mesh;
+        this.textureDirectory = textureDirectory;
+        this.prototypes = prototypes;
+    }
+
+    /**
+     * Converts an OBJ file to GLB, then deletes it along with its material libraries and textures, now embedded.
+     *
+     * @return the number of triangles
+     */
+    public static int replace(Path objFile, List<Path> materialFiles, Path glbFile) throws IOException {
+        int triangles = transcode(objFile, glbFile);
+        Files.deleteIfExists(objFile);
+        for (Path materialFile : materialFiles) {
+            Files.deleteIfExists(materialFile);
+        }
+        return triangles;
+    }
+
+    /**
+     * Converts an OBJ file to GLB, with the materials of its {@code mtllib} libraries. The prototypes of its
+     * {@link MeshInstancer} index, if any, are placed again by nodes sharing their mesh.
+     *
+     * @return the number of triangles
+     */
+    public static int transcode(Path objFile, Path glbFile) throws IOException {
+        ObjMesh mesh = ObjReader.read(objFile);
+        Path directory = objFile.toAbsolutePath().getParent();
+        List<MtlFile.Material> materials = new ArrayList<>();
+        for (String statement : mesh.getHeader()) {
+            for (Path library : libraries(directory, statement)) {
+                materials.addAll(MtlFile.read(library).getMaterials());
+            }
+        }
+        Path index = MeshInstancer.indexFileFor(objFile);
+        List<MeshPrototype> prototypes = Files.isRegularFile(index) ? MeshInstancer.readIndex(index)
+                : Collections.<MeshPrototype>emptyList();
+        String name = String.valueOf(objFile.getFileName());
+        int dot = name.lastIndexOf('.');
+        new GlbWriter(mesh, directory, prototypes).write(dot > 0 ? name.substring(0, dot) : name, materials, glbFile);
+        return mesh.getTriangleCount();
+    }
+
+    /**
+     * @param name             name of the root node
+     * @param textureDirectory directory the texture files of the materials are relative to
+     */
+    public static void write(ObjMesh mesh, String name, List<MtlFile.Material> materials, Path textureDirectory,
+                             Path glbFile) throws IOException {
+        new GlbWriter(mesh, textureDirectory, Collections.<MeshPrototype>emptyList()).write(name, materials, glbFile);
+    }
+
+    /**
+     * @return the existing files of an {@code mtllib} statement, whose file names may contain spaces
+     */
+    private static List<Path> libraries(Path directory, String statement) {
+        List<Path> libraries = new ArrayList<>();
+        String arguments = statement.substring(statement.indexOf("mtllib") + "mtllib".length()).trim();
+        if (arguments.isEmpty()) {
+            return libraries;
+        }
+        Path whole = directory.resolve(arguments);
+        if (Files.isRegularFile(whole)) {
+            libraries.add(whole);
+            return libraries;
+        }
+        for (String library : arguments.split("\\s+")) {
+            Path path = directory.resolve(library);
+            if (Files.isRegularFile(path)) {
+                libraries.add(path);
+            } else {
+                LOGGER.log(Level.WARNING, "Material library {0} not found", path);
+            }
+        }
+        return libraries;
+    }
+
+    private void write(String name, List<MtlFile.Material> mtlMaterials, Path glbFile) throws IOException {
+        for (MtlFile.Material material : mtlMaterials) {
+            addMaterial(material);
+        }
+
+        StringBuilder nodes = new StringBuilder();
+        StringBuilder meshes = new StringBuilder();
+        StringBuilder rootChildren = new StringBuilder();
+        Map<String, Integer> meshIndices = new HashMap<>();
+        int index = 0;
+        for (Map.Entry<String, Map<String, IntArray>> group : groups(name).entrySet()) {
+            meshIndices.put(group.getKey(), index);
+            StringBuilder primitives = new StringBuilder();
+            for (Map.Entry<String, IntArray> primitive : group.getValue().entrySet()) {
+                separate(primitives).append(primitive(primitive.getKey(), primitive.getValue()));
+            }
+            separate(meshes).append("{\"name\":").append(string(group.getKey())).append(",\"primitives\":[")
+                    .append(primitives).append("]}");
+            separate(nodes).append("{\"name\":").append(string(group.getKey())).append(",\"mesh\":").append(index)
+                    .append('}');
+            separate(rootChildren).append(++index);
+        }
+        for (MeshPrototype prototype : prototypes) {
+            Integer meshIndex = meshIndices.get(prototype.getObject());
+            if (meshIndex == null) {
+                LOGGER.log(Level.WARNING, "Prototype {0} not found, its instances are left out", prototype.getObject());
+                continue;
+            }
+            for (double[] transform : prototype.getTransforms()) {
+                // glTF matrices are column-major
+                separate(nodes).append("{\"name\":").append(string(prototype.getObject())).append(",\"mesh\":")
+                        .append(meshIndex).append(",\"matrix\":[");
+                for (int column = 0; column < 4; column++) {
+                    for (int row = 0; row < 3; row++) {
+                        nodes.append(number((float) transform[row * 4 + column])).append(',');
+                    }
+                    nodes.append(column < 3 ? "0," : "1]}");
+                }
+                separate(rootChildren).append(++index);
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\"asset\":{\"version\":\"2.0\",\"generator\":\"DocDokuPLM\"}");
+        json.append(",\"scene\":0,\"scenes\":[{\"nodes\":[0]}],\"nodes\":[{\"name\":").append(string(name));
+        if (rootChildren.length() > 0) {
+            json.append(",\"children\":[").append(rootChildren).append("]},").append(nodes);
+        } else {
+            json.append('}');
+        }
+        json.append(']');
+        array(json, "meshes", meshes);
+        array(json, "materials", join(materials));
+        if (!images.isEmpty()) {
+            StringBuilder textures = new StringBuilder();
+            for (int i = 0; i < images.size(); i++) {
+                separate(textures).append("{\"source\":").append(i).append('}');
+            }
+            array(json, "textures", textures);
+            array(json, "images", join(images));
+        }
+        array(json, "accessors", join(accessors));
+        StringBuilder bufferViews = new StringBuilder();
+        for (View view : views) {
+            separate(bufferViews).append("{\"buffer\":0,\"byteOffset\":").append(view.offset)
+                    .append(",\"byteLength\":").append(view.length);
+            if (view.target != 0) {
+                bufferViews.append(",\"target\":").append(view.target);
+            }
+            bufferViews.append('}');
+        }
+        array(json, "bufferViews", bufferViews);
+        if (bufferLength > 0) {
+            json.append(",\"buffers\":[{\"byteLength\":").append(bufferLength).append("}]");
+        }
+        json.append('}');
+
+        writeGlb(json.toString().getBytes(StandardCharsets.UTF_8), glbFile);
+    }
+
+    /**
+     * @return the triangles of every group, by material, in file order
+     */
+    private Map<String, Map<String, IntArray>> groups(String name) {
+        Map<String, Map<String, IntArray>> groups = new LinkedHashMap<>();
+        IntArray statementTriangles = mesh.getStatementTriangles();
+        List<String> statements = mesh.getStatements();
+        String group = name;
+        String material = "";
+        int statement = 0;
+        for (int t = 0, n = mesh.getTriangleCount(); t < n; t++) {
+            while (statement < statementTriangles.size() && statementTriangles.get(statement) <= t) {
+                String line = statements.get(statement++);
+                int space = line.indexOf(' ');
+                String keyword = space < 0 ? line : line.substring(0, space);
+                String argument = space < 0 ? "" : line.substring(space + 1).trim();
+                if ("o".equals(keyword) || "g".equals(keyword)) {
+                    group = argument.isEmpty() ? name : argument;
+                } else if ("usemtl".equals(keyword)) {
+                    material = argument;
+                }
+            }
+            groups.computeIfAbsent(group, g -> new LinkedHashMap<>())
+                    .computeIfAbsent(material, m -> new IntArray(1024))
+                    .add(t);
+        }
+        return groups;
+    }
+
+    private void addMaterial(MtlFile.Material material) throws IOException {
+        float[] diffuse = material.getDiffuse();
+        float opacity = Math.max(0, Math.min(1, material.getOpacity()));
+        // Blinn-Phong exponent to roughness
+        double roughness = Math.sqrt(2 / (Math.max(0, material.getShininess()) + 2));
+        StringBuilder json = new StringBuilder("{\"name\":").append(string(material.getName()))
+                .append(",\"pbrMetallicRoughness\":{\"baseColorFactor\":[")
+                .append(number(diffuse[0])).append(',').append(number(diffuse[1])).append(',')
+                .append(number(diffuse[2])).append(',').append(number(opacity)).append(']')
+                .append(",\"metallicFactor\":0,\"roughnessFactor\":").append(number((float) roughness));
+        MtlFile.TextureReference texture = material.getDiffuseTexture();
+        Integer image = texture == null ? null : addImage(texture.getTexture());
+        if (image != null) {
+            json.append(",\"baseColorTexture\":{\"index\":").append(image).append('}');
+            materialTransforms.put(material.getName(), TextureTransform.of(texture.getOptions()));
+        }
+        json.append('}');
+        if (opacity < 1) {
+            json.append(",\"alphaMode\":\"BLEND\"");
+        }
+        // CAD exports do not reliably orient their faces
+        json.append(",\"doubleSided\":true}");
+        materialIndices.put(material.getName(), materials.size());
+        materials.add(json.toString());
+    }
+
+    private Integer addImage(String texture) throws IOException {
+        Path file = textureDirectory.resolve(texture).normalize();
+        Integer index = imageIndices.get(file);
+        if (index != null) {
+            return index;
+        }
+        String lowerName = texture.toLowerCase(Locale.ENGLISH);
+        String mimeType = lowerName.endsWith(".png") ? "image/png"
+                : lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") ? "image/jpeg" : null;
+        if (mimeType == null || !Files.isRegularFile(file)) {
+            LOGGER.log(Level.WARNING, "Texture {0} is missing or not a PNG or JPEG image, it is left out", file);
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        int view = addView(bytes.length, 0, out -> out.put(bytes));
+        index = images.size();
+        images.add("{\"bufferView\":" + view + ",\"mimeType\":\"" + mimeType + "\"}");
+        imageIndices.put(file, index);
+        return index;
+    }
+
+    private String primitive(String material, IntArray triangles) {
+        int[] cornerPositions = mesh.getCornerPositions().array();
+        int[] cornerTexCoords = mesh.getCornerTexCoords().array();
+        int[] cornerNormals = mesh.getCornerNormals().array();
+        Integer materialIndex = materialIndices.get(material);
+        TextureTransform transform = materialTransforms.get(material);
+
+        // Texture coordinate and normal pairs, then corners, to their vertex
+        LongIntMap pairs = new LongIntMap();
+        LongIntMap vertices = new LongIntMap();
+        int pairCount = 0;
+        IntArray positions = new IntArray(triangles.size() * 3);
+        IntArray texCoords = new IntArray(triangles.size() * 3);
+        IntArray normals = new IntArray(triangles.size() * 3);
+        IntArray indices = new IntArray(triangles.size() * 3);
+        boolean hasTexCoords = true;
+        boolean hasNormals = true;
+        for (int i = 0, n = triangles.size(); i < n; i++) {
+            int t = triangles.get(i);
+            for (int corner = t * 3; corner < t * 3 + 3; corner++) {
+                int p = cornerPositions[corner];
+                int tc = cornerTexCoords[corner];
+                int nm = cornerNormals[corner];
+                hasTexCoords &= tc != ObjMesh.NONE;
+                hasNormals &= nm != ObjMesh.NONE;
+                long pairKey = (long) (tc + 1) << 32 | (nm + 1);
+                int pair = pairs.get(pairKey);
+                if (pair < 0) {
+                    pair = pairCount++;
+                    pairs.put(pairKey, pair);
+                }
+                long key = (long) p << 32 | pair;
+                int vertex = vertices.get(key);
+                if (vertex < 0) {
+                    vertex = positions.size();
+                    vertices.put(key, vertex);
+                    positions.add(p);
+                    texCoords.add(tc);
+                    normals.add(nm);
+                }
+                indices.add(vertex);
+            }
+        }
+
+        int vertexCount = positions.size();
+        StringBuilder json = new StringBuilder("{\"attributes\":{\"POSITION\":")
+                .append(positionAccessor(positions));
+        if (hasNormals) {
+            json.append(",\"NORMAL\":").append(normalAccessor(normals));
+        }
+        if (hasTexCoords && transform != null) {
+            json.append(",\"TEXCOORD_0\":").append(texCoordAccessor(texCoords, transform));
+        }
+        json.append("},\"indices\":").append(indexAccessor(indices, vertexCount));
+        if (materialIndex != null) {
+            json.append(",\"material\":").append(materialIndex);
+        }
+        return json.append(",\"mode\":").append(TRIANGLES).append('}').toString();
+    }
+
+    private int positionAccessor(IntArray vertexPositions) {
+        float[] data = mesh.getPositions().array();
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int v = 0, n = vertexPositions.size(); v < n; v++) {
+            int p = vertexPositions.get(v) * 3;
+            for (int c = 0; c < 3; c++) {
+                min[c] = Math.min(min[c], data[p + c]);
+                max[c] = Math.max(max[c], data[p + c]);
+            }
+        }
+        int view = addView(vertexPositions.size() * 12, ARRAY_BUFFER, out -> {
+            for (int v = 0, n = vertexPositions.size(); v < n; v++) {
+                int p = vertexPositions.get(v) * 3;
+                out.putFloat(data[p]).putFloat(data[p + 1]).putFloat(data[p + 2]);
+            }
+        });
+        return addAccessor(view, FLOAT, vertexPositions.size(), "VEC3", ",\"min\":[" + number(min[0]) + ','
+                + number(min[1]) + ',' + number(min[2]) + "],\"max\":[" + number(max[0]) + ',' + number(max[1])
+                + ',' + number(max[2]) + ']');
+    }
+
+    private int normalAccessor(IntArray vertexNormals) {
+        float[] data = mesh.getNormals().array();
+        int view = addView(vertexNormals.size() * 12, ARRAY_BUFFER, out -> {
+            for (int v = 0, n = vertexNormals.size(); v < n; v++) {
+                int p = vertexNormals.get(v) * 3;
+                float x = data[p];
+                float y = data[p + 1];
+                float z = data[p + 2];
+                // glTF normals are unit vectors, OBJ ones need not be
+                float length = (float) Math.sqrt(x * x + y * y + z * z);
+                if (length > 0 && Float.isFinite(length)) {
+                    out.putFloat(x / length).putFloat(y / length).putFloat(z / length);
+                } else {
+                    out.putFloat(0).putFloat(0).putFloat(1);
+                }
+            }
+        });
+        return addAccessor(view, FLOAT, vertexNormals.size(), "VEC3", "");
+    }
+
+    private int texCoordAccessor(IntArray vertexTexCoords, TextureTransform transform) {
+        float[] data = mesh.getTexCoords().array();
+        int view = addView(vertexTexCoords.size() * 8, ARRAY_BUFFER, out -> {
+            for (int v = 0, n = vertexTexCoords.size(); v < n; v++) {
+                int p = vertexTexCoords.get(v) * 2;
+                // glTF images start at the top left corner, OBJ ones at the bottom left corner
+                out.putFloat(transform.offsetU + transform.scaleU * data[p])
+                        .putFloat(1 - (transform.offsetV + transform.scaleV * data[p + 1]));
+            }
+        });
+        return addAccessor(view, FLOAT, vertexTexCoords.size(), "VEC2", "");
+    }
+
+    private int indexAccessor(IntArray indices, int vertexCount) {
+        boolean shorts = vertexCount <= 0xFFFF;
+        int view = addView(indices.size() * (shorts ? 2 : 4), ELEMENT_ARRAY_BUFFER, out -> {
+            for (int i = 0, n = indices.size(); i < n; i++) {
+                if (shorts) {
+                    out.putShort(indices.get(i));
+                } else {
+                    out.putInt(indices.get(i));
+                }
+            }
+        });
+        return addAccessor(view, shorts ? UNSIGNED_SHORT : UNSIGNED_INT, indices.size(), "SCALAR", "");
+    }
+
+    private int addView(int length, int target, ViewContent content) {
+        views.add(new View(bufferLength, length, target, content));
+        bufferLength = (bufferLength + length + 3) & ~3L;
+        return views.size() - 1;
+    }
+
+    private int addAccessor(int view, int componentType, int count, String type, String bounds) {
+        accessors.add("{\"bufferView\":" + view + ",\"componentType\":" + componentType + ",\"count\":" + count
+                + ",\"type\":\"" + type + "\"" + bounds + '}');
+        return accessors.size() - 1;
+    }
+
+    private void writeGlb(byte[] json, Path glbFile) throws IOException {
+        int jsonLength = (json.length + 3) & ~3;
+        long totalLength = 12 + 8 + jsonLength + (bufferLength > 0 ? 8 + bufferLength : 0);
+        if (totalLength > 0xFFFFFFFFL) {
+            throw new IOException("Mesh too large for GLB: " + totalLength + " bytes");
+        }
+        try (GlbOutput out = new GlbOutput(glbFile)) {
+            out.putInt(GLB_MAGIC).putInt(GLB_VERSION).putInt((int) totalLength);
+            out.putInt(jsonLength).putInt(JSON_CHUNK).put(json).align((byte) ' ');
+            if (bufferLength > 0) {
+                out.putInt((int) bufferLength).putInt(BIN_CHUNK);
+                for (View view : views) {
+                    view.content.write(out);
+                    out.align((byte) 0);
+                }
+            }
+        }
+    }
+
+    private static StringBuilder separate(StringBuilder list) {
+        return list.length() > 0 ? list.append(',') : list;
+    }
+
+    private static StringBuilder join(List<String> values) {
+        return new StringBuilder(String.join(",", values));
+    }
+
+    private static void array(StringBuilder json, String name, CharSequence values) {
+        // glTF arrays may not be empty
+        if (values.length() > 0) {
+            json.append(",\"").append(name).append("\":[").append(values).append(']');
+        }
+    }
+
+    private static String number(float value) {
+        return Float.isFinite(value) ? Float.toString(value) : "0";
+    }
+
+    static String string(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    @FunctionalInterface
+    private interface ViewContent {
+        void write(GlbOutput out) throws IOException;
+    }
+
+    private static final class View {
+        private final long offset;
+        private final int length;
+        private final int target;
+        private final ViewContent content;
+
+        private View(long offset, int length, int target, ViewContent content) {
+            this.offset = offset;
+            this.length = length;
+            this.target = target;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Scale and offset of the {@code -s} and {@code -o} options of a texture map statement.
+     */
+    private static final class TextureTransform {
+        private float scaleU = 1;
+        private float scaleV = 1;
+        private float offsetU;
+        private float offsetV;
+
+        static TextureTransform of(String options) {
+            TextureTransform transform = new TextureTransform();
+            String[] tokens = options.trim().split("\\s+");
+            for (int i = 0; i < tokens.length - 2; i++) {
+                if ("-s".equals(tokens[i])) {
+                    transform.scaleU = parse(tokens[i + 1], 1);
+                    transform.scaleV = parse(tokens[i + 2], 1);
+                } else if ("-o".equals(tokens[i])) {
+                    transform.offsetU = parse(tokens[i + 1], 0);
+                    transform.offsetV = parse(tokens[i + 2], 0);
+                }
+            }
+            return transform;
+        }
+
+        private static float parse(String token, float defaultValue) {
+            try {
+                return Float.parseFloat(token);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+}
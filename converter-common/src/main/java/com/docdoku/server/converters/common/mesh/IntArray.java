@@ -0,0 +1,107 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints, meshes are kept in those rather than in lists of boxed values.
+ */
+public final class IntArray {
+
+    private int[] data;
+    private int size;
+
+    public IntArray() {
+        this(1024);
+    }
+
+    public IntArray(int capacity) {
+        data = new int[Math.max(capacity, 16)];
+    }
+
+    public void add(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = value;
+    }
+
+    public void add(int x, int y, int z) {
+        ensureCapacity(size + 3);
+        data[size++] = x;
+        data[size++] = y;
+        data[size++] = z;
+    }
+
+    public int get(int index) {
+        return data[index];
+    }
+
+    public void set(int index, int value) {
+        data[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the backing array, only its first {@link #size()} values are meaningful
+     */
+    public int[] array() {
+        return data;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void addAll(IntArray other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.data, 0, data, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Sets the number of values, new ones being zero.
+     */
+    public void setSize(int newSize) {
+        ensureCapacity(newSize);
+        if (newSize > size) {
+            Arrays.fill(data, size, newSize, 0);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Drops the values past the given size.
+     */
+    public void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+        }
+    }
+}
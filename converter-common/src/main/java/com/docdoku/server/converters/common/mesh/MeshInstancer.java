@@ -0,0 +1,743 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the geometry repeated in a mesh, such as the bolts, windows or columns of a building, and keeps a single
+ * prototype of it along with the rigid transforms of its copies.
+ * <p>
+ * Every connected component is put in a canonical form: its vertices numbered in the order its triangles use them
+ * and its positions relative to its centroid. Components with the same topology and the same distances to their
+ * centroid share a hash, their rotation is then recovered with Horn's quaternion method and checked on every
+ * position, texture coordinate and normal. Mirrored copies are not rigid and are kept as they are. CAD kernels
+ * tessellate a repeated shape the same way every time, which is what makes this numbering canonical.
+ * <p>
+ * The prototypes are moved to the end of the mesh, each as an OBJ object, and their copies are removed.
+ * The transforms are written to an index file next to the OBJ file, see {@link #writeIndex(List, Path)}.
+ */
+public final class MeshInstancer {
+
+    private static final String PROTOTYPE = "prototype_";
+    private static final String INDEX_SUFFIX = ".instances.json";
+    private static final double HASH_STEPS = 1024;
+    private static final float TEX_COORD_TOLERANCE = 1e-6f;
+    private static final double NORMAL_TOLERANCE = 1e-2;
+    private static final Pattern FIRST_TRIANGLE = Pattern.compile("\"firstTriangle\":(\\d+)");
+    private static final Pattern TRIANGLE_COUNT = Pattern.compile("\"triangleCount\":(\\d+)");
+    private static final Pattern MATRIX = Pattern.compile("\\[([-+0-9.eE,]+)]");
+
+    private MeshInstancer() {
+    }
+
+    /**
+     * Replaces the copies of repeated components by their prototype.
+     *
+     * @param relativeTolerance largest distance between a copy and its transformed prototype, relative to the
+     *                          size of the prototype: twice the largest distance to its centroid
+     * @param minTriangles      smallest component worth instancing
+     * @return the prototypes, empty if nothing is repeated and the mesh is left as is
+     */
+    public static List<MeshPrototype> instance(ObjMesh mesh, double relativeTolerance, int minTriangles) {
+        int triangles = mesh.getTriangleCount();
+        if (triangles == 0) {
+            return Collections.emptyList();
+        }
+        List<String> materialNames = new ArrayList<>();
+        int[] triangleMaterials = materials(mesh, materialNames);
+        int[] triangleComponents = new int[triangles];
+        int componentCount = components(mesh, triangleComponents);
+
+        // Triangles grouped by component, in file order
+        int[] starts = new int[componentCount + 1];
+        int[] materials = new int[componentCount];
+        Arrays.fill(materials, Integer.MIN_VALUE);
+        for (int t = 0; t < triangles; t++) {
+            int c = triangleComponents[t];
+            starts[c + 1]++;
+            // A component of several materials is not instanced
+            materials[c] = materials[c] == Integer.MIN_VALUE || materials[c] == triangleMaterials[t]
+                    ? triangleMaterials[t] : Integer.MAX_VALUE;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            starts[c + 1] += starts[c];
+        }
+        int[] order = new int[triangles];
+        int[] filled = Arrays.copyOf(starts, componentCount);
+        for (int t = 0; t < triangles; t++) {
+            order[filled[triangleComponents[t]]++] = t;
+        }
+
+        // Prototypes are moved last, one without a material would take the last material of the mesh
+        boolean needsMaterial = !materialNames.isEmpty();
+        int[] scratch = new int[mesh.getPositionCount()];
+        Arrays.fill(scratch, -1);
+        Map<Long, IntArray> buckets = new LinkedHashMap<>();
+        for (int c = 0; c < componentCount; c++) {
+            int count = starts[c + 1] - starts[c];
+            if (count < minTriangles || materials[c] == Integer.MAX_VALUE || needsMaterial && materials[c] < 0) {
+                continue;
+            }
+            Canonical canonical = new Canonical(mesh, order, starts[c], count, scratch);
+            if (canonical.size > 0) {
+                buckets.computeIfAbsent(canonical.hash(materials[c]), h -> new IntArray(4)).add(c);
+            }
+        }
+
+        List<Group> groups = new ArrayList<>();
+        for (IntArray bucket : buckets.values()) {
+            if (bucket.size() < 2) {
+                continue;
+            }
+            List<Group> candidates = new ArrayList<>();
+            for (int i = 0; i < bucket.size(); i++) {
+                int c = bucket.get(i);
+                Canonical canonical = new Canonical(mesh, order, starts[c], starts[c + 1] - starts[c], scratch);
+                double[] transform = null;
+                for (Group group : candidates) {
+                    transform = group.prototype.match(canonical, relativeTolerance);
+                    if (transform != null) {
+                        group.copies.add(c);
+                        group.transforms.add(transform);
+                        break;
+                    }
+                }
+                if (transform == null) {
+                    candidates.add(new Group(c, canonical));
+                }
+            }
+            for (Group group : candidates) {
+                if (group.copies.size() > 0) {
+                    groups.add(group);
+                }
+            }
+        }
+        if (groups.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return rebuild(mesh, groups, order, starts, materials, materialNames, triangleComponents, componentCount);
+    }
+
+    /**
+     * Adds the copies of the prototypes back to a mesh, for the consumers which do not place instances.
+     */
+    public static void expand(ObjMesh mesh, List<MeshPrototype> prototypes) {
+        for (MeshPrototype prototype : prototypes) {
+            int first = prototype.getFirstTriangle();
+            int last = Math.min(first + prototype.getTriangleCount(), mesh.getTriangleCount());
+            for (double[] transform : prototype.getTransforms()) {
+                // Vectors shared by the corners of the prototype are shared by those of the copy
+                LongIntMap copies = new LongIntMap();
+                int[] corners = new int[9];
+                for (int t = first; t < last; t++) {
+                    for (int k = 0; k < 3; k++) {
+                        int corner = t * 3 + k;
+                        int position = mesh.getCornerPositions().get(corner);
+                        int normal = mesh.getCornerNormals().get(corner);
+                        corners[k * 3] = copy(mesh.getPositions(), copies, position, transform, true);
+                        corners[k * 3 + 1] = mesh.getCornerTexCoords().get(corner);
+                        corners[k * 3 + 2] = normal == ObjMesh.NONE ? ObjMesh.NONE
+                                : copy(mesh.getNormals(), copies, normal, transform, false);
+                    }
+                    mesh.addTriangle(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], corners[6],
+                            corners[7], corners[8]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the transformed copy of a vector, added at the end of the vectors the first time
+     */
+    private static int copy(FloatArray vectors, LongIntMap copies, int index, double[] transform, boolean translated) {
+        long key = (long) index << 1 | (translated ? 1 : 0);
+        int existing = copies.get(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        float[] values = vectors.array();
+        double x = values[index * 3];
+        double y = values[index * 3 + 1];
+        double z = values[index * 3 + 2];
+        float[] copy = new float[3];
+        for (int k = 0; k < 3; k++) {
+            copy[k] = (float) (transform[k * 4] * x + transform[k * 4 + 1] * y + transform[k * 4 + 2] * z
+                    + (translated ? transform[k * 4 + 3] : 0));
+        }
+        vectors.add(copy[0], copy[1], copy[2]);
+        copies.put(key, vectors.size() / 3 - 1);
+        return vectors.size() / 3 - 1;
+    }
+
+    /**
+     * @return the index file of the prototypes of an OBJ file
+     */
+    public static Path indexFileFor(Path objFile) {
+        return objFile.resolveSibling(objFile.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Writes the prototypes as JSON: for every prototype its object, its triangles and its transforms.
+     */
+    public static void writeIndex(List<MeshPrototype> prototypes, Path jsonFile) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            writer.write("{\"prototypes\":[");
+            for (int i = 0; i < prototypes.size(); i++) {
+                MeshPrototype prototype = prototypes.get(i);
+                writer.write((i > 0 ? ",\n" : "\n") + "{\"object\":" + GlbWriter.string(prototype.getObject())
+                        + ",\"firstTriangle\":" + prototype.getFirstTriangle()
+                        + ",\"triangleCount\":" + prototype.getTriangleCount() + ",\"instances\":[");
+                List<double[]> transforms = prototype.getTransforms();
+                for (int j = 0; j < transforms.size(); j++) {
+                    writer.write(j > 0 ? ",[" : "[");
+                    double[] transform = transforms.get(j);
+                    for (int k = 0; k < transform.length; k++) {
+                        writer.write((k > 0 ? "," : "") + (float) transform[k]);
+                    }
+                    writer.write(']');
+                }
+                writer.write("]}");
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    /**
+     * Reads the prototypes written by {@link #writeIndex(List, Path)}.
+     */
+    public static List<MeshPrototype> readIndex(Path jsonFile) throws IOException {
+        String json = new String(Files.readAllBytes(jsonFile), StandardCharsets.UTF_8);
+        List<MeshPrototype> prototypes = new ArrayList<>();
+        String[] entries = json.split("\\{\"object\":");
+        for (int i = 1; i < entries.length; i++) {
+            String entry = entries[i];
+            int end = 1;
+            while (end < entry.length() && entry.charAt(end) != '"') {
+                end += entry.charAt(end) == '\\' ? 2 : 1;
+            }
+            String object = entry.substring(1, Math.min(end, entry.length())).replaceAll("\\\\(.)", "$1");
+            Matcher first = FIRST_TRIANGLE.matcher(entry);
+            Matcher count = TRIANGLE_COUNT.matcher(entry);
+            if (!first.find() || !count.find() || entry.indexOf("\"instances\":") < 0) {
+                throw new IOException("Invalid prototype index " + jsonFile);
+            }
+            List<double[]> transforms = new ArrayList<>();
+            Matcher matrix = MATRIX.matcher(entry.substring(entry.indexOf("\"instances\":")));
+            while (matrix.find()) {
+                String[] values = matrix.group(1).split(",");
+                if (values.length != 12) {
+                    throw new IOException("Invalid transform in prototype index " + jsonFile);
+                }
+                double[] transform = new double[12];
+                for (int k = 0; k < 12; k++) {
+                    transform[k] = Double.parseDouble(values[k]);
+                }
+                transforms.add(transform);
+            }
+            prototypes.add(new MeshPrototype(object, Integer.parseInt(first.group(1)), Integer.parseInt(count.group(1)),
+                    transforms));
+        }
+        return prototypes;
+    }
+
+    /**
+     * @return the material of every triangle, an index in the names or -1 if it has none
+     */
+    private static int[] materials(ObjMesh mesh, List<String> names) {
+        int[] materials = new int[mesh.getTriangleCount()];
+        Map<String, Integer> indices = new HashMap<>();
+        IntArray statementTriangles = mesh.getStatementTriangles();
+        int material = -1;
+        int statement = 0;
+        for (int t = 0; t < materials.length; t++) {
+            while (statement < statementTriangles.size() && statementTriangles.get(statement) <= t) {
+                String line = mesh.getStatements().get(statement++);
+                if (line.startsWith("usemtl")) {
+                    String name = line.substring("usemtl".length()).trim();
+                    material = indices.computeIfAbsent(name, n -> {
+                        names.add(n);
+                        return names.size() - 1;
+                    });
+                }
+            }
+            materials[t] = material;
+        }
+        return materials;
+    }
+
+    /**
+     * Numbers the components of triangles connected by their positions, in the order of their first triangle.
+     *
+     * @return the number of components
+     */
+    private static int components(ObjMesh mesh, int[] triangleComponents) {
+        int[] corners = mesh.getCornerPositions().array();
+        int[] parents = new int[mesh.getPositionCount()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (int t = 0; t < triangleComponents.length; t++) {
+            union(parents, corners[t * 3], corners[t * 3 + 1]);
+            union(parents, corners[t * 3], corners[t * 3 + 2]);
+        }
+        int[] rootComponents = new int[parents.length];
+        Arrays.fill(rootComponents, -1);
+        int count = 0;
+        for (int t = 0; t < triangleComponents.length; t++) {
+            int root = find(parents, corners[t * 3]);
+            if (rootComponents[root] < 0) {
+                rootComponents[root] = count++;
+            }
+            triangleComponents[t] = rootComponents[root];
+        }
+        return count;
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA != rootB) {
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * Writes the triangles which are not instanced along with their statements, then the prototypes, each as an
+     * object. Positions, texture coordinates and normals no longer used are dropped.
+     */
+    private static List<MeshPrototype> rebuild(ObjMesh mesh, List<Group> groups, int[] order, int[] starts,
+                                               int[] materials, List<String> materialNames, int[] triangleComponents,
+                                               int componentCount) {
+        boolean[] instanced = new boolean[componentCount];
+        for (Group group : groups) {
+            instanced[group.component] = true;
+            for (int i = 0; i < group.copies.size(); i++) {
+                instanced[group.copies.get(i)] = true;
+            }
+        }
+        ObjMesh rebuilt = new ObjMesh();
+        Remap remap = new Remap(mesh, rebuilt);
+        IntArray statementTriangles = mesh.getStatementTriangles();
+        int statement = 0;
+        for (int t = 0, n = mesh.getTriangleCount(); t < n; t++) {
+            if (instanced[triangleComponents[t]]) {
+                continue;
+            }
+            while (statement < statementTriangles.size() && statementTriangles.get(statement) <= t) {
+                addStatement(rebuilt, mesh.getStatements().get(statement++));
+            }
+            remap.triangle(t);
+        }
+        while (statement < statementTriangles.size()) {
+            addStatement(rebuilt, mesh.getStatements().get(statement++));
+        }
+
+        List<MeshPrototype> prototypes = new ArrayList<>(groups.size());
+        for (Group group : groups) {
+            String object = PROTOTYPE + prototypes.size();
+            rebuilt.addStatement("o " + object);
+            int material = materials[group.component];
+            if (material >= 0) {
+                rebuilt.addStatement("usemtl " + materialNames.get(material));
+            }
+            int first = rebuilt.getTriangleCount();
+            for (int i = starts[group.component]; i < starts[group.component + 1]; i++) {
+                remap.triangle(order[i]);
+            }
+            prototypes.add(new MeshPrototype(object, first, rebuilt.getTriangleCount() - first, group.transforms));
+        }
+
+        mesh.getPositions().clear();
+        mesh.getPositions().addAll(rebuilt.getPositions());
+        mesh.getTexCoords().clear();
+        mesh.getTexCoords().addAll(rebuilt.getTexCoords());
+        mesh.getNormals().clear();
+        mesh.getNormals().addAll(rebuilt.getNormals());
+        mesh.getCornerPositions().clear();
+        mesh.getCornerPositions().addAll(rebuilt.getCornerPositions());
+        mesh.getCornerTexCoords().clear();
+        mesh.getCornerTexCoords().addAll(rebuilt.getCornerTexCoords());
+        mesh.getCornerNormals().clear();
+        mesh.getCornerNormals().addAll(rebuilt.getCornerNormals());
+        mesh.getStatements().clear();
+        mesh.getStatements().addAll(rebuilt.getStatements());
+        mesh.getStatementTriangles().clear();
+        mesh.getStatementTriangles().addAll(rebuilt.getStatementTriangles());
+        return prototypes;
+    }
+
+    /**
+     * Adds a statement, dropping those it overrides before any triangle, such as the objects of removed copies.
+     */
+    private static void addStatement(ObjMesh mesh, String statement) {
+        String kind = kind(statement);
+        List<String> statements = mesh.getStatements();
+        IntArray statementTriangles = mesh.getStatementTriangles();
+        int last = statements.size() - 1;
+        if (kind != null && last >= 0 && statementTriangles.get(last) == mesh.getTriangleCount()
+                && kind.equals(kind(statements.get(last)))) {
+            statements.remove(last);
+            statementTriangles.truncate(last);
+        }
+        mesh.addStatement(statement);
+    }
+
+    private static String kind(String statement) {
+        if (statement.startsWith("usemtl")) {
+            return "usemtl";
+        }
+        return statement.startsWith("o ") || statement.startsWith("g ") ? "group" : null;
+    }
+
+    /**
+     * Eigenvector of the largest eigenvalue of a symmetric 4x4 matrix, by Jacobi rotations.
+     */
+    static double[] largestEigenvector(double[][] matrix) {
+        double[][] a = new double[4][];
+        double[][] v = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            a[i] = matrix[i].clone();
+            v[i][i] = 1;
+        }
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double off = 0;
+            double diagonal = 0;
+            for (int p = 0; p < 4; p++) {
+                diagonal += a[p][p] * a[p][p];
+                for (int q = p + 1; q < 4; q++) {
+                    off += a[p][q] * a[p][q];
+                }
+            }
+            if (off <= 1e-24 * diagonal || off == 0) {
+                break;
+            }
+            for (int p = 0; p < 3; p++) {
+                for (int q = p + 1; q < 4; q++) {
+                    if (a[p][q] == 0) {
+                        continue;
+                    }
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < 4; k++) {
+                        double kp = a[k][p];
+                        double kq = a[k][q];
+                        a[k][p] = c * kp - s * kq;
+                        a[k][q] = s * kp + c * kq;
+                    }
+                    for (int k = 0; k < 4; k++) {
+                        double pk = a[p][k];
+                        double qk = a[q][k];
+                        a[p][k] = c * pk - s * qk;
+                        a[q][k] = s * pk + c * qk;
+                    }
+                    for (int k = 0; k < 4; k++) {
+                        double kp = v[k][p];
+                        double kq = v[k][q];
+                        v[k][p] = c * kp - s * kq;
+                        v[k][q] = s * kp + c * kq;
+                    }
+                }
+            }
+        }
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (a[i][i] > a[largest][largest]) {
+                largest = i;
+            }
+        }
+        return new double[]{v[0][largest], v[1][largest], v[2][largest], v[3][largest]};
+    }
+
+    private static final class Group {
+        private final int component;
+        private final Canonical prototype;
+        private final IntArray copies = new IntArray(16);
+        private final List<double[]> transforms = new ArrayList<>();
+
+        private Group(int component, Canonical prototype) {
+            this.component = component;
+            this.prototype = prototype;
+        }
+    }
+
+    /**
+     * Component with its vertices numbered in the order its triangles use them, relative to its centroid.
+     */
+    private static final class Canonical {
+        private final ObjMesh mesh;
+        private final int[] triangles;
+        private final int[] corners;
+        private final double[] points;
+        private final double[] centroid = new double[3];
+        private final double size;
+
+        private Canonical(ObjMesh mesh, int[] order, int start, int count, int[] scratch) {
+            this.mesh = mesh;
+            triangles = Arrays.copyOfRange(order, start, start + count);
+            corners = new int[count * 3];
+            int[] cornerPositions = mesh.getCornerPositions().array();
+            float[] positions = mesh.getPositions().array();
+            IntArray used = new IntArray(count * 2);
+            for (int i = 0; i < count; i++) {
+                for (int k = 0; k < 3; k++) {
+                    int p = cornerPositions[triangles[i] * 3 + k];
+                    if (scratch[p] < 0) {
+                        scratch[p] = used.size();
+                        used.add(p);
+                    }
+                    corners[i * 3 + k] = scratch[p];
+                }
+            }
+            points = new double[used.size() * 3];
+            for (int i = 0; i < used.size(); i++) {
+                int p = used.get(i);
+                scratch[p] = -1;
+                for (int k = 0; k < 3; k++) {
+                    points[i * 3 + k] = positions[p * 3 + k];
+                    centroid[k] += points[i * 3 + k] / used.size();
+                }
+            }
+            double radius = 0;
+            for (int i = 0; i < points.length; i += 3) {
+                for (int k = 0; k < 3; k++) {
+                    points[i + k] -= centroid[k];
+                }
+                radius = Math.max(radius, length(points, i));
+            }
+            // Unlike the diagonal of the bounding box, the diameter around the centroid does not change with rotation
+            size = 2 * radius;
+        }
+
+        /**
+         * @return a hash which does not change with a rigid transform of the component
+         */
+        private long hash(int material) {
+            long hash = triangles.length * 31L + points.length;
+            hash = hash * 31 + material;
+            int[] texCoords = mesh.getCornerTexCoords().array();
+            int[] normals = mesh.getCornerNormals().array();
+            for (int i = 0; i < corners.length; i++) {
+                int corner = triangles[i / 3] * 3 + i % 3;
+                hash = hash * 31 + corners[i] * 4 + (texCoords[corner] == ObjMesh.NONE ? 0 : 1)
+                        + (normals[corner] == ObjMesh.NONE ? 0 : 2);
+            }
+            for (int i = 0; i < points.length; i += 3) {
+                hash = hash * 31 + Math.round(length(points, i) / size * HASH_STEPS);
+            }
+            return hash;
+        }
+
+        /**
+         * @return the rigid transform from this component to the other, null if it is not a copy of this one
+         */
+        private double[] match(Canonical other, double relativeTolerance) {
+            if (!Arrays.equals(corners, other.corners) || !sameTexCoords(other)) {
+                return null;
+            }
+            double[][] s = new double[3][3];
+            for (int i = 0; i < points.length; i += 3) {
+                for (int r = 0; r < 3; r++) {
+                    for (int c = 0; c < 3; c++) {
+                        s[r][c] += points[i + r] * other.points[i + c];
+                    }
+                }
+            }
+            double[][] n = {
+                    {s[0][0] + s[1][1] + s[2][2], s[1][2] - s[2][1], s[2][0] - s[0][2], s[0][1] - s[1][0]},
+                    {s[1][2] - s[2][1], s[0][0] - s[1][1] - s[2][2], s[0][1] + s[1][0], s[2][0] + s[0][2]},
+                    {s[2][0] - s[0][2], s[0][1] + s[1][0], -s[0][0] + s[1][1] - s[2][2], s[1][2] + s[2][1]},
+                    {s[0][1] - s[1][0], s[2][0] + s[0][2], s[1][2] + s[2][1], -s[0][0] - s[1][1] + s[2][2]}};
+            double[] q = largestEigenvector(n);
+            double length = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+            double w = q[0] / length;
+            double x = q[1] / length;
+            double y = q[2] / length;
+            double z = q[3] / length;
+            double[] r = {
+                    1 - 2 * (y * y + z * z), 2 * (x * y - w * z), 2 * (x * z + w * y),
+                    2 * (x * y + w * z), 1 - 2 * (x * x + z * z), 2 * (y * z - w * x),
+                    2 * (x * z - w * y), 2 * (y * z + w * x), 1 - 2 * (x * x + y * y)};
+
+            double tolerance = relativeTolerance * size;
+            for (int i = 0; i < points.length; i += 3) {
+                for (int k = 0; k < 3; k++) {
+                    double rotated = r[k * 3] * points[i] + r[k * 3 + 1] * points[i + 1] + r[k * 3 + 2] * points[i + 2];
+                    if (Math.abs(rotated - other.points[i + k]) > tolerance) {
+                        return null;
+                    }
+                }
+            }
+            if (!sameNormals(other, r)) {
+                return null;
+            }
+            double[] transform = new double[12];
+            for (int k = 0; k < 3; k++) {
+                transform[k * 4] = r[k * 3];
+                transform[k * 4 + 1] = r[k * 3 + 1];
+                transform[k * 4 + 2] = r[k * 3 + 2];
+                transform[k * 4 + 3] = other.centroid[k]
+                        - (r[k * 3] * centroid[0] + r[k * 3 + 1] * centroid[1] + r[k * 3 + 2] * centroid[2]);
+            }
+            return transform;
+        }
+
+        private static double length(double[] points, int i) {
+            return Math.sqrt(points[i] * points[i] + points[i + 1] * points[i + 1] + points[i + 2] * points[i + 2]);
+        }
+
+        private boolean sameTexCoords(Canonical other) {
+            int[] cornerTexCoords = mesh.getCornerTexCoords().array();
+            float[] texCoords = mesh.getTexCoords().array();
+            for (int i = 0; i < corners.length; i++) {
+                int a = cornerTexCoords[triangles[i / 3] * 3 + i % 3];
+                int b = cornerTexCoords[other.triangles[i / 3] * 3 + i % 3];
+                if ((a == ObjMesh.NONE) != (b == ObjMesh.NONE)) {
+                    return false;
+                }
+                if (a != ObjMesh.NONE && a != b
+                        && (Math.abs(texCoords[a * 2] - texCoords[b * 2]) > TEX_COORD_TOLERANCE
+                        || Math.abs(texCoords[a * 2 + 1] - texCoords[b * 2 + 1]) > TEX_COORD_TOLERANCE)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean sameNormals(Canonical other, double[] r) {
+            int[] cornerNormals = mesh.getCornerNormals().array();
+            float[] normals = mesh.getNormals().array();
+            for (int i = 0; i < corners.length; i++) {
+                int a = cornerNormals[triangles[i / 3] * 3 + i % 3];
+                int b = cornerNormals[other.triangles[i / 3] * 3 + i % 3];
+                if ((a == ObjMesh.NONE) != (b == ObjMesh.NONE)) {
+                    return false;
+                }
+                if (a == ObjMesh.NONE) {
+                    continue;
+                }
+                for (int k = 0; k < 3; k++) {
+                    double rotated = r[k * 3] * normals[a * 3] + r[k * 3 + 1] * normals[a * 3 + 1]
+                            + r[k * 3 + 2] * normals[a * 3 + 2];
+                    if (Math.abs(rotated - normals[b * 3 + k]) > NORMAL_TOLERANCE) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Copies triangles to another mesh, numbering their positions, texture coordinates and normals by first use.
+     */
+    private static final class Remap {
+        private final ObjMesh from;
+        private final ObjMesh to;
+        private final int[] positions;
+        private final int[] texCoords;
+        private final int[] normals;
+
+        private Remap(ObjMesh from, ObjMesh to) {
+            this.from = from;
+            this.to = to;
+            positions = filled(from.getPositionCount());
+            texCoords = filled(from.getTexCoordCount());
+            normals = filled(from.getNormalCount());
+        }
+
+        private void triangle(int t) {
+            int[] corner = new int[9];
+            for (int k = 0; k < 3; k++) {
+                corner[k * 3] = position(from.getCornerPositions().get(t * 3 + k));
+                corner[k * 3 + 1] = texCoord(from.getCornerTexCoords().get(t * 3 + k));
+                corner[k * 3 + 2] = normal(from.getCornerNormals().get(t * 3 + k));
+            }
+            to.addTriangle(corner[0], corner[1], corner[2], corner[3], corner[4], corner[5], corner[6], corner[7],
+                    corner[8]);
+        }
+
+        private int position(int p) {
+            if (positions[p] < 0) {
+                positions[p] = to.getPositionCount();
+                float[] values = from.getPositions().array();
+                to.getPositions().add(values[p * 3], values[p * 3 + 1], values[p * 3 + 2]);
+            }
+            return positions[p];
+        }
+
+        private int texCoord(int tc) {
+            if (tc == ObjMesh.NONE) {
+                return ObjMesh.NONE;
+            }
+            if (texCoords[tc] < 0) {
+                texCoords[tc] = to.getTexCoordCount();
+                to.getTexCoords().add(from.getTexCoords().get(tc * 2));
+                to.getTexCoords().add(from.getTexCoords().get(tc * 2 + 1));
+            }
+            return texCoords[tc];
+        }
+
+        private int normal(int n) {
+            if (n == ObjMesh.NONE) {
+                return ObjMesh.NONE;
+            }
+            if (normals[n] < 0) {
+                normals[n] = to.getNormalCount();
+                float[] values = from.getNormals().array();
+                to.getNormals().add(values[n * 3], values[n * 3 + 1], values[n * 3 + 2]);
+            }
+            return normals[n];
+        }
+
+        private static int[] filled(int size) {
+            int[] remap = new int[size];
+            Arrays.fill(remap, -1);
+            return remap;
+        }
+    }
+}
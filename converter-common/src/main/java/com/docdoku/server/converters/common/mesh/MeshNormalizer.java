@@ -0,0 +1,191 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scales a converted OBJ file to a canonical unit and moves it to the center of its bounding box when it sits far
+ * from the origin, before it is read in single precision by the {@link MeshPostProcessor}: parts placed in site
+ * coordinates kilometres away keep their detail, and fewer decimals describe them.
+ * <p>
+ * The file is streamed twice in double precision, once for its bounding box then to rewrite its positions, other
+ * lines being copied byte for byte. The transform applied, such that a normalized position is
+ * {@code scale * position + translation}, is written next to the file as JSON so that it can be undone.
+ * <p>
+ * Meshes are shipped in the units the tools write them, {@code mesh_unit} is empty in the conf.properties of the
+ * converters. Setting it, to {@code mm} for instance, along with the {@code mesh_source_unit} of the tool, scales
+ * them for the viewers that expect it.
+ */
+public final class MeshNormalizer {
+
+    private static final Logger LOGGER = Logger.getLogger(MeshNormalizer.class.getName());
+    private static final String TRANSFORM_SUFFIX = ".transform.json";
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9][0-9.eE+-]*");
+
+    private MeshNormalizer() {
+    }
+
+    /**
+     * Rewrites the OBJ file in place if it has to be scaled or moved.
+     *
+     * @param cadFile the converted file, whose declared unit is used if the settings say so
+     * @return the transform file, if the mesh was scaled or moved
+     */
+    public static List<Path> normalize(Path objFile, Path cadFile, MeshSettings settings) throws IOException {
+        if (!settings.isNormalizingUnits() && !settings.isRecentering()) {
+            return Collections.emptyList();
+        }
+        String name = String.valueOf(cadFile.getFileName());
+        String sourceUnit = settings.getSourceUnit(name.substring(name.lastIndexOf('.') + 1));
+        double sourceMetres = MeshSettings.DECLARED.equalsIgnoreCase(sourceUnit) ? MeshUnits.declared(cadFile)
+                : MeshUnits.metresPer(sourceUnit);
+        double targetMetres = MeshUnits.metresPer(settings.getUnit());
+        boolean scaling = settings.isNormalizingUnits() && !Double.isNaN(sourceMetres) && !Double.isNaN(targetMetres);
+        double scale = scaling ? sourceMetres / targetMetres : 1;
+        if (settings.isNormalizingUnits() && !scaling) {
+            LOGGER.log(Level.FINE, "Unit of {0} not known, kept as converted", name);
+        }
+
+        double[] center = new double[3];
+        if (settings.isRecentering()) {
+            Bounds bounds = bounds(objFile);
+            double[] middle = {(bounds.getMinX() + bounds.getMaxX()) / 2, (bounds.getMinY() + bounds.getMaxY()) / 2,
+                    (bounds.getMinZ() + bounds.getMaxZ()) / 2};
+            double distance = Math.sqrt(middle[0] * middle[0] + middle[1] * middle[1] + middle[2] * middle[2]);
+            if (!bounds.isEmpty() && distance > settings.getRecenteringMinOffsetRatio() * bounds.getDiagonal()) {
+                center = middle;
+            }
+        }
+        double[] translation = {-scale * center[0], -scale * center[1], -scale * center[2]};
+        if (scale == 1 && translation[0] == 0 && translation[1] == 0 && translation[2] == 0) {
+            return Collections.emptyList();
+        }
+
+        Path normalized = objFile.resolveSibling(objFile.getFileName() + ".normalizing");
+        try {
+            rewrite(objFile, normalized, scale, translation);
+            Files.move(normalized, objFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(normalized);
+        }
+        Path transformFile = transformFileFor(objFile);
+        writeTransform(scaling ? settings.getUnit() : null, scale, translation, transformFile);
+        LOGGER.log(Level.FINE, "Normalized {0}: scaled by {1}, moved by {2} {3} {4}", new Object[]{name, scale,
+                translation[0], translation[1], translation[2]});
+        return Collections.singletonList(transformFile);
+    }
+
+    /**
+     * @return the transform file of a converted OBJ file, named after it without its extension so that it also
+     * applies to the GLB file written from it
+     */
+    public static Path transformFileFor(Path objFile) {
+        String name = String.valueOf(objFile.getFileName());
+        int dot = name.lastIndexOf('.');
+        return objFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + TRANSFORM_SUFFIX);
+    }
+
+    /**
+     * @return the scale followed by the translation written in the given transform file
+     */
+    public static double[] readTransform(Path jsonFile) throws IOException {
+        String json = new String(Files.readAllBytes(jsonFile), StandardCharsets.UTF_8);
+        Matcher scale = Pattern.compile("\"scale\":(" + NUMBER.pattern() + ")").matcher(json);
+        int translationStart = json.indexOf("\"translation\":[");
+        if (!scale.find() || translationStart < 0) {
+            throw new IOException("Invalid transform file " + jsonFile);
+        }
+        double[] transform = {Double.parseDouble(scale.group(1)), 0, 0, 0};
+        Matcher number = NUMBER.matcher(json.substring(translationStart, json.indexOf(']', translationStart)));
+        for (int i = 1; i < transform.length && number.find(); i++) {
+            transform[i] = Double.parseDouble(number.group());
+        }
+        return transform;
+    }
+
+    private static void writeTransform(String unit, double scale, double[] translation, Path jsonFile)
+            throws IOException {
+        try (Writer writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            writer.write("{\"unit\":" + (unit == null ? "null" : GlbWriter.string(unit.toLowerCase(Locale.ROOT)))
+                    + ",\"scale\":" + scale + ",\"translation\":[" + translation[0] + "," + translation[1] + ","
+                    + translation[2] + "]}\n");
+        }
+    }
+
+    private static Bounds bounds(Path objFile) throws IOException {
+        Bounds bounds = new Bounds();
+        double[] vector = new double[3];
+        try {
+            ObjLineScanner.scan(objFile, (buffer, start, end) -> {
+                if (ObjPrecisionRewriter.keyword(buffer, start, end) == 'v'
+                        && ObjPrecisionRewriter.parseVector(buffer, start + 1, end, vector, 3) == 3) {
+                    bounds.add(vector[0], vector[1], vector[2]);
+                }
+            });
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in " + objFile, e);
+        }
+        return bounds;
+    }
+
+    private static void rewrite(Path source, Path target, double scale, double[] translation) throws IOException {
+        try (ObjOutput out = new ObjOutput(target)) {
+            ObjLineScanner.scan(source, (buffer, start, end) -> {
+                if (ObjPrecisionRewriter.keyword(buffer, start, end) != 'v') {
+                    out.bytes(buffer, start, end).put('\n');
+                    return;
+                }
+                out.put('v');
+                int position = start + 1;
+                int index = 0;
+                while ((position = ObjPrecisionRewriter.skipBlanks(buffer, position, end)) < end) {
+                    int tokenEnd = ObjPrecisionRewriter.tokenEnd(buffer, position, end);
+                    out.put(' ');
+                    if (index < 3) {
+                        double value = scale * Decimals.parse(buffer, position, tokenEnd) + translation[index];
+                        out.decimal(value, Decimals.MAX_DECIMALS);
+                    } else {
+                        // Weights or vertex colors following positions are kept
+                        out.bytes(buffer, position, tokenEnd);
+                    }
+                    position = tokenEnd;
+                    index++;
+                }
+                out.put('\n');
+            });
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in " + source, e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cleans up a converted OBJ file once on the server, rather than on every load in the browser:
+ * polygons are triangulated, positions welded and normals generated, and numbers are written with no more
+ * decimals than the part size calls for. The mesh is first checked by the {@link MeshQualityGate} if enabled.
+ * Repeated components are then replaced by prototypes if instancing is enabled, see {@link MeshInstancer}.
+ */
+public class MeshPostProcessor {
+
+    private static final Logger LOGGER = Logger.getLogger(MeshPostProcessor.class.getName());
+
+    private MeshPostProcessor() {
+    }
+
+    /**
+     * Checks the OBJ file, then rewrites it in place if the post-processing or the precision reduction is enabled.
+     * If the file was normalized, the distances of the settings are scaled like it.
+     *
+     * @return the files written next to the OBJ file, the index of its prototypes if some components were instanced
+     * @throws MeshQualityException if the mesh is rejected by the quality gate
+     */
+    public static List<Path> process(Path objFile, MeshSettings settings) throws IOException {
+        if (!settings.isEnabled() && !settings.isReducingPrecision() && !settings.isCheckingQuality()) {
+            return Collections.emptyList();
+        }
+        // Distances of the settings are given in the units of the tool, the mesh may have been scaled since
+        Path transformFile = MeshNormalizer.transformFileFor(objFile);
+        if (Files.exists(transformFile)) {
+            settings = settings.scaledBy(MeshNormalizer.readTransform(transformFile)[0]);
+        }
+        long start = System.currentTimeMillis();
+        long size = Files.size(objFile);
+        ObjMesh mesh = null;
+        if (settings.isEnabled() || settings.isCheckingQuality()) {
+            mesh = ObjReader.read(objFile);
+            if (settings.isCheckingQuality()) {
+                MeshQualityGate.check(mesh, String.valueOf(objFile.getFileName()), settings);
+            }
+        }
+        if (!settings.isEnabled() && !settings.isReducingPrecision()) {
+            return Collections.emptyList();
+        }
+        List<Path> written = new ArrayList<>();
+        Path processed = objFile.resolveSibling(objFile.getFileName() + ".processing");
+        try {
+            if (settings.isEnabled()) {
+                int welded = 0;
+                if (settings.isWelding()) {
+                    welded = MeshWelder.weld(mesh, settings.getWeldTolerance());
+                }
+                if (settings.isGeneratingNormals() && mesh.isMissingNormals()) {
+                    NormalGenerator.generate(mesh, settings.getCreaseAngleDegrees());
+                }
+                // Instanced once welded and given normals, so that copies are connected and their normals compared
+                if (settings.isInstancing()) {
+                    List<MeshPrototype> prototypes = MeshInstancer.instance(mesh,
+                            settings.getInstancingRelativeTolerance(), settings.getInstancingMinTriangles());
+                    if (!prototypes.isEmpty()) {
+                        Path index = MeshInstancer.indexFileFor(objFile);
+                        MeshInstancer.writeIndex(prototypes, index);
+                        written.add(index);
+                        LOGGER.log(Level.FINE, "Instanced {0}: {1} prototypes, {2} triangles left",
+                                new Object[]{objFile.getFileName(), prototypes.size(), mesh.getTriangleCount()});
+                    }
+                }
+                ObjWriter.write(mesh, processed, settings.precisionFor(Bounds.of(mesh.getPositions()).getDiagonal()));
+                LOGGER.log(Level.FINE, "Post-processed {0}: {1} triangles, {2} positions welded, {3} elements dropped",
+                        new Object[]{objFile.getFileName(), mesh.getTriangleCount(), welded, mesh.getDroppedElements()});
+            } else {
+                // The mesh read for the quality gate, if any, is released before the file is streamed
+                mesh = null;
+                ObjPrecisionRewriter.rewrite(objFile, processed, settings);
+            }
+            Files.move(processed, objFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(processed);
+        }
+        LOGGER.log(Level.FINE, "Rewrote {0} from {1} to {2} bytes in {3} ms", new Object[]{objFile.getFileName(), size,
+                Files.size(objFile), System.currentTimeMillis() - start});
+        return written;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Geometry repeated in a mesh, written once and placed again by each of its instance transforms.
+ */
+public final class MeshPrototype {
+
+    private final String object;
+    private final int firstTriangle;
+    private final int triangleCount;
+    private final List<double[]> transforms;
+
+    MeshPrototype(String object, int firstTriangle, int triangleCount, List<double[]> transforms) {
+        this.object = object;
+        this.firstTriangle = firstTriangle;
+        this.triangleCount = triangleCount;
+        this.transforms = new ArrayList<>(transforms);
+    }
+
+    /**
+     * @return the name of the OBJ object of the prototype
+     */
+    public String getObject() {
+        return object;
+    }
+
+    public int getFirstTriangle() {
+        return firstTriangle;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * The prototype is drawn where it is written, and again at every transform.
+     *
+     * @return the rigid transforms of the copies as row-major 3x4 matrices, as those of {@link AssemblyInstance}
+     */
+    public List<double[]> getTransforms() {
+        return Collections.unmodifiableList(transforms);
+    }
+}
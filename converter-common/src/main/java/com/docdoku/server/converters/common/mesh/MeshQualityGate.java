@@ -0,0 +1,197 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks of a converted mesh, run before it is stored: external tools sometimes exit successfully with an empty
+ * or broken result. A mesh is rejected if it has no triangles, if some coordinates are not finite numbers, if it is
+ * larger than the converter output can be, if a few positions lie far away from the bulk of the others, or if
+ * most of its triangles are duplicates.
+ * <p>
+ * Shipped converters do not check their meshes. The gate is enabled with {@code mesh_quality_gate=true} in the
+ * conf.properties of a converter, {@code mesh_quality_max_extent} being set for the units of its output.
+ */
+public final class MeshQualityGate {
+
+    // Positions sampled to estimate the bulk of a part
+    private static final int SAMPLE_SIZE = 65536;
+    private static final int MIN_OUTLIER_SAMPLE = 100;
+    private static final double BULK_PERCENTILE = 0.01;
+
+    private MeshQualityGate() {
+    }
+
+    /**
+     * @throws MeshQualityException with the diagnostic of every failed check
+     */
+    public static void check(ObjMesh mesh, String fileName, MeshSettings settings) throws MeshQualityException {
+        List<String> problems = new ArrayList<>();
+        if (mesh.getTriangleCount() == 0) {
+            problems.add("no triangles, " + mesh.getPositionCount() + " positions and " + mesh.getDroppedElements()
+                    + " unsupported elements");
+        }
+        int invalidPositions = countNonFinite(mesh.getPositions());
+        if (invalidPositions > 0) {
+            problems.add(invalidPositions + " NaN or infinite position coordinates, the first one at position "
+                    + (firstNonFinite(mesh.getPositions()) / 3 + 1));
+        }
+        int invalidNormals = countNonFinite(mesh.getNormals());
+        if (invalidNormals > 0) {
+            problems.add(invalidNormals + " NaN or infinite normal coordinates");
+        }
+        int invalidTexCoords = countNonFinite(mesh.getTexCoords());
+        if (invalidTexCoords > 0) {
+            problems.add(invalidTexCoords + " NaN or infinite texture coordinates");
+        }
+
+        Bounds bounds = finiteBounds(mesh.getPositions());
+        double diagonal = bounds.isEmpty() ? 0 : bounds.getDiagonal();
+        if (settings.getMaxExtent() > 0 && diagonal > settings.getMaxExtent()) {
+            problems.add("extent " + format(diagonal) + " above " + format(settings.getMaxExtent()) + ", from ("
+                    + format(bounds.getMinX()) + ", " + format(bounds.getMinY()) + ", " + format(bounds.getMinZ())
+                    + ") to (" + format(bounds.getMaxX()) + ", " + format(bounds.getMaxY()) + ", "
+                    + format(bounds.getMaxZ()) + ")");
+        }
+        double bulkDiagonal = bulkDiagonal(mesh.getPositions());
+        if (bulkDiagonal > 0 && diagonal / bulkDiagonal > settings.getMaxOutlierRatio()) {
+            problems.add("positions up to " + Math.round(diagonal / bulkDiagonal)
+                    + " times farther apart than the bulk of the part, of diagonal " + format(bulkDiagonal));
+        }
+
+        int duplicates = countDuplicateTriangles(mesh);
+        if (duplicates > 0 && duplicates > settings.getMaxDuplicateRatio() * mesh.getTriangleCount()) {
+            problems.add(duplicates + " duplicate triangles out of " + mesh.getTriangleCount());
+        }
+
+        if (!problems.isEmpty()) {
+            throw new MeshQualityException(fileName, problems);
+        }
+    }
+
+    /**
+     * Coordinates are read as floats, printing them as doubles would show the conversion noise.
+     */
+    private static String format(double value) {
+        return String.valueOf((float) value);
+    }
+
+    private static int countNonFinite(FloatArray values) {
+        float[] data = values.array();
+        int count = 0;
+        for (int i = 0, n = values.size(); i < n; i++) {
+            if (!Float.isFinite(data[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int firstNonFinite(FloatArray values) {
+        float[] data = values.array();
+        for (int i = 0, n = values.size(); i < n; i++) {
+            if (!Float.isFinite(data[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Bounds finiteBounds(FloatArray positions) {
+        Bounds bounds = new Bounds();
+        float[] data = positions.array();
+        for (int i = 0, n = positions.size(); i < n; i += 3) {
+            if (Float.isFinite(data[i]) && Float.isFinite(data[i + 1]) && Float.isFinite(data[i + 2])) {
+                bounds.add(data[i], data[i + 1], data[i + 2]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return the diagonal of the box between the 1st and 99th percentiles of the coordinates of a sample of the
+     * positions, or 0 if there are too few of them
+     */
+    private static double bulkDiagonal(FloatArray positions) {
+        int count = positions.size() / 3;
+        if (count < MIN_OUTLIER_SAMPLE) {
+            return 0;
+        }
+        int sampleSize = Math.min(count, SAMPLE_SIZE);
+        float[] data = positions.array();
+        float[] axis = new float[sampleSize];
+        double squared = 0;
+        for (int a = 0; a < 3; a++) {
+            int finite = 0;
+            for (int s = 0; s < sampleSize; s++) {
+                float value = data[(int) ((long) s * count / sampleSize) * 3 + a];
+                if (Float.isFinite(value)) {
+                    axis[finite++] = value;
+                }
+            }
+            if (finite < MIN_OUTLIER_SAMPLE) {
+                return 0;
+            }
+            Arrays.sort(axis, 0, finite);
+            int low = (int) (finite * BULK_PERCENTILE);
+            double size = axis[finite - 1 - low] - axis[low];
+            squared += size * size;
+        }
+        return Math.sqrt(squared);
+    }
+
+    /**
+     * Counts the triangles whose corners have the same coordinates as those of a previous triangle, whatever their
+     * order and whether their positions are shared or not.
+     */
+    private static int countDuplicateTriangles(ObjMesh mesh) {
+        float[] positions = mesh.getPositions().array();
+        int[] corners = mesh.getCornerPositions().array();
+        LongIntMap seen = new LongIntMap();
+        int duplicates = 0;
+        for (int t = 0, n = mesh.getTriangleCount(); t < n; t++) {
+            long a = hash(positions, corners[t * 3]);
+            long b = hash(positions, corners[t * 3 + 1]);
+            long c = hash(positions, corners[t * 3 + 2]);
+            // Order independent combination of the corner hashes
+            long key = (a + b + c) * 0x9E3779B97F4A7C15L ^ (a ^ b ^ c) ^ Long.rotateLeft(a * b * c, 29);
+            if (seen.get(key) >= 0) {
+                duplicates++;
+            } else {
+                seen.put(key, t);
+            }
+        }
+        return duplicates;
+    }
+
+    private static long hash(float[] positions, int position) {
+        long h = 0x27D4EB2F165667C5L;
+        for (int i = position * 3, end = i + 3; i < end; i++) {
+            // -0 and 0 are the same coordinate
+            h = (h ^ Float.floatToIntBits(positions[i] + 0f)) * 0x100000001B3L;
+            h = Long.rotateLeft(h, 23);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Settings of the mesh post-processing of converted OBJ files, read from the converters conf.properties:
+ * <ul>
+ * <li>{@code mesh_post_processing}: whether converted meshes are welded and given normals, defaults to false</li>
+ * <li>{@code mesh_weld_tolerance}: distance under which positions are merged, in the units of the converter
+ * output, 0 merges identical positions only and a negative value disables welding, defaults to 0</li>
+ * <li>{@code mesh_crease_angle_degrees}: widest angle between triangles sharing smooth normals, 180 for fully
+ * smooth normals and a negative value to keep the normals of the file, defaults to 45</li>
+ * <li>{@code mesh_precision_relative_tolerance}: rounding of positions, relative to the diagonal of the part,
+ * 0 to keep the full precision, defaults to 0</li>
+ * <li>{@code mesh_normal_decimals}: decimals of the rounded normals, defaults to 4</li>
+ * <li>{@code mesh_texcoord_decimals}: decimals of the rounded texture coordinates, defaults to 5</li>
+ * <li>{@code mesh_quality_gate}: whether converted meshes are checked by the {@link MeshQualityGate},
+ * defaults to false</li>
+ * <li>{@code mesh_quality_max_extent}: largest diagonal of a part, in the units of the converter output,
+ * before it is scaled to {@code mesh_unit}, 0 for no limit, defaults to 0</li>
+ * <li>{@code mesh_quality_max_outlier_ratio}: largest ratio of the part diagonal to the diagonal of the bulk of
+ * its positions, defaults to 1000</li>
+ * <li>{@code mesh_quality_max_duplicate_ratio}: largest share of duplicate triangles, defaults to 0.5</li>
+ * <li>{@code mesh_instancing}: whether repeated components are replaced by a prototype and its transforms, see
+ * {@link MeshInstancer}, defaults to false</li>
+ * <li>{@code mesh_instancing_relative_tolerance}: largest distance between a copy and its prototype, relative to
+ * the size of the prototype, defaults to 0.00001</li>
+ * <li>{@code mesh_instancing_min_triangles}: smallest component worth instancing, defaults to 16</li>
+ * <li>{@code mesh_unit}: unit converted meshes are scaled to, such as mm, empty to keep the units of the
+ * converter output, see {@link MeshNormalizer}, defaults to empty</li>
+ * <li>{@code mesh_source_unit}: unit of the converter output, or {@code declared} for the unit declared by the
+ * converted file, defaults to declared. {@code mesh_source_unit.<extension>} sets it for one input format</li>
+ * <li>{@code mesh_recentering}: whether meshes far from the origin are moved to the center of their bounding box,
+ * defaults to false</li>
+ * <li>{@code mesh_recentering_min_offset_ratio}: smallest distance from the origin to the center of a mesh,
+ * relative to its diagonal, for it to be moved, defaults to 10</li>
+ * </ul>
+ * The converters ship with the post-processing off, converted meshes are then returned as the tool wrote them.
+ * It is turned on in the conf.properties of a converter with {@code mesh_post_processing=true}.
+ * Positions are kept at full precision and welded only where identical unless {@code mesh_precision_relative_tolerance}
+ * and {@code mesh_weld_tolerance} are set too, 0.00001 rounding positions to a hundred thousandth of the part.
+ */
+public class MeshSettings {
+
+    public static final String POST_PROCESSING = "mesh_post_processing";
+    public static final String WELD_TOLERANCE = "mesh_weld_tolerance";
+    public static final String CREASE_ANGLE_DEGREES = "mesh_crease_angle_degrees";
+    public static final String PRECISION_RELATIVE_TOLERANCE = "mesh_precision_relative_tolerance";
+    public static final String NORMAL_DECIMALS = "mesh_normal_decimals";
+    public static final String TEXCOORD_DECIMALS = "mesh_texcoord_decimals";
+    public static final String QUALITY_GATE = "mesh_quality_gate";
+    public static final String QUALITY_MAX_EXTENT = "mesh_quality_max_extent";
+    public static final String QUALITY_MAX_OUTLIER_RATIO = "mesh_quality_max_outlier_ratio";
+    public static final String QUALITY_MAX_DUPLICATE_RATIO = "mesh_quality_max_duplicate_ratio";
+    public static final String INSTANCING = "mesh_instancing";
+    public static final String INSTANCING_RELATIVE_TOLERANCE = "mesh_instancing_relative_tolerance";
+    public static final String INSTANCING_MIN_TRIANGLES = "mesh_instancing_min_triangles";
+    public static final String UNIT = "mesh_unit";
+    public static final String SOURCE_UNIT = "mesh_source_unit";
+    public static final String RECENTERING = "mesh_recentering";
+    public static final String RECENTERING_MIN_OFFSET_RATIO = "mesh_recentering_min_offset_ratio";
+    public static final String DECLARED = "declared";
+
+    private boolean enabled;
+    private float weldTolerance;
+    private float creaseAngleDegrees = 45;
+    private double precisionRelativeTolerance;
+    private int normalDecimals = 4;
+    private int texCoordDecimals = 5;
+    private boolean checkingQuality;
+    private double maxExtent;
+    private double maxOutlierRatio = 1000;
+    private double maxDuplicateRatio = 0.5;
+    private boolean instancing;
+    private double instancingRelativeTolerance = 0.00001;
+    private int instancingMinTriangles = 16;
+    private String unit = "";
+    private String sourceUnit = DECLARED;
+    private final Map<String, String> sourceUnits = new HashMap<>();
+    private boolean recentering;
+    private double recenteringMinOffsetRatio = 10;
+
+    public static MeshSettings from(Properties conf) {
+        MeshSettings settings = new MeshSettings();
+        settings.enabled = Boolean.parseBoolean(conf.getProperty(POST_PROCESSING, "false").trim());
+        settings.weldTolerance = Float.parseFloat(conf.getProperty(WELD_TOLERANCE, "0").trim());
+        settings.creaseAngleDegrees = Float.parseFloat(conf.getProperty(CREASE_ANGLE_DEGREES, "45").trim());
+        settings.precisionRelativeTolerance = Double.parseDouble(conf.getProperty(PRECISION_RELATIVE_TOLERANCE, "0").trim());
+        settings.normalDecimals = Integer.parseInt(conf.getProperty(NORMAL_DECIMALS, "4").trim());
+        settings.texCoordDecimals = Integer.parseInt(conf.getProperty(TEXCOORD_DECIMALS, "5").trim());
+        settings.checkingQuality = Boolean.parseBoolean(conf.getProperty(QUALITY_GATE, "false").trim());
+        settings.maxExtent = Double.parseDouble(conf.getProperty(QUALITY_MAX_EXTENT, "0").trim());
+        settings.maxOutlierRatio = Double.parseDouble(conf.getProperty(QUALITY_MAX_OUTLIER_RATIO, "1000").trim());
+        settings.maxDuplicateRatio = Double.parseDouble(conf.getProperty(QUALITY_MAX_DUPLICATE_RATIO, "0.5").trim());
+        settings.instancing = Boolean.parseBoolean(conf.getProperty(INSTANCING, "false").trim());
+        settings.instancingRelativeTolerance = Double.parseDouble(
+                conf.getProperty(INSTANCING_RELATIVE_TOLERANCE, "0.00001").trim());
+        settings.instancingMinTriangles = Integer.parseInt(conf.getProperty(INSTANCING_MIN_TRIANGLES, "16").trim());
+        settings.unit = conf.getProperty(UNIT, "").trim();
+        settings.sourceUnit = conf.getProperty(SOURCE_UNIT, DECLARED).trim();
+        for (String key : conf.stringPropertyNames()) {
+            if (key.startsWith(SOURCE_UNIT + ".")) {
+                settings.sourceUnits.put(key.substring(SOURCE_UNIT.length() + 1).toLowerCase(Locale.ROOT),
+                        conf.getProperty(key).trim());
+            }
+        }
+        settings.recentering = Boolean.parseBoolean(conf.getProperty(RECENTERING, "false").trim());
+        settings.recenteringMinOffsetRatio = Double.parseDouble(
+                conf.getProperty(RECENTERING_MIN_OFFSET_RATIO, "10").trim());
+        return settings;
+    }
+
+    /**
+     * @return a copy of these settings whose distances apply to meshes scaled by the given factor, such as by the
+     * {@link MeshNormalizer}
+     */
+    MeshSettings scaledBy(double scale) {
+        MeshSettings scaled = new MeshSettings();
+        scaled.enabled = enabled;
+        scaled.weldTolerance = weldTolerance > 0 ? (float) (weldTolerance * scale) : weldTolerance;
+        scaled.creaseAngleDegrees = creaseAngleDegrees;
+        scaled.precisionRelativeTolerance = precisionRelativeTolerance;
+        scaled.normalDecimals = normalDecimals;
+        scaled.texCoordDecimals = texCoordDecimals;
+        scaled.checkingQuality = checkingQuality;
+        scaled.maxExtent = maxExtent * scale;
+        scaled.maxOutlierRatio = maxOutlierRatio;
+        scaled.maxDuplicateRatio = maxDuplicateRatio;
+        scaled.instancing = instancing;
+        scaled.instancingRelativeTolerance = instancingRelativeTolerance;
+        scaled.instancingMinTriangles = instancingMinTriangles;
+        scaled.unit = unit;
+        scaled.sourceUnit = sourceUnit;
+        scaled.sourceUnits.putAll(sourceUnits);
+        scaled.recentering = recentering;
+        scaled.recenteringMinOffsetRatio = recenteringMinOffsetRatio;
+        return scaled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isWelding() {
+        return weldTolerance >= 0;
+    }
+
+    public float getWeldTolerance() {
+        return weldTolerance;
+    }
+
+    public boolean isGeneratingNormals() {
+        return creaseAngleDegrees >= 0;
+    }
+
+    public float getCreaseAngleDegrees() {
+        return creaseAngleDegrees;
+    }
+
+    public boolean isReducingPrecision() {
+        return precisionRelativeTolerance > 0;
+    }
+
+    /**
+     * @return the precision of a part whose bounding box has the given diagonal
+     */
+    public ObjPrecision precisionFor(double diagonal) {
+        if (!isReducingPrecision()) {
+            return ObjPrecision.FULL;
+        }
+        int positionDecimals = diagonal > 0 ? Decimals.decimalsFor(precisionRelativeTolerance * diagonal)
+                : Decimals.MAX_DECIMALS;
+        return new ObjPrecision(positionDecimals, Math.min(normalDecimals, Decimals.MAX_DECIMALS),
+                Math.min(texCoordDecimals, Decimals.MAX_DECIMALS));
+    }
+
+    public boolean isCheckingQuality() {
+        return checkingQuality;
+    }
+
+    public double getMaxExtent() {
+        return maxExtent;
+    }
+
+    public double getMaxOutlierRatio() {
+        return maxOutlierRatio;
+    }
+
+    public double getMaxDuplicateRatio() {
+        return maxDuplicateRatio;
+    }
+
+    public boolean isInstancing() {
+        return instancing;
+    }
+
+    public double getInstancingRelativeTolerance() {
+        return instancingRelativeTolerance;
+    }
+
+    public int getInstancingMinTriangles() {
+        return instancingMinTriangles;
+    }
+
+    public boolean isNormalizingUnits() {
+        return !unit.isEmpty();
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the unit of the meshes converted from files of the given extension, or {@link #DECLARED}
+     */
+    public String getSourceUnit(String extension) {
+        return sourceUnits.getOrDefault(extension.toLowerCase(Locale.ROOT), sourceUnit);
+    }
+
+    public boolean isRecentering() {
+        return recentering;
+    }
+
+    public double getRecenteringMinOffsetRatio() {
+        return recenteringMinOffsetRatio;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Length units, as metres per unit, and the units declared by CAD files:
+ * <ul>
+ * <li>STEP and IFC: the length unit of the data section, an SI unit with its prefix or a unit converted from one,
+ * looked for in the first and last megabytes of the file</li>
+ * <li>COLLADA: the {@code unit} of the {@code asset} block, the metre if none</li>
+ * <li>DXF: the {@code $INSUNITS} header variable</li>
+ * <li>VRML: always the metre</li>
+ * </ul>
+ */
+public final class MeshUnits {
+
+    private static final int PART21_WINDOW = 4 << 20;
+    private static final int HEADER_WINDOW = 1 << 20;
+
+    private static final Pattern STEP_SI_UNIT = Pattern.compile(
+            "LENGTH_UNIT\\s*\\(\\s*\\)[^;]*?SI_UNIT\\s*\\(\\s*(\\.\\w+\\.|\\$)\\s*,\\s*\\.METRE\\.\\s*\\)");
+    private static final Pattern STEP_CONVERTED_UNIT = Pattern.compile(
+            "CONVERSION_BASED_UNIT\\s*\\(\\s*'([^']*)'[^;]*?LENGTH_UNIT\\s*\\(");
+    private static final Pattern IFC_SI_UNIT = Pattern.compile(
+            "IFCSIUNIT\\s*\\(\\s*\\*\\s*,\\s*\\.LENGTHUNIT\\.\\s*,\\s*(\\.\\w+\\.|\\$)\\s*,\\s*\\.METRE\\.\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern IFC_CONVERTED_UNIT = Pattern.compile(
+            "IFCCONVERSIONBASEDUNIT\\s*\\([^,]*,\\s*\\.LENGTHUNIT\\.\\s*,\\s*'([^']*)'", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COLLADA_UNIT = Pattern.compile("<unit\\b[^>]*\\bmeter\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private static final Map<String, Double> UNITS = new HashMap<>();
+    private static final Map<String, Double> SI_PREFIXES = new HashMap<>();
+    private static final double[] DXF_UNITS = {Double.NaN, 0.0254, 0.3048, 1609.344, 0.001, 0.01, 1, 1000,
+            2.54e-8, 2.54e-5, 0.9144, 1e-10, 1e-9, 1e-6, 0.1, 10, 100};
+
+    static {
+        for (String name : new String[]{"mm", "millimetre", "millimeter"}) {
+            UNITS.put(name, 0.001);
+        }
+        for (String name : new String[]{"cm", "centimetre", "centimeter"}) {
+            UNITS.put(name, 0.01);
+        }
+        for (String name : new String[]{"m", "metre", "meter"}) {
+            UNITS.put(name, 1.0);
+        }
+        for (String name : new String[]{"km", "kilometre", "kilometer"}) {
+            UNITS.put(name, 1000.0);
+        }
+        for (String name : new String[]{"um", "micrometre", "micrometer", "micron"}) {
+            UNITS.put(name, 1e-6);
+        }
+        for (String name : new String[]{"in", "inch", "inches"}) {
+            UNITS.put(name, 0.0254);
+        }
+        for (String name : new String[]{"ft", "foot", "feet"}) {
+            UNITS.put(name, 0.3048);
+        }
+        for (String name : new String[]{"yd", "yard", "yards"}) {
+            UNITS.put(name, 0.9144);
+        }
+        for (String name : new String[]{"mi", "mile", "miles"}) {
+            UNITS.put(name, 1609.344);
+        }
+        UNITS.put("mil", 2.54e-5);
+        SI_PREFIXES.put("KILO", 1e3);
+        SI_PREFIXES.put("HECTO", 1e2);
+        SI_PREFIXES.put("DECA", 1e1);
+        SI_PREFIXES.put("DECI", 1e-1);
+        SI_PREFIXES.put("CENTI", 1e-2);
+        SI_PREFIXES.put("MILLI", 1e-3);
+        SI_PREFIXES.put("MICRO", 1e-6);
+        SI_PREFIXES.put("NANO", 1e-9);
+    }
+
+    private MeshUnits() {
+    }
+
+    /**
+     * @param unit a unit name or abbreviation, such as mm or inch, or a number of metres
+     * @return the metres per unit, NaN if the unit is not known
+     */
+    public static double metresPer(String unit) {
+        String name = unit == null ? "" : unit.trim().toLowerCase(Locale.ROOT);
+        Double metres = UNITS.get(name);
+        if (metres != null) {
+            return metres;
+        }
+        try {
+            double value = Double.parseDouble(name);
+            return value > 0 ? value : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return the metres per unit declared by the given file, NaN if it declares none or its format is not known
+     */
+    public static double declared(Path cadFile) throws IOException {
+        String name = String.valueOf(cadFile.getFileName()).toLowerCase(Locale.ROOT);
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        switch (extension) {
+            case "stp":
+            case "step":
+            case "p21":
+                return part21(cadFile, STEP_SI_UNIT, STEP_CONVERTED_UNIT);
+            case "ifc":
+                return part21(cadFile, IFC_SI_UNIT, IFC_CONVERTED_UNIT);
+            case "dae":
+                return collada(cadFile);
+            case "dxf":
+                return dxf(cadFile);
+            case "wrl":
+                return 1;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static double part21(Path file, Pattern siUnit, Pattern convertedUnit) throws IOException {
+        long size = Files.size(file);
+        // Units are usually declared near one end of the data section, reading all of it would take too long
+        String head = read(file, 0, PART21_WINDOW);
+        String tail = size > PART21_WINDOW ? read(file, Math.max(PART21_WINDOW, size - PART21_WINDOW), PART21_WINDOW)
+                : "";
+        for (String text : new String[]{head, tail}) {
+            Matcher matcher = siUnit.matcher(text);
+            if (matcher.find()) {
+                String prefix = matcher.group(1).replace(".", "").toUpperCase(Locale.ROOT);
+                Double factor = SI_PREFIXES.get(prefix);
+                return "$".equals(prefix) ? 1 : factor != null ? factor : Double.NaN;
+            }
+            matcher = convertedUnit.matcher(text);
+            if (matcher.find()) {
+                return metresPer(matcher.group(1));
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static double collada(Path file) throws IOException {
+        String text = read(file, 0, HEADER_WINDOW);
+        int assetEnd = text.indexOf("</asset>");
+        Matcher matcher = COLLADA_UNIT.matcher(assetEnd >= 0 ? text.substring(0, assetEnd) : text);
+        if (matcher.find()) {
+            return metresPer(matcher.group(1));
+        }
+        return text.contains("<COLLADA") ? 1 : Double.NaN;
+    }
+
+    private static double dxf(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+            String line;
+            boolean found = false;
+            while ((line = reader.readLine()) != null) {
+                String value = line.trim();
+                if (found && !"70".equals(value)) {
+                    try {
+                        int code = Integer.parseInt(value);
+                        return code >= 0 && code < DXF_UNITS.length ? DXF_UNITS[code] : Double.NaN;
+                    } catch (NumberFormatException e) {
+                        return Double.NaN;
+                    }
+                }
+                found = found || "$INSUNITS".equals(value);
+                if ("ENDSEC".equals(value) || "ENTITIES".equals(value)) {
+                    return Double.NaN;
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static String read(Path file, long position, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, Math.max(0, channel.size() - position)));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Merges the positions of a mesh closer than a tolerance, using a spatial hash of cells as wide as the tolerance
+ * so that only the 27 cells around a position are searched. Triangles collapsed by the merge and positions no longer
+ * referenced are removed.
+ */
+public final class MeshWelder {
+
+    private MeshWelder() {
+    }
+
+    /**
+     * @param tolerance the distance under which positions are merged, 0 to merge identical positions only
+     * @return the number of positions removed
+     */
+    public static int weld(ObjMesh mesh, float tolerance) {
+        int count = mesh.getPositionCount();
+        float[] positions = Arrays.copyOf(mesh.getPositions().array(), count * 3);
+        int[] remap = new int[count];
+
+        int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        int mask = tableSize - 1;
+        int[] heads = new int[tableSize];
+        Arrays.fill(heads, -1);
+        int[] chain = new int[Math.max(count, 1)];
+        float[] welded = new float[count * 3];
+        int weldedCount = 0;
+
+        boolean exact = tolerance <= 0;
+        float inverse = exact ? 0 : 1 / tolerance;
+        float squaredTolerance = tolerance * tolerance;
+        int radius = exact ? 0 : 1;
+
+        for (int i = 0; i < count; i++) {
+            // Adding 0 turns -0 into 0, which have different bits
+            float x = positions[i * 3] + 0f;
+            float y = positions[i * 3 + 1] + 0f;
+            float z = positions[i * 3 + 2] + 0f;
+            int cx = exact ? Float.floatToIntBits(x) : (int) Math.floor(x * inverse);
+            int cy = exact ? Float.floatToIntBits(y) : (int) Math.floor(y * inverse);
+            int cz = exact ? Float.floatToIntBits(z) : (int) Math.floor(z * inverse);
+
+            int match = -1;
+            for (int dx = -radius; dx <= radius && match < 0; dx++) {
+                for (int dy = -radius; dy <= radius && match < 0; dy++) {
+                    for (int dz = -radius; dz <= radius && match < 0; dz++) {
+                        for (int r = heads[hash(cx + dx, cy + dy, cz + dz) & mask]; r >= 0; r = chain[r]) {
+                            float ex = welded[r * 3] - x;
+                            float ey = welded[r * 3 + 1] - y;
+                            float ez = welded[r * 3 + 2] - z;
+                            if (exact ? ex == 0 && ey == 0 && ez == 0 : ex * ex + ey * ey + ez * ez <= squaredTolerance) {
+                                match = r;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            if (match < 0) {
+                match = weldedCount++;
+                welded[match * 3] = x;
+                welded[match * 3 + 1] = y;
+                welded[match * 3 + 2] = z;
+                int bucket = hash(cx, cy, cz) & mask;
+                chain[match] = heads[bucket];
+                heads[bucket] = match;
+            }
+            remap[i] = match;
+        }
+
+        int[] corners = mesh.getCornerPositions().array();
+        for (int i = 0, n = mesh.getCornerPositions().size(); i < n; i++) {
+            corners[i] = remap[corners[i]];
+        }
+        removeDegenerateTriangles(mesh);
+        int used = compact(mesh, welded, weldedCount);
+        return count - used;
+    }
+
+    private static void removeDegenerateTriangles(ObjMesh mesh) {
+        int triangles = mesh.getTriangleCount();
+        int[] positions = mesh.getCornerPositions().array();
+        int[] texCoords = mesh.getCornerTexCoords().array();
+        int[] normals = mesh.getCornerNormals().array();
+        int[] keptBefore = new int[triangles + 1];
+        int kept = 0;
+        for (int t = 0; t < triangles; t++) {
+            keptBefore[t] = kept;
+            int a = positions[t * 3];
+            int b = positions[t * 3 + 1];
+            int c = positions[t * 3 + 2];
+            if (a != b && b != c && c != a) {
+                if (kept != t) {
+                    System.arraycopy(positions, t * 3, positions, kept * 3, 3);
+                    System.arraycopy(texCoords, t * 3, texCoords, kept * 3, 3);
+                    System.arraycopy(normals, t * 3, normals, kept * 3, 3);
+                }
+                kept++;
+            }
+        }
+        keptBefore[triangles] = kept;
+        mesh.getCornerPositions().truncate(kept * 3);
+        mesh.getCornerTexCoords().truncate(kept * 3);
+        mesh.getCornerNormals().truncate(kept * 3);
+
+        IntArray statementTriangles = mesh.getStatementTriangles();
+        for (int s = 0; s < statementTriangles.size(); s++) {
+            statementTriangles.set(s, keptBefore[statementTriangles.get(s)]);
+        }
+    }
+
+    /**
+     * Replaces the mesh positions by the referenced welded ones.
+     *
+     * @return the number of positions kept
+     */
+    private static int compact(ObjMesh mesh, float[] welded, int weldedCount) {
+        int[] corners = mesh.getCornerPositions().array();
+        int cornerCount = mesh.getCornerPositions().size();
+        int[] remap = new int[weldedCount];
+        Arrays.fill(remap, -1);
+        FloatArray positions = mesh.getPositions();
+        positions.clear();
+        int used = 0;
+        for (int i = 0; i < cornerCount; i++) {
+            int p = corners[i];
+            if (remap[p] < 0) {
+                remap[p] = used++;
+                positions.add(welded[p * 3], welded[p * 3 + 1], welded[p * 3 + 2]);
+            }
+            corners[i] = remap[p];
+        }
+        return used;
+    }
+
+    private static int hash(int x, int y, int z) {
+        int h = x * 73856093 ^ y * 19349663 ^ z * 83492791;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Computes per corner normals: the average of the normals of the triangles sharing the corner position, weighted
+ * by their angle at that position so that the result does not depend on how polygons were triangulated. Triangles
+ * making an angle wider than the crease angle with the corner triangle are left out, so that hard edges stay sharp. Face and corner normals are computed in parallel over the primitive arrays, identical normals
+ * are then shared.
+ */
+public final class NormalGenerator {
+
+    private NormalGenerator() {
+    }
+
+    /**
+     * Replaces the normals of the mesh.
+     *
+     * @param creaseAngleDegrees the widest angle between smoothed triangles, 180 for fully smooth normals
+     */
+    public static void generate(ObjMesh mesh, float creaseAngleDegrees) {
+        int triangles = mesh.getTriangleCount();
+        int positionCount = mesh.getPositionCount();
+        float[] positions = mesh.getPositions().array();
+        int[] corners = mesh.getCornerPositions().array();
+
+        float[] faceUnits = new float[triangles * 3];
+        float[] cornerAngles = new float[triangles * 3];
+        IntStream.range(0, triangles).parallel().forEach(t -> {
+            int a = corners[t * 3] * 3;
+            int b = corners[t * 3 + 1] * 3;
+            int c = corners[t * 3 + 2] * 3;
+            float e1x = positions[b] - positions[a];
+            float e1y = positions[b + 1] - positions[a + 1];
+            float e1z = positions[b + 2] - positions[a + 2];
+            float e2x = positions[c] - positions[a];
+            float e2y = positions[c + 1] - positions[a + 1];
+            float e2z = positions[c + 2] - positions[a + 2];
+            float nx = e1y * e2z - e1z * e2y;
+            float ny = e1z * e2x - e1x * e2z;
+            float nz = e1x * e2y - e1y * e2x;
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0) {
+                faceUnits[t * 3] = nx / length;
+                faceUnits[t * 3 + 1] = ny / length;
+                faceUnits[t * 3 + 2] = nz / length;
+                cornerAngles[t * 3] = angle(positions, a, b, c);
+                cornerAngles[t * 3 + 1] = angle(positions, b, c, a);
+                cornerAngles[t * 3 + 2] = (float) Math.PI - cornerAngles[t * 3] - cornerAngles[t * 3 + 1];
+            }
+        });
+
+        // Corners around each position, in compressed rows
+        int[] offsets = new int[positionCount + 1];
+        for (int i = 0; i < triangles * 3; i++) {
+            offsets[corners[i] + 1]++;
+        }
+        for (int p = 0; p < positionCount; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+        int[] fill = Arrays.copyOf(offsets, positionCount);
+        int[] adjacent = new int[triangles * 3];
+        for (int i = 0; i < triangles * 3; i++) {
+            adjacent[fill[corners[i]]++] = i;
+        }
+
+        float minCosine = creaseAngleDegrees >= 180 ? -2f : (float) Math.cos(Math.toRadians(creaseAngleDegrees));
+        float[] cornerNormals = new float[triangles * 9];
+        IntStream.range(0, triangles).parallel().forEach(t -> {
+            for (int k = 0; k < 3; k++) {
+                int p = corners[t * 3 + k];
+                float nx = 0;
+                float ny = 0;
+                float nz = 0;
+                for (int j = offsets[p]; j < offsets[p + 1]; j++) {
+                    int corner = adjacent[j];
+                    int u = corner / 3;
+                    float cosine = faceUnits[t * 3] * faceUnits[u * 3] + faceUnits[t * 3 + 1] * faceUnits[u * 3 + 1]
+                            + faceUnits[t * 3 + 2] * faceUnits[u * 3 + 2];
+                    if (u == t || cosine >= minCosine) {
+                        float weight = cornerAngles[corner];
+                        nx += faceUnits[u * 3] * weight;
+                        ny += faceUnits[u * 3 + 1] * weight;
+                        nz += faceUnits[u * 3 + 2] * weight;
+                    }
+                }
+                float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                int target = t * 9 + k * 3;
+                if (length > 0) {
+                    cornerNormals[target] = nx / length;
+                    cornerNormals[target + 1] = ny / length;
+                    cornerNormals[target + 2] = nz / length;
+                } else {
+                    // Degenerate neighbourhood, any unit normal will do
+                    cornerNormals[target + 2] = 1;
+                }
+            }
+        });
+
+        share(mesh, cornerNormals, triangles * 3);
+    }
+
+    /**
+     * @return the angle at a of the triangle a, b, c
+     */
+    private static float angle(float[] positions, int a, int b, int c) {
+        double ux = positions[b] - positions[a];
+        double uy = positions[b + 1] - positions[a + 1];
+        double uz = positions[b + 2] - positions[a + 2];
+        double vx = positions[c] - positions[a];
+        double vy = positions[c + 1] - positions[a + 1];
+        double vz = positions[c + 2] - positions[a + 2];
+        double cross = Math.sqrt(Math.pow(uy * vz - uz * vy, 2) + Math.pow(uz * vx - ux * vz, 2)
+                + Math.pow(ux * vy - uy * vx, 2));
+        return (float) Math.atan2(cross, ux * vx + uy * vy + uz * vz);
+    }
+
+    /**
+     * Stores the corner normals in the mesh, normals equal once quantized to 16 bits per component being shared.
+     */
+    private static void share(ObjMesh mesh, float[] cornerNormals, int cornerCount) {
+        FloatArray normals = mesh.getNormals();
+        normals.clear();
+        int[] corners = mesh.getCornerNormals().array();
+        LongIntMap indices = new LongIntMap();
+        for (int i = 0; i < cornerCount; i++) {
+            float nx = cornerNormals[i * 3];
+            float ny = cornerNormals[i * 3 + 1];
+            float nz = cornerNormals[i * 3 + 2];
+            long key = quantize(nx) << 32 | quantize(ny) << 16 | quantize(nz);
+            int index = indices.get(key);
+            if (index < 0) {
+                index = normals.size() / 3;
+                normals.add(nx, ny, nz);
+                indices.put(key, index);
+            }
+            corners[i] = index;
+        }
+    }
+
+    private static long quantize(float component) {
+        return Math.round(component * 32767f) & 0xFFFFL;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A part of an OBJ file, made of whole lines, parsed independently of the others.
+ * <p>
+ * Positive indices are global and resolved at once. Negative ones are relative to the elements read so far, which
+ * include those of the previous chunks: they are resolved against the chunk elements only, possibly to a negative
+ * value, and the corners holding them are listed so that the chunk offsets can be added once all chunks are read.
+ * Polygons are kept as they are, their positions possibly lying in other chunks.
+ */
+final class ObjChunk implements Callable<Void> {
+
+    static final int POSITION = 0;
+    static final int TEX_COORD = 1;
+    static final int NORMAL = 2;
+
+    private final ByteBuffer buffer;
+    private final boolean storing;
+
+    final FloatArray positions;
+    final FloatArray texCoords;
+    final FloatArray normals;
+    final IntArray faceSizes;
+    final IntArray[] corners = new IntArray[3];
+    final IntArray[] relativeCorners = new IntArray[3];
+    final IntArray statementTriangles = new IntArray(16);
+    final List<String> statements = new ArrayList<>();
+    final List<String> header = new ArrayList<>();
+
+    final int[] counts = new int[3];
+    final int[] maxPositive = {-1, -1, -1};
+    final int[] maxPositiveLine = new int[3];
+    final int[] minRelative = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+    final int[] minRelativeLine = new int[3];
+    int triangles;
+    int lines;
+    long dropped;
+    int errorLine;
+    String errorMessage;
+
+    private final int[] faceIndices = new int[3];
+
+    ObjChunk(ByteBuffer buffer, boolean storing) {
+        this.buffer = buffer;
+        this.storing = storing;
+        int capacity = storing ? 1024 : 16;
+        positions = new FloatArray(capacity);
+        texCoords = new FloatArray(capacity);
+        normals = new FloatArray(capacity);
+        faceSizes = new IntArray(capacity);
+        for (int i = 0; i < 3; i++) {
+            corners[i] = new IntArray(capacity);
+            relativeCorners[i] = new IntArray(16);
+        }
+    }
+
+    @Override
+    public Void call() {
+        int limit = buffer.limit();
+        int lineStart = 0;
+        for (int i = 0; i <= limit; i++) {
+            if (i == limit || buffer.get(i) == '\n') {
+                lines++;
+                int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                try {
+                    parseLine(lineStart, lineEnd);
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    errorLine = lines;
+                    errorMessage = e.getMessage() + ": " + text(lineStart, lineEnd);
+                    return null;
+                }
+                lineStart = i + 1;
+            }
+        }
+        // A final line terminator is not followed by another line
+        if (limit > 0 && buffer.get(limit - 1) == '\n') {
+            lines--;
+        }
+        return null;
+    }
+
+    private void parseLine(int start, int end) {
+        int keywordStart = skipBlanks(start, end);
+        if (keywordStart == end || buffer.get(keywordStart) == '#') {
+            return;
+        }
+        int keywordEnd = tokenEnd(keywordStart, end);
+        int keywordLength = keywordEnd - keywordStart;
+        byte first = buffer.get(keywordStart);
+        byte second = keywordLength > 1 ? buffer.get(keywordStart + 1) : 0;
+
+        if (keywordLength == 1 && first == 'v') {
+            parseVector(keywordEnd, end, 3, positions, POSITION);
+        } else if (keywordLength == 2 && first == 'v' && second == 't') {
+            parseVector(keywordEnd, end, 2, texCoords, TEX_COORD);
+        } else if (keywordLength == 2 && first == 'v' && second == 'n') {
+            parseVector(keywordEnd, end, 3, normals, NORMAL);
+        } else if (keywordLength == 1 && first == 'f') {
+            parseFace(keywordEnd, end);
+        } else if (isKeyword(keywordStart, keywordEnd, "o") || isKeyword(keywordStart, keywordEnd, "g")
+                || isKeyword(keywordStart, keywordEnd, "s") || isKeyword(keywordStart, keywordEnd, "usemtl")) {
+            if (storing) {
+                statementTriangles.add(triangles);
+                statements.add(text(keywordStart, end).trim());
+            }
+        } else if (isKeyword(keywordStart, keywordEnd, "mtllib")) {
+            if (storing) {
+                header.add(text(keywordStart, end).trim());
+            }
+        } else {
+            // Lines, points and free-form geometry are not supported by the viewer
+            dropped++;
+        }
+    }
+
+    private void parseVector(int from, int end, int dimension, FloatArray target, int kind) {
+        int position = from;
+        for (int i = 0; i < dimension; i++) {
+            int start = skipBlanks(position, end);
+            int tokenEnd = tokenEnd(start, end);
+            // A missing optional component, such as the v of a 1D texture coordinate, is 0
+            float value = start == tokenEnd ? 0f : (float) Decimals.parse(buffer, start, tokenEnd);
+            if (storing) {
+                target.add(value);
+            }
+            position = tokenEnd;
+        }
+        counts[kind]++;
+    }
+
+    private void parseFace(int from, int end) {
+        int size = 0;
+        int position = skipBlanks(from, end);
+        while (position < end) {
+            int tokenEnd = tokenEnd(position, end);
+            int partStart = position;
+            if (partStart == tokenEnd || buffer.get(partStart) == '/') {
+                throw new NumberFormatException("Face corner without position");
+            }
+            for (int kind = 0; kind < 3; kind++) {
+                int partEnd = partStart;
+                while (partEnd < tokenEnd && buffer.get(partEnd) != '/') {
+                    partEnd++;
+                }
+                faceIndices[kind] = partStart < partEnd ? index(partStart, partEnd, kind) : ObjMesh.NONE;
+                partStart = Math.min(partEnd + 1, tokenEnd);
+                if (partEnd >= tokenEnd) {
+                    for (int rest = kind + 1; rest < 3; rest++) {
+                        faceIndices[rest] = ObjMesh.NONE;
+                    }
+                    break;
+                }
+            }
+            if (storing) {
+                for (int kind = 0; kind < 3; kind++) {
+                    corners[kind].add(faceIndices[kind]);
+                }
+            }
+            size++;
+            position = skipBlanks(tokenEnd, end);
+        }
+        if (size < 3) {
+            if (storing) {
+                for (int kind = 0; kind < 3; kind++) {
+                    int faceStart = corners[kind].size() - size;
+                    corners[kind].truncate(faceStart);
+                    IntArray relative = relativeCorners[kind];
+                    while (relative.size() > 0 && relative.get(relative.size() - 1) >= faceStart) {
+                        relative.truncate(relative.size() - 1);
+                    }
+                }
+            }
+            dropped++;
+            return;
+        }
+        if (storing) {
+            faceSizes.add(size);
+        }
+        triangles += size - 2;
+    }
+
+    /**
+     * @return the global zero based index of a positive index, or the chunk relative one of a negative index
+     */
+    private int index(int start, int end, int kind) {
+        int i = start;
+        boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Invalid index");
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9' || value > 100_000_000) {
+                throw new NumberFormatException("Invalid index");
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (value == 0) {
+            throw new IndexOutOfBoundsException("Index 0");
+        }
+        if (!negative) {
+            if (value - 1 > maxPositive[kind]) {
+                maxPositive[kind] = value - 1;
+                maxPositiveLine[kind] = lines;
+            }
+            return value - 1;
+        }
+        int relative = counts[kind] - value;
+        if (relative < minRelative[kind]) {
+            minRelative[kind] = relative;
+            minRelativeLine[kind] = lines;
+        }
+        if (storing) {
+            // The corner is added once all its indices are read, at the current end of the array
+            relativeCorners[kind].add(corners[kind].size());
+        }
+        return relative;
+    }
+
+    private boolean isKeyword(int start, int end, String keyword) {
+        if (end - start != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buffer.get(start + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipBlanks(int from, int end) {
+        int position = from;
+        while (position < end && isBlank(buffer.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private int tokenEnd(int from, int end) {
+        int position = from;
+        while (position < end && !isBlank(buffer.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    private String text(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
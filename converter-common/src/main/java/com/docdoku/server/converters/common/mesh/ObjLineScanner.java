@@ -0,0 +1,81 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads an OBJ file line by line through a direct buffer, handing out the bytes of each line without decoding them.
+ */
+final class ObjLineScanner {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    interface LineHandler {
+
+        /**
+         * @param buffer the buffer holding the line, to be read with absolute gets
+         * @param start  the index of the first byte of the line
+         * @param end    the index after the last byte of the line, line terminators excluded
+         */
+        void line(ByteBuffer buffer, int start, int end) throws IOException;
+    }
+
+    private ObjLineScanner() {
+    }
+
+    static void scan(Path file, LineHandler handler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                int lineStart = 0;
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '\n' || b == '\r') {
+                        if (i > lineStart) {
+                            handler.line(buffer, lineStart, i);
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                if (eof) {
+                    if (limit > lineStart) {
+                        handler.line(buffer, lineStart, limit);
+                    }
+                } else if (lineStart == 0 && limit == buffer.capacity()) {
+                    throw new IOException("Line longer than " + BUFFER_SIZE + " bytes in " + file);
+                } else {
+                    // Moves the partial last line at the start of the buffer
+                    buffer.position(lineStart);
+                    buffer.compact();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Triangle mesh decoded from an OBJ file, kept in primitive arrays.
+ * <p>
+ * Every triangle has three corners, each referencing a position, and optionally a texture coordinate and a normal
+ * (-1 when absent). Grouping and material statements ({@code o}, {@code g}, {@code usemtl}, {@code s}) are kept
+ * along with the index of the triangle they precede, so that the mesh can be written back with the same structure.
+ */
+public class ObjMesh {
+
+    public static final int NONE = -1;
+
+    private final FloatArray positions = new FloatArray();
+    private final FloatArray texCoords = new FloatArray();
+    private final FloatArray normals = new FloatArray();
+    private final IntArray cornerPositions = new IntArray();
+    private final IntArray cornerTexCoords = new IntArray();
+    private final IntArray cornerNormals = new IntArray();
+    private final List<String> header = new ArrayList<>();
+    private final IntArray statementTriangles = new IntArray(64);
+    private final List<String> statements = new ArrayList<>();
+    private long droppedElements;
+
+    public int getPositionCount() {
+        return positions.size() / 3;
+    }
+
+    public int getTexCoordCount() {
+        return texCoords.size() / 2;
+    }
+
+    public int getNormalCount() {
+        return normals.size() / 3;
+    }
+
+    public int getTriangleCount() {
+        return cornerPositions.size() / 3;
+    }
+
+    /**
+     * @return x, y, z of every position
+     */
+    public FloatArray getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return u, v of every texture coordinate
+     */
+    public FloatArray getTexCoords() {
+        return texCoords;
+    }
+
+    /**
+     * @return x, y, z of every normal
+     */
+    public FloatArray getNormals() {
+        return normals;
+    }
+
+    /**
+     * @return the position index of every triangle corner
+     */
+    public IntArray getCornerPositions() {
+        return cornerPositions;
+    }
+
+    /**
+     * @return the texture coordinate index of every triangle corner, or {@link #NONE}
+     */
+    public IntArray getCornerTexCoords() {
+        return cornerTexCoords;
+    }
+
+    /**
+     * @return the normal index of every triangle corner, or {@link #NONE}
+     */
+    public IntArray getCornerNormals() {
+        return cornerNormals;
+    }
+
+    /**
+     * @return the statements written before any geometry, such as {@code mtllib}
+     */
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the grouping and material statements, in file order
+     */
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return for every statement, the index of the triangle it precedes
+     */
+    public IntArray getStatementTriangles() {
+        return statementTriangles;
+    }
+
+    /**
+     * @return the number of unsupported elements, such as lines or points, dropped while reading
+     */
+    public long getDroppedElements() {
+        return droppedElements;
+    }
+
+    public void addTriangle(int p0, int t0, int n0, int p1, int t1, int n1, int p2, int t2, int n2) {
+        cornerPositions.add(p0, p1, p2);
+        cornerTexCoords.add(t0, t1, t2);
+        cornerNormals.add(n0, n1, n2);
+    }
+
+    public void addStatement(String statement) {
+        statementTriangles.add(getTriangleCount());
+        statements.add(statement);
+    }
+
+    void addDroppedElements(long count) {
+        droppedElements += count;
+    }
+
+    /**
+     * @return true if some triangle corner has no normal
+     */
+    public boolean isMissingNormals() {
+        int[] corners = cornerNormals.array();
+        for (int i = 0, n = cornerNormals.size(); i < n; i++) {
+            if (corners[i] == NONE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
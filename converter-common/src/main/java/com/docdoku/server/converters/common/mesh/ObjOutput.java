@@ -0,0 +1,121 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import com.docdoku.server.converters.common.OutputChecksums;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * OBJ output through a direct buffer, numbers being formatted straight into it.
+ */
+public class ObjOutput implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Room left for any number, so that it never straddles a flush
+    private static final int NUMBER_ROOM = 64;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final CRC32 checksum = new CRC32();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public ObjOutput(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    public ObjOutput ascii(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        return bytes(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Copies the bytes between start and end of the given buffer.
+     */
+    public ObjOutput bytes(ByteBuffer source, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put(source.get(i));
+        }
+        return this;
+    }
+
+    public ObjOutput put(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) c);
+        return this;
+    }
+
+    public ObjOutput integer(long value) throws IOException {
+        ensureRoom();
+        Decimals.write(buffer, value);
+        return this;
+    }
+
+    /**
+     * Writes a value rounded to the given number of decimals, or in full if the number of decimals is negative.
+     */
+    public ObjOutput decimal(double value, int decimals) throws IOException {
+        ensureRoom();
+        if (decimals < 0 || !Decimals.write(buffer, value, decimals)) {
+            ascii(Float.toString((float) value));
+        }
+        return this;
+    }
+
+    private void ensureRoom() throws IOException {
+        if (buffer.remaining() < NUMBER_ROOM) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        OutputChecksums.update(checksum, buffer);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+        OutputChecksums.record(file, checksum);
+    }
+}
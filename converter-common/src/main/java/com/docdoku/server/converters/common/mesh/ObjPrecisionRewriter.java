@@ -0,0 +1,138 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Rewrites the vectors of an OBJ file with fewer decimals, streaming it twice: once for its bounding box, which
+ * gives the position tolerance, then to copy it, other lines being copied byte for byte.
+ */
+public final class ObjPrecisionRewriter {
+
+    private ObjPrecisionRewriter() {
+    }
+
+    public static void rewrite(Path source, Path target, MeshSettings settings) throws IOException {
+        try {
+            copy(source, target, settings);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in " + source, e);
+        }
+    }
+
+    private static void copy(Path source, Path target, MeshSettings settings) throws IOException {
+        Bounds bounds = new Bounds();
+        double[] vector = new double[3];
+        ObjLineScanner.scan(source, (buffer, start, end) -> {
+            if (keyword(buffer, start, end) == 'v' && parseVector(buffer, start + 1, end, vector, 3) == 3) {
+                bounds.add(vector[0], vector[1], vector[2]);
+            }
+        });
+        ObjPrecision precision = settings.precisionFor(bounds.getDiagonal());
+
+        try (ObjOutput out = new ObjOutput(target)) {
+            ObjLineScanner.scan(source, (buffer, start, end) -> {
+                char keyword = keyword(buffer, start, end);
+                if (keyword == 0) {
+                    out.bytes(buffer, start, end).put('\n');
+                    return;
+                }
+                int decimals;
+                int from;
+                if (keyword == 'v') {
+                    decimals = precision.getPositionDecimals();
+                    from = start + 1;
+                    out.put('v');
+                } else if (keyword == 'n') {
+                    decimals = precision.getNormalDecimals();
+                    from = start + 2;
+                    out.put('v').put('n');
+                } else {
+                    decimals = precision.getTexCoordDecimals();
+                    from = start + 2;
+                    out.put('v').put('t');
+                }
+                int position = from;
+                int index = 0;
+                while ((position = skipBlanks(buffer, position, end)) < end) {
+                    int tokenEnd = tokenEnd(buffer, position, end);
+                    // Vertex colors following positions are written as normals are
+                    int tokenDecimals = keyword == 'v' && index >= 3 ? precision.getNormalDecimals() : decimals;
+                    out.put(' ').decimal(Decimals.parse(buffer, position, tokenEnd), tokenDecimals);
+                    position = tokenEnd;
+                    index++;
+                }
+                out.put('\n');
+            });
+        }
+    }
+
+    /**
+     * @return 'v' for a position, 'n' for a normal, 't' for a texture coordinate, 0 for any other line
+     */
+    static char keyword(ByteBuffer buffer, int start, int end) {
+        if (end - start < 2 || buffer.get(start) != 'v') {
+            return 0;
+        }
+        byte second = buffer.get(start + 1);
+        if (second == ' ' || second == '\t') {
+            return 'v';
+        }
+        if ((second == 'n' || second == 't') && end - start > 2 && isBlank(buffer.get(start + 2))) {
+            return (char) second;
+        }
+        return 0;
+    }
+
+    static int parseVector(ByteBuffer buffer, int from, int end, double[] vector, int count) {
+        int parsed = 0;
+        int position = from;
+        while (parsed < count && (position = skipBlanks(buffer, position, end)) < end) {
+            int tokenEnd = tokenEnd(buffer, position, end);
+            vector[parsed++] = Decimals.parse(buffer, position, tokenEnd);
+            position = tokenEnd;
+        }
+        return parsed;
+    }
+
+    static int skipBlanks(ByteBuffer buffer, int from, int end) {
+        int position = from;
+        while (position < end && isBlank(buffer.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    static int tokenEnd(ByteBuffer buffer, int from, int end) {
+        int position = from;
+        while (position < end && !isBlank(buffer.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
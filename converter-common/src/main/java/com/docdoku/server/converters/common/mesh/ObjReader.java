@@ -0,0 +1,269 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel OBJ reader: the file is memory-mapped and split at line boundaries into chunks, parsed on the common
+ * fork-join pool into primitive arrays. Relative indices, which depend on the elements of the previous chunks, are
+ * fixed up once all chunks are read, then polygons are triangulated, again one task per chunk.
+ * <p>
+ * Lines, points and free-form geometry are not supported by the viewer and are dropped.
+ */
+public class ObjReader {
+
+    private static final long MIN_CHUNK_SIZE = 4L * 1024 * 1024;
+    private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+
+    private ObjReader() {
+    }
+
+    public static ObjMesh read(Path objFile) throws IOException {
+        return read(objFile, chunkSize(objFile));
+    }
+
+    /**
+     * Checks that an OBJ file is well-formed, every face index referring to an existing element, without keeping
+     * its geometry.
+     *
+     * @throws IOException if the file cannot be read or is not a valid OBJ file
+     */
+    public static void validate(Path objFile) throws IOException {
+        validate(objFile, chunkSize(objFile));
+    }
+
+    static ObjMesh read(Path objFile, long chunkSize) throws IOException {
+        List<ObjChunk> chunks = parse(objFile, chunkSize, true);
+        int[] offsets = check(objFile, chunks);
+        return merge(chunks, offsets);
+    }
+
+    static void validate(Path objFile, long chunkSize) throws IOException {
+        check(objFile, parse(objFile, chunkSize, false));
+    }
+
+    private static long chunkSize(Path objFile) throws IOException {
+        long size = Files.size(objFile);
+        long perTask = size / (ForkJoinPool.commonPool().getParallelism() * 4L);
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, perTask));
+    }
+
+    private static List<ObjChunk> parse(Path objFile, long chunkSize, boolean storing) throws IOException {
+        List<ObjChunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(objFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+            long start = 0;
+            while (start < size) {
+                long end = lineEnd(channel, scan, Math.min(size, start + chunkSize), size);
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("OBJ line too long in " + objFile);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                chunks.add(new ObjChunk(buffer, storing));
+                start = end;
+            }
+        }
+        invokeAll(chunks);
+        return chunks;
+    }
+
+    /**
+     * @return the offset following the first line terminator at or after the given one, or the file size
+     */
+    private static long lineEnd(FileChannel channel, ByteBuffer scan, long from, long size) throws IOException {
+        long position = from;
+        while (position < size) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read <= 0) {
+                return size;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Reports the first syntax error, then checks that every index falls within the elements of the file.
+     *
+     * @return for every chunk, the number of positions, texture coordinates and normals of the previous ones
+     */
+    private static int[] check(Path objFile, List<ObjChunk> chunks) throws IOException {
+        int[] offsets = new int[chunks.size() * 3];
+        int[] totals = new int[3];
+        int[] lineOffsets = new int[chunks.size()];
+        int lines = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            ObjChunk chunk = chunks.get(c);
+            if (chunk.errorMessage != null) {
+                throw invalidLine(objFile, lines + chunk.errorLine, chunk.errorMessage);
+            }
+            lineOffsets[c] = lines;
+            lines += chunk.lines;
+            for (int kind = 0; kind < 3; kind++) {
+                offsets[c * 3 + kind] = totals[kind];
+                if (chunk.minRelative[kind] != Integer.MAX_VALUE && totals[kind] + chunk.minRelative[kind] < 0) {
+                    throw invalidLine(objFile, lineOffsets[c] + chunk.minRelativeLine[kind],
+                            "Relative index out of " + (totals[kind] + chunk.counts[kind]));
+                }
+                totals[kind] += chunk.counts[kind];
+            }
+        }
+        for (int c = 0; c < chunks.size(); c++) {
+            ObjChunk chunk = chunks.get(c);
+            for (int kind = 0; kind < 3; kind++) {
+                if (chunk.maxPositive[kind] >= totals[kind]) {
+                    throw invalidLine(objFile, lineOffsets[c] + chunk.maxPositiveLine[kind],
+                            "Index " + (chunk.maxPositive[kind] + 1) + " out of " + totals[kind]);
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private static IOException invalidLine(Path objFile, int line, String message) {
+        return new IOException("Invalid OBJ line " + line + " of " + objFile + ": " + message);
+    }
+
+    private static ObjMesh merge(List<ObjChunk> chunks, int[] offsets) throws IOException {
+        ObjMesh mesh = new ObjMesh();
+        int triangles = 0;
+        int[] triangleOffsets = new int[chunks.size()];
+        for (int c = 0; c < chunks.size(); c++) {
+            ObjChunk chunk = chunks.get(c);
+            mesh.getPositions().addAll(chunk.positions);
+            mesh.getTexCoords().addAll(chunk.texCoords);
+            mesh.getNormals().addAll(chunk.normals);
+            mesh.getHeader().addAll(chunk.header);
+            mesh.getStatements().addAll(chunk.statements);
+            for (int s = 0; s < chunk.statementTriangles.size(); s++) {
+                mesh.getStatementTriangles().add(triangles + chunk.statementTriangles.get(s));
+            }
+            mesh.addDroppedElements(chunk.dropped);
+            triangleOffsets[c] = triangles;
+            triangles += chunk.triangles;
+        }
+        mesh.getCornerPositions().setSize(triangles * 3);
+        mesh.getCornerTexCoords().setSize(triangles * 3);
+        mesh.getCornerNormals().setSize(triangles * 3);
+
+        List<Callable<Void>> tasks = new ArrayList<>(chunks.size());
+        for (int c = 0; c < chunks.size(); c++) {
+            ObjChunk chunk = chunks.get(c);
+            int chunkIndex = c;
+            tasks.add(() -> {
+                resolve(chunk, offsets, chunkIndex * 3);
+                triangulate(chunk, mesh, triangleOffsets[chunkIndex] * 3);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+        return mesh;
+    }
+
+    private static void resolve(ObjChunk chunk, int[] offsets, int offsetIndex) {
+        for (int kind = 0; kind < 3; kind++) {
+            int offset = offsets[offsetIndex + kind];
+            int[] corners = chunk.corners[kind].array();
+            IntArray relative = chunk.relativeCorners[kind];
+            for (int r = 0, n = relative.size(); r < n; r++) {
+                corners[relative.get(r)] += offset;
+            }
+        }
+    }
+
+    private static void triangulate(ObjChunk chunk, ObjMesh mesh, int out) {
+        float[] coordinates = mesh.getPositions().array();
+        int[] positions = chunk.corners[ObjChunk.POSITION].array();
+        int[] texCoords = chunk.corners[ObjChunk.TEX_COORD].array();
+        int[] normals = chunk.corners[ObjChunk.NORMAL].array();
+        int[] outPositions = mesh.getCornerPositions().array();
+        int[] outTexCoords = mesh.getCornerTexCoords().array();
+        int[] outNormals = mesh.getCornerNormals().array();
+        Triangulator triangulator = new Triangulator();
+        int corner = 0;
+        int next = out;
+        for (int f = 0, n = chunk.faceSizes.size(); f < n; f++) {
+            int size = chunk.faceSizes.get(f);
+            if (size == 3) {
+                System.arraycopy(positions, corner, outPositions, next, 3);
+                System.arraycopy(texCoords, corner, outTexCoords, next, 3);
+                System.arraycopy(normals, corner, outNormals, next, 3);
+                next += 3;
+            } else {
+                next = triangulator.triangulate(coordinates, positions, texCoords, normals, corner, size,
+                        outPositions, outTexCoords, outNormals, next);
+            }
+            corner += size;
+        }
+    }
+
+    private static <T extends Callable<?>> void invokeAll(List<T> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            // Not worth a hand-off to the pool
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            return;
+        }
+        List<Future<Object>> futures = new ArrayList<>(tasks.size());
+        for (T task : tasks) {
+            futures.add(ForkJoinPool.commonPool().submit(() -> task.call()));
+        }
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading OBJ file", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes an {@link ObjMesh} back to OBJ, statements being written before the triangle they preceded.
+ */
+public class ObjWriter {
+
+    private ObjWriter() {
+    }
+
+    public static void write(ObjMesh mesh, Path objFile) throws IOException {
+        write(mesh, objFile, ObjPrecision.FULL);
+    }
+
+    public static void write(ObjMesh mesh, Path objFile, ObjPrecision precision) throws IOException {
+        try (ObjOutput out = new ObjOutput(objFile)) {
+            for (String statement : mesh.getHeader()) {
+                out.ascii(statement).put('\n');
+            }
+            writeVectors(out, "v ", mesh.getPositions(), 3, precision.getPositionDecimals());
+            writeVectors(out, "vt ", mesh.getTexCoords(), 2, precision.getTexCoordDecimals());
+            writeVectors(out, "vn ", mesh.getNormals(), 3, precision.getNormalDecimals());
+
+            int[] positions = mesh.getCornerPositions().array();
+            int[] texCoords = mesh.getCornerTexCoords().array();
+            int[] normals = mesh.getCornerNormals().array();
+            IntArray statementTriangles = mesh.getStatementTriangles();
+            int statement = 0;
+            for (int t = 0, n = mesh.getTriangleCount(); t < n; t++) {
+                while (statement < statementTriangles.size() && statementTriangles.get(statement) <= t) {
+                    out.ascii(mesh.getStatements().get(statement++)).put('\n');
+                }
+                out.put('f');
+                for (int k = t * 3; k < t * 3 + 3; k++) {
+                    out.put(' ').integer(positions[k] + 1L);
+                    if (texCoords[k] != ObjMesh.NONE || normals[k] != ObjMesh.NONE) {
+                        out.put('/');
+                        if (texCoords[k] != ObjMesh.NONE) {
+                            out.integer(texCoords[k] + 1L);
+                        }
+                        if (normals[k] != ObjMesh.NONE) {
+                            out.put('/').integer(normals[k] + 1L);
+                        }
+                    }
+                }
+                out.put('\n');
+            }
+            while (statement < statementTriangles.size()) {
+                out.ascii(mesh.getStatements().get(statement++)).put('\n');
+            }
+        }
+    }
+
+    private static void writeVectors(ObjOutput out, String keyword, FloatArray values, int dimension, int decimals)
+            throws IOException {
+        float[] data = values.array();
+        for (int i = 0, n = values.size(); i < n; i += dimension) {
+            out.ascii(keyword);
+            for (int k = 0; k < dimension; k++) {
+                if (k > 0) {
+                    out.put(' ');
+                }
+                out.decimal(data[i + k], decimals);
+            }
+            out.put('\n');
+        }
+    }
+}
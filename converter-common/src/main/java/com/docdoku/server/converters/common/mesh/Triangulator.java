@@ -0,0 +1,179 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.mesh;
+
+/**
+ * Ear clipping triangulation of the polygons of an OBJ face, projected on the plane their normal is the most
+ * orthogonal to. Concave polygons are handled, the original winding is kept, and a polygon with no ear left
+ * (self-intersecting or degenerate) ends as a fan.
+ */
+final class Triangulator {
+
+    private int[] remaining = new int[16];
+    private float[] xs = new float[16];
+    private float[] ys = new float[16];
+
+    private int[] positions;
+    private int[] texCoords;
+    private int[] normals;
+    private int from;
+    private int[] outPositions;
+    private int[] outTexCoords;
+    private int[] outNormals;
+    private int out;
+
+    /**
+     * Triangulates the polygon whose corners are at [from, from + count) of the corner arrays, writing its
+     * count - 2 triangles from the given corner index of the output arrays.
+     *
+     * @return the corner index following the written triangles
+     */
+    int triangulate(float[] coordinates, int[] positions, int[] texCoords, int[] normals, int from, int count,
+                    int[] outPositions, int[] outTexCoords, int[] outNormals, int out) {
+        if (remaining.length < count) {
+            remaining = new int[count];
+            xs = new float[count];
+            ys = new float[count];
+        }
+        this.positions = positions;
+        this.texCoords = texCoords;
+        this.normals = normals;
+        this.from = from;
+        this.outPositions = outPositions;
+        this.outTexCoords = outTexCoords;
+        this.outNormals = outNormals;
+        this.out = out;
+        float sign = project(coordinates, count);
+
+        int size = count;
+        for (int i = 0; i < count; i++) {
+            remaining[i] = i;
+        }
+        // Starting from the second vertex, convex polygons end as a fan around the first one
+        int i = 1 % size;
+        int attempts = 0;
+        while (size > 3 && attempts < size) {
+            int prev = remaining[(i + size - 1) % size];
+            int cur = remaining[i];
+            int next = remaining[(i + 1) % size];
+            if (isEar(prev, cur, next, size, sign)) {
+                add(prev, cur, next);
+                System.arraycopy(remaining, i + 1, remaining, i, size - i - 1);
+                size--;
+                i %= size;
+                attempts = 0;
+            } else {
+                i = (i + 1) % size;
+                attempts++;
+            }
+        }
+        for (int k = 1; k < size - 1; k++) {
+            add(remaining[0], remaining[k], remaining[k + 1]);
+        }
+        return this.out;
+    }
+
+    /**
+     * Projects the polygon on the plane its normal (Newell's method) is the most orthogonal to.
+     *
+     * @return 1 if the projected polygon is counter-clockwise, -1 otherwise
+     */
+    private float project(float[] coordinates, int count) {
+        float nx = 0;
+        float ny = 0;
+        float nz = 0;
+        for (int i = 0; i < count; i++) {
+            int a = positions[from + i] * 3;
+            int b = positions[from + (i + 1) % count] * 3;
+            nx += (coordinates[a + 1] - coordinates[b + 1]) * (coordinates[a + 2] + coordinates[b + 2]);
+            ny += (coordinates[a + 2] - coordinates[b + 2]) * (coordinates[a] + coordinates[b]);
+            nz += (coordinates[a] - coordinates[b]) * (coordinates[a + 1] + coordinates[b + 1]);
+        }
+        float ax = Math.abs(nx);
+        float ay = Math.abs(ny);
+        float az = Math.abs(nz);
+        // Dropping one axis, the two kept in cyclic order, the projected winding follows the sign of the dropped one
+        int u;
+        int v;
+        float dominant;
+        if (ax >= ay && ax >= az) {
+            u = 1;
+            v = 2;
+            dominant = nx;
+        } else if (ay >= az) {
+            u = 2;
+            v = 0;
+            dominant = ny;
+        } else {
+            u = 0;
+            v = 1;
+            dominant = nz;
+        }
+        for (int i = 0; i < count; i++) {
+            xs[i] = coordinates[positions[from + i] * 3 + u];
+            ys[i] = coordinates[positions[from + i] * 3 + v];
+        }
+        return dominant >= 0 ? 1 : -1;
+    }
+
+    private boolean isEar(int prev, int cur, int next, int size, float sign) {
+        float cross = (xs[cur] - xs[prev]) * (ys[next] - ys[cur]) - (ys[cur] - ys[prev]) * (xs[next] - xs[cur]);
+        if (cross * sign <= 0) {
+            return false;
+        }
+        for (int k = 0; k < size; k++) {
+            int other = remaining[k];
+            if (other == prev || other == cur || other == next || sameAs(other, prev) || sameAs(other, cur)
+                    || sameAs(other, next)) {
+                continue;
+            }
+            if (inside(other, prev, cur, next, sign)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameAs(int a, int b) {
+        return xs[a] == xs[b] && ys[a] == ys[b];
+    }
+
+    private boolean inside(int p, int a, int b, int c, float sign) {
+        return edge(a, b, p) * sign >= 0 && edge(b, c, p) * sign >= 0 && edge(c, a, p) * sign >= 0;
+    }
+
+    private float edge(int a, int b, int p) {
+        return (xs[b] - xs[a]) * (ys[p] - ys[a]) - (ys[b] - ys[a]) * (xs[p] - xs[a]);
+    }
+
+    private void add(int a, int b, int c) {
+        addCorner(a);
+        addCorner(b);
+        addCorner(c);
+    }
+
+    private void addCorner(int corner) {
+        outPositions[out] = positions[from + corner];
+        outTexCoords[out] = texCoords[from + corner];
+        outNormals[out] = normals[from + corner];
+        out++;
+    }
+}
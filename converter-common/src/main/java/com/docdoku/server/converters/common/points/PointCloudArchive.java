@@ -0,0 +1,196 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.points;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Single file holding the levels of a point cloud, read a level at a time from the coarsest, of a single point,
+ * to the deepest.
+ * <p>
+ * Layout, big endian: the magic {@code DDPC}, the version, the flags (1 if the points have colors), the lowest
+ * corner and the edge of the cube around the points as doubles, the number of points read, the number of levels
+ * and the number of points of every level, then the points of every level. A point is its position as 3 unsigned
+ * shorts across the cube, followed by its red, green and blue bytes if the points have colors. The points of a
+ * level are sorted in Morton order of their voxel, so that those of a same region of the cube are contiguous.
+ */
+public class PointCloudArchive implements Closeable {
+
+    private static final int MAGIC = 0x44445043;
+    private static final int VERSION = 1;
+    private static final int COLORS = 1;
+    private static final int HEADER_SIZE = 56;
+    private static final double QUANTIZATION = 1 << 16;
+
+    private final FileChannel channel;
+    private final boolean colors;
+    private final double[] origin;
+    private final double size;
+    private final long inputPointCount;
+    private final int[] pointCounts;
+    private final long[] offsets;
+
+    private PointCloudArchive(FileChannel channel, boolean colors, double[] origin, double size, long inputPointCount,
+                              int[] pointCounts) {
+        this.channel = channel;
+        this.colors = colors;
+        this.origin = origin;
+        this.size = size;
+        this.inputPointCount = inputPointCount;
+        this.pointCounts = pointCounts;
+        this.offsets = new long[pointCounts.length];
+        long offset = HEADER_SIZE + 4L * pointCounts.length;
+        for (int level = 0; level < pointCounts.length; level++) {
+            offsets[level] = offset;
+            offset += (long) pointCounts[level] * getPointSize();
+        }
+    }
+
+    public static PointCloudArchive open(Path pointsFile) throws IOException {
+        FileChannel channel = FileChannel.open(pointsFile, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a point cloud archive: " + pointsFile);
+            }
+            boolean colors = (header.getInt() & COLORS) != 0;
+            double[] origin = {header.getDouble(), header.getDouble(), header.getDouble()};
+            double size = header.getDouble();
+            long inputPointCount = header.getLong();
+            int levelCount = header.getInt();
+            ByteBuffer counts = read(channel, HEADER_SIZE, 4 * levelCount);
+            int[] pointCounts = new int[levelCount];
+            for (int level = 0; level < levelCount; level++) {
+                pointCounts[level] = counts.getInt();
+            }
+            return new PointCloudArchive(channel, colors, origin, size, inputPointCount, pointCounts);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean hasColors() {
+        return colors;
+    }
+
+    /**
+     * @return the lowest corner of the cube around the points
+     */
+    public double[] getOrigin() {
+        return origin.clone();
+    }
+
+    public double getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of points of the scan, before downsampling
+     */
+    public long getInputPointCount() {
+        return inputPointCount;
+    }
+
+    public int getLevelCount() {
+        return pointCounts.length;
+    }
+
+    public int getPointCount(int level) {
+        return pointCounts[level];
+    }
+
+    /**
+     * @return x, y and z of the points of the level, precise to the size of the cube over 65536
+     */
+    public float[] getPositions(int level) throws IOException {
+        ByteBuffer data = read(channel, offsets[level], pointCounts[level] * getPointSize());
+        float[] positions = new float[3 * pointCounts[level]];
+        double scale = size / QUANTIZATION;
+        for (int i = 0; i < pointCounts[level]; i++) {
+            int point = i * getPointSize();
+            for (int axis = 0; axis < 3; axis++) {
+                int quantized = data.getShort(point + 2 * axis) & 0xFFFF;
+                positions[3 * i + axis] = (float) (origin[axis] + (quantized + 0.5) * scale);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return the 0xRRGGBB colors of the points of the level, null if they have none
+     */
+    public int[] getColors(int level) throws IOException {
+        if (!colors) {
+            return null;
+        }
+        ByteBuffer data = read(channel, offsets[level], pointCounts[level] * getPointSize());
+        int[] rgb = new int[pointCounts[level]];
+        for (int i = 0; i < rgb.length; i++) {
+            int point = i * getPointSize() + 6;
+            rgb[i] = (data.get(point) & 0xFF) << 16 | (data.get(point + 1) & 0xFF) << 8 | data.get(point + 2) & 0xFF;
+        }
+        return rgb;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static void writeHeader(DataOutputStream out, boolean colors, double[] origin, double size, long inputPointCount,
+                            List<VoxelGrid> levels) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(colors ? COLORS : 0);
+        for (double coordinate : origin) {
+            out.writeDouble(coordinate);
+        }
+        out.writeDouble(size);
+        out.writeLong(inputPointCount);
+        out.writeInt(levels.size());
+        for (VoxelGrid level : levels) {
+            out.writeInt(level.size());
+        }
+    }
+
+    private int getPointSize() {
+        return colors ? 9 : 6;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated point cloud archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.points;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts a scan without faces to a multi-resolution point cloud, so that scans of a hundred million points can
+ * be previewed a level at a time instead of failing as meshes.
+ * <p>
+ * The points are read twice by a {@link PointCloudReader}: once for the cube around them, then to downsample them
+ * on a voxel grid of the deepest level, every thread filling a grid of its own which are merged at the end. The
+ * coarser levels are merged from the deepest one, each voxel replaced by the centroid and mean color of its
+ * points. Memory grows with the number of voxels, not of points. The levels are written to a
+ * {@link PointCloudArchive}.
+ */
+public class PointCloudDownsampler {
+
+    private static final Logger LOGGER = Logger.getLogger(PointCloudDownsampler.class.getName());
+
+    private final PointCloudSettings settings;
+
+    public PointCloudDownsampler(PointCloudSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return the number of points read
+     */
+    public long convert(Path scanFile, Path pointsFile) throws IOException {
+        long start = System.currentTimeMillis();
+        PointCloudReader reader = PointCloudReader.open(scanFile);
+
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        AtomicLong points = new AtomicLong();
+        reader.read(settings.getThreads(), (positions, colors, count) -> {
+            double[] chunk = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                    -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+            for (int i = 0; i < count; i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    float value = positions[3 * i + axis];
+                    chunk[axis] = Math.min(chunk[axis], value);
+                    chunk[axis + 3] = Math.max(chunk[axis + 3], value);
+                }
+            }
+            synchronized (bounds) {
+                for (int axis = 0; axis < 3; axis++) {
+                    bounds[axis] = Math.min(bounds[axis], chunk[axis]);
+                    bounds[axis + 3] = Math.max(bounds[axis + 3], chunk[axis + 3]);
+                }
+            }
+            points.addAndGet(count);
+        });
+        if (points.get() == 0) {
+            throw new IOException("No points in " + scanFile);
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            if (Double.isNaN(bounds[axis]) || Double.isInfinite(bounds[axis + 3] - bounds[axis])) {
+                throw new IOException("Invalid positions in " + scanFile);
+            }
+        }
+
+        double[] origin = {bounds[0], bounds[1], bounds[2]};
+        double size = Math.max(Math.max(Math.max(bounds[3] - bounds[0], bounds[4] - bounds[1]), bounds[5] - bounds[2]),
+                1e-9);
+        int maxLevel = settings.getMaxLevel();
+        Queue<VoxelGrid> grids = new ConcurrentLinkedQueue<>();
+        ThreadLocal<VoxelGrid> threadGrid = ThreadLocal.withInitial(() -> {
+            VoxelGrid grid = new VoxelGrid(maxLevel, origin, size);
+            grids.add(grid);
+            return grid;
+        });
+        reader.read(settings.getThreads(), (positions, colors, count) -> threadGrid.get().add(positions, colors, count));
+
+        VoxelGrid finest = new VoxelGrid(maxLevel, origin, size);
+        for (VoxelGrid grid : grids) {
+            finest.addAll(grid);
+        }
+        grids.clear();
+        List<VoxelGrid> levels = new ArrayList<>();
+        levels.add(finest);
+        for (VoxelGrid grid = finest; grid.getLevel() > 0; ) {
+            grid = grid.parent();
+            levels.add(grid);
+        }
+        Collections.reverse(levels);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pointsFile)))) {
+            PointCloudArchive.writeHeader(out, reader.hasColors(), origin, size, points.get(), levels);
+            for (VoxelGrid level : levels) {
+                level.write(out, reader.hasColors());
+            }
+        }
+        LOGGER.log(Level.INFO, "Downsampled " + scanFile.getFileName() + ": " + points.get() + " points to "
+                + finest.size() + " at level " + maxLevel + ", " + (System.currentTimeMillis() - start) + " ms");
+        return points.get();
+    }
+}
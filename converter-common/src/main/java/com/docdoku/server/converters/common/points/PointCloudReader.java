@@ -0,0 +1,605 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.points;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reader of the points of PLY files, ASCII or binary, and of OBJ files, handed to a {@link ChunkHandler} a chunk
+ * at a time so that no more than a few chunks of a large scan are in memory.
+ * <p>
+ * Binary PLY vertices have a fixed size, so the file is split in as many ranges as there are threads, read in
+ * parallel. Text files are parsed by a single thread and the chunks are handled in parallel. Only the position
+ * and the color of the vertices are read, faces and other elements are ignored.
+ */
+public class PointCloudReader {
+
+    static final int CHUNK_POINTS = 65536;
+    private static final int NO_PROPERTY = -1;
+
+    private final Path file;
+    private final boolean obj;
+    private final String format;
+    private final long dataOffset;
+    private final long skippedLines;
+    private final long vertexCount;
+    private final List<Property> properties;
+    private final int stride;
+    private final int[] position = {NO_PROPERTY, NO_PROPERTY, NO_PROPERTY};
+    private final int[] color = {NO_PROPERTY, NO_PROPERTY, NO_PROPERTY};
+    private final boolean colors;
+
+    /**
+     * Receives the points read, from several threads at once.
+     */
+    public interface ChunkHandler {
+
+        /**
+         * @param positions x, y and z of the points
+         * @param colors    0xRRGGBB color of the points, null if the file has none
+         */
+        void handle(float[] positions, int[] colors, int count);
+    }
+
+    private static final class Property {
+        private final String name;
+        private final String type;
+        private final boolean list;
+        private final int offset;
+
+        private Property(String name, String type, boolean list, int offset) {
+            this.name = name;
+            this.type = type;
+            this.list = list;
+            this.offset = offset;
+        }
+    }
+
+    private PointCloudReader(Path file) throws IOException {
+        this.file = file;
+        this.obj = isObj(file);
+        if (obj) {
+            format = "ascii";
+            dataOffset = 0;
+            skippedLines = 0;
+            vertexCount = -1;
+            properties = new ArrayList<>();
+            stride = 0;
+            colors = objHasColors(file);
+            return;
+        }
+
+        String currentFormat = null;
+        String element = null;
+        long before = 0;
+        long beforeLines = 0;
+        long elementCount = 0;
+        long vertices = -1;
+        boolean fixedSize = true;
+        int elementStride = 0;
+        List<Property> vertexProperties = new ArrayList<>();
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            String line = headerLine(in);
+            offset += line.length() + 1;
+            if (!"ply".equals(line.trim())) {
+                throw new IOException("Not a PLY file: " + file);
+            }
+            while (true) {
+                line = headerLine(in);
+                if (line == null) {
+                    throw new IOException("Truncated PLY header: " + file);
+                }
+                offset += line.length() + 1;
+                String[] tokens = line.trim().split("\\s+");
+                if ("end_header".equals(tokens[0])) {
+                    break;
+                } else if ("format".equals(tokens[0]) && tokens.length > 1) {
+                    currentFormat = tokens[1];
+                } else if ("element".equals(tokens[0]) && tokens.length > 2) {
+                    if (element != null && !"vertex".equals(element) && vertices < 0) {
+                        if (!fixedSize && !"ascii".equals(currentFormat)) {
+                            throw new IOException("Unsupported PLY layout, variable size element before the vertices: "
+                                    + file);
+                        }
+                        before += elementCount * elementStride;
+                        beforeLines += elementCount;
+                    }
+                    element = tokens[1];
+                    elementCount = Long.parseLong(tokens[2]);
+                    elementStride = 0;
+                    fixedSize = true;
+                    if ("vertex".equals(element)) {
+                        vertices = elementCount;
+                    }
+                } else if ("property".equals(tokens[0]) && element != null) {
+                    boolean list = "list".equals(tokens[1]);
+                    String type = list ? tokens[3] : tokens[1];
+                    Property property = new Property(tokens[tokens.length - 1], type, list, elementStride);
+                    fixedSize &= !list;
+                    elementStride += sizeOf(type);
+                    if ("vertex".equals(element)) {
+                        vertexProperties.add(property);
+                    }
+                }
+            }
+        }
+        if (currentFormat == null || vertices < 0) {
+            throw new IOException("PLY file without vertices: " + file);
+        }
+        format = currentFormat;
+        dataOffset = offset + before;
+        skippedLines = beforeLines;
+        vertexCount = vertices;
+        properties = vertexProperties;
+        int vertexStride = 0;
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.list) {
+                throw new IOException("Unsupported PLY layout, list property in the vertices: " + file);
+            }
+            vertexStride += sizeOf(property.type);
+            String name = property.name.startsWith("diffuse_") ? property.name.substring(8) : property.name;
+            int axis = "xyz".indexOf(name.length() == 1 ? name.charAt(0) : '-');
+            if (axis >= 0) {
+                position[axis] = i;
+            }
+            int channel = "red".equals(name) ? 0 : "green".equals(name) ? 1 : "blue".equals(name) ? 2 : -1;
+            if (channel >= 0) {
+                color[channel] = i;
+            }
+        }
+        stride = vertexStride;
+        if (position[0] == NO_PROPERTY || position[1] == NO_PROPERTY || position[2] == NO_PROPERTY) {
+            throw new IOException("PLY vertices without positions: " + file);
+        }
+        colors = color[0] != NO_PROPERTY && color[1] != NO_PROPERTY && color[2] != NO_PROPERTY;
+    }
+
+    public static PointCloudReader open(Path file) throws IOException {
+        if (!isObj(file) && !isPly(file)) {
+            throw new IOException("Not a PLY or OBJ file: " + file);
+        }
+        return new PointCloudReader(file);
+    }
+
+    /**
+     * Tells whether the given PLY or OBJ file holds vertices but no faces, which only needs the header of a PLY
+     * file but reads an OBJ file up to its first face.
+     */
+    public static boolean isPointCloud(Path file) throws IOException {
+        if (isPly(file)) {
+            long vertices = 0;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                String line = headerLine(in);
+                if (line == null || !"ply".equals(line.trim())) {
+                    return false;
+                }
+                while ((line = headerLine(in)) != null) {
+                    String[] tokens = line.trim().split("\\s+");
+                    if ("end_header".equals(tokens[0])) {
+                        break;
+                    } else if ("element".equals(tokens[0]) && tokens.length > 2) {
+                        long count = Long.parseLong(tokens[2]);
+                        if ("vertex".equals(tokens[1])) {
+                            vertices = count;
+                        } else if (("face".equals(tokens[1]) || "tristrips".equals(tokens[1])) && count > 0) {
+                            return false;
+                        }
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return vertices > 0;
+        } else if (isObj(file)) {
+            boolean vertices = false;
+            try (BufferedReader reader = reader(file, 0)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("f ") || line.startsWith("l ")) {
+                        return false;
+                    }
+                    vertices |= line.startsWith("v ");
+                }
+            }
+            return vertices;
+        }
+        return false;
+    }
+
+    public boolean hasColors() {
+        return colors;
+    }
+
+    /**
+     * @return the number of points, or -1 if it is only known once read
+     */
+    public long getPointCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Reads all the points, returning once the handler got them all.
+     */
+    public void read(int threads, ChunkHandler handler) throws IOException {
+        try (Workers workers = new Workers(threads)) {
+            if ("binary_little_endian".equals(format) || "binary_big_endian".equals(format)) {
+                ByteOrder order = "binary_little_endian".equals(format) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+                long perRange = (vertexCount + threads - 1) / threads;
+                for (long first = 0; first < vertexCount; first += perRange) {
+                    long start = first;
+                    long end = Math.min(vertexCount, first + perRange);
+                    workers.submit(() -> {
+                        readBinary(order, start, end, handler);
+                        return null;
+                    });
+                }
+            } else if ("ascii".equals(format)) {
+                readText(workers, handler);
+            } else {
+                throw new IOException("Unsupported PLY format " + format + ": " + file);
+            }
+            workers.await();
+        }
+    }
+
+    private void readBinary(ByteOrder order, long start, long end, ChunkHandler handler) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_POINTS * stride).order(order);
+            for (long first = start; first < end; first += CHUNK_POINTS) {
+                int count = (int) Math.min(CHUNK_POINTS, end - first);
+                buffer.clear().limit(count * stride);
+                long filePosition = dataOffset + first * stride;
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer, filePosition + buffer.position()) < 0) {
+                        throw new IOException("Truncated PLY file: " + file);
+                    }
+                }
+                float[] positions = new float[count * 3];
+                int[] rgb = colors ? new int[count] : null;
+                for (int i = 0; i < count; i++) {
+                    int record = i * stride;
+                    for (int axis = 0; axis < 3; axis++) {
+                        Property property = properties.get(position[axis]);
+                        positions[3 * i + axis] = (float) value(buffer, record + property.offset, property.type);
+                    }
+                    if (rgb != null) {
+                        int packed = 0;
+                        for (int channel = 0; channel < 3; channel++) {
+                            Property property = properties.get(color[channel]);
+                            packed = packed << 8 | channel(value(buffer, record + property.offset, property.type),
+                                    property.type);
+                        }
+                        rgb[i] = packed;
+                    }
+                }
+                handler.handle(positions, rgb, count);
+            }
+        }
+    }
+
+    private void readText(Workers workers, ChunkHandler handler) throws IOException {
+        try (BufferedReader reader = reader(file, dataOffset)) {
+            for (long i = 0; i < skippedLines; i++) {
+                if (reader.readLine() == null) {
+                    throw new IOException("Truncated PLY file: " + file);
+                }
+            }
+            float[] positions = new float[CHUNK_POINTS * 3];
+            int[] rgb = colors ? new int[CHUNK_POINTS] : null;
+            int count = 0;
+            long read = 0;
+            double[] values = new double[obj ? 7 : properties.size()];
+            String line;
+            while ((vertexCount < 0 || read < vertexCount) && (line = reader.readLine()) != null) {
+                int parsed;
+                if (obj) {
+                    if (!line.startsWith("v ")) {
+                        continue;
+                    }
+                    parsed = parse(line, 2, values);
+                    if (parsed < 3) {
+                        throw new IOException("Invalid vertex \"" + line + "\" in " + file);
+                    }
+                    positions[3 * count] = (float) values[0];
+                    positions[3 * count + 1] = (float) values[1];
+                    positions[3 * count + 2] = (float) values[2];
+                    if (rgb != null) {
+                        rgb[count] = parsed >= 6 ? channel(values[3], "float") << 16
+                                | channel(values[4], "float") << 8 | channel(values[5], "float") : 0xFFFFFF;
+                    }
+                } else {
+                    parsed = parse(line, 0, values);
+                    if (parsed < properties.size()) {
+                        throw new IOException("Invalid vertex \"" + line + "\" in " + file);
+                    }
+                    for (int axis = 0; axis < 3; axis++) {
+                        positions[3 * count + axis] = (float) values[position[axis]];
+                    }
+                    if (rgb != null) {
+                        rgb[count] = channel(values[color[0]], properties.get(color[0]).type) << 16
+                                | channel(values[color[1]], properties.get(color[1]).type) << 8
+                                | channel(values[color[2]], properties.get(color[2]).type);
+                    }
+                }
+                read++;
+                if (++count == CHUNK_POINTS) {
+                    submit(workers, handler, positions, rgb, count);
+                    positions = new float[CHUNK_POINTS * 3];
+                    rgb = colors ? new int[CHUNK_POINTS] : null;
+                    count = 0;
+                }
+            }
+            if (vertexCount >= 0 && read < vertexCount) {
+                throw new IOException("Truncated PLY file: " + file);
+            }
+            if (count > 0) {
+                submit(workers, handler, positions, rgb, count);
+            }
+        }
+    }
+
+    private static void submit(Workers workers, ChunkHandler handler, float[] positions, int[] rgb, int count)
+            throws IOException {
+        workers.submit(() -> {
+            handler.handle(positions, rgb, count);
+            return null;
+        });
+    }
+
+    /**
+     * Parses the numbers separated by spaces of the given line, from the given index.
+     *
+     * @return the number of values parsed, at most the length of the array
+     */
+    private static int parse(String line, int from, double[] values) throws IOException {
+        int count = 0;
+        int i = from;
+        int length = line.length();
+        while (count < values.length) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            try {
+                values[count++] = Double.parseDouble(line.substring(start, i));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number in \"" + line + "\"", e);
+            }
+        }
+        return count;
+    }
+
+    private static double value(ByteBuffer buffer, int index, String type) throws IOException {
+        switch (type) {
+            case "char":
+            case "int8":
+                return buffer.get(index);
+            case "uchar":
+            case "uint8":
+                return buffer.get(index) & 0xFF;
+            case "short":
+            case "int16":
+                return buffer.getShort(index);
+            case "ushort":
+            case "uint16":
+                return buffer.getShort(index) & 0xFFFF;
+            case "int":
+            case "int32":
+                return buffer.getInt(index);
+            case "uint":
+            case "uint32":
+                return buffer.getInt(index) & 0xFFFFFFFFL;
+            case "float":
+            case "float32":
+                return buffer.getFloat(index);
+            case "double":
+            case "float64":
+                return buffer.getDouble(index);
+            default:
+                throw new IOException("Unknown PLY type " + type);
+        }
+    }
+
+    private static int sizeOf(String type) throws IOException {
+        switch (type) {
+            case "char":
+            case "int8":
+            case "uchar":
+            case "uint8":
+                return 1;
+            case "short":
+            case "int16":
+            case "ushort":
+            case "uint16":
+                return 2;
+            case "int":
+            case "int32":
+            case "uint":
+            case "uint32":
+            case "float":
+            case "float32":
+                return 4;
+            case "double":
+            case "float64":
+                return 8;
+            default:
+                throw new IOException("Unknown PLY type " + type);
+        }
+    }
+
+    /**
+     * @return a color channel from 0 to 255, scaled from 0 to 1 for floating point types and from 0 to 65535
+     * for 16 bits types
+     */
+    private static int channel(double value, String type) {
+        double scaled;
+        if (type.startsWith("float") || "double".equals(type)) {
+            scaled = value * 255;
+        } else if (type.endsWith("short") || type.endsWith("int16")) {
+            scaled = value / 257;
+        } else {
+            scaled = value;
+        }
+        return (int) Math.max(0, Math.min(255, Math.round(scaled)));
+    }
+
+    private static String headerLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return line.length() > 0 ? line.toString() : null;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static BufferedReader reader(Path file, long offset) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    throw new IOException("Truncated file: " + file);
+                }
+                skipped += n;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), 1 << 16);
+    }
+
+    private static boolean objHasColors(Path file) throws IOException {
+        try (BufferedReader reader = reader(file, 0)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("v ")) {
+                    return parse(line, 2, new double[6]) >= 6;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPly(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".ply");
+    }
+
+    private static boolean isObj(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".obj");
+    }
+
+    /**
+     * Threads handling the chunks, at most two chunks a thread waiting so that a fast reader does not get far
+     * ahead of the handler.
+     */
+    private static final class Workers implements AutoCloseable {
+
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        private final ExecutorService pool;
+        private final Semaphore pending;
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        private Workers(int threads) {
+            pool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "point-cloud-" + COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            pending = new Semaphore(threads * 2);
+        }
+
+        private void submit(Callable<Void> task) throws IOException {
+            try {
+                pending.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Point cloud reading interrupted");
+            }
+            futures.add(pool.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    pending.release();
+                }
+            }));
+        }
+
+        private void await() throws IOException {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Point cloud reading interrupted");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.points;
+
+import java.util.Properties;
+
+/**
+ * Settings of the conversion of scans without faces to multi-resolution point clouds, asked for with
+ * {@code OutputFormat.POINTS}, read from the converters conf.properties:
+ * <ul>
+ * <li>{@code point_cloud_max_level}: deepest level of the hierarchy, at which the cube around the scan is split
+ * in 2^level voxels across, from 0 to 16, defaults to 10</li>
+ * <li>{@code point_cloud_threads}: threads reading and downsampling a scan, defaults to the number of
+ * processors</li>
+ * </ul>
+ */
+public class PointCloudSettings {
+
+    public static final String MAX_LEVEL = "point_cloud_max_level";
+    public static final String THREADS = "point_cloud_threads";
+
+    private int maxLevel = 10;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static PointCloudSettings from(Properties conf) {
+        PointCloudSettings settings = new PointCloudSettings();
+        settings.maxLevel = Math.max(0, Math.min(VoxelGrid.MAX_LEVEL,
+                Integer.parseInt(conf.getProperty(MAX_LEVEL, "10").trim())));
+        String threads = conf.getProperty(THREADS);
+        if (threads != null && !threads.trim().isEmpty()) {
+            settings.threads = Math.max(1, Integer.parseInt(threads.trim()));
+        }
+        return settings;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.points;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Voxels of a level of a point cloud, each keeping the number of points falling in it and the sums of their
+ * positions and colors. Voxels are keyed by their Morton code, so that the key of the parent of a voxel is its
+ * own shifted by 3 bits and the voxels sorted by key are grouped by parent.
+ */
+final class VoxelGrid {
+
+    static final int MAX_LEVEL = 16;
+    private static final int QUANTIZATION = 1 << 16;
+
+    private final int level;
+    private final double[] origin;
+    private final double size;
+    private long[] keys = new long[1024];
+    private long[] counts = new long[1024];
+    private double[] positionSums = new double[3 * 1024];
+    private long[] colorSums = new long[3 * 1024];
+    private int voxels;
+
+    /**
+     * @param origin lowest corner of the cube around the point cloud
+     * @param size   edge of the cube
+     */
+    VoxelGrid(int level, double[] origin, double size) {
+        this.level = level;
+        this.origin = origin;
+        this.size = size;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int size() {
+        return voxels;
+    }
+
+    void add(float[] positions, int[] colors, int count) {
+        int cells = 1 << level;
+        double scale = cells / size;
+        for (int i = 0; i < count; i++) {
+            float x = positions[3 * i];
+            float y = positions[3 * i + 1];
+            float z = positions[3 * i + 2];
+            long key = morton(cell(x - origin[0], scale, cells), cell(y - origin[1], scale, cells),
+                    cell(z - origin[2], scale, cells));
+            int color = colors != null ? colors[i] : 0;
+            add(key, 1, x, y, z, color >>> 16 & 0xFF, color >>> 8 & 0xFF, color & 0xFF);
+        }
+    }
+
+    void addAll(VoxelGrid other) {
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.counts[slot] > 0) {
+                add(other.keys[slot], other.counts[slot], other.positionSums[3 * slot], other.positionSums[3 * slot + 1],
+                        other.positionSums[3 * slot + 2], other.colorSums[3 * slot], other.colorSums[3 * slot + 1],
+                        other.colorSums[3 * slot + 2]);
+            }
+        }
+    }
+
+    /**
+     * @return the grid of the level above, each voxel merging the points of its 8 children
+     */
+    VoxelGrid parent() {
+        VoxelGrid parent = new VoxelGrid(level - 1, origin, size);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (counts[slot] > 0) {
+                parent.add(keys[slot] >>> 3, counts[slot], positionSums[3 * slot], positionSums[3 * slot + 1],
+                        positionSums[3 * slot + 2], colorSums[3 * slot], colorSums[3 * slot + 1], colorSums[3 * slot + 2]);
+            }
+        }
+        return parent;
+    }
+
+    /**
+     * Writes a point a voxel in Morton order: the centroid of its points quantized on 16 bits across the cube,
+     * and their mean color if the point cloud has colors.
+     */
+    void write(DataOutput out, boolean colors) throws IOException {
+        long[] sorted = new long[voxels];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (counts[slot] > 0) {
+                sorted[n++] = keys[slot];
+            }
+        }
+        Arrays.sort(sorted);
+        double scale = QUANTIZATION / size;
+        for (long key : sorted) {
+            int slot = find(key);
+            long count = counts[slot];
+            for (int axis = 0; axis < 3; axis++) {
+                double centroid = positionSums[3 * slot + axis] / count;
+                out.writeShort(cell(centroid - origin[axis], scale, QUANTIZATION));
+            }
+            if (colors) {
+                for (int channel = 0; channel < 3; channel++) {
+                    out.writeByte((int) ((colorSums[3 * slot + channel] + count / 2) / count));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the Morton code of a cell, interleaving the bits of its coordinates
+     */
+    static long morton(int x, int y, int z) {
+        return spread(x) | spread(y) << 1 | spread(z) << 2;
+    }
+
+    private static long spread(int value) {
+        long v = value & 0x1FFFFFL;
+        v = (v | v << 32) & 0x1F00000000FFFFL;
+        v = (v | v << 16) & 0x1F0000FF0000FFL;
+        v = (v | v << 8) & 0x100F00F00F00F00FL;
+        v = (v | v << 4) & 0x10C30C30C30C30C3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+    private static int cell(double offset, double scale, int cells) {
+        return (int) Math.max(0, Math.min(cells - 1, Math.floor(offset * scale)));
+    }
+
+    private void add(long key, long count, double x, double y, double z, long red, long green, long blue) {
+        if (voxels * 2 >= keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (counts[slot] > 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (counts[slot] == 0) {
+            keys[slot] = key;
+            voxels++;
+        }
+        counts[slot] += count;
+        positionSums[3 * slot] += x;
+        positionSums[3 * slot + 1] += y;
+        positionSums[3 * slot + 2] += z;
+        colorSums[3 * slot] += red;
+        colorSums[3 * slot + 1] += green;
+        colorSums[3 * slot + 2] += blue;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != key || counts[slot] == 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        double[] oldPositionSums = positionSums;
+        long[] oldColorSums = colorSums;
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        positionSums = new double[3 * capacity];
+        colorSums = new long[3 * capacity];
+        voxels = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] > 0) {
+                add(oldKeys[i], oldCounts[i], oldPositionSums[3 * i], oldPositionSums[3 * i + 1],
+                        oldPositionSums[3 * i + 2], oldColorSums[3 * i], oldColorSums[3 * i + 1], oldColorSums[3 * i + 2]);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & mask;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.step;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entity instance of the DATA section of a STEP Part 21 file, split in its top-level arguments kept as they were
+ * written so that the entity can be written back with a single argument replaced.
+ * <p>
+ * Complex instances, {@code #1=(A(...) B(...));}, have the arguments of each of their partial types.
+ */
+final class StepEntity {
+
+    private final long id;
+    private final Map<String, List<String>> partials;
+    private final boolean complex;
+
+    private StepEntity(long id, Map<String, List<String>> partials, boolean complex) {
+        this.id = id;
+        this.partials = partials;
+        this.complex = complex;
+    }
+
+    /**
+     * @param statement the instance from its {@code #} to its closing semicolon, which may be left out
+     */
+    static StepEntity parse(String statement) {
+        int equals = statement.indexOf('=');
+        if (!statement.startsWith("#") || equals < 0) {
+            throw new IllegalArgumentException("Not an entity instance: " + statement);
+        }
+        long id = Long.parseLong(statement.substring(1, equals).trim());
+        int i = skipSpaces(statement, equals + 1);
+        Map<String, List<String>> partials = new LinkedHashMap<>();
+        boolean complex = i < statement.length() && statement.charAt(i) == '(';
+        if (complex) {
+            i++;
+            while (true) {
+                i = skipSpaces(statement, i);
+                if (i >= statement.length() || statement.charAt(i) == ')') {
+                    break;
+                }
+                i = partial(statement, i, partials);
+            }
+        } else {
+            partial(statement, i, partials);
+        }
+        return new StepEntity(id, partials, complex);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    boolean isComplex() {
+        return complex;
+    }
+
+    /**
+     * @return the type of a simple instance, the first partial type of a complex one
+     */
+    String getType() {
+        return partials.isEmpty() ? "" : partials.keySet().iterator().next();
+    }
+
+    boolean is(String type) {
+        return partials.containsKey(type);
+    }
+
+    /**
+     * @return the arguments of the given type, empty if the instance is not of this type
+     */
+    List<String> getArguments(String type) {
+        List<String> arguments = partials.get(type);
+        return arguments != null ? arguments : Collections.emptyList();
+    }
+
+    /**
+     * @return the instance as written in a file, with an argument of a simple instance replaced
+     */
+    String toString(int replacedArgument, String replacement) {
+        StringBuilder text = new StringBuilder("#").append(id).append('=');
+        if (complex) {
+            text.append('(');
+        }
+        for (Map.Entry<String, List<String>> partial : partials.entrySet()) {
+            text.append(partial.getKey()).append('(');
+            List<String> arguments = partial.getValue();
+            for (int i = 0; i < arguments.size(); i++) {
+                text.append(i > 0 ? "," : "").append(!complex && i == replacedArgument ? replacement : arguments.get(i));
+            }
+            text.append(')');
+        }
+        return text.append(complex ? ");" : ";").toString();
+    }
+
+    /**
+     * @return the id an argument refers to, or -1 if it is not a reference
+     */
+    static long reference(String argument) {
+        String trimmed = argument.trim();
+        if (trimmed.length() < 2 || trimmed.charAt(0) != '#') {
+            return -1;
+        }
+        try {
+            return Long.parseLong(trimmed.substring(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the ids referred to anywhere in the given text, strings and comments left out
+     */
+    static List<Long> references(CharSequence text) {
+        List<Long> references = new ArrayList<>();
+        boolean string = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                string = !string;
+            } else if (!string && c == '#') {
+                long value = 0;
+                int digits = 0;
+                while (i + 1 < text.length() && Character.isDigit(text.charAt(i + 1))) {
+                    value = value * 10 + text.charAt(++i) - '0';
+                    digits++;
+                }
+                if (digits > 0) {
+                    references.add(value);
+                }
+            } else if (!string && c == '/' && i + 1 < text.length() && text.charAt(i + 1) == '*') {
+                int end = text.toString().indexOf("*/", i + 2);
+                i = end < 0 ? text.length() : end + 1;
+            }
+        }
+        return references;
+    }
+
+    /**
+     * @return the numbers of a list argument such as {@code (0.,1.5,-2.E-3)}
+     */
+    static double[] numbers(String argument) {
+        String trimmed = argument.trim();
+        if (!trimmed.startsWith("(") || !trimmed.endsWith(")")) {
+            throw new IllegalArgumentException("Not a list: " + argument);
+        }
+        String[] values = trimmed.substring(1, trimmed.length() - 1).split(",");
+        double[] numbers = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            numbers[i] = Double.parseDouble(values[i].trim());
+        }
+        return numbers;
+    }
+
+    /**
+     * @return the top-level items of a list argument, such as the references of {@code (#1,#2)}
+     */
+    static List<String> items(String argument) {
+        String trimmed = argument.trim();
+        if (!trimmed.startsWith("(") || !trimmed.endsWith(")")) {
+            return Collections.emptyList();
+        }
+        List<String> items = new ArrayList<>();
+        split(trimmed, 1, items);
+        return items;
+    }
+
+    /**
+     * Reads a type name and its parenthesized arguments.
+     *
+     * @return the index after the closing parenthesis
+     */
+    private static int partial(String statement, int start, Map<String, List<String>> partials) {
+        int open = statement.indexOf('(', start);
+        if (open < 0) {
+            throw new IllegalArgumentException("Entity instance without arguments: " + statement);
+        }
+        List<String> arguments = new ArrayList<>();
+        int end = split(statement, open + 1, arguments);
+        partials.put(statement.substring(start, open).trim(), arguments);
+        return end;
+    }
+
+    /**
+     * Splits the arguments from the given index up to the matching closing parenthesis at commas of depth 0.
+     *
+     * @return the index after the closing parenthesis
+     */
+    private static int split(String text, int from, List<String> arguments) {
+        int depth = 0;
+        boolean string = false;
+        int start = from;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                string = !string;
+            } else if (string) {
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (depth == 0) {
+                    String last = text.substring(start, i).trim();
+                    if (!last.isEmpty() || !arguments.isEmpty()) {
+                        arguments.add(last);
+                    }
+                    return i + 1;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                arguments.add(text.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Unbalanced parentheses: " + text);
+    }
+
+    private static int skipSpaces(String text, int from) {
+        int i = from;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
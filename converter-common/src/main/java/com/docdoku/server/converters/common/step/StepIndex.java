@@ -0,0 +1,319 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.step;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Index of the entity instances of a STEP Part 21 file by id, kept in a file rather than in the heap so that
+ * files of several gigabytes can be read at random.
+ * <p>
+ * The index file holds the offset and length of every instance at the position of its id, which are usually
+ * numbered from 1 without gaps, and is mapped in memory once built. It is built by a single streamed read of the
+ * STEP file, which also hands the instances of the requested types to a consumer.
+ */
+final class StepIndex implements Closeable {
+
+    private static final int ENTRY_SIZE = 12;
+    private static final long ENTRIES_PER_SEGMENT = 1L << 26;
+    static final long MAX_ID = Integer.MAX_VALUE;
+
+    private final Path stepFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long maxId;
+    private final long count;
+    private final String header;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    private StepIndex(Path stepFile, FileChannel channel, MappedByteBuffer[] segments, long maxId, long count,
+                      String header) {
+        this.stepFile = stepFile;
+        this.channel = channel;
+        this.segments = segments;
+        this.maxId = maxId;
+        this.count = count;
+        this.header = header;
+    }
+
+    /**
+     * Reads the STEP file and writes its index.
+     *
+     * @param types    types of the instances given to the consumer, simple or part of a complex instance
+     * @param consumer receives these instances in the order of the file
+     */
+    static StepIndex build(Path stepFile, Path indexFile, Set<String> types, Consumer<StepEntity> consumer)
+            throws IOException {
+        Scanner scanner = new Scanner(types, consumer);
+        try (InputStream in = Files.newInputStream(stepFile);
+             FileChannel index = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            scanner.index = index;
+            byte[] bytes = new byte[1 << 16];
+            int read;
+            while ((read = in.read(bytes)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    scanner.accept(bytes[i]);
+                }
+            }
+            scanner.flush();
+        }
+        if (scanner.count == 0) {
+            throw new IOException("No entity instance in " + stepFile);
+        }
+
+        FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ);
+        try {
+            long entries = scanner.maxId + 1;
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((entries + ENTRIES_PER_SEGMENT - 1)
+                    / ENTRIES_PER_SEGMENT)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = i * ENTRIES_PER_SEGMENT;
+                long size = Math.min(ENTRIES_PER_SEGMENT, entries - first) * ENTRY_SIZE;
+                segments[i] = index.map(FileChannel.MapMode.READ_ONLY, first * ENTRY_SIZE,
+                        Math.min(size, Math.max(0, index.size() - first * ENTRY_SIZE)));
+            }
+            return new StepIndex(stepFile, FileChannel.open(stepFile, StandardOpenOption.READ), segments,
+                    scanner.maxId, scanner.count, scanner.header.toString());
+        } finally {
+            // The mappings stay valid once the channel is closed
+            index.close();
+        }
+    }
+
+    long getMaxId() {
+        return maxId;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the statements of the HEADER section, from {@code ISO-10303-21;} to its {@code ENDSEC;}
+     */
+    String getHeader() {
+        return header;
+    }
+
+    boolean contains(long id) {
+        return length(id) > 0;
+    }
+
+    /**
+     * @return the instance of the given id from its {@code #} to its closing semicolon, or null if there is none
+     */
+    String read(long id) throws IOException {
+        int length = length(id);
+        if (length <= 0) {
+            return null;
+        }
+        long offset = segment(id).getLong(position(id));
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Truncated STEP file " + stepFile);
+            }
+        }
+        return new String(buffer.array(), 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Arrays.fill(segments, null);
+    }
+
+    private int length(long id) {
+        if (id <= 0 || id > maxId) {
+            return 0;
+        }
+        MappedByteBuffer segment = segment(id);
+        int position = position(id);
+        return position + ENTRY_SIZE <= segment.limit() ? segment.getInt(position + 8) : 0;
+    }
+
+    private MappedByteBuffer segment(long id) {
+        return segments[(int) (id / ENTRIES_PER_SEGMENT)];
+    }
+
+    private static int position(long id) {
+        return (int) (id % ENTRIES_PER_SEGMENT) * ENTRY_SIZE;
+    }
+
+    /**
+     * Splits the file in statements, skipping comments, and indexes the instances of its DATA section.
+     */
+    private static final class Scanner {
+
+        private final Set<String> types;
+        private final Consumer<StepEntity> consumer;
+        private final StringBuilder header = new StringBuilder();
+        private final ByteBuffer batch = ByteBuffer.allocate(4096 * ENTRY_SIZE);
+        private FileChannel index;
+        private long batchFirstId = -1;
+        private byte[] statement = new byte[256];
+        private int length;
+        private long start = -1;
+        private long offset;
+        private boolean string;
+        private boolean comment;
+        private boolean slash;
+        private boolean star;
+        private boolean data;
+        private long maxId;
+        private long count;
+
+        private Scanner(Set<String> types, Consumer<StepEntity> consumer) {
+            this.types = types;
+            this.consumer = consumer;
+        }
+
+        private void accept(byte b) throws IOException {
+            if (comment) {
+                comment = !(star && b == '/');
+                star = b == '*';
+            } else if (slash) {
+                slash = false;
+                if (b == '*') {
+                    comment = true;
+                    star = false;
+                } else {
+                    process((byte) '/', offset - 1);
+                    process(b, offset);
+                }
+            } else if (b == '/' && !string) {
+                slash = true;
+            } else {
+                process(b, offset);
+            }
+            offset++;
+        }
+
+        private void process(byte b, long position) throws IOException {
+            if (start < 0) {
+                if (Character.isWhitespace(b)) {
+                    return;
+                }
+                start = position;
+                length = 0;
+            }
+            if (length == statement.length) {
+                statement = Arrays.copyOf(statement, length * 2);
+            }
+            statement[length++] = b;
+            if (b == '\'') {
+                string = !string;
+            } else if (b == ';' && !string) {
+                end();
+                start = -1;
+            }
+        }
+
+        private void end() throws IOException {
+            if (data && statement[0] == '#') {
+                int i = 1;
+                long id = 0;
+                while (i < length && statement[i] >= '0' && statement[i] <= '9') {
+                    id = id * 10 + statement[i++] - '0';
+                }
+                if (id <= 0 || id >= MAX_ID) {
+                    throw new IOException("Unsupported entity instance id #" + id);
+                }
+                put(id, start, length);
+                maxId = Math.max(maxId, id);
+                count++;
+                if (isWanted(i)) {
+                    consumer.accept(StepEntity.parse(new String(statement, 0, length, StandardCharsets.ISO_8859_1)));
+                }
+                return;
+            }
+            String keyword = new String(statement, 0, length, StandardCharsets.ISO_8859_1).trim();
+            if (keyword.startsWith("DATA")) {
+                data = true;
+            } else if (keyword.startsWith("ENDSEC")) {
+                if (!data) {
+                    header.append(keyword).append('\n');
+                }
+                data = false;
+            } else if (!data && header.indexOf("ENDSEC;") < 0) {
+                header.append(keyword).append('\n');
+            }
+        }
+
+        /**
+         * @param from index after the id of the instance
+         */
+        private boolean isWanted(int from) {
+            int i = from;
+            while (i < length && (statement[i] == '=' || Character.isWhitespace(statement[i]))) {
+                i++;
+            }
+            if (i < length && statement[i] == '(') {
+                String text = new String(statement, i, length - i, StandardCharsets.ISO_8859_1);
+                for (String type : types) {
+                    if (text.contains(type)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            int end = i;
+            while (end < length && statement[end] != '(' && !Character.isWhitespace(statement[end])) {
+                end++;
+            }
+            return types.contains(new String(statement, i, end - i, StandardCharsets.ISO_8859_1));
+        }
+
+        private void put(long id, long entityOffset, int entityLength) throws IOException {
+            long batchIds = batch.position() / ENTRY_SIZE;
+            if (batchFirstId < 0 || id != batchFirstId + batchIds || !batch.hasRemaining()) {
+                flush();
+                batchFirstId = id;
+            }
+            batch.putLong(entityOffset).putInt(entityLength);
+        }
+
+        private void flush() throws IOException {
+            batch.flip();
+            long position = batchFirstId * ENTRY_SIZE;
+            while (batch.hasRemaining()) {
+                position += index.write(batch, position);
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.step;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Self-contained STEP file of a top-level sub-assembly cut from a larger assembly by the {@link StepSplitter},
+ * with the placements of its occurrences in the assembly.
+ */
+public final class StepPiece {
+
+    private final Path file;
+    private final String name;
+    private final List<String> occurrences = new ArrayList<>();
+    private final List<double[]> placements = new ArrayList<>();
+
+    StepPiece(Path file, String name) {
+        this.file = file;
+        this.name = name;
+    }
+
+    void addOccurrence(String occurrence, double[] placement) {
+        occurrences.add(occurrence);
+        placements.add(placement);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the name of the product of the sub-assembly
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the names of the occurrences of the sub-assembly, in the order of their placements
+     */
+    public List<String> getOccurrences() {
+        return Collections.unmodifiableList(occurrences);
+    }
+
+    /**
+     * @return where every occurrence is placed in the assembly, as row-major 3x4 matrices
+     */
+    public List<double[]> getPlacements() {
+        List<double[]> copies = new ArrayList<>(placements.size());
+        for (double[] placement : placements) {
+            copies.add(placement.clone());
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.common.step;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cuts a large STEP assembly into self-contained files, one per top-level sub-assembly, so that they can be
+ * converted in parallel and their meshes merged back with their placements, rather than loading the whole
+ * assembly in a single process. Read from the converters conf.properties:
+ * <ul>
+ * <li>{@code step_split}: whether large STEP assemblies are split, defaults to false</li>
+ * <li>{@code step_split_min_mb}: smallest file worth splitting, defaults to 512</li>
+ * <li>{@code step_split_threads}: pieces converted at once, defaults to 2</li>
+ * </ul>
+ * The file is read once to build a {@link StepIndex} on disk, keeping in the heap only the instances linking
+ * the products to their shapes, placements and styles. The assembly is then followed from its root product down
+ * through its {@code NEXT_ASSEMBLY_USAGE_OCCURRENCE}s, as long as it has a single child. A piece holds every
+ * instance its sub-assembly refers to, directly or not, along with the instances pointing back at them which
+ * attach shapes, sub-assemblies, placements, colors and layers. Presentation and layer lists are cut down to the
+ * items of the piece. Instances keep their id, and the instances shared by several pieces, such as units and
+ * contexts, are written in all of them. Shapes of the root product itself are not part of any piece.
+ * <p>
+ * The STEP converter ships without splitting, it is opted in with {@code step_split=true} in its conf.properties.
+ * IGES files are always converted whole.
+ */
+public class StepSplitter {
+
+    public static final String SPLIT = "step_split";
+    public static final String MIN_MB = "step_split_min_mb";
+    public static final String THREADS = "step_split_threads";
+
+    private static final Logger LOGGER = Logger.getLogger(StepSplitter.class.getName());
+    private static final double[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0};
+
+    private static final String NAUO = "NEXT_ASSEMBLY_USAGE_OCCURRENCE";
+    private static final String PDS = "PRODUCT_DEFINITION_SHAPE";
+    private static final String SDR = "SHAPE_DEFINITION_REPRESENTATION";
+    private static final String CDSR = "CONTEXT_DEPENDENT_SHAPE_REPRESENTATION";
+    private static final String SRR = "SHAPE_REPRESENTATION_RELATIONSHIP";
+    private static final String RR = "REPRESENTATION_RELATIONSHIP";
+    private static final String RRWT = "REPRESENTATION_RELATIONSHIP_WITH_TRANSFORMATION";
+    private static final String STYLED_ITEM = "STYLED_ITEM";
+    private static final String OVER_RIDING_STYLED_ITEM = "OVER_RIDING_STYLED_ITEM";
+    private static final String APD = "APPLICATION_PROTOCOL_DEFINITION";
+
+    /**
+     * Instances listing items of several pieces, with the index of their list argument.
+     */
+    private static final Map<String, Integer> LISTS = new HashMap<>();
+
+    static {
+        LISTS.put("MECHANICAL_DESIGN_GEOMETRIC_PRESENTATION_REPRESENTATION", 1);
+        LISTS.put("PRODUCT_RELATED_PRODUCT_CATEGORY", 2);
+        LISTS.put("PRESENTATION_LAYER_ASSIGNMENT", 2);
+    }
+
+    private final boolean enabled;
+    private final long minBytes;
+    private final int threads;
+
+    public StepSplitter(boolean enabled, long minBytes, int threads) {
+        this.enabled = enabled;
+        this.minBytes = minBytes;
+        this.threads = Math.max(1, threads);
+    }
+
+    public static StepSplitter from(Properties conf) {
+        return new StepSplitter(Boolean.parseBoolean(conf.getProperty(SPLIT, "false").trim()),
+                Long.parseLong(conf.getProperty(MIN_MB, "512").trim()) * 1024 * 1024,
+                Integer.parseInt(conf.getProperty(THREADS, "2").trim()));
+    }
+
+    /**
+     * @return true if the given file is a STEP file large enough to be split, IGES files are never split
+     */
+    public boolean isSplitting(Path stepFile) throws IOException {
+        String name = stepFile.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        return enabled && (name.endsWith(".stp") || name.endsWith(".step")) && Files.size(stepFile) >= minBytes;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Writes the pieces of an assembly in the given directory.
+     *
+     * @return the pieces, empty if the file is not an assembly of several sub-assemblies
+     */
+    public List<StepPiece> split(Path stepFile, Path directory) throws IOException {
+        long start = System.currentTimeMillis();
+        Links links = new Links();
+        Set<String> types = new HashSet<>(Arrays.asList(NAUO, PDS, SDR, CDSR, SRR, STYLED_ITEM,
+                OVER_RIDING_STYLED_ITEM, APD));
+        types.addAll(LISTS.keySet());
+        Path indexFile = Files.createTempFile(directory, "step", ".index");
+        try (StepIndex index = StepIndex.build(stepFile, indexFile, types, links::add)) {
+            links.sort();
+            List<StepPiece> pieces = new Cutter(index, links).cut(stepFile, directory);
+            LOGGER.log(Level.INFO, "Split " + stepFile.getFileName() + ", " + index.getCount() + " instances, in "
+                    + pieces.size() + " pieces in " + (System.currentTimeMillis() - start) + " ms");
+            return pieces;
+        } finally {
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    /**
+     * Instances linking the products to their shapes, kept in the heap: the assembly tree, the representations
+     * of the products and, for every instance, the instances pointing back at it which a piece takes along.
+     */
+    private static final class Links {
+
+        private final List<long[]> occurrences = new ArrayList<>();
+        private final Map<Long, String> occurrenceNames = new HashMap<>();
+        private final Map<Long, List<Long>> shapesByDefinition = new HashMap<>();
+        private final Map<Long, Long> representationByShape = new HashMap<>();
+        private final Map<Long, Long> relationByShape = new HashMap<>();
+        private final Map<Long, Integer> listArguments = new HashMap<>();
+        private long[] backReferences = new long[1024];
+        private int backReferenceCount;
+
+        private void add(StepEntity entity) {
+            long id = entity.getId();
+            if (entity.is(NAUO)) {
+                List<String> arguments = entity.getArguments(NAUO);
+                long relating = argument(arguments, 3);
+                long related = argument(arguments, 4);
+                occurrences.add(new long[]{id, relating, related});
+                String name = arguments.size() > 1 ? unquote(arguments.get(1)) : "";
+                occurrenceNames.put(id, !name.isEmpty() ? name : arguments.isEmpty() || unquote(arguments.get(0))
+                        .isEmpty() ? "#" + id : unquote(arguments.get(0)));
+                backReference(relating, id);
+            } else if (entity.is(PDS)) {
+                long definition = argument(entity.getArguments(PDS), 2);
+                shapesByDefinition.computeIfAbsent(definition, key -> new ArrayList<>()).add(id);
+                backReference(definition, id);
+            } else if (entity.is(SDR)) {
+                long shape = argument(entity.getArguments(SDR), 0);
+                representationByShape.put(shape, argument(entity.getArguments(SDR), 1));
+                backReference(shape, id);
+            } else if (entity.is(CDSR)) {
+                long shape = argument(entity.getArguments(CDSR), 1);
+                relationByShape.put(shape, argument(entity.getArguments(CDSR), 0));
+                backReference(shape, id);
+            } else if (entity.is(SRR) && !entity.is(RRWT)) {
+                List<String> arguments = entity.isComplex() ? entity.getArguments(RR) : entity.getArguments(SRR);
+                backReference(argument(arguments, 2), id);
+                backReference(argument(arguments, 3), id);
+            } else if (entity.is(STYLED_ITEM) || entity.is(OVER_RIDING_STYLED_ITEM)) {
+                String type = entity.is(STYLED_ITEM) ? STYLED_ITEM : OVER_RIDING_STYLED_ITEM;
+                backReference(argument(entity.getArguments(type), 2), id);
+            } else if (entity.is(APD)) {
+                backReference(argument(entity.getArguments(APD), 3), id);
+            } else if (!entity.isComplex() && LISTS.containsKey(entity.getType())) {
+                int list = LISTS.get(entity.getType());
+                List<String> arguments = entity.getArguments(entity.getType());
+                if (arguments.size() > list) {
+                    listArguments.put(id, list);
+                    for (String item : StepEntity.items(arguments.get(list))) {
+                        backReference(StepEntity.reference(item), id);
+                    }
+                }
+            }
+        }
+
+        private void backReference(long target, long from) {
+            if (target <= 0) {
+                return;
+            }
+            if (backReferenceCount == backReferences.length) {
+                backReferences = Arrays.copyOf(backReferences, backReferenceCount * 2);
+            }
+            backReferences[backReferenceCount++] = target << 32 | from;
+        }
+
+        private void sort() {
+            backReferences = Arrays.copyOf(backReferences, backReferenceCount);
+            Arrays.parallelSort(backReferences);
+        }
+
+        /**
+         * @return the instances pointing back at the given one and taken along with it
+         */
+        private List<Long> backReferences(long target) {
+            int i = Arrays.binarySearch(backReferences, target << 32);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            List<Long> from = new ArrayList<>();
+            for (; i < backReferences.length && backReferences[i] >>> 32 == target; i++) {
+                from.add(backReferences[i] & 0xFFFFFFFFL);
+            }
+            return from;
+        }
+
+        private static long argument(List<String> arguments, int index) {
+            return index < arguments.size() ? StepEntity.reference(arguments.get(index)) : -1;
+        }
+    }
+
+    /**
+     * Follows the assembly tree and writes the pieces.
+     */
+    private static final class Cutter {
+
+        private final StepIndex index;
+        private final Links links;
+        private final Map<Long, List<long[]>> children = new LinkedHashMap<>();
+
+        private Cutter(StepIndex index, Links links) {
+            this.index = index;
+            this.links = links;
+            for (long[] occurrence : links.occurrences) {
+                children.computeIfAbsent(occurrence[1], key -> new ArrayList<>()).add(occurrence);
+            }
+        }
+
+        private List<StepPiece> cut(Path stepFile, Path directory) throws IOException {
+            Set<Long> related = new HashSet<>();
+            for (long[] occurrence : links.occurrences) {
+                related.add(occurrence[2]);
+            }
+            Map<Long, StepPiece> pieces = new LinkedHashMap<>();
+            String name = stepFile.getFileName().toString();
+            String stem = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+            for (long root : children.keySet()) {
+                if (related.contains(root)) {
+                    continue;
+                }
+                // A root wrapping a single sub-assembly is split at the first level with several children
+                long top = root;
+                double[] placement = IDENTITY;
+                Set<Long> visited = new HashSet<>();
+                while (children.containsKey(top) && children.get(top).size() == 1 && visited.add(top)) {
+                    long[] occurrence = children.get(top).get(0);
+                    placement = multiply(placement, placement(occurrence));
+                    top = occurrence[2];
+                }
+                for (long[] occurrence : children.getOrDefault(top, Collections.emptyList())) {
+                    StepPiece piece = pieces.get(occurrence[2]);
+                    if (piece == null) {
+                        piece = new StepPiece(directory.resolve(stem + "-" + (pieces.size() + 1) + ".stp"),
+                                productName(occurrence[2]));
+                        pieces.put(occurrence[2], piece);
+                    }
+                    piece.addOccurrence(links.occurrenceNames.get(occurrence[0]),
+                            multiply(placement, placement(occurrence)));
+                }
+            }
+            if (pieces.size() < 2) {
+                return Collections.emptyList();
+            }
+            for (Map.Entry<Long, StepPiece> piece : pieces.entrySet()) {
+                write(closure(piece.getKey()), piece.getValue().getFile());
+            }
+            return new ArrayList<>(pieces.values());
+        }
+
+        /**
+         * @return the ids of the instances a piece holds, from its product definition
+         */
+        private BitSet closure(long productDefinition) throws IOException {
+            BitSet closure = new BitSet();
+            long[] stack = new long[1024];
+            int size = 0;
+            stack[size++] = productDefinition;
+            while (size > 0) {
+                long id = stack[--size];
+                if (!index.contains(id) || closure.get((int) id)) {
+                    continue;
+                }
+                closure.set((int) id);
+                String text = index.read(id);
+                List<Long> references;
+                Integer list = links.listArguments.get(id);
+                if (list != null) {
+                    // Only the other arguments of a list instance are followed
+                    StepEntity entity = StepEntity.parse(text);
+                    List<String> arguments = entity.getArguments(entity.getType());
+                    references = new ArrayList<>();
+                    for (int i = 0; i < arguments.size(); i++) {
+                        if (i != list) {
+                            references.addAll(StepEntity.references(arguments.get(i)));
+                        }
+                    }
+                } else {
+                    references = StepEntity.references(text.substring(text.indexOf('=') + 1));
+                }
+                references.addAll(links.backReferences(id));
+                for (long reference : references) {
+                    if (reference > 0 && reference <= StepIndex.MAX_ID && !closure.get((int) reference)) {
+                        if (size == stack.length) {
+                            stack = Arrays.copyOf(stack, size * 2);
+                        }
+                        stack[size++] = reference;
+                    }
+                }
+            }
+            return closure;
+        }
+
+        private void write(BitSet closure, Path pieceFile) throws IOException {
+            try (Writer out = new BufferedWriter(Files.newBufferedWriter(pieceFile, StandardCharsets.ISO_8859_1))) {
+                out.write(index.getHeader());
+                out.write("DATA;\n");
+                for (int id = closure.nextSetBit(0); id >= 0; id = closure.nextSetBit(id + 1)) {
+                    String text = index.read(id);
+                    Integer list = links.listArguments.get((long) id);
+                    if (list != null) {
+                        StepEntity entity = StepEntity.parse(text);
+                        StringBuilder items = new StringBuilder("(");
+                        for (String item : StepEntity.items(entity.getArguments(entity.getType()).get(list))) {
+                            long reference = StepEntity.reference(item);
+                            if (reference > 0 && reference <= Integer.MAX_VALUE && closure.get((int) reference)) {
+                                items.append(items.length() > 1 ? "," : "").append(item);
+                            }
+                        }
+                        text = entity.toString(list, items.append(')').toString());
+                    }
+                    out.write(text);
+                    out.write('\n');
+                }
+                out.write("ENDSEC;\nEND-ISO-10303-21;\n");
+            }
+        }
+
+        /**
+         * @return where an occurrence places its product in the product it belongs to
+         */
+        private double[] placement(long[] occurrence) throws IOException {
+            for (long shape : links.shapesByDefinition.getOrDefault(occurrence[0], Collections.emptyList())) {
+                Long relation = links.relationByShape.get(shape);
+                String text = relation != null ? index.read(relation) : null;
+                if (text == null) {
+                    continue;
+                }
+                StepEntity entity = StepEntity.parse(text);
+                List<String> transformation = entity.getArguments(RRWT);
+                List<String> representations = entity.getArguments(RR);
+                String operator = transformation.isEmpty() ? null : index.read(StepEntity.reference(transformation.get(0)));
+                if (operator == null || representations.size() < 4) {
+                    continue;
+                }
+                List<String> items = StepEntity.parse(operator).getArguments("ITEM_DEFINED_TRANSFORMATION");
+                if (items.size() < 4) {
+                    continue;
+                }
+                double[] first = axisPlacement(StepEntity.reference(items.get(2)));
+                double[] second = axisPlacement(StepEntity.reference(items.get(3)));
+                // The transformation maps the first representation to the second, usually the child to its parent
+                boolean childFirst = !representationsOf(occurrence[2]).contains(
+                        StepEntity.reference(representations.get(3)));
+                return childFirst ? multiply(second, invert(first)) : multiply(first, invert(second));
+            }
+            return IDENTITY;
+        }
+
+        private Set<Long> representationsOf(long productDefinition) {
+            Set<Long> representations = new HashSet<>();
+            for (long shape : links.shapesByDefinition.getOrDefault(productDefinition, Collections.emptyList())) {
+                Long representation = links.representationByShape.get(shape);
+                if (representation != null) {
+                    representations.add(representation);
+                }
+            }
+            return representations;
+        }
+
+        /**
+         * @return the row-major 3x4 matrix of an AXIS2_PLACEMENT_3D, mapping its local coordinates to the
+         * coordinates of its representation
+         */
+        private double[] axisPlacement(long id) throws IOException {
+            String text = index.read(id);
+            if (text == null) {
+                return IDENTITY;
+            }
+            List<String> arguments = StepEntity.parse(text).getArguments("AXIS2_PLACEMENT_3D");
+            if (arguments.size() < 4) {
+                return IDENTITY;
+            }
+            double[] location = coordinates(StepEntity.reference(arguments.get(1)), "CARTESIAN_POINT", 0, 0, 0);
+            double[] z = normalize(coordinates(StepEntity.reference(arguments.get(2)), "DIRECTION", 0, 0, 1));
+            double[] reference = coordinates(StepEntity.reference(arguments.get(3)), "DIRECTION", 1, 0, 0);
+            if (z == null) {
+                return IDENTITY;
+            }
+            double dot = reference[0] * z[0] + reference[1] * z[1] + reference[2] * z[2];
+            double[] x = normalize(new double[]{reference[0] - dot * z[0], reference[1] - dot * z[1],
+                    reference[2] - dot * z[2]});
+            if (x == null) {
+                return IDENTITY;
+            }
+            double[] y = {z[1] * x[2] - z[2] * x[1], z[2] * x[0] - z[0] * x[2], z[0] * x[1] - z[1] * x[0]};
+            return new double[]{
+                    x[0], y[0], z[0], location[0],
+                    x[1], y[1], z[1], location[1],
+                    x[2], y[2], z[2], location[2]};
+        }
+
+        private double[] coordinates(long id, String type, double... defaults) throws IOException {
+            String text = id > 0 ? index.read(id) : null;
+            if (text == null) {
+                return defaults;
+            }
+            List<String> arguments = StepEntity.parse(text).getArguments(type);
+            double[] values = arguments.size() > 1 ? StepEntity.numbers(arguments.get(1)) : defaults;
+            return values.length >= 3 ? values : Arrays.copyOf(values, 3);
+        }
+
+        private String productName(long productDefinition) throws IOException {
+            String definition = index.read(productDefinition);
+            String formation = definition != null
+                    ? index.read(Links.argument(StepEntity.parse(definition).getArguments("PRODUCT_DEFINITION"), 2))
+                    : null;
+            String product = formation != null
+                    ? index.read(Links.argument(StepEntity.parse(formation).getArguments(
+                    StepEntity.parse(formation).getType()), 2))
+                    : null;
+            List<String> arguments = product != null ? StepEntity.parse(product).getArguments("PRODUCT")
+                    : Collections.emptyList();
+            return arguments.size() > 1 && !unquote(arguments.get(1)).isEmpty() ? unquote(arguments.get(1))
+                    : "#" + productDefinition;
+        }
+    }
+
+    private static String unquote(String argument) {
+        String trimmed = argument.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("'") && trimmed.endsWith("'")) {
+            return trimmed.substring(1, trimmed.length() - 1).replace("''", "'");
+        }
+        return "";
+    }
+
+    private static double[] normalize(double[] v) {
+        double length = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        return length > 1e-12 ? new double[]{v[0] / length, v[1] / length, v[2] / length} : null;
+    }
+
+    /**
+     * @return the transformation applying b then a, both row-major 3x4 matrices
+     */
+    static double[] multiply(double[] a, double[] b) {
+        double[] c = new double[12];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 4; column++) {
+                double value = column == 3 ? a[4 * row + 3] : 0;
+                for (int k = 0; k < 3; k++) {
+                    value += a[4 * row + k] * b[4 * k + column];
+                }
+                c[4 * row + column] = value;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return the inverse of a rigid transformation
+     */
+    static double[] invert(double[] m) {
+        double[] inverse = new double[12];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                inverse[4 * row + column] = m[4 * column + row];
+            }
+            inverse[4 * row + 3] = -(m[row] * m[3] + m[4 + row] * m[7] + m[8 + row] * m[11]);
+        }
+        return inverse;
+    }
+}
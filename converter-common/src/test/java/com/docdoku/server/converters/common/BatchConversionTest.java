@@ -0,0 +1,113 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class BatchConversionTest {
+
+    private Path dir;
+    private List<URI> files;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("batch");
+        files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path file = dir.resolve("part" + i + ".stl");
+            Files.write(file, ("solid part" + i).getBytes(StandardCharsets.US_ASCII));
+            files.add(file.toUri());
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testResultsAreStreamed() throws Exception {
+        AsyncConverter<String> converter = AsyncConverters.adapt(
+                (cadFileUri, tmpDirUri) -> Paths.get(cadFileUri).getFileName().toString().toUpperCase());
+        Properties conf = new Properties();
+        conf.setProperty(BatchConversion.MAX_IN_FLIGHT, "3");
+        BatchResults<String> results = new BatchConversion<>("batch", converter, conf)
+                .convert(files, dir.toUri());
+
+        Set<String> names = new HashSet<>();
+        Set<String> checksums = new HashSet<>();
+        BatchItem<String> item;
+        while ((item = results.take()) != null) {
+            Assert.assertTrue(item.isSucceeded());
+            Assert.assertTrue(item.getInputSize() > 0);
+            Assert.assertEquals(8, item.getInputChecksum().length());
+            names.add(item.getResult());
+            checksums.add(item.getInputChecksum());
+        }
+        Assert.assertEquals(20, names.size());
+        Assert.assertTrue(names.contains("PART7.STL"));
+        Assert.assertEquals(20, checksums.size());
+        results.getCompletion().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFailuresAreReportedPerFile() throws Exception {
+        files.add(dir.resolve("missing.stl").toUri());
+        AsyncConverter<String> converter = AsyncConverters.adapt((cadFileUri, tmpDirUri) -> {
+            if (cadFileUri.toString().endsWith("part3.stl")) {
+                throw new IllegalArgumentException("cannot convert");
+            }
+            return "ok";
+        });
+        List<BatchItem<String>> items = new BatchConversion<>("batch", converter, new Properties())
+                .convert(files, dir.toUri()).awaitAll();
+
+        Assert.assertEquals(21, items.size());
+        int failures = 0;
+        for (BatchItem<String> item : items) {
+            if (!item.isSucceeded()) {
+                failures++;
+                Assert.assertTrue(item.getError() instanceof IOException || item.getError() instanceof IllegalArgumentException);
+            }
+        }
+        Assert.assertEquals(2, failures);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        AsyncConverter<String> converter = AsyncConverters.adapt((cadFileUri, tmpDirUri) -> {
+            Thread.sleep(30000);
+            return "late";
+        });
+        Properties conf = new Properties();
+        conf.setProperty(BatchConversion.MAX_IN_FLIGHT, "2");
+        BatchResults<String> results = new BatchConversion<>("cancelled", converter, conf).convert(files, dir.toUri());
+        Thread.sleep(200);
+        results.cancel();
+
+        results.getCompletion().get(5, TimeUnit.SECONDS);
+        List<BatchItem<String>> items = results.awaitAll();
+        Assert.assertTrue(items.size() < files.size());
+        for (BatchItem<String> item : items) {
+            Assert.assertFalse(item.isSucceeded());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.JMX;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConversionExecutorTest {
+
+    @Test
+    public void testAdaptSynchronousConverter() throws Exception {
+        ConversionTask<String> legacy = (cadFileUri, tmpDirUri) -> Paths.get(cadFileUri).getFileName().toString();
+        AsyncConverter<String> converter = AsyncConverters.adapt(legacy);
+
+        CompletableFuture<String> future = converter.convertAsync(new URI("file:///tmp/part.stl"), new URI("file:///tmp"));
+        Assert.assertEquals("part.stl", future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailureCompletesExceptionally() throws Exception {
+        ConversionTask<String> legacy = (cadFileUri, tmpDirUri) -> {
+            throw new IllegalStateException("bad file");
+        };
+        CompletableFuture<String> future = AsyncConverters.adapt(legacy)
+                .convertAsync(new URI("file:///tmp/part.stl"), new URI("file:///tmp"));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testCancelInterruptsConversion() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Object> future = ConversionExecutor.forConverter("cancel").submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(30000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(future.cancel(true));
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLateResultIsClosed() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicBoolean closed = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        CompletableFuture<Closeable> future = ConversionExecutor.forConverter("late").submit(() -> {
+            started.countDown();
+            // Ignores interruption, as a conversion finishing its post-processing would
+            while (cancelled.getCount() > 0) {
+                try {
+                    cancelled.await();
+                } catch (InterruptedException e) {
+                    // keep going
+                }
+            }
+            return () -> {
+                closed.set(true);
+                done.countDown();
+            };
+        });
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+        cancelled.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void testInteractiveConversionsOvertakeQueuedBulk() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionExecutor.POOL_SIZE, "1");
+        ConversionExecutor executor = ConversionExecutor.forConverter("overtake", conf);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Object> running = executor.submit(ConversionOrigin.BULK, () -> {
+            started.countDown();
+            gate.await();
+            return null;
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<CompletableFuture<Boolean>> queued = new ArrayList<>();
+        queued.add(executor.submit(ConversionOrigin.RECONVERSION, () -> order.add("reconversion")));
+        queued.add(executor.submit(ConversionOrigin.BULK, () -> order.add("bulk")));
+        queued.add(executor.submit(ConversionOrigin.INTERACTIVE, () -> order.add("interactive")));
+        gate.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Boolean> future : queued) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(Arrays.asList("interactive", "bulk", "reconversion"), order);
+    }
+
+    @Test
+    public void testInteractiveThreadsAreKept() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionExecutor.POOL_SIZE, "2");
+        conf.setProperty(ConversionExecutor.INTERACTIVE_THREADS, "1");
+        ConversionExecutor executor = ConversionExecutor.forConverter("reserved", conf);
+        ConversionLanesMXBean lanes = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                ConversionMetrics.objectName("ConversionLanes", "reserved"), ConversionLanesMXBean.class);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch bulkStarted = new CountDownLatch(2);
+        List<CompletableFuture<Object>> bulk = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            bulk.add(executor.submit(ConversionOrigin.BULK, () -> {
+                bulkStarted.countDown();
+                gate.await();
+                return null;
+            }));
+        }
+
+        Assert.assertFalse(bulkStarted.await(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, bulkStarted.getCount());
+
+        CompletableFuture<String> interactive = executor.submit(ConversionOrigin.INTERACTIVE, () -> "preview");
+        Assert.assertEquals("preview", interactive.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Integer.valueOf(1), lanes.getQueuedConversions().get("BULK"));
+        Assert.assertEquals(Integer.valueOf(1), lanes.getRunningConversions().get("BULK"));
+
+        gate.countDown();
+        for (CompletableFuture<Object> future : bulk) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(Long.valueOf(1), lanes.getCompletedConversions().get("INTERACTIVE"));
+        Assert.assertEquals(Long.valueOf(2), lanes.getCompletedConversions().get("BULK"));
+        Assert.assertEquals(Long.valueOf(0), lanes.getCompletedConversions().get("RECONVERSION"));
+    }
+
+    @Test
+    public void testCancelledConversionsLeaveTheirLane() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionExecutor.POOL_SIZE, "1");
+        ConversionExecutor executor = ConversionExecutor.forConverter("dropped", conf);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Object> running = executor.submit(ConversionOrigin.BULK,
+                () -> gate.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> waiting = executor.submit(ConversionOrigin.BULK, () -> ran.getAndSet(true));
+
+        Assert.assertTrue(waiting.cancel(true));
+        gate.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("next", executor.submit(ConversionOrigin.BULK, () -> "next").get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(ran.get());
+    }
+}
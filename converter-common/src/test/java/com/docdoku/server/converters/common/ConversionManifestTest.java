@@ -0,0 +1,117 @@
+package com.docdoku.server.converters.common;
+
+import com.docdoku.server.converters.common.mesh.ObjOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class ConversionManifestTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testManifestListsOutputs() throws Exception {
+        Path input = Files.write(dir.resolve("part \"1\".ifc"), "ISO-10303-21;".getBytes(StandardCharsets.US_ASCII));
+        Path obj = Files.write(dir.resolve("part.obj"), "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes(StandardCharsets.US_ASCII));
+        Path mtl = Files.write(dir.resolve("part.mtl"), "newmtl red\n".getBytes(StandardCharsets.US_ASCII));
+        Path texture = Files.write(dir.resolve("red.png"), new byte[]{1, 2, 3});
+
+        Properties conf = new Properties();
+        Assert.assertEquals(Arrays.asList(mtl), ConversionManifest.attach("test", "1.0", null, obj, Arrays.asList(mtl), conf));
+
+        conf.setProperty(ConversionManifest.ENABLED, "true");
+        List<Path> outputs;
+        try (ConversionTelemetry telemetry = ConversionMetrics.begin("manifest", input)) {
+            telemetry.enter(ConversionStage.EXTERNAL_RUN);
+            telemetry.output(obj, Arrays.asList(mtl, texture));
+            outputs = ConversionManifest.attach("test", "Tool \"1.0\"", telemetry, obj, Arrays.asList(mtl, texture, null), conf);
+        }
+        Path manifestFile = dir.resolve("part.obj.manifest.json");
+        Assert.assertEquals(Arrays.asList(mtl, texture, null, manifestFile), outputs);
+
+        ConversionManifest manifest = ConversionManifest.read(manifestFile);
+        Assert.assertEquals("test", manifest.getConverterName());
+        Assert.assertEquals("Tool \"1.0\"", manifest.getConverterVersion());
+        Assert.assertEquals("part \"1\".ifc", manifest.getInputName());
+        Assert.assertEquals(13, manifest.getInputBytes());
+        Assert.assertEquals(ConversionManifest.DIGEST, manifest.getDigest());
+        Assert.assertEquals(1, manifest.getTriangles());
+        Assert.assertTrue(manifest.getStageMillis(ConversionStage.SANITY_CHECK) >= 0);
+        Assert.assertTrue(manifest.getStageMillis(ConversionStage.EXTERNAL_RUN) >= 0);
+        Assert.assertEquals(-1, manifest.getStageMillis(ConversionStage.SPAWN));
+        Assert.assertNotNull(manifest.getCreatedAt());
+
+        Assert.assertEquals(3, manifest.getOutputs().size());
+        ConversionManifest.Output geometry = manifest.getOutputs().get(0);
+        Assert.assertEquals("part.obj", geometry.getFile());
+        Assert.assertEquals(ConversionManifest.GEOMETRY, geometry.getRole());
+        Assert.assertEquals(Files.size(obj), geometry.getSize());
+        Assert.assertEquals(OutputChecksums.checksum(obj), geometry.getHash());
+        Assert.assertEquals("\"" + geometry.getHash() + "\"", geometry.getETag());
+        Assert.assertEquals(ConversionManifest.MATERIAL, manifest.getOutput("part.mtl").getRole());
+        Assert.assertEquals(ConversionManifest.TEXTURE, manifest.getOutput("red.png").getRole());
+        Assert.assertEquals("55bc801d", manifest.getOutput("red.png").getHash());
+    }
+
+    @Test
+    public void testUnchangedOutputsKeepTheirHash() throws Exception {
+        Path input = Files.write(dir.resolve("part.stl"), "solid part".getBytes(StandardCharsets.US_ASCII));
+        Path glb = Files.write(dir.resolve("part.glb"), "glTF".getBytes(StandardCharsets.US_ASCII));
+        String before;
+        try (ConversionTelemetry telemetry = ConversionMetrics.begin("manifest", input)) {
+            before = ConversionManifest.read(ConversionManifest.write("test", null, telemetry, glb, null))
+                    .getOutput("part.glb").getHash();
+        }
+        String after;
+        try (ConversionTelemetry telemetry = ConversionMetrics.begin("manifest", input)) {
+            ConversionManifest manifest = ConversionManifest.read(ConversionManifest.write("test", null, telemetry, glb, null));
+            Assert.assertNull(manifest.getConverterVersion());
+            after = manifest.getOutput("part.glb").getHash();
+        }
+        Assert.assertEquals(8, before.length());
+        Assert.assertEquals(before, after);
+    }
+
+    @Test
+    public void testStreamedOutputsKeepTheirChecksum() throws Exception {
+        Path obj = dir.resolve("part.obj");
+        try (ObjOutput out = new ObjOutput(obj)) {
+            out.ascii("v ").decimal(0.5, 3).ascii(" 0 0\n");
+        }
+        // The recorded checksum is used while the file is unchanged, and computed again once rewritten
+        Path moved = Files.move(obj, dir.resolve("moved.obj"));
+        Assert.assertEquals(OutputChecksums.format(crc("v 0.5 0 0\n")), OutputChecksums.checksum(moved));
+        Files.write(moved, "v 1 0 0\n".getBytes(StandardCharsets.US_ASCII));
+        Assert.assertEquals(OutputChecksums.format(crc("v 1 0 0\n")), OutputChecksums.checksum(moved));
+    }
+
+    private static long crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.US_ASCII));
+        return crc.getValue();
+    }
+}
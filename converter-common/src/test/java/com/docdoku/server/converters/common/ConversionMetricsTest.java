@@ -0,0 +1,70 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+public class ConversionMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(50.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(50, histogram.getPercentile(50));
+        Assert.assertEquals(100, histogram.getPercentile(99));
+        Assert.assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    public void testCountTriangles() throws Exception {
+        Path obj = Files.createTempFile("triangles", ".obj");
+        try {
+            Files.write(obj, ("# comment f 1 2 3\nv 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+                    + "f 1 2 3\nf 1/1/1 2/2/2 3/3/3 4/4/4\r\n  f 1 2 3 4 1\nfo 1 2 3").getBytes(StandardCharsets.US_ASCII));
+            Assert.assertEquals(6, ObjFileUtils.countTriangles(obj));
+        } finally {
+            Files.delete(obj);
+        }
+    }
+
+    @Test
+    public void testTelemetryIsPublished() throws Exception {
+        Path obj = Files.createTempFile("telemetry", ".obj");
+        try {
+            Files.write(obj, "f 1 2 3\n".getBytes(StandardCharsets.US_ASCII));
+
+            try (ConversionTelemetry telemetry = ConversionMetrics.begin("test", obj)) {
+                telemetry.enter(ConversionStage.EXTERNAL_RUN);
+                telemetry.exitCode(0);
+                telemetry.enter(ConversionStage.POST_PROCESSING);
+                telemetry.output(obj, Collections.<Path>emptyList());
+                telemetry.succeeded();
+            }
+            try (ConversionTelemetry telemetry = ConversionMetrics.begin("test", obj)) {
+                telemetry.exitCode(2);
+            }
+
+            ConverterStats stats = ConversionMetrics.forConverter("test");
+            Assert.assertEquals(2, stats.getConversionCount());
+            Assert.assertEquals(1, stats.getFailureCount());
+            Assert.assertEquals(1, stats.getTriangleCount());
+            Assert.assertEquals(Long.valueOf(1), stats.getExitCodes().get(2));
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Object count = server.getAttribute(ConversionMetrics.objectName("ConverterStats", "test"), "ConversionCount");
+            Assert.assertEquals(2L, count);
+        } finally {
+            Files.delete(obj);
+        }
+    }
+}
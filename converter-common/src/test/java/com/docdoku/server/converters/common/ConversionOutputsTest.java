@@ -0,0 +1,70 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class ConversionOutputsTest {
+
+    private Path dir;
+    private Path cad;
+    private Path obj;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("outputs");
+        cad = Files.write(dir.resolve("part.stp"), "ISO-10303-21;".getBytes(StandardCharsets.US_ASCII));
+        obj = Files.write(dir.resolve("part.obj"), "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n"
+                .getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testObjIsKeptWithItsMaterials() throws Exception {
+        Path mtl = Files.write(dir.resolve("part.obj.mtl"), "newmtl red\nKd 1 0 0\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        Map.Entry<Path, List<Path>> result;
+        try (ConversionTelemetry telemetry = ConversionMetrics.begin("outputs", cad)) {
+            result = ConversionOutputs.mesh("test", "1.0", telemetry, cad, obj, mtl, OutputFormat.OBJ,
+                    new Properties(), AbstractMap.SimpleEntry::new);
+        }
+        Assert.assertEquals(obj, result.getKey());
+        Assert.assertEquals(Collections.singletonList(mtl), result.getValue());
+    }
+
+    @Test
+    public void testGlbReplacesTheObj() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionManifest.ENABLED, "true");
+        Map.Entry<Path, List<Path>> result;
+        try (ConversionTelemetry telemetry = ConversionMetrics.begin("outputs", cad)) {
+            result = ConversionOutputs.mesh("test", "1.0", telemetry, cad, obj, null, OutputFormat.GLB, conf,
+                    AbstractMap.SimpleEntry::new);
+        }
+        Path glb = dir.resolve("part.glb");
+        Assert.assertEquals(glb, result.getKey());
+        Assert.assertTrue(Files.exists(glb));
+        Assert.assertFalse(Files.exists(obj));
+        Assert.assertEquals(Collections.singletonList(dir.resolve("part.glb.manifest.json")), result.getValue());
+        Assert.assertEquals(1, ConversionManifest.read(result.getValue().get(0)).getTriangles());
+    }
+}
@@ -0,0 +1,183 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class ConversionWorkspaceTest {
+
+    private Path root;
+    private Path cadFile;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("workspace");
+        cadFile = Files.createTempFile("input", ".stl");
+        Files.write(cadFile, new byte[1024]);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(cadFile);
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testUnmanagedWorkspaceUsesCallerDirectory() throws Exception {
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("unmanaged", new Properties());
+        try (WorkspaceJob job = workspace.open(cadFile, root)) {
+            Assert.assertEquals(root, job.getDirectory());
+        }
+    }
+
+    @Test
+    public void testQuotaIsEnforced() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionWorkspace.WORKSPACE_DIR, root.toString());
+        conf.setProperty(ConversionWorkspace.QUOTA_MB, "2");
+        conf.setProperty(ConversionWorkspace.ACQUIRE_TIMEOUT_SECONDS, "1");
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("quota", conf);
+
+        WorkspaceJob first = workspace.open(cadFile, null);
+        WorkspaceJob second = workspace.open(cadFile, null);
+        Assert.assertNotEquals(first.getDirectory(), second.getDirectory());
+        Assert.assertTrue(first.getDirectory().startsWith(root.resolve("quota")));
+        Assert.assertEquals(2, workspace.getRunningJobs());
+
+        try {
+            workspace.open(cadFile, null).close();
+            Assert.fail();
+        } catch (IOException e) {
+            // Expected, the workspace is full
+        }
+
+        Files.write(first.getDirectory().resolve("out.obj"), new byte[100]);
+        Assert.assertEquals(Long.valueOf(100), workspace.getJobDiskUsage().get(first.getId()));
+        first.succeeded();
+        first.close();
+        Assert.assertEquals(1024 * 1024 + 100, workspace.getUsedBytes());
+
+        // The consumer of the result removes the output, the space is reclaimed
+        Files.delete(first.getDirectory().resolve("out.obj"));
+
+        try (WorkspaceJob third = workspace.open(cadFile, null)) {
+            Assert.assertNotNull(third.getDirectory());
+        }
+        second.close();
+    }
+
+    @Test
+    public void testQuotaIsEnforcedOnWrittenBytes() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionWorkspace.WORKSPACE_DIR, root.toString());
+        conf.setProperty(ConversionWorkspace.QUOTA_MB, "3");
+        conf.setProperty(ConversionWorkspace.ACQUIRE_TIMEOUT_SECONDS, "1");
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("written", conf);
+
+        // The job writes more than the 1 MB reserved for it
+        WorkspaceJob first = workspace.open(cadFile, null);
+        Files.write(first.getDirectory().resolve("out.obj"), new byte[2 * 1024 * 1024 + 1]);
+        Assert.assertEquals(2 * 1024 * 1024 + 1, workspace.getUsedBytes());
+
+        try {
+            workspace.open(cadFile, null).close();
+            Assert.fail();
+        } catch (IOException e) {
+            // Expected, the written bytes fill the workspace
+        }
+        first.succeeded();
+        first.close();
+        Assert.assertTrue(workspace.release(first.getDirectory().resolve("out.obj")));
+        Assert.assertFalse(Files.exists(first.getDirectory()));
+        Assert.assertEquals(0, workspace.getUsedBytes());
+    }
+
+    @Test
+    public void testFinishedJobsAreKeptUntilReleased() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionWorkspace.WORKSPACE_DIR, root.toString());
+        conf.setProperty(ConversionWorkspace.MAX_AGE_MINUTES, "1");
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("release", conf);
+
+        WorkspaceJob job = workspace.open(cadFile, null);
+        Path result = job.getDirectory().resolve("out.obj");
+        Files.write(result, new byte[100]);
+        job.succeeded();
+        job.close();
+
+        workspace.reclaim();
+        Assert.assertTrue(Files.exists(result));
+        Assert.assertEquals(100, workspace.getUsedBytes());
+
+        Assert.assertFalse(workspace.release(cadFile));
+        Assert.assertTrue(workspace.release(result));
+        Assert.assertFalse(Files.exists(job.getDirectory()));
+        Assert.assertEquals(100, workspace.getReclaimedBytes());
+        Assert.assertEquals(0, workspace.getUsedBytes());
+    }
+
+    @Test
+    public void testUnreleasedJobsExpire() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionWorkspace.WORKSPACE_DIR, root.toString());
+        conf.setProperty(ConversionWorkspace.MAX_AGE_MINUTES, "1");
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("expire", conf);
+
+        WorkspaceJob job = workspace.open(cadFile, null);
+        Files.write(job.getDirectory().resolve("out.obj"), new byte[100]);
+        job.succeeded();
+        job.close();
+
+        Files.setLastModifiedTime(job.getDirectory(), FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        workspace.reclaim();
+        Assert.assertFalse(Files.exists(job.getDirectory()));
+        Assert.assertEquals(0, workspace.getUsedBytes());
+    }
+
+    @Test
+    public void testFailedJobsAreDeleted() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionWorkspace.WORKSPACE_DIR, root.toString());
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("failed", conf);
+
+        WorkspaceJob job = workspace.open(cadFile, null);
+        Files.write(job.getDirectory().resolve("partial.obj"), new byte[100]);
+        job.close();
+
+        Assert.assertFalse(Files.exists(job.getDirectory()));
+        Assert.assertEquals(100, workspace.getReclaimedBytes());
+        Assert.assertEquals(0, workspace.getUsedBytes());
+        Assert.assertFalse(workspace.release(job.getDirectory().resolve("partial.obj")));
+    }
+
+    @Test
+    public void testOrphansAreReclaimed() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ConversionWorkspace.WORKSPACE_DIR, root.toString());
+        conf.setProperty(ConversionWorkspace.MAX_AGE_MINUTES, "1");
+
+        // Left over by a previous run
+        Path orphan = Files.createDirectories(root.resolve("reclaim").resolve("previous"));
+        Files.write(orphan.resolve("out.obj"), new byte[100]);
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter("reclaim", conf);
+        Assert.assertTrue(Files.exists(orphan));
+        Assert.assertEquals(100, workspace.getUsedBytes());
+
+        Files.setLastModifiedTime(orphan, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        workspace.reclaim();
+        Assert.assertFalse(Files.exists(orphan));
+        Assert.assertEquals(100, workspace.getReclaimedBytes());
+        Assert.assertEquals(0, workspace.getUsedBytes());
+    }
+}
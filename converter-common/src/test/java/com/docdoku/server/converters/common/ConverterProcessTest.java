@@ -0,0 +1,113 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class ConverterProcessTest {
+
+    @Test
+    public void testProgressParsers() {
+        Assert.assertEquals(42, ProgressParsers.percent().parse("Processing... 42%"));
+        Assert.assertEquals(-1, ProgressParsers.percent().parse("Processing..."));
+        Assert.assertEquals(50, ProgressParsers.ifcConvert().parse("[#####     ]"));
+        Assert.assertEquals(100, ProgressParsers.ifcConvert().parse("Done creating geometry"));
+        Assert.assertEquals(60, ProgressParsers.assimp().parse("Import took approx. 0.12 seconds"));
+        Assert.assertEquals(100, ProgressParsers.assimp().parse("Exporting took approx. 0.12 seconds"));
+        Assert.assertEquals(30, ProgressParsers.markers().parse("PROGRESS 30"));
+    }
+
+    @Test
+    public void testProgressIsPublishedWhileRunning() throws Exception {
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c", "echo 'PROGRESS 25'; echo oops >&2; sleep 2; echo done");
+        ConverterProcess process = ConverterProcess.start(pb, "test", Paths.get("sample.step"), ProgressParsers.markers());
+
+        ConversionProgress progress = process.getProgress();
+        Assert.assertNotNull(ConversionProgressRegistry.getInstance().get(progress.getId()));
+        long deadline = System.currentTimeMillis() + 1500;
+        while (progress.getPercent() != 25 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(25, progress.getPercent());
+        Assert.assertTrue(progress.getEstimatedRemainingMillis() >= 0);
+
+        Assert.assertEquals(0, process.waitFor());
+        Assert.assertEquals("PROGRESS 25\ndone\n", process.getStdOutput());
+        Assert.assertEquals("oops\n", process.getErrorOutput());
+        Assert.assertNull(ConversionProgressRegistry.getInstance().get(progress.getId()));
+    }
+
+    @Test
+    public void testOutputTailIsBounded() throws Exception {
+        OutputTail tail = new OutputTail(8);
+        tail.append("0123".toCharArray(), 0, 4);
+        Assert.assertEquals("0123", tail.toString());
+        tail.append("456789".toCharArray(), 0, 6);
+        Assert.assertEquals("[...]23456789", tail.toString());
+        tail.append("abcdefghijkl".toCharArray(), 2, 10);
+        Assert.assertEquals("[...]efghijkl", tail.toString());
+        Assert.assertEquals(20, tail.getWritten());
+
+        Properties conf = new Properties();
+        conf.setProperty(ProcessSettings.OUTPUT_LOG_LEVEL, "FINE");
+        conf.setProperty(ProcessSettings.OUTPUT_TAIL_KB, "1");
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c", "i=0; while [ $i -lt 500 ]; do echo line $i; i=$((i+1)); done");
+        ConverterProcess process = ConverterProcess.start(pb, "test", Paths.get("sample.ifc"), ProgressParsers.percent(),
+                ProcessSettings.from(conf));
+        Assert.assertEquals(0, process.waitFor());
+        Assert.assertTrue(process.getStdOutput().startsWith("[...]"));
+        Assert.assertTrue(process.getStdOutput().endsWith("line 499\n"));
+        Assert.assertEquals(1024 + 5, process.getStdOutput().length());
+    }
+
+    @Test(expected = ConversionCancelledException.class)
+    public void testCancel() throws Exception {
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c", "sleep 30");
+        ConverterProcess process = ConverterProcess.start(pb, "test", Paths.get("sample.ifc"), ProgressParsers.percent());
+        Assert.assertTrue(ConversionProgressRegistry.getInstance().cancel(process.getProgress().getId()));
+        process.waitFor();
+    }
+
+    @Test
+    public void testResourceLimitsWrapCommand() {
+        Properties conf = new Properties();
+        conf.setProperty(ResourceLimits.MEMORY_LIMIT_MB, "512");
+        conf.setProperty(ResourceLimits.NICE, "10");
+        conf.setProperty(ResourceLimits.PRLIMIT, "/nonexistent/prlimit");
+        ResourceLimits limits = ResourceLimits.from(conf);
+
+        List<String> command = Arrays.asList("IfcConvert", "in.ifc", "out.obj");
+        Assert.assertSame(command, ResourceLimits.none().wrap(command));
+        Assert.assertEquals(Arrays.asList("/bin/sh", "-c", "ulimit -v 524288 && exec \"$@\"", "converter",
+                "nice", "-n", "10", "IfcConvert", "in.ifc", "out.obj"), limits.wrap(command));
+
+        Assert.assertNull(limits.check("ifc", 1, "invalid file"));
+        Assert.assertEquals(ResourceLimits.MEMORY, limits.check("ifc", 1, "std::bad_alloc").getLimit());
+        Assert.assertNull(ResourceLimits.none().check("ifc", 134, ""));
+        Assert.assertNull(limits.check("ifc", 134, ""));
+        Assert.assertNull(limits.check("ifc", 139, "Segmentation fault"));
+        Assert.assertEquals(ResourceLimits.MEMORY, limits.check("ifc", 137, "").getLimit());
+        Assert.assertEquals(11, ResourceLimits.crashSignal(139));
+        Assert.assertEquals(0, ResourceLimits.crashSignal(1));
+    }
+
+    @Test
+    public void testCpuTimeLimitIsEnforced() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(ResourceLimits.CPU_TIME_LIMIT_SECONDS, "1");
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c", "while :; do :; done");
+        ConverterProcess process = ConverterProcess.start(pb, "limited", Paths.get("sample.ifc"), ProgressParsers.percent(),
+                ProcessSettings.from(conf));
+        try {
+            process.waitFor();
+            Assert.fail();
+        } catch (ResourceLimitExceededException e) {
+            Assert.assertEquals(ResourceLimits.CPU_TIME, e.getLimit());
+        }
+        Assert.assertEquals(Long.valueOf(1), ConversionMetrics.forConverter("limited").getLimitBreaches().get(ResourceLimits.CPU_TIME));
+    }
+}
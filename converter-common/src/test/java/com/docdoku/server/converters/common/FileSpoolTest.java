@@ -0,0 +1,105 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class FileSpoolTest {
+
+    private Path root;
+    private Path cadFile;
+    private FileSpool spool;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("spool");
+        cadFile = Files.createTempFile("part", ".stl");
+        Files.write(cadFile, "solid part".getBytes(StandardCharsets.US_ASCII));
+        spool = new FileSpool(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(cadFile);
+        FileSpool.delete(root);
+    }
+
+    @Test
+    public void testJobIsConverted() throws Exception {
+        String jobId = spool.submit(cadFile);
+        Assert.assertNull(spool.getResult(jobId));
+
+        SpoolWorker worker = new SpoolWorker(spool, (input, outputDirectory) -> {
+            Path obj = Files.write(outputDirectory.resolve("part.obj"), Files.readAllBytes(input));
+            Path mtl = Files.write(Files.createTempFile("part", ".mtl"), new byte[0]);
+            return Arrays.asList(obj, mtl);
+        }, 1000, 60000, 3, 10);
+
+        Assert.assertTrue(worker.runOnce());
+        Assert.assertFalse(worker.runOnce());
+
+        SpoolResult result = spool.getResult(jobId);
+        Assert.assertTrue(result.isSucceeded());
+        Assert.assertEquals(worker.getWorkerId(), result.getWorker());
+        Assert.assertEquals("solid part", new String(Files.readAllBytes(result.getConvertedFile()), StandardCharsets.US_ASCII));
+        Assert.assertEquals(1, result.getMaterials().size());
+        Assert.assertTrue(Files.exists(result.getMaterials().get(0)));
+
+        spool.remove(jobId);
+        Assert.assertNull(spool.getResult(jobId));
+    }
+
+    @Test
+    public void testFailureIsReported() throws Exception {
+        String jobId = spool.submit(cadFile);
+        SpoolWorker worker = new SpoolWorker(spool, (input, outputDirectory) -> {
+            throw new IOException("unsupported");
+        }, 1000, 60000, 3, 10);
+
+        Assert.assertTrue(worker.runOnce());
+        SpoolResult result = spool.getResult(jobId);
+        Assert.assertFalse(result.isSucceeded());
+        Assert.assertEquals("unsupported", result.getError());
+    }
+
+    @Test
+    public void testJobOfDeadWorkerIsReclaimed() throws Exception {
+        String jobId = spool.submit(cadFile);
+
+        // A worker claims the job then dies
+        Path claimed = spool.claim("dead-worker");
+        Assert.assertNotNull(claimed);
+        Assert.assertNull(spool.claim("other-worker"));
+        Files.setLastModifiedTime(claimed.resolve(FileSpool.LEASE_FILE),
+                FileTime.fromMillis(System.currentTimeMillis() - 120000));
+
+        SpoolWorker worker = new SpoolWorker(spool,
+                (input, outputDirectory) -> Collections.singletonList(Files.copy(input, outputDirectory.resolve("part.obj"))),
+                1000, 60000, 3, 10);
+        Assert.assertTrue(worker.runOnce());
+        Assert.assertTrue(spool.getResult(jobId).isSucceeded());
+        Assert.assertEquals("1", FileSpool.load(root.resolve(FileSpool.DONE).resolve(jobId).resolve(FileSpool.JOB_FILE))
+                .getProperty("attempts"));
+    }
+
+    @Test
+    public void testJobIsFailedAfterMaxAttempts() throws Exception {
+        String jobId = spool.submit(cadFile);
+        Path claimed = spool.claim("dead-worker");
+        Files.setLastModifiedTime(claimed.resolve(FileSpool.LEASE_FILE),
+                FileTime.fromMillis(System.currentTimeMillis() - 120000));
+
+        Assert.assertEquals(1, spool.reclaimExpired(60000, 1, "reaper"));
+        SpoolResult result = spool.getResult(jobId);
+        Assert.assertFalse(result.isSucceeded());
+    }
+}
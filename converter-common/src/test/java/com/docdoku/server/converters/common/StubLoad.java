@@ -0,0 +1,73 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.Assume;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Support of the converter load tests, run against the stub of the env-stub profile, see
+ * src/test/stubs/converter-stub. Shared with the converter modules through the test jar of converter-common.
+ * <p>
+ * While open, it samples the number of external conversions running at once: tests check the conversions
+ * overlapped from this count rather than from their duration, which depends on the CPUs of the runner.
+ */
+public class StubLoad implements AutoCloseable {
+
+    private static final long SAMPLE_MILLIS = 5;
+
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+
+    private StubLoad() {
+        sampler.scheduleAtFixedRate(() -> {
+            int running = ConversionProgressRegistry.getInstance().getRunningCount();
+            maxRunning.accumulateAndGet(running, Math::max);
+        }, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static StubLoad watch() {
+        return new StubLoad();
+    }
+
+    /**
+     * @return whether the given tool is the converter stub
+     */
+    public static boolean isStub(ConverterTool tool) {
+        return tool.isAvailable() && String.valueOf(tool.getVersion()).contains("stub");
+    }
+
+    /**
+     * Skips the calling test unless the given tool is the converter stub.
+     */
+    public static void assumeStub(ConverterTool tool) {
+        Assume.assumeTrue(isStub(tool));
+    }
+
+    public static void delete(Path dir) throws IOException {
+        if (dir != null) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @return the largest number of external conversions seen running at once
+     */
+    public int getMaxRunning() {
+        return maxRunning.get();
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+    }
+}
@@ -0,0 +1,52 @@
+package com.docdoku.server.converters.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+public class ToolProbeTest {
+
+    @Test
+    public void testMissingToolIsUnavailable() {
+        ConverterTool tool = ConverterTools.probe(ToolProbe.forConverter("missing", new Properties())
+                .executable("/nonexistent/IfcConvert"));
+        Assert.assertFalse(tool.isAvailable());
+        Assert.assertEquals("\"/nonexistent/IfcConvert\" is not available", tool.getProblem());
+        Assert.assertEquals(Boolean.FALSE, ConverterTools.getAvailability().get("missing"));
+
+        ConverterTool broken = ConverterTools.probe(ToolProbe.forConverter("broken", new Properties())
+                .executable("/bin/sh")
+                .version("/bin/sh", "-c", "echo 'libassimp.so: cannot open shared object file' >&2; exit 127"));
+        Assert.assertFalse(broken.isAvailable());
+        Assert.assertTrue(broken.getProblem().endsWith("cannot open shared object file"));
+    }
+
+    @Test
+    public void testToolIsProbedAndWarmedUp() throws Exception {
+        Path sample = Files.createTempFile("sample", ".stl");
+        try {
+            Files.write(sample, "solid sample".getBytes(StandardCharsets.US_ASCII));
+            ToolProbe probe = ToolProbe.forConverter("probed", new Properties())
+                    .executable("/bin/sh")
+                    .version("/bin/sh", "-c", "echo; echo 'converter 1.2'; echo usage")
+                    .sample(sample.toUri().toURL(), (input, outputDirectory) -> Arrays.asList(
+                            "/bin/sh", "-c", "cp \"$0\" \"$1\"", input.toString(),
+                            outputDirectory.resolve("out.obj").toString()));
+
+            ConverterTool tool = ConverterTools.probe(probe);
+            Assert.assertTrue(tool.isAvailable());
+            Assert.assertEquals("converter 1.2", tool.getVersion());
+            Assert.assertNull(tool.getWarmUpProblem());
+            Assert.assertTrue(tool.getWarmUpMillis() >= 0);
+            Assert.assertSame(tool, ConverterTools.forConverter(probe));
+            Assert.assertTrue(ConverterTools.getAvailability().get("probed"));
+        } finally {
+            Files.delete(sample);
+        }
+    }
+}
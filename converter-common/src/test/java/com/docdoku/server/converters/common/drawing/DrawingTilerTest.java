@@ -0,0 +1,147 @@
+package com.docdoku.server.converters.common.drawing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class DrawingTilerTest {
+
+    private static final String DRAWING = String.join("\n",
+            "0", "SECTION", "2", "HEADER", "9", "$ACADVER", "1", "AC1027", "0", "ENDSEC",
+            "0", "SECTION", "2", "BLOCKS",
+            "0", "BLOCK", "8", "0", "2", "BOLT", "70", "0", "10", "1.0", "20", "1.0",
+            "0", "CIRCLE", "8", "0", "10", "1.0", "20", "1.0", "40", "0.5",
+            "0", "ENDBLK", "8", "0",
+            "0", "ENDSEC",
+            "0", "SECTION", "2", "ENTITIES",
+            "0", "LINE", "8", "Outline", "10", "0.0", "20", "0.0", "11", "100.0", "21", "0.0",
+            "0", "LWPOLYLINE", "8", "Outline", "90", "3", "70", "0",
+            "10", "0.0", "20", "0.0", "42", "1.0", "10", "0.0", "20", "100.0", "10", "100.0", "20", "100.0",
+            "0", "INSERT", "8", "Bolts", "2", "BOLT", "10", "50.0", "20", "50.0", "70", "2", "44", "10.0",
+            "0", "TEXT", "8", "Notes", "10", "10.0", "20", "90.0", "40", "5.0", "1", "Caf\\U+00E9",
+            "0", "MTEXT", "8", "Notes", "10", "10.0", "20", "80.0", "40", "0.5", "1", "{\\fArial;Sheet}\\P1",
+            "0", "3DFACE", "8", "0", "10", "0", "20", "0", "30", "0",
+            "0", "ENDSEC", "0", "EOF", "");
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("drawing");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        List<DrawingEntity> entities = new ArrayList<>();
+        DxfReader reader = new DxfReader(entities::add);
+        reader.read(new ByteArrayInputStream(DRAWING.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(6, reader.getEntityCount());
+        Assert.assertEquals(Collections.singletonMap("3DFACE", 1), reader.getSkipped());
+
+        DrawingEntity line = entities.get(0);
+        Assert.assertArrayEquals(new double[]{0, 0, 100, 0}, line.getPoints(), 1e-9);
+
+        // A bulge of 1 is a counterclockwise half circle, to the right of the segment going up
+        DrawingEntity polyline = entities.get(1);
+        Assert.assertTrue(polyline.getPointCount() > 10);
+        double maxX = 0;
+        for (int i = 0; i < polyline.getPoints().length; i += 2) {
+            if (polyline.getPoints()[i + 1] < 100) {
+                maxX = Math.max(maxX, polyline.getPoints()[i]);
+            }
+        }
+        Assert.assertEquals(50, maxX, 0.5);
+
+        // The block is inserted twice, its circle is around the insertion point
+        DrawingEntity bolt = entities.get(2);
+        Assert.assertEquals("Bolts", bolt.getLayer());
+        Assert.assertTrue(bolt.isClosed());
+        Assert.assertEquals(50.5, bolt.getPoints()[0], 1e-9);
+        Assert.assertEquals(50, bolt.getPoints()[1], 1e-9);
+        Assert.assertEquals(60.5, entities.get(3).getPoints()[0], 1e-9);
+
+        Assert.assertEquals("Café", entities.get(4).getText());
+        Assert.assertEquals(5, entities.get(4).getHeight(), 1e-9);
+        Assert.assertEquals("Sheet\n1", entities.get(5).getText());
+    }
+
+    @Test(expected = IOException.class)
+    public void testBinaryDxfIsRejected() throws Exception {
+        new DxfReader(entity -> { }).read(new ByteArrayInputStream(
+                "AutoCAD Binary DXF\r\n\u001a\u0000".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void testSimplifyAndClip() {
+        double[] points = {0, 0, 1, 0.2, 2, 0, 3, 5, 4, 0};
+        Assert.assertArrayEquals(new double[]{0, 0, 2, 0, 3, 5, 4, 0}, DrawingTiler.simplify(points, 0.5), 1e-9);
+
+        double[] clipped = new double[4];
+        Assert.assertTrue(DrawingTiler.clip(-10, 5, 20, 5, 0, 10, clipped));
+        Assert.assertArrayEquals(new double[]{0, 5, 10, 5}, clipped, 1e-9);
+        Assert.assertFalse(DrawingTiler.clip(-10, -5, 20, -5, 0, 10, clipped));
+    }
+
+    @Test
+    public void testTiles() throws Exception {
+        Path dxf = dir.resolve("plan.dxf");
+        Files.write(dxf, DRAWING.getBytes(StandardCharsets.UTF_8));
+        Properties conf = new Properties();
+        conf.setProperty(DrawingSettings.MAX_ZOOM, "3");
+        conf.setProperty(DrawingSettings.EXTENT, "256");
+        Path tiles = dir.resolve("plan.tiles");
+        int count = new DrawingTiler(DrawingSettings.from(conf)).convert(dxf, tiles);
+
+        try (TileArchive archive = TileArchive.open(tiles)) {
+            Assert.assertEquals(count, archive.getTileCount());
+            Assert.assertTrue(archive.getMetadata().contains("\"maxZoom\":3"));
+            Assert.assertTrue(archive.getMetadata().contains("\"layers\":[\"Bolts\",\"Notes\",\"Outline\"]"));
+            Assert.assertTrue(archive.getMetadata().contains("\"skipped\":{\"3DFACE\":1}"));
+
+            // The whole drawing is in the single tile of zoom 0, a layer message at first
+            byte[] root = archive.getTile(0, 0, 0);
+            Assert.assertEquals(0x1A, root[0]);
+            String content = new String(root, StandardCharsets.UTF_8);
+            Assert.assertTrue(content.contains("Outline"));
+            Assert.assertTrue(content.contains("Café"));
+            // The small text is only in the deepest levels
+            Assert.assertFalse(content.contains("Sheet"));
+
+            Assert.assertNull(archive.getTile(4, 0, 0));
+            int deepest = 0;
+            boolean small = false;
+            for (int x = 0; x < 8; x++) {
+                for (int y = 0; y < 8; y++) {
+                    byte[] tile = archive.getTile(3, x, y);
+                    if (tile != null) {
+                        deepest++;
+                        small |= new String(tile, StandardCharsets.UTF_8).contains("Sheet");
+                    }
+                }
+            }
+            Assert.assertTrue(deepest > 4 && deepest < 64);
+            Assert.assertTrue(small);
+        }
+    }
+}
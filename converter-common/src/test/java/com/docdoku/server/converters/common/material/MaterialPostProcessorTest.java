@@ -0,0 +1,110 @@
+package com.docdoku.server.converters.common.material;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class MaterialPostProcessorTest {
+
+    private Path dir;
+    private Path obj;
+    private Path mtl;
+    private Properties conf;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("materials");
+        obj = dir.resolve("part.obj");
+        mtl = dir.resolve("part.obj.mtl");
+        Files.write(obj, "mtllib part.obj.mtl\nv 0 0 0\nvt 0 0\nvt 1 0.5\n".getBytes(StandardCharsets.US_ASCII));
+        image(600, 300, Color.RED, "big.png");
+        image(32, 32, Color.GREEN, "green.jpg");
+        image(16, 64, Color.BLUE, "blue.png");
+        Files.write(mtl, ("newmtl a\nmap_Kd big.png\nnewmtl b\nmap_Kd green.jpg\nbump -bm 0.5 green.jpg\n"
+                + "newmtl c\nmap_Kd blue.png\nmap_Ks missing.png\n").getBytes(StandardCharsets.US_ASCII));
+
+        conf = new Properties();
+        conf.setProperty(TextureSettings.POST_PROCESSING, "true");
+        conf.setProperty(TextureSettings.MAX_SIZE, "256");
+        conf.setProperty(TextureSettings.ATLAS_TILE_MAX_SIZE, "64");
+        conf.setProperty(TextureSettings.ATLAS_SIZE, "256");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testMtlParsing() throws Exception {
+        List<MtlFile.TextureReference> references = MtlFile.read(mtl).getTextureReferences();
+        Assert.assertEquals(5, references.size());
+        Assert.assertEquals("-bm 0.5", references.get(2).getOptions());
+        Assert.assertEquals("green.jpg", references.get(2).getTexture());
+    }
+
+    @Test
+    public void testTexturesAreResizedAndPacked() throws Exception {
+        List<Path> written = MaterialPostProcessor.process(obj, mtl, TextureSettings.from(conf));
+        // The green texture has an option on one of its references, the blue one alone is not worth an atlas
+        Assert.assertEquals(1, written.size());
+
+        BufferedImage resized = ImageIO.read(written.get(0).toFile());
+        Assert.assertEquals(256, resized.getWidth());
+        Assert.assertEquals(128, resized.getHeight());
+
+        String rewritten = new String(Files.readAllBytes(mtl), StandardCharsets.US_ASCII);
+        Assert.assertTrue(rewritten.contains("map_Kd " + written.get(0).getFileName() + "\n"));
+        Assert.assertTrue(rewritten.contains("map_Kd green.jpg\n"));
+        Assert.assertTrue(rewritten.contains("map_Kd blue.png\n"));
+        Assert.assertTrue(rewritten.contains("map_Ks missing.png\n"));
+    }
+
+    @Test
+    public void testAtlasMapsTiles() throws Exception {
+        Files.write(mtl, "newmtl b\nmap_Kd green.jpg\nnewmtl c\nmap_Kd blue.png\n".getBytes(StandardCharsets.US_ASCII));
+        List<Path> written = MaterialPostProcessor.process(obj, mtl, TextureSettings.from(conf));
+        Assert.assertEquals(1, written.size());
+
+        BufferedImage atlas = ImageIO.read(written.get(0).toFile());
+        Assert.assertEquals(256, atlas.getWidth());
+        Assert.assertEquals(128, atlas.getHeight());
+        // Blue is the tallest, placed first after the padding, green follows it on the same shelf
+        Color blue = new Color(atlas.getRGB(8, 32));
+        Assert.assertTrue(blue.getBlue() > 200 && blue.getRed() < 50 && blue.getGreen() < 50);
+        String rewritten = new String(Files.readAllBytes(mtl), StandardCharsets.US_ASCII);
+        Assert.assertTrue(rewritten.contains("map_Kd -s 0.0625 0.5 1 -o 0.0078125 0.484375 0 part.obj.atlas0.jpg\n"));
+    }
+
+    @Test
+    public void testNoPackingWhenTexturesRepeat() throws Exception {
+        Files.write(obj, "vt 0 0\nvt 2 2\n".getBytes(StandardCharsets.US_ASCII));
+        Files.write(mtl, "newmtl b\nmap_Kd green.jpg\nnewmtl c\nmap_Kd blue.png\n".getBytes(StandardCharsets.US_ASCII));
+        Assert.assertTrue(MaterialPostProcessor.process(obj, mtl, TextureSettings.from(conf)).isEmpty());
+    }
+
+    private void image(int width, int height, Color color, String name) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, color.getRGB());
+            }
+        }
+        ImageIO.write(image, name.endsWith(".png") ? "png" : "jpg", dir.resolve(name).toFile());
+    }
+}
@@ -0,0 +1,109 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class AssemblyMergerTest {
+
+    private Path dir;
+    private List<AssemblyInstance> instances;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("assembly");
+        Path triangle = dir.resolve("triangle.obj");
+        Files.write(triangle, "v 0 0 0\nv 1 0 0\nv 0 1 0\nvn 0 0 1\nf 1//1 2//1 3//1\n".getBytes(StandardCharsets.US_ASCII));
+        Path quad = dir.resolve("quad.obj");
+        Files.write(quad, ("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nvt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n"
+                + "usemtl red\nf 1/1 2/2 3/3 4/4\n").getBytes(StandardCharsets.US_ASCII));
+        instances = Arrays.asList(
+                new AssemblyInstance("triangle 1", triangle, new double[]{1, 0, 0, 100, 0, 1, 0, 0, 0, 0, 1, 0}),
+                new AssemblyInstance("triangle 2", triangle, new double[]{-1, 0, 0, -100, 0, 1, 0, 0, 0, 0, 1, 0}),
+                new AssemblyInstance("quad 1", quad),
+                new AssemblyInstance("quad 2", quad, new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 1000}));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testMortonKeyFollowsCoordinates() {
+        Assert.assertTrue(AssemblyRun.mortonKey(1, 1, 1) < AssemblyRun.mortonKey(2, 2, 2));
+        Assert.assertTrue(AssemblyRun.mortonKey(-2, -2, -2) < AssemblyRun.mortonKey(-1, -1, -1));
+        Assert.assertTrue(AssemblyRun.mortonKey(-1, -1, -1) < AssemblyRun.mortonKey(0, 0, 0));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Path merged = dir.resolve("merged.obj");
+        List<AssemblyRange> ranges = new AssemblyMerger(64 * 1024 * 1024, null).merge(instances, merged);
+
+        ObjMesh mesh = ObjReader.read(merged);
+        Assert.assertEquals(6, mesh.getTriangleCount());
+        Assert.assertEquals(14, mesh.getPositionCount());
+        Assert.assertEquals(4, ranges.size());
+
+        long triangles = 0;
+        long key = Long.MIN_VALUE;
+        for (AssemblyRange range : ranges) {
+            Assert.assertEquals(triangles, range.getFirstTriangle());
+            triangles += range.getTriangleCount();
+            Assert.assertEquals(range.getId().startsWith("quad") ? 2 : 1, range.getTriangleCount());
+            // Sorted by the spatial key of their center
+            Bounds bounds = range.getBounds();
+            long rangeKey = AssemblyRun.mortonKey((bounds.getMinX() + bounds.getMaxX()) / 2,
+                    (bounds.getMinY() + bounds.getMaxY()) / 2, (bounds.getMinZ() + bounds.getMaxZ()) / 2);
+            Assert.assertTrue(rangeKey >= key);
+            key = rangeKey;
+        }
+        Assert.assertTrue(mesh.getStatements().contains("o triangle_2"));
+
+        // The mirrored triangle keeps facing its normal
+        AssemblyRange mirrored = ranges.stream().filter(r -> r.getId().equals("triangle 2")).findFirst().get();
+        Assert.assertEquals(-101, mirrored.getBounds().getMinX(), 1e-6);
+        int t = (int) mirrored.getFirstTriangle();
+        float[] p = mesh.getPositions().array();
+        int[] corners = mesh.getCornerPositions().array();
+        float[] a = Arrays.copyOfRange(p, corners[t * 3] * 3, corners[t * 3] * 3 + 3);
+        float[] b = Arrays.copyOfRange(p, corners[t * 3 + 1] * 3, corners[t * 3 + 1] * 3 + 3);
+        float[] c = Arrays.copyOfRange(p, corners[t * 3 + 2] * 3, corners[t * 3 + 2] * 3 + 3);
+        float z = (b[0] - a[0]) * (c[1] - a[1]) - (b[1] - a[1]) * (c[0] - a[0]);
+        Assert.assertTrue(z > 0);
+        Assert.assertEquals(1, mesh.getNormals().get(mesh.getCornerNormals().get(t * 3) * 3 + 2), 1e-6);
+
+        Path index = dir.resolve("merged.json");
+        AssemblyMerger.writeIndex(ranges, index);
+        String json = new String(Files.readAllBytes(index), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.contains("{\"id\":\"quad 2\""));
+        Assert.assertTrue(json.contains("\"max\":[1.0,1.0,1000.0]"));
+    }
+
+    @Test
+    public void testSpilledChunksGiveTheSameFile() throws Exception {
+        Path inMemory = dir.resolve("memory.obj");
+        new AssemblyMerger(64 * 1024 * 1024, null).merge(instances, inMemory);
+        // One chunk per instance, merged two at a time
+        Path spilled = dir.resolve("spilled.obj");
+        new AssemblyMerger(1, dir, 2).merge(instances, spilled);
+
+        Assert.assertArrayEquals(Files.readAllBytes(inMemory), Files.readAllBytes(spilled));
+        try (Stream<Path> files = Files.list(dir)) {
+            Assert.assertFalse(files.anyMatch(f -> f.toString().endsWith(".run")));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class DecimalsTest {
+
+    @Test
+    public void testWrite() {
+        Assert.assertEquals("0", write(0.0004, 3));
+        Assert.assertEquals("0", write(-0.0004, 3));
+        Assert.assertEquals("1", write(0.9999, 3));
+        Assert.assertEquals("-12.5", write(-12.5, 3));
+        Assert.assertEquals("0.001", write(0.00149, 3));
+        Assert.assertEquals("1234567.89", write(1234567.891, 2));
+        Assert.assertEquals("3", write(3.14159, 0));
+        Assert.assertEquals("1.00001", write(1.00001, 5));
+        Assert.assertFalse(Decimals.write(ByteBuffer.allocate(64), 1e12, 9));
+        Assert.assertFalse(Decimals.write(ByteBuffer.allocate(64), Double.NaN, 3));
+    }
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(1.5, parse("1.5"), 0);
+        Assert.assertEquals(-0.000123, parse("-1.23e-4"), 0);
+        Assert.assertEquals(42, parse("+42"), 0);
+        Assert.assertEquals(0.1, parse(".1"), 0);
+        Assert.assertEquals(1e25, parse("1E25"), 1e10);
+        Assert.assertTrue(Double.isNaN(parse("nan")));
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+            String text = Float.toString((float) value);
+            Assert.assertEquals(text, Float.parseFloat(text), (float) parse(text), 0);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseInvalid() {
+        parse("1.5e");
+    }
+
+    @Test
+    public void testDecimalsForTolerance() {
+        Assert.assertEquals(2, Decimals.decimalsFor(0.01));
+        Assert.assertEquals(2, Decimals.decimalsFor(0.015));
+        Assert.assertEquals(0, Decimals.decimalsFor(5));
+        Assert.assertEquals(Decimals.MAX_DECIMALS, Decimals.decimalsFor(1e-12));
+    }
+
+    private static String write(double value, int decimals) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        Assert.assertTrue(Decimals.write(buffer, value, decimals));
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+    }
+
+    private static double parse(String text) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(text.length() + 2);
+        buffer.put((byte) ' ').put(text.getBytes(StandardCharsets.US_ASCII));
+        return Decimals.parse(buffer, 1, text.length() + 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public class GlbWriterTest {
+
+    @Test
+    public void testObjIsTranscoded() throws Exception {
+        Path dir = Files.createTempDirectory("glb");
+        try {
+            ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", dir.resolve("wood.png").toFile());
+            Files.write(dir.resolve("part.mtl"), ("newmtl wood\nKd 0.5 0.25 1\nNs 98\nmap_Kd -s 0.5 0.5 1 -o 0.5 0 0 wood.png\n"
+                    + "newmtl glass\nKd 0 0 1\nd 0.25\n").getBytes(StandardCharsets.US_ASCII));
+            Files.write(dir.resolve("part.obj"), ("mtllib part.mtl\nv 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 0 0 2\n"
+                    + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 0 2\n"
+                    + "o \"top\"\nusemtl wood\nf 1/1/1 2/2/1 3/3/1 4/4/1\n"
+                    + "o side\nusemtl glass\nf 1 2 5\nusemtl unknown\nf 2 3 5\n").getBytes(StandardCharsets.US_ASCII));
+
+            Path glb = dir.resolve("part.glb");
+            Assert.assertEquals(4, GlbWriter.transcode(dir.resolve("part.obj"), glb));
+
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(glb)).order(ByteOrder.LITTLE_ENDIAN);
+            Assert.assertEquals(0x46546C67, bytes.getInt(0));
+            Assert.assertEquals(2, bytes.getInt(4));
+            Assert.assertEquals(bytes.capacity(), bytes.getInt(8));
+            int jsonLength = bytes.getInt(12);
+            Assert.assertEquals(0, jsonLength % 4);
+            String json = new String(bytes.array(), 20, jsonLength, StandardCharsets.UTF_8);
+            Assert.assertEquals(0x004E4942, bytes.getInt(20 + jsonLength + 4));
+
+            Assert.assertTrue(json.contains("\"nodes\":[{\"name\":\"part\",\"children\":[1,2]},{\"name\":\"\\\"top\\\"\""));
+            Assert.assertTrue(json.contains("\"baseColorFactor\":[0.5,0.25,1.0,1.0]"));
+            Assert.assertTrue(json.contains("\"baseColorTexture\":{\"index\":0}"));
+            Assert.assertTrue(json.contains("\"alphaMode\":\"BLEND\""));
+            Assert.assertTrue(json.contains("\"mimeType\":\"image/png\""));
+            // The quad shares its 4 vertices, the side triangles with and without material are two primitives
+            Assert.assertTrue(json.contains("\"componentType\":5126,\"count\":4,\"type\":\"VEC3\",\"min\":[0.0,0.0,0.0],"
+                    + "\"max\":[1.0,1.0,0.0]"));
+            Assert.assertTrue(json.contains("\"componentType\":5123,\"count\":6,\"type\":\"SCALAR\""));
+            Assert.assertTrue(json.contains("\"POSITION\":4},\"indices\":5,\"material\":1,\"mode\":4},"
+                    + "{\"attributes\":{\"POSITION\":6},\"indices\":7,\"mode\":4}"));
+
+            // Texture coordinates of the quad, moved to the right half of the atlas and flipped
+            // Views of the image, then of the positions, normals and texture coordinates of the quad
+            int bin = 20 + jsonLength + 8;
+            int normals = bin + viewOffset(json, 2);
+            int texCoords = bin + viewOffset(json, 3);
+            Assert.assertEquals(0.5f, bytes.getFloat(texCoords), 1e-6);
+            Assert.assertEquals(1f, bytes.getFloat(texCoords + 4), 1e-6);
+            Assert.assertEquals(1f, bytes.getFloat(texCoords + 8), 1e-6);
+            Assert.assertEquals(1f, bytes.getFloat(texCoords + 12), 1e-6);
+            Assert.assertEquals(1f, bytes.getFloat(normals + 8), 1e-6);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static int viewOffset(String json, int view) {
+        Matcher matcher = Pattern.compile("\\{\"buffer\":0,\"byteOffset\":(\\d+)").matcher(json);
+        for (int i = 0; i <= view; i++) {
+            Assert.assertTrue(matcher.find());
+        }
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,135 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class MeshInstancerTest {
+
+    // An irregular tetrahedron, to be placed several times
+    private static final double[][] SHAPE = {{0, 0, 0}, {2, 0, 0}, {0.5, 1.5, 0}, {0.3, 0.4, 3}};
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("instances");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCopiesAreInstanced() throws Exception {
+        double angle = Math.toRadians(30);
+        double[] rotated = {Math.cos(angle), -Math.sin(angle), 0, 10, Math.sin(angle), Math.cos(angle), 0, 5, 0, 0, 1, -2};
+        double[] mirrored = {-1, 0, 0, 0, 0, 1, 0, 20, 0, 0, 1, 0};
+        Path obj = dir.resolve("part.obj");
+        Files.write(obj, (shape("first", null) + shape("rotated", rotated) + shape("mirrored", mirrored)
+                + shape("translated", new double[]{1, 0, 0, -7, 0, 1, 0, 0, 0, 0, 1, 0}))
+                .getBytes(StandardCharsets.US_ASCII));
+
+        ObjMesh mesh = ObjReader.read(obj);
+        List<MeshPrototype> prototypes = MeshInstancer.instance(mesh, 1e-5, 4);
+
+        Assert.assertEquals(1, prototypes.size());
+        MeshPrototype prototype = prototypes.get(0);
+        Assert.assertEquals("prototype_0", prototype.getObject());
+        Assert.assertEquals(2, prototype.getTransforms().size());
+        // The mirrored copy is left in place, the prototype is moved last
+        Assert.assertEquals(8, mesh.getTriangleCount());
+        Assert.assertEquals(8, mesh.getPositionCount());
+        Assert.assertEquals(4, prototype.getFirstTriangle());
+        Assert.assertEquals(4, prototype.getTriangleCount());
+        Assert.assertTrue(mesh.getStatements().contains("o mirrored"));
+        Assert.assertFalse(mesh.getStatements().contains("o rotated"));
+        Assert.assertEquals("o prototype_0", mesh.getStatements().get(mesh.getStatements().size() - 1));
+
+        double[] transform = prototype.getTransforms().get(0);
+        for (int i = 0; i < 12; i++) {
+            Assert.assertEquals(rotated[i], transform[i], 1e-6);
+        }
+        Assert.assertEquals(-7, prototype.getTransforms().get(1)[3], 1e-6);
+
+        // Expanded back, the copies have the positions they had
+        MeshInstancer.expand(mesh, prototypes);
+        Assert.assertEquals(16, mesh.getTriangleCount());
+        Assert.assertEquals(16, mesh.getPositionCount());
+        Bounds bounds = Bounds.of(mesh.getPositions());
+        Assert.assertEquals(-7, bounds.getMinX(), 1e-5);
+    }
+
+    @Test
+    public void testLargestEigenvector() {
+        double[][] matrix = {{2, 0, 0, 0}, {0, 5, 1, 0}, {0, 1, 5, 0}, {0, 0, 0, 1}};
+        double[] vector = MeshInstancer.largestEigenvector(matrix);
+        Assert.assertEquals(0, vector[0], 1e-9);
+        Assert.assertEquals(Math.abs(vector[1]), Math.abs(vector[2]), 1e-9);
+        Assert.assertEquals(Math.sqrt(0.5), Math.abs(vector[1]), 1e-9);
+    }
+
+    @Test
+    public void testPostProcessingWritesIndex() throws Exception {
+        StringBuilder content = new StringBuilder("mtllib part.mtl\n");
+        for (int i = 0; i < 20; i++) {
+            content.append("usemtl steel\n").append(shape("bolt" + i, new double[]{0, -1, 0, i * 5, 1, 0, 0, 0, 0, 0, 1, 0}));
+        }
+        Path obj = dir.resolve("bolts.obj");
+        Files.write(obj, content.toString().getBytes(StandardCharsets.US_ASCII));
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.POST_PROCESSING, "true");
+        conf.setProperty(MeshSettings.INSTANCING, "true");
+        conf.setProperty(MeshSettings.INSTANCING_MIN_TRIANGLES, "4");
+
+        List<Path> written = MeshPostProcessor.process(obj, MeshSettings.from(conf));
+
+        Path index = MeshInstancer.indexFileFor(obj);
+        Assert.assertEquals(1, written.size());
+        Assert.assertEquals(index, written.get(0));
+        Assert.assertEquals(4, ObjReader.read(obj).getTriangleCount());
+        List<MeshPrototype> prototypes = MeshInstancer.readIndex(index);
+        Assert.assertEquals(1, prototypes.size());
+        Assert.assertEquals(19, prototypes.get(0).getTransforms().size());
+        Assert.assertEquals(95, prototypes.get(0).getTransforms().get(18)[3], 1e-4);
+
+        // Copies are placed again by nodes sharing the mesh of their prototype
+        Path glb = dir.resolve("bolts.glb");
+        GlbWriter.transcode(obj, glb);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(glb)).order(ByteOrder.LITTLE_ENDIAN);
+        String json = new String(bytes.array(), 20, bytes.getInt(12), StandardCharsets.UTF_8);
+        Assert.assertEquals(19, json.split("\"matrix\"").length - 1);
+        // The first bolt is the prototype, the others are translated along x
+        Assert.assertTrue(json.contains("{\"name\":\"prototype_0\",\"mesh\":0,\"matrix\":[1.0,"));
+        Assert.assertTrue(json.matches(".*,0,5\\.0,[-0-9.E]+,[-0-9.E]+,1]}.*"));
+    }
+
+    private static String shape(String name, double[] transform) {
+        StringBuilder obj = new StringBuilder("o ").append(name).append('\n');
+        for (double[] point : SHAPE) {
+            obj.append('v');
+            for (int row = 0; row < 3; row++) {
+                double value = transform == null ? point[row] : transform[row * 4] * point[0]
+                        + transform[row * 4 + 1] * point[1] + transform[row * 4 + 2] * point[2] + transform[row * 4 + 3];
+                obj.append(' ').append(value);
+            }
+            obj.append('\n');
+        }
+        return obj.append("f -4 -3 -2\nf -4 -2 -1\nf -4 -1 -3\nf -3 -1 -2\n").toString();
+    }
+}
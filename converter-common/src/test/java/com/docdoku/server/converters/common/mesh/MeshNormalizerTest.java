@@ -0,0 +1,146 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class MeshNormalizerTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("normalize");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testDeclaredUnitsAreRead() throws Exception {
+        Assert.assertEquals(0.001, MeshUnits.declared(write("part.stp", "ISO-10303-21;\nDATA;\n"
+                + "#10=(LENGTH_UNIT() NAMED_UNIT(*) SI_UNIT(.MILLI.,.METRE.));\nENDSEC;\n")), 1e-12);
+        Assert.assertEquals(0.0254, MeshUnits.declared(write("imperial.step", "ISO-10303-21;\nDATA;\n"
+                + "#11=(CONVERSION_BASED_UNIT('INCH',#12) LENGTH_UNIT() NAMED_UNIT(#13));\nENDSEC;\n")), 1e-12);
+        Assert.assertEquals(1, MeshUnits.declared(write("site.ifc", "ISO-10303-21;\nDATA;\n"
+                + "#5=IFCSIUNIT(*,.LENGTHUNIT.,$,.METRE.);\nENDSEC;\n")), 1e-12);
+        Assert.assertEquals(0.01, MeshUnits.declared(write("scene.dae", "<?xml version=\"1.0\"?>\n<COLLADA>"
+                + "<asset><unit name=\"centimeter\" meter=\"0.01\"/></asset></COLLADA>\n")), 1e-12);
+        Assert.assertEquals(1, MeshUnits.declared(write("default.dae", "<COLLADA><asset/></COLLADA>\n")), 1e-12);
+        Assert.assertEquals(0.0254, MeshUnits.declared(write("plan.dxf", "0\nSECTION\n2\nHEADER\n9\n$INSUNITS\n"
+                + "70\n1\n0\nENDSEC\n")), 1e-12);
+        Assert.assertTrue(Double.isNaN(MeshUnits.declared(write("part.stl", "solid part\nendsolid part\n"))));
+        Assert.assertEquals(0.3048, MeshUnits.metresPer("ft"), 1e-12);
+        Assert.assertTrue(Double.isNaN(MeshUnits.metresPer("furlong")));
+    }
+
+    @Test
+    public void testUnitsAreNormalized() throws Exception {
+        Path objFile = write("part.obj",
+                "# converted\nv 1 2.5 -3 0.5 0.25 1\nvn 0 0 1\nvt 0.5 0.5\nf 1/1/1 1/1/1 1/1/1\n");
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.UNIT, "mm");
+        conf.setProperty(MeshSettings.SOURCE_UNIT, "m");
+
+        List<Path> written = MeshNormalizer.normalize(objFile, dir.resolve("part.ifc"), MeshSettings.from(conf));
+
+        Assert.assertEquals("# converted\nv 1000 2500 -3000 0.5 0.25 1\nvn 0 0 1\nvt 0.5 0.5\nf 1/1/1 1/1/1 1/1/1\n",
+                read(objFile));
+        Assert.assertEquals(1, written.size());
+        Assert.assertEquals(dir.resolve("part.transform.json"), written.get(0));
+        Assert.assertTrue(read(written.get(0)).startsWith("{\"unit\":\"mm\","));
+        Assert.assertArrayEquals(new double[]{1000, 0, 0, 0}, MeshNormalizer.readTransform(written.get(0)), 1e-12);
+    }
+
+    @Test
+    public void testQualityGateLimitsAreScaledWithTheMesh() throws Exception {
+        // A 600 m long building, converted in metres and scaled to millimetres
+        String obj = "v 0 0 0\nv 600 0 0\nv 600 20 0\nf 1 2 3\n";
+        Path buildingFile = write("building.obj", obj);
+        Path siteFile = write("site.obj", obj.replace("600", "200000"));
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.UNIT, "mm");
+        conf.setProperty(MeshSettings.SOURCE_UNIT, "m");
+        conf.setProperty(MeshSettings.QUALITY_GATE, "true");
+        conf.setProperty(MeshSettings.QUALITY_MAX_EXTENT, "100000");
+        MeshSettings settings = MeshSettings.from(conf);
+
+        MeshNormalizer.normalize(buildingFile, dir.resolve("building.ifc"), settings);
+        MeshPostProcessor.process(buildingFile, settings);
+        Assert.assertEquals("v 600000 0 0", read(buildingFile).split("\n")[1]);
+
+        MeshNormalizer.normalize(siteFile, dir.resolve("site.ifc"), settings);
+        try {
+            MeshPostProcessor.process(siteFile, settings);
+            Assert.fail("A 200 km long mesh is above the 100 km limit");
+        } catch (MeshQualityException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("above 1.0E8"));
+        }
+    }
+
+    @Test
+    public void testDeclaredUnitsAreUsedByFormat() throws Exception {
+        Path objFile = write("plan.obj", "v 1 1 0\n");
+        Path dxfFile = write("plan.dxf", "0\nSECTION\n2\nHEADER\n9\n$INSUNITS\n70\n5\n0\nENDSEC\n");
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.UNIT, "mm");
+        conf.setProperty(MeshSettings.SOURCE_UNIT, "m");
+        conf.setProperty(MeshSettings.SOURCE_UNIT + ".dxf", MeshSettings.DECLARED);
+
+        MeshNormalizer.normalize(objFile, dxfFile, MeshSettings.from(conf));
+
+        Assert.assertEquals("v 10 10 0\n", read(objFile));
+    }
+
+    @Test
+    public void testFarMeshesAreRecentered() throws Exception {
+        Path objFile = write("site.obj", "v 412345.5 5712345.25 10\nv 412347.5 5712346.25 12\nvn 0 1 0\n");
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.RECENTERING, "true");
+
+        List<Path> written = MeshNormalizer.normalize(objFile, dir.resolve("site.stl"), MeshSettings.from(conf));
+
+        Assert.assertEquals("v -1 -0.5 -1\nv 1 0.5 1\nvn 0 1 0\n", read(objFile));
+        Assert.assertTrue(read(written.get(0)).startsWith("{\"unit\":null,"));
+        Assert.assertArrayEquals(new double[]{1, -412346.5, -5712345.75, -11},
+                MeshNormalizer.readTransform(written.get(0)), 1e-9);
+    }
+
+    @Test
+    public void testMeshesNearTheOriginAreKept() throws Exception {
+        String obj = "v 0 0 0\nv 10 10 10\n";
+        Path objFile = write("bolt.obj", obj);
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.UNIT, "mm");
+        conf.setProperty(MeshSettings.SOURCE_UNIT, "millimetre");
+        conf.setProperty(MeshSettings.RECENTERING, "true");
+
+        List<Path> written = MeshNormalizer.normalize(objFile, dir.resolve("bolt.stp"), MeshSettings.from(conf));
+
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals(obj, read(objFile));
+        Assert.assertFalse(Files.exists(MeshNormalizer.transformFileFor(objFile)));
+    }
+
+    private Path write(String name, String text) throws IOException {
+        return Files.write(dir.resolve(name), text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,165 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+public class MeshPostProcessorTest {
+
+    @Test
+    public void testConcavePolygonIsTriangulated() throws Exception {
+        // L shaped hexagon, a fan from the first vertex would cover the notch
+        ObjMesh mesh = read("v 0 0 0\nv 2 0 0\nv 2 1 0\nv 1 1 0\nv 1 2 0\nv 0 2 0\nf 1 2 3 4 5 6\n");
+        Assert.assertEquals(4, mesh.getTriangleCount());
+        float area = 0;
+        float[] p = mesh.getPositions().array();
+        int[] c = mesh.getCornerPositions().array();
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            int a = c[t * 3] * 3;
+            int b = c[t * 3 + 1] * 3;
+            int d = c[t * 3 + 2] * 3;
+            float signed = ((p[b] - p[a]) * (p[d + 1] - p[a + 1]) - (p[b + 1] - p[a + 1]) * (p[d] - p[a])) / 2;
+            Assert.assertTrue("winding is kept", signed > 0);
+            area += signed;
+        }
+        Assert.assertEquals(3, area, 1e-6);
+    }
+
+    @Test
+    public void testWeldingMergesCloseVertices() throws Exception {
+        // Two triangles of a quad exported with their own vertices, and one collapsing once welded
+        ObjMesh mesh = read("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 0 0.000001\nv 1 1.000001 0\nv 0 1 0\nv 0.5 0.5 0\n"
+                + "v 0.5 0.5000001 0\ng quad\nf 1 2 3\nf 4 5 6\nusemtl red\nf 7 8 1\n");
+        Assert.assertEquals(4, MeshWelder.weld(mesh, 0.00001f));
+        Assert.assertEquals(4, mesh.getPositionCount());
+        Assert.assertEquals(2, mesh.getTriangleCount());
+        Assert.assertEquals(0, mesh.getStatementTriangles().get(0));
+        Assert.assertEquals(2, mesh.getStatementTriangles().get(1));
+
+        ObjMesh exact = read("v 0 0 0\nv -0 0 0\nv 1 0 0\nv 0 1 0\nf 1 3 4\nf 2 3 4\n");
+        Assert.assertEquals(1, MeshWelder.weld(exact, 0));
+    }
+
+    @Test
+    public void testNormalsKeepCreases() throws Exception {
+        // Two faces of a box meeting at 90 degrees
+        ObjMesh mesh = read("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 0 0 -1\nv 0 1 -1\n"
+                + "f 1 2 3 4\nf 1 4 6 5\n");
+        NormalGenerator.generate(mesh, 45);
+        Assert.assertFalse(mesh.isMissingNormals());
+        Assert.assertEquals(2, mesh.getNormalCount());
+
+        NormalGenerator.generate(mesh, 180);
+        Assert.assertEquals(3, mesh.getNormalCount());
+        float[] n = mesh.getNormals().array();
+        // The first corner is on the edge, whatever the quads triangulation its normal is halfway between the faces
+        Assert.assertEquals(0, mesh.getCornerPositions().get(0));
+        int shared = mesh.getCornerNormals().get(0);
+        Assert.assertEquals(-Math.sqrt(0.5), n[shared * 3], 1e-5);
+        Assert.assertEquals(Math.sqrt(0.5), n[shared * 3 + 2], 1e-5);
+    }
+
+    @Test
+    public void testProcessRewritesFile() throws Exception {
+        Path obj = Files.createTempFile("mesh", ".obj");
+        try {
+            Files.write(obj, ("mtllib part.mtl\nv 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nvt 0 0\nl 1 2\n"
+                    + "usemtl steel\nf 1/1 2/1 3/1 4/1\n").getBytes(StandardCharsets.US_ASCII));
+            Properties conf = new Properties();
+            conf.setProperty(MeshSettings.POST_PROCESSING, "true");
+            MeshPostProcessor.process(obj, MeshSettings.from(conf));
+
+            String processed = new String(Files.readAllBytes(obj), StandardCharsets.US_ASCII);
+            Assert.assertTrue(processed.startsWith("mtllib part.mtl\nv 0.0 0.0 0.0\n"));
+            Assert.assertTrue(processed.contains("vn 0.0 0.0 1.0\n"));
+            Assert.assertTrue(processed.contains("usemtl steel\nf 1/1/1 2/1/1 3/1/1\nf "));
+            Assert.assertFalse(processed.contains("l 1 2"));
+
+            ObjMesh mesh = ObjReader.read(obj);
+            Assert.assertEquals(2, mesh.getTriangleCount());
+            Assert.assertEquals(1, mesh.getNormalCount());
+        } finally {
+            Files.delete(obj);
+        }
+    }
+
+    @Test
+    public void testPrecisionIsReducedRelativeToPartSize() throws Exception {
+        Path obj = Files.createTempFile("precision", ".obj");
+        try {
+            StringBuilder content = new StringBuilder("o part\r\n");
+            for (int i = 0; i < 1000; i++) {
+                content.append("v ").append(i * 0.123456789f).append(' ').append(-i * 0.987654321f).append(" 1.0E-4\n");
+                content.append("vn 0.577350269 0.577350269 0.577350269\nvt 0.123456789 1.0\n");
+            }
+            content.append("f 1/1/1 2/2/2 3/3/3");
+            Files.write(obj, content.toString().getBytes(StandardCharsets.US_ASCII));
+            long size = Files.size(obj);
+
+            Properties conf = new Properties();
+            // The part is a bit less than 1000 units across, a 0.00995 tolerance needs three decimals
+            conf.setProperty(MeshSettings.PRECISION_RELATIVE_TOLERANCE, "0.00001");
+            MeshPostProcessor.process(obj, MeshSettings.from(conf));
+
+            String rewritten = new String(Files.readAllBytes(obj), StandardCharsets.US_ASCII);
+            Assert.assertTrue(rewritten.startsWith("o part\nv 0 0 0\nvn 0.5774 0.5774 0.5774\nvt 0.12346 1\nv 0.123 -0.988 0\n"));
+            Assert.assertTrue(rewritten.endsWith("f 1/1/1 2/2/2 3/3/3\n"));
+            Assert.assertTrue(Files.size(obj) < size * 2 / 3);
+        } finally {
+            Files.delete(obj);
+        }
+    }
+
+    @Test
+    public void testQualityGateRejectsBrokenMeshes() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(MeshSettings.QUALITY_GATE, "true");
+        conf.setProperty(MeshSettings.QUALITY_MAX_EXTENT, "1000");
+        MeshSettings settings = MeshSettings.from(conf);
+
+        MeshQualityGate.check(read("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nf 1 2 3 4\n"), "quad.obj", settings);
+        assertRejected("v 0 0 0\nv 1 0 0\nl 1 2\n", settings, "no triangles");
+        assertRejected("v 0 0 0\nv 1 nan 0\nv 1 1 inf\nf 1 2 3\n", settings, "2 NaN or infinite position");
+        assertRejected("v 0 0 0\nv 1 0 0\nv 1 1e30 0\nf 1 2 3\n", settings, "extent 1.0E30 above 1000.0");
+        // The same triangle exported three times, with its own positions and reversed
+        assertRejected("v 0 0 0\nv 1 0 0\nv 0 1 0\nv 0 1 0\nv 1 0 0\nv -0 0 0\nf 1 2 3\nf 4 5 6\nf 3 1 2\n",
+                settings, "2 duplicate triangles out of 3");
+
+        // A grid of 200 triangles, one of its positions sent far away
+        StringBuilder grid = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            grid.append("v ").append(i % 20).append(' ').append(i / 20).append(i == 150 ? " 900\n" : " 0\n");
+        }
+        for (int i = 0; i < 180; i++) {
+            if (i % 20 < 19) {
+                grid.append("f ").append(i + 1).append(' ').append(i + 2).append(' ').append(i + 21).append('\n');
+            }
+        }
+        MeshQualityGate.check(read(grid.toString()), "grid.obj", MeshSettings.from(new Properties()));
+        conf.setProperty(MeshSettings.QUALITY_MAX_OUTLIER_RATIO, "10");
+        assertRejected(grid.toString(), MeshSettings.from(conf), "times farther apart than the bulk");
+    }
+
+    private static void assertRejected(String content, MeshSettings settings, String problem) throws Exception {
+        try {
+            MeshQualityGate.check(read(content), "broken.obj", settings);
+            Assert.fail();
+        } catch (MeshQualityException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(problem));
+        }
+    }
+
+    private static ObjMesh read(String content) throws Exception {
+        Path obj = Files.createTempFile("mesh", ".obj");
+        try {
+            Files.write(obj, content.getBytes(StandardCharsets.US_ASCII));
+            return ObjReader.read(obj);
+        } finally {
+            Files.delete(obj);
+        }
+    }
+}
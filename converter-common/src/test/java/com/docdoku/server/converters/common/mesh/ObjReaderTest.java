@@ -0,0 +1,98 @@
+package com.docdoku.server.converters.common.mesh;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ObjReaderTest {
+
+    private static final String OBJ = "mtllib parts.mtl\n# two quads\nv 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+            + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 0 1\ng first\nusemtl red\nf 1/1/1 2/2/1 3/3/1 4/4/1\n"
+            + "v 2 0 0\r\nv 2 1 0\r\nl 1 2\ng second\nf -5/-4/-1 -2//-1 -1//-1 3/3/1\nf 4 5 6\n";
+
+    @Test
+    public void testChunksAreMerged() throws Exception {
+        ObjMesh whole = read(OBJ, 1 << 20);
+        // Every line in its own chunk, relative indices referring to the previous ones
+        ObjMesh split = read(OBJ, 1);
+
+        for (ObjMesh mesh : new ObjMesh[]{whole, split}) {
+            Assert.assertEquals(6, mesh.getPositionCount());
+            Assert.assertEquals(4, mesh.getTexCoordCount());
+            Assert.assertEquals(1, mesh.getNormalCount());
+            Assert.assertEquals(5, mesh.getTriangleCount());
+            Assert.assertEquals(1, mesh.getDroppedElements());
+            Assert.assertEquals("mtllib parts.mtl", mesh.getHeader().get(0));
+            Assert.assertEquals("usemtl red", mesh.getStatements().get(1));
+            Assert.assertEquals(2, mesh.getStatementTriangles().get(2));
+        }
+        Assert.assertArrayEquals(slice(whole.getCornerPositions()), slice(split.getCornerPositions()));
+        Assert.assertArrayEquals(slice(whole.getCornerTexCoords()), slice(split.getCornerTexCoords()));
+        Assert.assertArrayEquals(slice(whole.getCornerNormals()), slice(split.getCornerNormals()));
+
+        // -5/-4/-1 is the second position and the first texture coordinate and normal
+        Assert.assertEquals(1, whole.getCornerPositions().get(6));
+        Assert.assertEquals(0, whole.getCornerTexCoords().get(6));
+        Assert.assertEquals(0, whole.getCornerNormals().get(6));
+        Assert.assertEquals(ObjMesh.NONE, whole.getCornerTexCoords().get(7));
+        Assert.assertEquals(3, whole.getCornerPositions().get(12));
+    }
+
+    @Test
+    public void testInvalidFilesAreRejected() throws Exception {
+        assertInvalid("v 0 0 0\nv 1 0 0\nv 1 1 0\nf 1 2 4\n", 4);
+        assertInvalid("v 0 0 0\nv 1 0 0\nf 1 -2 -3\n", 3);
+        assertInvalid("v 0 0 0\nv 1 0 0\nv 1 x 0\n", 3);
+        assertInvalid("v 0 0 0\nv 1 0 0\nv 1 1 0\nf 0 1 2\n", 4);
+        validate("v 0 0 0\nv 1 0 0\nv 1 1 0\nf 1 2 -1\n\n");
+    }
+
+    private static void assertInvalid(String obj, int line) throws Exception {
+        for (long chunkSize : new long[]{1, 1 << 20}) {
+            try {
+                validate(obj, chunkSize);
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid OBJ line " + line + " "));
+            }
+        }
+    }
+
+    private static int[] slice(IntArray array) {
+        int[] values = new int[array.size()];
+        System.arraycopy(array.array(), 0, values, 0, values.length);
+        return values;
+    }
+
+    private static ObjMesh read(String content, long chunkSize) throws Exception {
+        Path obj = write(content);
+        try {
+            return ObjReader.read(obj, chunkSize);
+        } finally {
+            Files.delete(obj);
+        }
+    }
+
+    private static void validate(String content) throws Exception {
+        validate(content, 1);
+    }
+
+    private static void validate(String content, long chunkSize) throws Exception {
+        Path obj = write(content);
+        try {
+            ObjReader.validate(obj, chunkSize);
+        } finally {
+            Files.delete(obj);
+        }
+    }
+
+    private static Path write(String content) throws IOException {
+        Path obj = Files.createTempFile("reader", ".obj");
+        Files.write(obj, content.getBytes(StandardCharsets.US_ASCII));
+        return obj;
+    }
+}
@@ -0,0 +1,149 @@
+package com.docdoku.server.converters.common.points;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+public class PointCloudDownsamplerTest {
+
+    private static final int SIDE = 8;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("points");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testPointCloudsAreDetected() throws Exception {
+        Path mesh = Files.write(dir.resolve("mesh.ply"), ("ply\nformat ascii 1.0\nelement vertex 3\n"
+                + "property float x\nproperty float y\nproperty float z\nelement face 1\n"
+                + "property list uchar int vertex_indices\nend_header\n0 0 0\n1 0 0\n0 1 0\n3 0 1 2\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        Path objMesh = Files.write(dir.resolve("mesh.obj"), "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        Path objScan = Files.write(dir.resolve("scan.obj"), "# scan\nv 0 0 0\nv 1 0 0\n"
+                .getBytes(StandardCharsets.US_ASCII));
+
+        Assert.assertFalse(PointCloudReader.isPointCloud(mesh));
+        Assert.assertFalse(PointCloudReader.isPointCloud(objMesh));
+        Assert.assertTrue(PointCloudReader.isPointCloud(objScan));
+        Assert.assertTrue(PointCloudReader.isPointCloud(writeBinaryPly(ByteOrder.LITTLE_ENDIAN)));
+        Assert.assertFalse(PointCloudReader.isPointCloud(dir.resolve("scan.stl")));
+    }
+
+    @Test
+    public void testLevelsAreDownsampled() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(PointCloudSettings.MAX_LEVEL, "2");
+        conf.setProperty(PointCloudSettings.THREADS, "3");
+        PointCloudDownsampler downsampler = new PointCloudDownsampler(PointCloudSettings.from(conf));
+
+        Path pointsFile = dir.resolve("scan.points");
+        Assert.assertEquals(SIDE * SIDE * SIDE, downsampler.convert(writeBinaryPly(ByteOrder.LITTLE_ENDIAN), pointsFile));
+        try (PointCloudArchive archive = PointCloudArchive.open(pointsFile)) {
+            Assert.assertTrue(archive.hasColors());
+            Assert.assertEquals(SIDE * SIDE * SIDE, archive.getInputPointCount());
+            Assert.assertEquals(3, archive.getLevelCount());
+            Assert.assertEquals(1, archive.getPointCount(0));
+            Assert.assertEquals(8, archive.getPointCount(1));
+            Assert.assertEquals(64, archive.getPointCount(2));
+            Assert.assertEquals(SIDE - 1, archive.getSize(), 1e-9);
+
+            float[] centroid = archive.getPositions(0);
+            Assert.assertEquals(3.5, centroid[0], 1e-3);
+            Assert.assertEquals(3.5, centroid[1], 1e-3);
+            Assert.assertEquals(3.5, centroid[2], 1e-3);
+            // Red follows x, the first voxel of the deepest level holds the columns 0 and 1
+            int[] colors = archive.getColors(2);
+            Assert.assertEquals(5 << 16 | 0x80, colors[0]);
+            float[] first = archive.getPositions(2);
+            Assert.assertEquals(0.5, first[0], 1e-3);
+            Assert.assertEquals(0.5, first[1], 1e-3);
+            // The next voxel in Morton order is the next one along x
+            Assert.assertEquals(2.5, first[3], 1e-3);
+            Assert.assertEquals(0.5, first[4], 1e-3);
+        }
+    }
+
+    @Test
+    public void testFormatsGiveTheSamePointCloud() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(PointCloudSettings.MAX_LEVEL, "3");
+        PointCloudDownsampler downsampler = new PointCloudDownsampler(PointCloudSettings.from(conf));
+
+        StringBuilder ascii = new StringBuilder("ply\nformat ascii 1.0\ncomment scanned\nelement vertex ")
+                .append(SIDE * SIDE * SIDE).append("\nproperty float x\nproperty float y\nproperty float z\n")
+                .append("property uchar red\nproperty uchar green\nproperty uchar blue\nend_header\n");
+        StringBuilder obj = new StringBuilder("# scan\n");
+        for (int i = 0; i < SIDE * SIDE * SIDE; i++) {
+            int x = i % SIDE;
+            int y = i / SIDE % SIDE;
+            int z = i / (SIDE * SIDE);
+            ascii.append(x).append(' ').append(y).append(' ').append(z).append(' ').append(10 * x).append(" 0 128\n");
+            obj.append("v ").append(x).append(' ').append(y).append(' ').append(z).append(' ')
+                    .append(10 * x / 255.0).append(" 0 ").append(128 / 255.0).append('\n');
+        }
+        Path asciiPly = Files.write(dir.resolve("ascii.ply"), ascii.toString().getBytes(StandardCharsets.US_ASCII));
+        Path objScan = Files.write(dir.resolve("scan.obj"), obj.toString().getBytes(StandardCharsets.US_ASCII));
+
+        byte[] expected = convert(downsampler, writeBinaryPly(ByteOrder.LITTLE_ENDIAN));
+        Assert.assertArrayEquals(expected, convert(downsampler, writeBinaryPly(ByteOrder.BIG_ENDIAN)));
+        Assert.assertArrayEquals(expected, convert(downsampler, asciiPly));
+        Assert.assertArrayEquals(expected, convert(downsampler, objScan));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMeshIsNotAPointCloud() throws Exception {
+        Path mesh = Files.write(dir.resolve("mesh.ply"), ("ply\nformat binary_little_endian 1.0\nelement vertex 1\n"
+                + "property list uchar float x\nend_header\n").getBytes(StandardCharsets.US_ASCII));
+        new PointCloudDownsampler(PointCloudSettings.from(new Properties())).convert(mesh, dir.resolve("mesh.points"));
+    }
+
+    private byte[] convert(PointCloudDownsampler downsampler, Path scan) throws IOException {
+        Path pointsFile = dir.resolve(scan.getFileName() + ".points");
+        downsampler.convert(scan, pointsFile);
+        return Files.readAllBytes(pointsFile);
+    }
+
+    /**
+     * Writes a cube of points a unit apart, with a material element before the vertices to skip.
+     */
+    private Path writeBinaryPly(ByteOrder order) throws IOException {
+        int count = SIDE * SIDE * SIDE;
+        String header = "ply\nformat " + (order == ByteOrder.LITTLE_ENDIAN ? "binary_little_endian" : "binary_big_endian")
+                + " 1.0\nelement material 1\nproperty uchar index\nelement vertex " + count
+                + "\nproperty float x\nproperty float y\nproperty float z\nproperty double confidence\n"
+                + "property uchar red\nproperty uchar green\nproperty uchar blue\nend_header\n";
+        byte[] head = header.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(head.length + 1 + count * 23).order(order);
+        buffer.put(head).put((byte) 7);
+        for (int i = 0; i < count; i++) {
+            int x = i % SIDE;
+            int y = i / SIDE % SIDE;
+            int z = i / (SIDE * SIDE);
+            buffer.putFloat(x).putFloat(y).putFloat(z).putDouble(0.9)
+                    .put((byte) (10 * x)).put((byte) 0).put((byte) 128);
+        }
+        return Files.write(dir.resolve("scan-" + order + ".ply"), buffer.array());
+    }
+}
@@ -0,0 +1,231 @@
+package com.docdoku.server.converters.common.step;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public class StepSplitterTest {
+
+    private static final String HEADER = "ISO-10303-21;\nHEADER;\nFILE_DESCRIPTION(('assembly'),'2;1');\n"
+            + "FILE_NAME('asm.stp','2016-01-01T00:00:00',(''),(''),'','','');\n"
+            + "FILE_SCHEMA(('AUTOMOTIVE_DESIGN { 1 0 10303 214 1 1 1 1 }'));\nENDSEC;\n";
+
+    private static final String CONTEXTS = "#1=APPLICATION_CONTEXT('automotive design');\n"
+            + "#2=APPLICATION_PROTOCOL_DEFINITION('international standard','automotive_design',2000,#1);\n"
+            + "#3=PRODUCT_CONTEXT('',#1,'mechanical');\n"
+            + "#4=PRODUCT_DEFINITION_CONTEXT('part definition',#1,'design');\n"
+            + "#5=(GEOMETRIC_REPRESENTATION_CONTEXT(3) GLOBAL_UNIT_ASSIGNED_CONTEXT((#6))\n"
+            + "REPRESENTATION_CONTEXT('Context #1','3D Context'));\n"
+            + "#6=(LENGTH_UNIT() NAMED_UNIT(*) SI_UNIT(.MILLI.,.METRE.));\n"
+            + "#7=CARTESIAN_POINT('',(0.,0.,0.));\n"
+            + "#8=DIRECTION('',(0.,0.,1.));\n"
+            + "#9=DIRECTION('',(1.,0.,0.));\n"
+            + "#10=AXIS2_PLACEMENT_3D('',#7,#8,#9);\n";
+
+    private static final String ASSEMBLY = "#20=PRODUCT('ASM','Assembly','',(#3));\n"
+            + "#21=PRODUCT_DEFINITION_FORMATION('','',#20);\n"
+            + "#22=PRODUCT_DEFINITION('design','',#21,#4);\n"
+            + "#23=PRODUCT_DEFINITION_SHAPE('','',#22);\n"
+            + "#24=SHAPE_REPRESENTATION('',(#10),#5);\n"
+            + "#25=SHAPE_DEFINITION_REPRESENTATION(#23,#24);\n";
+
+    private static final String BOLT = "#30=PRODUCT('B-1','Bolt','',(#3));\n"
+            + "#31=PRODUCT_DEFINITION_FORMATION('','',#30);\n"
+            + "#32=PRODUCT_DEFINITION('design','',#31,#4);\n"
+            + "#33=PRODUCT_DEFINITION_SHAPE('','',#32);\n"
+            + "#34=CARTESIAN_POINT('',(0.,0.,0.));\n"
+            + "#35=AXIS2_PLACEMENT_3D('',#34,#8,#9);\n"
+            + "#36=SHAPE_REPRESENTATION('',(#35),#5);\n"
+            + "#37=SHAPE_DEFINITION_REPRESENTATION(#33,#36);\n"
+            + "#38=CARTESIAN_POINT('head; ''top''',(1.,2.,3.));\n"
+            + "#39=ADVANCED_BREP_SHAPE_REPRESENTATION('',(#38),#5);\n"
+            + "#40=SHAPE_REPRESENTATION_RELATIONSHIP('','',#36,#39);\n"
+            + "#41=STYLED_ITEM('color',(#42),#38);\n"
+            + "#42=PRESENTATION_STYLE_ASSIGNMENT(());\n";
+
+    private static final String PLATE = "#50=PRODUCT('P-1','Plate','',(#3));\n"
+            + "#51=PRODUCT_DEFINITION_FORMATION('','',#50);\n"
+            + "#52=PRODUCT_DEFINITION('design','',#51,#4);\n"
+            + "#53=PRODUCT_DEFINITION_SHAPE('','',#52);\n"
+            + "#54=AXIS2_PLACEMENT_3D('',#7,#8,#9);\n"
+            + "#55=SHAPE_REPRESENTATION('',(#54,#57),#5);\n"
+            + "#56=SHAPE_DEFINITION_REPRESENTATION(#53,#55);\n"
+            + "#57=CARTESIAN_POINT('',(4.,5.,6.));\n"
+            + "#58=CARTESIAN_POINT('',(0.,0.,-7.));\n"
+            + "#59=AXIS2_PLACEMENT_3D('',#58,#8,#9);\n";
+
+    private static final String OCCURRENCES = "#60=NEXT_ASSEMBLY_USAGE_OCCURRENCE('1','bolt-1','',#22,#32,$);\n"
+            + "#61=PRODUCT_DEFINITION_SHAPE('','',#60);\n"
+            + "#62=CARTESIAN_POINT('',(10.,0.,0.));\n"
+            + "#63=AXIS2_PLACEMENT_3D('',#62,#8,#9);\n"
+            + "#64=ITEM_DEFINED_TRANSFORMATION('','',#35,#63);\n"
+            + "#65=(REPRESENTATION_RELATIONSHIP('','',#36,#24)REPRESENTATION_RELATIONSHIP_WITH_TRANSFORMATION(#64)"
+            + "SHAPE_REPRESENTATION_RELATIONSHIP());\n"
+            + "#66=CONTEXT_DEPENDENT_SHAPE_REPRESENTATION(#65,#61);\n"
+            + "#70=NEXT_ASSEMBLY_USAGE_OCCURRENCE('2','bolt-2','',#22,#32,$);\n"
+            + "#71=PRODUCT_DEFINITION_SHAPE('','',#70);\n"
+            + "#72=CARTESIAN_POINT('',(0.,5.,0.));\n"
+            + "#73=DIRECTION('',(0.,1.,0.));\n"
+            + "#74=AXIS2_PLACEMENT_3D('',#72,#8,#73);\n"
+            + "#75=ITEM_DEFINED_TRANSFORMATION('','',#35,#74);\n"
+            + "#76=(REPRESENTATION_RELATIONSHIP('','',#36,#24)REPRESENTATION_RELATIONSHIP_WITH_TRANSFORMATION(#75)"
+            + "SHAPE_REPRESENTATION_RELATIONSHIP());\n"
+            + "#77=CONTEXT_DEPENDENT_SHAPE_REPRESENTATION(#76,#71);\n"
+            + "#80=NEXT_ASSEMBLY_USAGE_OCCURRENCE('3','','',#22,#52,$);\n"
+            + "#81=PRODUCT_DEFINITION_SHAPE('','',#80);\n"
+            + "#82=ITEM_DEFINED_TRANSFORMATION('','',#10,#59);\n"
+            + "#83=(REPRESENTATION_RELATIONSHIP('','',#24,#55)REPRESENTATION_RELATIONSHIP_WITH_TRANSFORMATION(#82)"
+            + "SHAPE_REPRESENTATION_RELATIONSHIP());\n"
+            + "#84=CONTEXT_DEPENDENT_SHAPE_REPRESENTATION(#83,#81);\n"
+            + "/* colors of both parts */\n"
+            + "#90=MECHANICAL_DESIGN_GEOMETRIC_PRESENTATION_REPRESENTATION('',(#41,#91),#5);\n"
+            + "#91=STYLED_ITEM('color',(#42),#57);\n";
+
+    private static final Pattern INSTANCE = Pattern.compile("^#(\\d+)=", Pattern.MULTILINE);
+    private static final Pattern REFERENCE = Pattern.compile("#(\\d+)");
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("step");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testOnlyLargeFilesAreSplit() throws Exception {
+        Path stepFile = write("asm.stp", CONTEXTS + ASSEMBLY + BOLT + PLATE + OCCURRENCES);
+        Properties conf = new Properties();
+        Assert.assertFalse(StepSplitter.from(conf).isSplitting(stepFile));
+        conf.setProperty(StepSplitter.SPLIT, "true");
+        Assert.assertFalse(StepSplitter.from(conf).isSplitting(stepFile));
+        conf.setProperty(StepSplitter.MIN_MB, "0");
+        Assert.assertTrue(StepSplitter.from(conf).isSplitting(stepFile));
+        Assert.assertFalse(StepSplitter.from(conf).isSplitting(write("asm.igs", "S      1\n")));
+    }
+
+    @Test
+    public void testPartsAreNotSplit() throws Exception {
+        Path stepFile = write("bolt.stp", CONTEXTS + BOLT);
+        Assert.assertTrue(new StepSplitter(true, 0, 1).split(stepFile, dir).isEmpty());
+    }
+
+    @Test
+    public void testSubAssembliesArePlaced() throws Exception {
+        Path stepFile = write("asm.stp", CONTEXTS + ASSEMBLY + BOLT + PLATE + OCCURRENCES);
+        List<StepPiece> pieces = new StepSplitter(true, 0, 1).split(stepFile, dir);
+
+        Assert.assertEquals(2, pieces.size());
+        StepPiece bolt = pieces.get(0);
+        StepPiece plate = pieces.get(1);
+        Assert.assertEquals("Bolt", bolt.getName());
+        Assert.assertEquals(dir.resolve("asm-1.stp"), bolt.getFile());
+        Assert.assertEquals(Arrays.asList("bolt-1", "bolt-2"), bolt.getOccurrences());
+        Assert.assertArrayEquals(new double[]{1, 0, 0, 10, 0, 1, 0, 0, 0, 0, 1, 0},
+                bolt.getPlacements().get(0), 1e-9);
+        Assert.assertArrayEquals(new double[]{0, -1, 0, 0, 1, 0, 0, 5, 0, 0, 1, 0},
+                bolt.getPlacements().get(1), 1e-9);
+        Assert.assertEquals("Plate", plate.getName());
+        Assert.assertEquals(Arrays.asList("3"), plate.getOccurrences());
+        Assert.assertArrayEquals(new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 7},
+                plate.getPlacements().get(0), 1e-9);
+    }
+
+    @Test
+    public void testSingleChildRootsAreSkipped() throws Exception {
+        String wrapper = "#100=PRODUCT('TOP','Top','',(#3));\n"
+                + "#101=PRODUCT_DEFINITION_FORMATION('','',#100);\n"
+                + "#102=PRODUCT_DEFINITION('design','',#101,#4);\n"
+                + "#103=PRODUCT_DEFINITION_SHAPE('','',#102);\n"
+                + "#104=SHAPE_REPRESENTATION('',(#10),#5);\n"
+                + "#105=SHAPE_DEFINITION_REPRESENTATION(#103,#104);\n"
+                + "#106=NEXT_ASSEMBLY_USAGE_OCCURRENCE('4','asm','',#102,#22,$);\n"
+                + "#107=PRODUCT_DEFINITION_SHAPE('','',#106);\n"
+                + "#108=CARTESIAN_POINT('',(0.,0.,100.));\n"
+                + "#109=AXIS2_PLACEMENT_3D('',#108,#8,#9);\n"
+                + "#110=ITEM_DEFINED_TRANSFORMATION('','',#10,#109);\n"
+                + "#111=(REPRESENTATION_RELATIONSHIP('','',#24,#104)"
+                + "REPRESENTATION_RELATIONSHIP_WITH_TRANSFORMATION(#110)SHAPE_REPRESENTATION_RELATIONSHIP());\n"
+                + "#112=CONTEXT_DEPENDENT_SHAPE_REPRESENTATION(#111,#107);\n";
+        Path stepFile = write("top.stp", CONTEXTS + ASSEMBLY + BOLT + PLATE + OCCURRENCES + wrapper);
+        List<StepPiece> pieces = new StepSplitter(true, 0, 1).split(stepFile, dir);
+
+        Assert.assertEquals(2, pieces.size());
+        Assert.assertArrayEquals(new double[]{1, 0, 0, 10, 0, 1, 0, 0, 0, 0, 1, 100},
+                pieces.get(0).getPlacements().get(0), 1e-9);
+        Assert.assertArrayEquals(new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 107},
+                pieces.get(1).getPlacements().get(0), 1e-9);
+    }
+
+    @Test
+    public void testPiecesAreSelfContained() throws Exception {
+        Path stepFile = write("asm.stp", CONTEXTS + ASSEMBLY + BOLT + PLATE + OCCURRENCES);
+        List<StepPiece> pieces = new StepSplitter(true, 0, 1).split(stepFile, dir);
+
+        String bolt = new String(Files.readAllBytes(pieces.get(0).getFile()), StandardCharsets.ISO_8859_1);
+        String plate = new String(Files.readAllBytes(pieces.get(1).getFile()), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(bolt.startsWith(HEADER + "DATA;\n"));
+        Assert.assertTrue(bolt.endsWith("ENDSEC;\nEND-ISO-10303-21;\n"));
+        assertSelfContained(bolt);
+        assertSelfContained(plate);
+
+        Set<Integer> boltIds = ids(bolt);
+        Assert.assertTrue(boltIds.containsAll(Arrays.asList(2, 5, 6, 30, 32, 33, 37, 38, 39, 40, 41, 42, 90)));
+        Assert.assertFalse(boltIds.contains(22));
+        Assert.assertFalse(boltIds.contains(24));
+        Assert.assertFalse(boltIds.contains(52));
+        Assert.assertFalse(boltIds.contains(60));
+        Assert.assertFalse(boltIds.contains(91));
+        Assert.assertTrue(bolt.contains("#38=CARTESIAN_POINT('head; ''top''',(1.,2.,3.));\n"));
+        Assert.assertTrue(bolt.contains("#90=MECHANICAL_DESIGN_GEOMETRIC_PRESENTATION_REPRESENTATION('',(#41),#5);"));
+
+        Set<Integer> plateIds = ids(plate);
+        Assert.assertTrue(plateIds.containsAll(Arrays.asList(52, 55, 57, 90, 91)));
+        Assert.assertFalse(plateIds.contains(32));
+        Assert.assertFalse(plateIds.contains(41));
+        Assert.assertTrue(plate.contains("#90=MECHANICAL_DESIGN_GEOMETRIC_PRESENTATION_REPRESENTATION('',(#91),#5);"));
+    }
+
+    private Path write(String name, String data) throws IOException {
+        return Files.write(dir.resolve(name), (HEADER + "DATA;\n" + data + "ENDSEC;\nEND-ISO-10303-21;\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static Set<Integer> ids(String piece) {
+        Set<Integer> ids = new HashSet<>();
+        Matcher matcher = INSTANCE.matcher(piece);
+        while (matcher.find()) {
+            ids.add(Integer.parseInt(matcher.group(1)));
+        }
+        return ids;
+    }
+
+    private static void assertSelfContained(String piece) {
+        Set<Integer> ids = ids(piece);
+        Matcher matcher = REFERENCE.matcher(piece.replaceAll("'([^']|'')*'", "''"));
+        while (matcher.find()) {
+            Assert.assertTrue("#" + matcher.group(1), ids.contains(Integer.parseInt(matcher.group(1))));
+        }
+    }
+}
@@ -22,28 +22,57 @@ package com.docdoku.server.converters.dae;
 
 
 
+import com.docdoku.server.converters.common.AsyncConverter;
+import com.docdoku.server.converters.common.BatchConversion;
+import com.docdoku.server.converters.common.BatchConverter;
+import com.docdoku.server.converters.common.BatchResults;
+import com.docdoku.server.converters.common.ConversionExecutor;
+import com.docdoku.server.converters.common.ConversionMetrics;
+import com.docdoku.server.converters.common.ConversionOrigin;
+import com.docdoku.server.converters.common.ConversionOutputs;
+import com.docdoku.server.converters.common.ConversionStage;
+import com.docdoku.server.converters.common.ConversionTelemetry;
+import com.docdoku.server.converters.common.ConversionWorkspace;
+import com.docdoku.server.converters.common.ConverterProcess;
+import com.docdoku.server.converters.common.ConverterTool;
+import com.docdoku.server.converters.common.ConverterTools;
+import com.docdoku.server.converters.common.FormatConverter;
+import com.docdoku.server.converters.common.OutputFormat;
+import com.docdoku.server.converters.common.ProcessSettings;
+import com.docdoku.server.converters.common.ProgressParsers;
+import com.docdoku.server.converters.common.ResourceLimitExceededException;
+import com.docdoku.server.converters.common.ToolProbe;
+import com.docdoku.server.converters.common.WorkspaceJob;
+import com.docdoku.server.converters.common.drawing.DrawingSettings;
+import com.docdoku.server.converters.common.drawing.DrawingTiler;
+import com.docdoku.server.converters.common.mesh.MeshQualityException;
 import org.polarsys.eplmp.server.converters.CADConverter;
 import org.polarsys.eplmp.server.converters.ConversionResult;
-import org.polarsys.eplmp.server.converters.ConverterUtils;
 
+import javax.ejb.Local;
 import javax.ejb.Stateless;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @DaeFileConverter
 @Stateless
-public class DaeFileConverterImpl implements CADConverter {
+@Local({CADConverter.class, AsyncConverter.class, BatchConverter.class, FormatConverter.class})
+public class DaeFileConverterImpl implements CADConverter, AsyncConverter<ConversionResult>,
+        BatchConverter<ConversionResult>, FormatConverter<ConversionResult> {
 
     static final String CONF_PROPERTIES = "/com/docdoku/server/converters/dae/conf.properties";
+    static final String CONF_OVERRIDES = "/com/docdoku/server/converters/dae/conf-overrides.properties";
     static final Properties CONF = new Properties();
     static final Logger LOGGER = Logger.getLogger(DaeFileConverterImpl.class.getName());
+    static final String CONVERTER_NAME = "dae";
+    private static final String SAMPLE = "/com/docdoku/server/converters/dae/sample.stl";
 
     static {
         try (InputStream inputStream = DaeFileConverterImpl.class.getResourceAsStream(CONF_PROPERTIES)) {
@@ -51,64 +80,156 @@ public class DaeFileConverterImpl implements CADConverter {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, null, e);
         }
+        // Optional keys overriding the shipped ones, such as the tool paths of the env-stub test profile
+        try (InputStream inputStream = DaeFileConverterImpl.class.getResourceAsStream(CONF_OVERRIDES)) {
+            if (inputStream != null) {
+                CONF.load(inputStream);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
     }
 
     @Override
     public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri)
             throws ConversionException {
+        // Drawings too are converted to OBJ here, vector tiles are only written when asked for
+        return convert(cadFileUri, tmpDirUri, OutputFormat.OBJ);
+    }
 
-        Path tmpDir = Paths.get(tmpDirUri);
+    @Override
+    public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format)
+            throws ConversionException {
         Path tmpCadFile = Paths.get(cadFileUri);
+        if (format == OutputFormat.POINTS) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to a point cloud");
+        }
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter(CONVERTER_NAME, CONF);
+        try (WorkspaceJob job = workspace.open(tmpCadFile, Paths.get(tmpDirUri));
+             ConversionTelemetry telemetry = ConversionMetrics.begin(CONVERTER_NAME, tmpCadFile)) {
+            ConversionResult result = convert(cadFileUri, job.getDirectory().toUri(), format, telemetry);
+            job.succeeded();
+            return result;
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+            throw new ConversionException(e);
+        }
+    }
 
-        String assimp = CONF.getProperty("assimp");
-        Path executable = Paths.get(assimp);
+    private ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format,
+                                     ConversionTelemetry telemetry)
+            throws ConversionException {
 
-        // Sanity checks
+        Path tmpDir = Paths.get(tmpDirUri);
+        Path tmpCadFile = Paths.get(cadFileUri);
 
-        if (!Files.exists(executable)) {
-            throw new ConversionException(
-                    "Cannot convert file \"" + tmpCadFile.toString() + "\", \"" + assimp + "\" is not available");
+        if (format == OutputFormat.TILES) {
+            return tile(tmpCadFile, tmpDir, telemetry);
         }
 
-        if (!Files.isExecutable(executable)) {
-            throw new ConversionException(
-                    "Cannot convert file \"" + tmpCadFile.toString() + "\", \"" + assimp + "\" has no execution rights");
+        // Checked once, see ConverterTools
+        ConverterTool tool = ConverterTools.forConverter(toolProbe());
+        if (!tool.isAvailable()) {
+            throw new ConversionException("Cannot convert file \"" + tmpCadFile.toString() + "\", " + tool.getProblem());
         }
+        String assimp = CONF.getProperty("assimp");
 
         UUID uuid = UUID.randomUUID();
         Path convertedFile = tmpDir.resolve(uuid + ".obj");
         Path convertedMtlFile = tmpDir.resolve(uuid + ".obj.mtl");
 
+        // GLB files are written from the OBJ file, once normalized and checked like it
         String[] args = {assimp, "export", tmpCadFile.toAbsolutePath().toString(), convertedFile.toString()};
         ProcessBuilder pb = new ProcessBuilder(args);
         try {
-            Process process = pb.start();
-
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(process.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(process.getErrorStream());
-
-            LOGGER.info(stdOutput);
+            telemetry.enter(ConversionStage.SPAWN);
+            ConverterProcess process = ConverterProcess.start(pb, CONVERTER_NAME, tmpCadFile, ProgressParsers.assimp(),
+                    ProcessSettings.from(CONF));
+            telemetry.enter(ConversionStage.EXTERNAL_RUN);
 
             process.waitFor();
 
+            // Output lines have been logged while read, only the end of the error output is kept
+            String errorOutput = process.getErrorOutput();
+            telemetry.exitCode(process.exitValue());
+
             if (process.exitValue() == 0) {
-                List<Path> materials = new ArrayList<>();
-                materials.add(convertedMtlFile);
-                return new ConversionResult(convertedFile, materials);
+                return ConversionOutputs.mesh(CONVERTER_NAME, tool.getVersion(), telemetry, tmpCadFile, convertedFile,
+                        convertedMtlFile, format, CONF, ConversionResult::new);
             } else {
                 throw new ConversionException(
                         "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + errorOutput);
             }
+        } catch (ResourceLimitExceededException | MeshQualityException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            throw new ConversionException(
+                    "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + e.getMessage(), e);
         } catch (IOException | InterruptedException e) {
             LOGGER.log(Level.SEVERE, null, e);
             throw new ConversionException(e);
         }
     }
 
+    /**
+     * Converts a DXF drawing to vector tiles, read and tiled in process without assimp.
+     */
+    private ConversionResult tile(Path tmpCadFile, Path tmpDir, ConversionTelemetry telemetry)
+            throws ConversionException {
+        if (!isDrawing(tmpCadFile)) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath()
+                    + " to vector tiles, only DXF drawings can be");
+        }
+        Path tilesFile = tmpDir.resolve(UUID.randomUUID() + "." + OutputFormat.TILES.getExtension());
+        try {
+            telemetry.enter(ConversionStage.POST_PROCESSING);
+            new DrawingTiler(DrawingSettings.from(CONF)).convert(tmpCadFile, tilesFile);
+            // Tiled in process, no tool version to record
+            return ConversionOutputs.file(CONVERTER_NAME, null, telemetry, tilesFile,
+                    null, CONF, ConversionResult::new);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            throw new ConversionException(
+                    "Cannot convert to vector tiles " + tmpCadFile.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isDrawing(Path cadFile) {
+        return cadFile.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".dxf");
+    }
+
+    static ToolProbe toolProbe() {
+        String assimp = CONF.getProperty("assimp");
+        return ToolProbe.forConverter(CONVERTER_NAME, CONF)
+                .executable(assimp)
+                .version(assimp, "version")
+                .sample(DaeFileConverterImpl.class.getResource(SAMPLE), (sample, outputDirectory) -> Arrays.asList(
+                        assimp, "export", sample.toString(), outputDirectory.resolve("sample.obj").toString()));
+    }
+
+    /**
+     * Probes and warms up the converter tool, done once at deployment.
+     */
+    public static ConverterTool probeTool() {
+        return ConverterTools.probe(toolProbe());
+    }
+
+    @Override
+    public CompletableFuture<ConversionResult> convertAsync(final URI cadFileUri, final URI tmpDirUri,
+                                                         final ConversionOrigin origin) {
+        return ConversionExecutor.forConverter(CONVERTER_NAME, CONF)
+                .submit(origin, () -> convert(cadFileUri, tmpDirUri));
+    }
+
+    @Override
+    public BatchResults<ConversionResult> convertBatch(final List<URI> cadFileUris, final URI tmpDirUri,
+                                                       final ConversionOrigin origin) {
+        return new BatchConversion<>(CONVERTER_NAME, this, CONF).withOrigin(origin).convert(cadFileUris, tmpDirUri);
+    }
+
     @Override
     public boolean canConvertToOBJ(String cadFileExtension) {
-        return Arrays.asList("dxf", "dae", "lwo", "x", "ac", "cob", "scn", "ms3d").contains(cadFileExtension);
+        return Arrays.asList("dxf", "dae", "lwo", "x", "ac", "cob", "scn", "ms3d").contains(cadFileExtension)
+                && ConverterTools.forConverter(toolProbe()).isAvailable();
     }
 
 }
@@ -0,0 +1,100 @@
+package com.docdoku.server.converters.dae;
+
+import com.docdoku.server.converters.common.OutputFormat;
+import com.docdoku.server.converters.common.StubLoad;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.polarsys.eplmp.server.converters.ConversionResult;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class DaeFileConverterImplLoadTest {
+
+    private static final int FILES = 8;
+    private static final long LATENCY_MS = 500;
+
+    private final DaeFileConverterImpl converter = new DaeFileConverterImpl();
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        // Only run against the stub of the env-stub profile, configured by the input files
+        StubLoad.assumeStub(DaeFileConverterImpl.probeTool());
+        dir = Files.createTempDirectory("dae-load");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        StubLoad.delete(dir);
+    }
+
+    private URI dae(String name, String directives) throws IOException {
+        Path file = dir.resolve(name + ".dae");
+        Files.write(file, ("<COLLADA><!-- stub-converter: " + directives + " --></COLLADA>\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return file.toUri();
+    }
+
+    @Test
+    public void testAsyncConversionsOverlap() throws Exception {
+        List<CompletableFuture<ConversionResult>> futures = new ArrayList<>();
+        try (StubLoad load = StubLoad.watch()) {
+            for (int i = 0; i < FILES; i++) {
+                URI file = dae("part" + i, "latency_ms=" + LATENCY_MS + " output_kb=64 stdout_kb=256 stderr_kb=64");
+                futures.add(converter.convertAsync(file, dir.toUri()));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(load.getMaxRunning() > 1);
+        }
+
+        for (CompletableFuture<ConversionResult> future : futures) {
+            ConversionResult result = future.get();
+            Assert.assertTrue(Files.exists(result.getConvertedFile()));
+            Assert.assertEquals(1, result.getMaterials().size());
+        }
+    }
+
+    @Test
+    public void testGlbIsWrittenFromTheObj() throws Exception {
+        ConversionResult result = converter.convert(dae("glb", "output_kb=64"), dir.toUri(), OutputFormat.GLB);
+        Assert.assertTrue(result.getConvertedFile().toString().endsWith(".glb"));
+        Assert.assertTrue(result.getMaterials().isEmpty());
+        try (Stream<Path> files = Files.list(dir)) {
+            Assert.assertFalse(files.anyMatch(file -> file.toString().endsWith(".obj")));
+        }
+    }
+
+    @Test
+    public void testDrawingIsConvertedToObj() throws Exception {
+        Path dxf = dir.resolve("plan.dxf");
+        Files.write(dxf, "0\nSECTION\n999\nstub-converter: output_kb=16\n0\nENDSEC\n0\nEOF\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        Assert.assertTrue(converter.canConvertToOBJ("dxf"));
+        ConversionResult result = converter.convert(dxf.toUri(), dir.toUri());
+        Assert.assertTrue(result.getConvertedFile().toString().endsWith(".obj"));
+    }
+
+    @Test
+    public void testFailureCompletesExceptionally() throws Exception {
+        CompletableFuture<ConversionResult> future = converter.convertAsync(
+                dae("failing", "latency_ms=100 exit_code=2"), dir.toUri());
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("failed with exit code 2"));
+        }
+    }
+}
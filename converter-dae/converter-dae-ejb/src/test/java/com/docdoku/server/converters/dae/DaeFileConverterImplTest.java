@@ -1,5 +1,6 @@
 package com.docdoku.server.converters.dae;
 
+import com.docdoku.server.converters.common.StubLoad;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Test;
@@ -56,7 +57,9 @@ public class DaeFileConverterImplTest {
 
         // setup
         Path tempDir = Paths.get("src/test/resources");
-        Path daeFile = tempDir.resolve("bad/bad.dae");
+        // The converter stub converts anything, its fixture tells it to fail
+        boolean stub = StubLoad.isStub(DaeFileConverterImpl.probeTool());
+        Path daeFile = tempDir.resolve(stub ? "bad/bad-stub.dae" : "bad/bad.dae");
 
         ConversionResult result = converter.convert(daeFile.toUri(), tempDir.toUri());
 
@@ -20,28 +20,55 @@
 
 package com.docdoku.server.converters.ifc;
 
+import com.docdoku.server.converters.common.AsyncConverter;
+import com.docdoku.server.converters.common.BatchConversion;
+import com.docdoku.server.converters.common.BatchConverter;
+import com.docdoku.server.converters.common.BatchResults;
+import com.docdoku.server.converters.common.ConversionExecutor;
+import com.docdoku.server.converters.common.ConversionMetrics;
+import com.docdoku.server.converters.common.ConversionOrigin;
+import com.docdoku.server.converters.common.ConversionOutputs;
+import com.docdoku.server.converters.common.ConversionStage;
+import com.docdoku.server.converters.common.ConversionTelemetry;
+import com.docdoku.server.converters.common.ConversionWorkspace;
+import com.docdoku.server.converters.common.ConverterProcess;
+import com.docdoku.server.converters.common.ConverterTool;
+import com.docdoku.server.converters.common.ConverterTools;
+import com.docdoku.server.converters.common.FormatConverter;
+import com.docdoku.server.converters.common.OutputFormat;
+import com.docdoku.server.converters.common.ProcessSettings;
+import com.docdoku.server.converters.common.ProgressParsers;
+import com.docdoku.server.converters.common.ResourceLimitExceededException;
+import com.docdoku.server.converters.common.ToolProbe;
+import com.docdoku.server.converters.common.WorkspaceJob;
+import com.docdoku.server.converters.common.mesh.MeshQualityException;
 import org.polarsys.eplmp.server.converters.CADConverter;
 import org.polarsys.eplmp.server.converters.ConversionResult;
-import org.polarsys.eplmp.server.converters.ConverterUtils;
 
+import javax.ejb.Local;
 import javax.ejb.Stateless;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @IFCFileConverter
 @Stateless
-public class IFCFileConverterImpl implements CADConverter {
+@Local({CADConverter.class, AsyncConverter.class, BatchConverter.class, FormatConverter.class})
+public class IFCFileConverterImpl implements CADConverter, AsyncConverter<ConversionResult>,
+        BatchConverter<ConversionResult>, FormatConverter<ConversionResult> {
 
     private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/ifc/conf.properties";
+    private static final String CONF_OVERRIDES = "/com/docdoku/server/converters/ifc/conf-overrides.properties";
     private static final Properties CONF = new Properties();
     private static final Logger LOGGER = Logger.getLogger(IFCFileConverterImpl.class.getName());
+    private static final String CONVERTER_NAME = "ifc";
+    private static final String SAMPLE = "/com/docdoku/server/converters/ifc/sample.ifc";
 
     static {
         try (InputStream inputStream = IFCFileConverterImpl.class.getResourceAsStream(CONF_PROPERTIES)) {
@@ -49,28 +76,56 @@ public class IFCFileConverterImpl implements CADConverter {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, null, e);
         }
+        // Optional keys overriding the shipped ones, such as the tool paths of the env-stub test profile
+        try (InputStream inputStream = IFCFileConverterImpl.class.getResourceAsStream(CONF_OVERRIDES)) {
+            if (inputStream != null) {
+                CONF.load(inputStream);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
     }
 
     @Override
     public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri)
             throws ConversionException {
-        Path tmpDir = Paths.get(tmpDirUri);
-        Path tmpCadFile = Paths.get(cadFileUri);
-
-        String ifcConverter = CONF.getProperty("ifc_convert_path");
-        Path executable = Paths.get(ifcConverter);
-
-        // Sanity checks
+        return convert(cadFileUri, tmpDirUri, OutputFormat.OBJ);
+    }
 
-        if (!Files.exists(executable)) {
-            throw new ConversionException(
-                    "Cannot convert file \"" + tmpCadFile.toString() + "\", \"" + ifcConverter + "\" is not available");
+    @Override
+    public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format)
+            throws ConversionException {
+        Path tmpCadFile = Paths.get(cadFileUri);
+        if (format == OutputFormat.TILES) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to vector tiles");
+        }
+        if (format == OutputFormat.POINTS) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to a point cloud");
         }
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter(CONVERTER_NAME, CONF);
+        try (WorkspaceJob job = workspace.open(tmpCadFile, Paths.get(tmpDirUri));
+             ConversionTelemetry telemetry = ConversionMetrics.begin(CONVERTER_NAME, tmpCadFile)) {
+            ConversionResult result = convert(cadFileUri, job.getDirectory().toUri(), format, telemetry);
+            job.succeeded();
+            return result;
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+            throw new ConversionException(e);
+        }
+    }
 
-        if (!Files.isExecutable(executable)) {
-            throw new ConversionException("Cannot convert file \"" + tmpCadFile.toString() + "\", \"" + ifcConverter
-                    + "\" has no execution rights");
+    private ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format,
+                                     ConversionTelemetry telemetry)
+            throws ConversionException {
+        Path tmpDir = Paths.get(tmpDirUri);
+        Path tmpCadFile = Paths.get(cadFileUri);
+
+        // Checked once, see ConverterTools
+        ConverterTool tool = ConverterTools.forConverter(toolProbe());
+        if (!tool.isAvailable()) {
+            throw new ConversionException("Cannot convert file \"" + tmpCadFile.toString() + "\", " + tool.getProblem());
         }
+        String ifcConverter = CONF.getProperty("ifc_convert_path");
 
         UUID uuid = UUID.randomUUID();
         // String extension = FileIO.getExtension(cadFile.getName());
@@ -83,32 +138,66 @@ public class IFCFileConverterImpl implements CADConverter {
         ProcessBuilder pb = new ProcessBuilder(args);
 
         try {
-            Process process = pb.start();
-
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(process.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(process.getErrorStream());
-
-            LOGGER.info(stdOutput);
+            telemetry.enter(ConversionStage.SPAWN);
+            ConverterProcess process = ConverterProcess.start(pb, CONVERTER_NAME, tmpCadFile, ProgressParsers.ifcConvert(),
+                    ProcessSettings.from(CONF));
+            telemetry.enter(ConversionStage.EXTERNAL_RUN);
 
             process.waitFor();
 
+            // Output lines have been logged while read, only the end of the error output is kept
+            String errorOutput = process.getErrorOutput();
+            telemetry.exitCode(process.exitValue());
+
             if (process.exitValue() == 0) {
-                List<Path> materials = new ArrayList<>();
-                materials.add(convertedMtl);
-                return new ConversionResult(convertedFile, materials);
+                return ConversionOutputs.mesh(CONVERTER_NAME, tool.getVersion(), telemetry, tmpCadFile, convertedFile,
+                        convertedMtl, format, CONF, ConversionResult::new);
             } else {
                 throw new ConversionException(
                         "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + errorOutput);
             }
+        } catch (ResourceLimitExceededException | MeshQualityException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            throw new ConversionException(
+                    "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + e.getMessage(), e);
         } catch (IOException | InterruptedException e) {
             throw new ConversionException(e);
         }
     }
 
+    static ToolProbe toolProbe() {
+        String ifcConverter = CONF.getProperty("ifc_convert_path");
+        return ToolProbe.forConverter(CONVERTER_NAME, CONF)
+                .executable(ifcConverter)
+                .version(ifcConverter, "--version")
+                .sample(IFCFileConverterImpl.class.getResource(SAMPLE), (sample, outputDirectory) -> Arrays.asList(
+                        ifcConverter, "--sew-shells", sample.toString(),
+                        outputDirectory.resolve("sample.obj").toString()));
+    }
+
+    /**
+     * Probes and warms up the converter tool, done once at deployment.
+     */
+    public static ConverterTool probeTool() {
+        return ConverterTools.probe(toolProbe());
+    }
+
+    @Override
+    public CompletableFuture<ConversionResult> convertAsync(final URI cadFileUri, final URI tmpDirUri,
+                                                         final ConversionOrigin origin) {
+        return ConversionExecutor.forConverter(CONVERTER_NAME, CONF)
+                .submit(origin, () -> convert(cadFileUri, tmpDirUri));
+    }
+
+    @Override
+    public BatchResults<ConversionResult> convertBatch(final List<URI> cadFileUris, final URI tmpDirUri,
+                                                       final ConversionOrigin origin) {
+        return new BatchConversion<>(CONVERTER_NAME, this, CONF).withOrigin(origin).convert(cadFileUris, tmpDirUri);
+    }
+
     @Override
     public boolean canConvertToOBJ(String cadFileExtension) {
-        return "ifc".equals(cadFileExtension);
+        return "ifc".equals(cadFileExtension) && ConverterTools.forConverter(toolProbe()).isAvailable();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package com.docdoku.server.converters.ifc;
+
+import com.docdoku.server.converters.common.BatchItem;
+import com.docdoku.server.converters.common.StubLoad;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.polarsys.eplmp.server.converters.CADConverter;
+import org.polarsys.eplmp.server.converters.ConversionResult;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IFCFileConverterImplLoadTest {
+
+    private final IFCFileConverterImpl converter = new IFCFileConverterImpl();
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        // Only run against the stub of the env-stub profile, configured by the input files
+        StubLoad.assumeStub(IFCFileConverterImpl.probeTool());
+        dir = Files.createTempDirectory("ifc-load");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        StubLoad.delete(dir);
+    }
+
+    private URI ifc(String name, String directives) throws IOException {
+        Path file = dir.resolve(name + ".ifc");
+        Files.write(file, ("ISO-10303-21;\n/* stub-converter: " + directives + " */\nEND-ISO-10303-21;\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return file.toUri();
+    }
+
+    @Test
+    public void testFailuresDoNotHoldTheBatch() throws Exception {
+        List<URI> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String directives = i % 3 == 0 ? "latency_ms=200 exit_code=1 stderr_kb=64"
+                    : "latency_ms=" + (100 * i) + " output_kb=128 stdout_kb=512";
+            files.add(ifc("building" + i, directives));
+        }
+        List<BatchItem<ConversionResult>> items = converter.convertBatch(files, dir.toUri()).awaitAll();
+
+        Assert.assertEquals(6, items.size());
+        int failures = 0;
+        for (BatchItem<ConversionResult> item : items) {
+            if (item.isSucceeded()) {
+                Assert.assertEquals(1, item.getResult().getMaterials().size());
+            } else {
+                failures++;
+                Assert.assertTrue(item.getError() instanceof CADConverter.ConversionException);
+            }
+        }
+        Assert.assertEquals(2, failures);
+    }
+
+    @Test
+    public void testLargeOutputIsPostProcessed() throws Exception {
+        ConversionResult result = converter.convert(ifc("large", "output_kb=8192 stdout_kb=4096"), dir.toUri());
+        Assert.assertTrue(Files.size(result.getConvertedFile()) > 0);
+    }
+}
@@ -21,23 +21,118 @@
 package com.docdoku.server.converters.obj;
 
 
+import com.docdoku.server.converters.common.AsyncConverter;
+import com.docdoku.server.converters.common.BatchConversion;
+import com.docdoku.server.converters.common.BatchConverter;
+import com.docdoku.server.converters.common.BatchResults;
+import com.docdoku.server.converters.common.ConversionExecutor;
+import com.docdoku.server.converters.common.ConversionMetrics;
+import com.docdoku.server.converters.common.ConversionOrigin;
+import com.docdoku.server.converters.common.ConversionOutputs;
+import com.docdoku.server.converters.common.ConversionStage;
+import com.docdoku.server.converters.common.ConversionTelemetry;
+import com.docdoku.server.converters.common.FormatConverter;
+import com.docdoku.server.converters.common.OutputFormat;
+import com.docdoku.server.converters.common.mesh.GlbWriter;
+import com.docdoku.server.converters.common.mesh.ObjReader;
+import com.docdoku.server.converters.common.points.PointCloudDownsampler;
+import com.docdoku.server.converters.common.points.PointCloudSettings;
 import org.polarsys.eplmp.server.converters.CADConverter;
 import org.polarsys.eplmp.server.converters.ConversionResult;
 
+import javax.ejb.Local;
 import javax.ejb.Stateless;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @ObjFileConverter
 @Stateless
-public class ObjFileConverterImpl implements CADConverter {
+@Local({CADConverter.class, AsyncConverter.class, BatchConverter.class, FormatConverter.class})
+public class ObjFileConverterImpl implements CADConverter, AsyncConverter<ConversionResult>,
+        BatchConverter<ConversionResult>, FormatConverter<ConversionResult> {
+
+    private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/obj/conf.properties";
+    private static final Properties CONF = new Properties();
+    private static final Logger LOGGER = Logger.getLogger(ObjFileConverterImpl.class.getName());
+    private static final String CONVERTER_NAME = "obj";
+    // Whether passed through files are parsed to report those the mesh post-processes cannot read, off by default
+    private static final String VALIDATE = "obj_validate";
+
+    static {
+        try (InputStream inputStream = ObjFileConverterImpl.class.getResourceAsStream(CONF_PROPERTIES)) {
+            CONF.load(inputStream);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
+    }
 
     @Override
     public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri)
             throws ConversionException {
+        return convert(cadFileUri, tmpDirUri, OutputFormat.OBJ);
+    }
+
+    @Override
+    public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format)
+            throws ConversionException {
         Path tmpCadFile = Paths.get(cadFileUri);
-        return new ConversionResult(tmpCadFile);
+        if (format == OutputFormat.TILES) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to vector tiles");
+        }
+        try (ConversionTelemetry telemetry = ConversionMetrics.begin(CONVERTER_NAME, tmpCadFile)) {
+            if (format == OutputFormat.POINTS) {
+                telemetry.enter(ConversionStage.POST_PROCESSING);
+                Path pointsFile = Paths.get(tmpDirUri).resolve(UUID.randomUUID() + "."
+                        + OutputFormat.POINTS.getExtension());
+                new PointCloudDownsampler(PointCloudSettings.from(CONF)).convert(tmpCadFile, pointsFile);
+                // Converted in process, no tool version to record
+                return ConversionOutputs.file(CONVERTER_NAME, null, telemetry, pointsFile,
+                        null, CONF, ConversionResult::new);
+            }
+            if (format == OutputFormat.GLB) {
+                telemetry.enter(ConversionStage.POST_PROCESSING);
+                Path glbFile = Paths.get(tmpDirUri).resolve(UUID.randomUUID() + ".glb");
+                telemetry.triangles(GlbWriter.transcode(tmpCadFile, glbFile));
+                return ConversionOutputs.file(CONVERTER_NAME, null, telemetry, glbFile,
+                        null, CONF, ConversionResult::new);
+            }
+            // Passed through as is, as before: files the mesh post-processes cannot read are only reported
+            if (Boolean.parseBoolean(CONF.getProperty(VALIDATE, "false").trim())) {
+                try {
+                    ObjReader.validate(tmpCadFile);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Passing through obj file " + tmpCadFile.getFileName()
+                            + " which cannot be read: " + e.getMessage());
+                }
+            }
+            telemetry.enter(ConversionStage.POST_PROCESSING);
+            return ConversionOutputs.file(CONVERTER_NAME, null, telemetry, tmpCadFile,
+                    null, CONF, ConversionResult::new);
+        } catch (IOException e) {
+            throw new ConversionException("Invalid obj file " + tmpCadFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<ConversionResult> convertAsync(final URI cadFileUri, final URI tmpDirUri,
+                                                         final ConversionOrigin origin) {
+        return ConversionExecutor.forConverter(CONVERTER_NAME, CONF).submit(origin, () -> convert(cadFileUri, tmpDirUri));
+    }
+
+    @Override
+    public BatchResults<ConversionResult> convertBatch(final List<URI> cadFileUris, final URI tmpDirUri,
+                                                       final ConversionOrigin origin) {
+        return new BatchConversion<>(CONVERTER_NAME, this, CONF).withOrigin(origin)
+                .convert(cadFileUris, tmpDirUri);
     }
 
     @Override
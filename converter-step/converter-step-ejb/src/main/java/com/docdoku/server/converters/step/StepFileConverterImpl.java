@@ -21,10 +21,36 @@
 package com.docdoku.server.converters.step;
 
 
+import com.docdoku.server.converters.common.AsyncConverter;
+import com.docdoku.server.converters.common.BatchConversion;
+import com.docdoku.server.converters.common.BatchConverter;
+import com.docdoku.server.converters.common.BatchResults;
+import com.docdoku.server.converters.common.ConversionExecutor;
+import com.docdoku.server.converters.common.ConversionMetrics;
+import com.docdoku.server.converters.common.ConversionOrigin;
+import com.docdoku.server.converters.common.ConversionOutputs;
+import com.docdoku.server.converters.common.ConversionStage;
+import com.docdoku.server.converters.common.ConversionTelemetry;
+import com.docdoku.server.converters.common.ConversionWorkspace;
+import com.docdoku.server.converters.common.ConverterProcess;
+import com.docdoku.server.converters.common.ConverterTool;
+import com.docdoku.server.converters.common.ConverterTools;
+import com.docdoku.server.converters.common.FormatConverter;
+import com.docdoku.server.converters.common.OutputFormat;
+import com.docdoku.server.converters.common.ProcessSettings;
+import com.docdoku.server.converters.common.ProgressParsers;
+import com.docdoku.server.converters.common.ResourceLimitExceededException;
+import com.docdoku.server.converters.common.ToolProbe;
+import com.docdoku.server.converters.common.WorkspaceJob;
+import com.docdoku.server.converters.common.mesh.AssemblyInstance;
+import com.docdoku.server.converters.common.mesh.AssemblyMerger;
+import com.docdoku.server.converters.common.mesh.MeshQualityException;
+import com.docdoku.server.converters.common.step.StepPiece;
+import com.docdoku.server.converters.common.step.StepSplitter;
 import org.polarsys.eplmp.server.converters.CADConverter;
 import org.polarsys.eplmp.server.converters.ConversionResult;
-import org.polarsys.eplmp.server.converters.ConverterUtils;
 
+import javax.ejb.Local;
 import javax.ejb.Stateless;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,20 +58,32 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @StepFileConverter
 @Stateless
-public class StepFileConverterImpl implements CADConverter {
+@Local({CADConverter.class, AsyncConverter.class, BatchConverter.class, FormatConverter.class})
+public class StepFileConverterImpl implements CADConverter, AsyncConverter<ConversionResult>,
+        BatchConverter<ConversionResult>, FormatConverter<ConversionResult> {
 
     private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/step/conf.properties";
+    private static final String CONF_OVERRIDES = "/com/docdoku/server/converters/step/conf-overrides.properties";
     private static final Properties CONF = new Properties();
     private static final String PYTHON_SCRIPT_TO_OBJ = "/com/docdoku/server/converters/step/convert_step_obj.py";
     private static final Logger LOGGER = Logger.getLogger(StepFileConverterImpl.class.getName());
+    private static final String CONVERTER_NAME = "step";
 
     static {
         try (InputStream inputStream = StepFileConverterImpl.class.getResourceAsStream(CONF_PROPERTIES)) {
@@ -53,17 +91,56 @@ public class StepFileConverterImpl implements CADConverter {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, null, e);
         }
+        // Optional keys overriding the shipped ones, such as the tool paths of the env-stub test profile
+        try (InputStream inputStream = StepFileConverterImpl.class.getResourceAsStream(CONF_OVERRIDES)) {
+            if (inputStream != null) {
+                CONF.load(inputStream);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
     }
 
     @Override
     public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri)
             throws ConversionException {
-        String pythonInterpreter = CONF.getProperty("pythonInterpreter");
-        String freeCadLibPath = CONF.getProperty("freeCadLibPath");
+        return convert(cadFileUri, tmpDirUri, OutputFormat.OBJ);
+    }
 
+    @Override
+    public ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format)
+            throws ConversionException {
+        Path tmpCadFile = Paths.get(cadFileUri);
+        if (format == OutputFormat.TILES) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to vector tiles");
+        }
+        if (format == OutputFormat.POINTS) {
+            throw new ConversionException("Cannot convert " + tmpCadFile.toAbsolutePath() + " to a point cloud");
+        }
+        ConversionWorkspace workspace = ConversionWorkspace.forConverter(CONVERTER_NAME, CONF);
+        try (WorkspaceJob job = workspace.open(tmpCadFile, Paths.get(tmpDirUri));
+             ConversionTelemetry telemetry = ConversionMetrics.begin(CONVERTER_NAME, tmpCadFile)) {
+            ConversionResult result = convert(cadFileUri, job.getDirectory().toUri(), format, telemetry);
+            job.succeeded();
+            return result;
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+            throw new ConversionException(e);
+        }
+    }
+
+    private ConversionResult convert(final URI cadFileUri, final URI tmpDirUri, final OutputFormat format,
+                                     ConversionTelemetry telemetry)
+            throws ConversionException {
         Path tmpDir = Paths.get(tmpDirUri);
         Path tmpCadFile = Paths.get(cadFileUri);
 
+        // Checked once, see ConverterTools
+        ConverterTool tool = ConverterTools.forConverter(toolProbe());
+        if (!tool.isAvailable()) {
+            throw new ConversionException("Cannot convert file \"" + tmpCadFile.toString() + "\", " + tool.getProblem());
+        }
+
         UUID uuid = UUID.randomUUID();
         Path tmpOBJFile = tmpDir.resolve(uuid + ".obj");
 
@@ -74,36 +151,170 @@ public class StepFileConverterImpl implements CADConverter {
             throw new ConversionException("Unable to copy Pyhton script", e);
         }
 
-        String[] args = {pythonInterpreter, scriptToOBJ.toAbsolutePath().toString(), "-l", freeCadLibPath, "-i",
-                tmpCadFile.toAbsolutePath().toString(), "-o", tmpOBJFile.toAbsolutePath().toString()};
-        ProcessBuilder pb = new ProcessBuilder(args);
-
         try {
-            Process process = pb.start();
+            // Large assemblies are converted by sub-assembly, their meshes are merged back
+            StepSplitter splitter = StepSplitter.from(CONF);
+            List<StepPiece> pieces = splitter.isSplitting(tmpCadFile) ? splitter.split(tmpCadFile, tmpDir)
+                    : Collections.emptyList();
+            ConverterProcess failed = pieces.isEmpty()
+                    ? convertFile(scriptToOBJ, tmpCadFile, tmpOBJFile, telemetry)
+                    : convertPieces(scriptToOBJ, pieces, splitter.getThreads(), tmpOBJFile, telemetry);
 
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(process.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(process.getErrorStream());
-
-            LOGGER.info(stdOutput);
-
-            process.waitFor();
-
-            if (process.exitValue() == 0) {
-                return new ConversionResult(tmpOBJFile);
+            if (failed == null) {
+                return ConversionOutputs.mesh(CONVERTER_NAME, tool.getVersion(), telemetry, tmpCadFile, tmpOBJFile,
+                        null, format, CONF, ConversionResult::new);
             } else {
+                // Output lines have been logged while read, only the end of the error output is kept
                 throw new ConversionException(
-                        "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + errorOutput);
+                        "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + failed.getErrorOutput());
             }
+        } catch (ResourceLimitExceededException | MeshQualityException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            throw new ConversionException(
+                    "Cannot convert to obj " + tmpCadFile.toAbsolutePath() + ": " + e.getMessage(), e);
         } catch (IOException | InterruptedException e) {
             LOGGER.log(Level.SEVERE, null, e);
             throw new ConversionException(e);
+        } finally {
+            deleteFile(scriptToOBJ);
         }
     }
 
+    /**
+     * @return the process if it failed, null if the file was converted
+     */
+    private ConverterProcess convertFile(Path script, Path stepFile, Path objFile, ConversionTelemetry telemetry)
+            throws IOException, InterruptedException {
+        telemetry.enter(ConversionStage.SPAWN);
+        ConverterProcess process = start(script, stepFile, objFile);
+        telemetry.enter(ConversionStage.EXTERNAL_RUN);
+
+        process.waitFor();
+
+        telemetry.exitCode(process.exitValue());
+        return process.exitValue() == 0 ? null : process;
+    }
+
+    /**
+     * Converts the pieces of a split assembly with several FreeCAD processes at once and merges their meshes in
+     * the given OBJ file, each occurrence placed in the assembly.
+     *
+     * @return the process of the first piece which failed, null if all of them were converted
+     */
+    private ConverterProcess convertPieces(Path script, List<StepPiece> pieces, int threads, Path objFile,
+                                           ConversionTelemetry telemetry)
+            throws IOException, InterruptedException {
+        telemetry.enter(ConversionStage.SPAWN);
+        List<Path> pieceOBJFiles = new ArrayList<>();
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, pieces.size()));
+            try {
+                List<Future<ConverterProcess>> futures = new ArrayList<>();
+                for (StepPiece piece : pieces) {
+                    Path pieceOBJFile = objFile.resolveSibling(piece.getFile().getFileName() + ".obj");
+                    pieceOBJFiles.add(pieceOBJFile);
+                    futures.add(executor.submit(() -> {
+                        ConverterProcess process = start(script, piece.getFile(), pieceOBJFile);
+                        process.waitFor();
+                        return process;
+                    }));
+                }
+                telemetry.enter(ConversionStage.EXTERNAL_RUN);
+                ConverterProcess last = null;
+                for (Future<ConverterProcess> future : futures) {
+                    last = future.get();
+                    if (last.exitValue() != 0) {
+                        break;
+                    }
+                }
+                telemetry.exitCode(last.exitValue());
+                if (last.exitValue() != 0) {
+                    return last;
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+
+            List<AssemblyInstance> instances = new ArrayList<>();
+            for (int i = 0; i < pieces.size(); i++) {
+                StepPiece piece = pieces.get(i);
+                List<double[]> placements = piece.getPlacements();
+                for (int j = 0; j < placements.size(); j++) {
+                    instances.add(new AssemblyInstance(piece.getName() + "/" + piece.getOccurrences().get(j),
+                            pieceOBJFiles.get(i), placements.get(j)));
+                }
+            }
+            AssemblyMerger.from(CONF).merge(instances, objFile);
+            LOGGER.log(Level.INFO, "Merged " + instances.size() + " occurrences of " + pieces.size() + " pieces in "
+                    + objFile.getFileName());
+            return null;
+        } finally {
+            // Whether merged or not, the pieces are not part of the result
+            for (StepPiece piece : pieces) {
+                deleteFile(piece.getFile());
+            }
+            for (Path pieceOBJFile : pieceOBJFiles) {
+                deleteFile(pieceOBJFile);
+            }
+        }
+    }
+
+    private ConverterProcess start(Path script, Path stepFile, Path objFile) throws IOException {
+        String[] args = {CONF.getProperty("pythonInterpreter"), script.toAbsolutePath().toString(), "-l",
+                CONF.getProperty("freeCadLibPath"), "-i", stepFile.toAbsolutePath().toString(), "-o",
+                objFile.toAbsolutePath().toString()};
+        return ConverterProcess.start(new ProcessBuilder(args), CONVERTER_NAME, stepFile, ProgressParsers.markers(),
+                ProcessSettings.from(CONF));
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot delete " + file, e);
+        }
+    }
+
+    /**
+     * The version command imports the FreeCAD modules used by the conversion script, which warms them up:
+     * no sample conversion is needed.
+     */
+    static ToolProbe toolProbe() {
+        String pythonInterpreter = CONF.getProperty("pythonInterpreter");
+        String freeCadLibPath = CONF.getProperty("freeCadLibPath");
+        return ToolProbe.forConverter(CONVERTER_NAME, CONF)
+                .executable(pythonInterpreter)
+                .directory(freeCadLibPath)
+                .version(pythonInterpreter, "-c", "import sys; sys.path.append(sys.argv[1]); import FreeCAD, Part, Mesh; "
+                        + "print('FreeCAD ' + '.'.join(FreeCAD.Version()[:3]))", freeCadLibPath);
+    }
+
+    /**
+     * Probes and warms up the converter tool, done once at deployment.
+     */
+    public static ConverterTool probeTool() {
+        return ConverterTools.probe(toolProbe());
+    }
+
+    @Override
+    public CompletableFuture<ConversionResult> convertAsync(final URI cadFileUri, final URI tmpDirUri,
+                                                         final ConversionOrigin origin) {
+        return ConversionExecutor.forConverter(CONVERTER_NAME, CONF)
+                .submit(origin, () -> convert(cadFileUri, tmpDirUri));
+    }
+
+    @Override
+    public BatchResults<ConversionResult> convertBatch(final List<URI> cadFileUris, final URI tmpDirUri,
+                                                       final ConversionOrigin origin) {
+        return new BatchConversion<>(CONVERTER_NAME, this, CONF).withOrigin(origin).convert(cadFileUris, tmpDirUri);
+    }
+
     @Override
     public boolean canConvertToOBJ(String cadFileExtension) {
-        return Arrays.asList("stp", "step", "igs", "iges").contains(cadFileExtension);
+        return Arrays.asList("stp", "step", "igs", "iges").contains(cadFileExtension)
+                && ConverterTools.forConverter(toolProbe()).isAvailable();
     }
 
 }
@@ -16,6 +16,13 @@ outputFile = options.o;
 
 sys.path.append(freeCadLibPath);
 
+# Progress markers are parsed by the converter while the script runs
+def progress(percent):
+	sys.stdout.write("PROGRESS %d\n" % percent);
+	sys.stdout.flush();
+
+progress(0);
+
 import FreeCAD;
 import Part, Mesh;
 
@@ -23,8 +30,11 @@ def explodeOBJS():
 	if not inputFile or not outputFile:
 		sys.exit(2);
 
+	progress(5);
 	Part.open(inputFile);
+	progress(60);
 	Mesh.export(FreeCAD.ActiveDocument.Objects,outputFile);
+	progress(100);
 
 if __name__ == "__main__":
 	explodeOBJS();
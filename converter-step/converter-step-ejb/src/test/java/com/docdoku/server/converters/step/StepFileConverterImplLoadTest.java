@@ -0,0 +1,68 @@
+package com.docdoku.server.converters.step;
+
+import com.docdoku.server.converters.common.StubLoad;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.polarsys.eplmp.server.converters.ConversionResult;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class StepFileConverterImplLoadTest {
+
+    private static final int FILES = 8;
+    private static final long LATENCY_MS = 500;
+
+    private final StepFileConverterImpl converter = new StepFileConverterImpl();
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        // Only run against the stub of the env-stub profile, configured by the input files
+        StubLoad.assumeStub(StepFileConverterImpl.probeTool());
+        dir = Files.createTempDirectory("step-load");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        StubLoad.delete(dir);
+    }
+
+    private URI step(String name, String directives) throws IOException {
+        Path file = dir.resolve(name + ".step");
+        Files.write(file, ("ISO-10303-21;\n/* stub-converter: " + directives + " */\nEND-ISO-10303-21;\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return file.toUri();
+    }
+
+    @Test
+    public void testAsyncConversionsOverlap() throws Exception {
+        List<CompletableFuture<ConversionResult>> futures = new ArrayList<>();
+        try (StubLoad load = StubLoad.watch()) {
+            for (int i = 0; i < FILES; i++) {
+                URI file = step("part" + i, "latency_ms=" + LATENCY_MS + " output_kb=64 stdout_kb=64");
+                futures.add(converter.convertAsync(file, dir.toUri()));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(load.getMaxRunning() > 1);
+        }
+
+        for (CompletableFuture<ConversionResult> future : futures) {
+            Assert.assertTrue(Files.exists(future.get().getConvertedFile()));
+        }
+        // The conversion scripts copied next to the outputs are removed
+        try (Stream<Path> paths = Files.list(dir)) {
+            Assert.assertFalse(paths.anyMatch(p -> p.getFileName().toString().endsWith(".py")));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.worker;
+
+import com.docdoku.server.converters.common.mesh.AssemblyInstance;
+import com.docdoku.server.converters.common.mesh.AssemblyMerger;
+import com.docdoku.server.converters.common.mesh.AssemblyRange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges the converted parts of a product structure into a single OBJ file and its JSON index of parts.
+ * <p>
+ * Usage: {@code java -cp converter-worker.jar com.docdoku.server.converters.worker.AssemblyMergeTool
+ * <instances file> <merged obj file>}. The instances file has one tab separated line per instance: its id, the
+ * path of the converted part OBJ file and optionally the 12 values of its row-major 3x4 transformation matrix,
+ * separated by spaces. The index is written next to the merged file, with a .json extension.
+ */
+public class AssemblyMergeTool {
+
+    private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/worker/conf.properties";
+    private static final Properties CONF = new Properties();
+    private static final Logger LOGGER = Logger.getLogger(AssemblyMergeTool.class.getName());
+
+    static {
+        try (InputStream inputStream = AssemblyMergeTool.class.getResourceAsStream(CONF_PROPERTIES)) {
+            CONF.load(inputStream);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
+    }
+
+    private AssemblyMergeTool() {
+    }
+
+    static List<AssemblyInstance> readInstances(Path instancesFile) throws IOException {
+        List<AssemblyInstance> instances = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(instancesFile, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length < 2) {
+                throw new IOException("Invalid instance line " + lineNumber + " of " + instancesFile + ": " + line);
+            }
+            Path objFile = instancesFile.toAbsolutePath().resolveSibling(fields[1].trim());
+            if (fields.length < 3 || fields[2].trim().isEmpty()) {
+                instances.add(new AssemblyInstance(fields[0], objFile));
+                continue;
+            }
+            String[] values = fields[2].trim().split(" +");
+            if (values.length != 12) {
+                throw new IOException("Invalid transformation line " + lineNumber + " of " + instancesFile
+                        + ", expected 12 values");
+            }
+            double[] transform = new double[12];
+            try {
+                for (int i = 0; i < 12; i++) {
+                    transform[i] = Double.parseDouble(values[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid transformation line " + lineNumber + " of " + instancesFile, e);
+            }
+            instances.add(new AssemblyInstance(fields[0], objFile, transform));
+        }
+        return instances;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: AssemblyMergeTool <instances file> <merged obj file>");
+            System.exit(2);
+        }
+        Path mergedFile = Paths.get(args[1]);
+        List<AssemblyInstance> instances = readInstances(Paths.get(args[0]));
+        List<AssemblyRange> ranges = AssemblyMerger.from(CONF).merge(instances, mergedFile);
+
+        String name = String.valueOf(mergedFile.getFileName());
+        int dot = name.lastIndexOf('.');
+        Path indexFile = mergedFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".json");
+        AssemblyMerger.writeIndex(ranges, indexFile);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters.worker;
+
+import com.docdoku.server.converters.all.AllFileConverterImpl;
+import com.docdoku.server.converters.common.ConverterTools;
+import com.docdoku.server.converters.common.FileSpool;
+import com.docdoku.server.converters.common.SpoolHandler;
+import com.docdoku.server.converters.common.SpoolWorker;
+import com.docdoku.server.converters.dae.DaeFileConverterImpl;
+import com.docdoku.server.converters.ifc.IFCFileConverterImpl;
+import com.docdoku.server.converters.obj.ObjFileConverterImpl;
+import com.docdoku.server.converters.step.StepFileConverterImpl;
+import org.polarsys.eplmp.server.converters.CADConverter;
+import org.polarsys.eplmp.server.converters.ConversionResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Standalone conversion worker: converts the jobs of a shared spool directory with the converters of
+ * this repository, picked by file extension like the server does.
+ * <p>
+ * Usage: {@code java -jar converter-worker.jar [spool directory]}, the other settings are read from
+ * the worker conf.properties.
+ */
+public class ConversionWorker implements SpoolHandler {
+
+    private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/worker/conf.properties";
+    private static final Properties CONF = new Properties();
+    private static final Logger LOGGER = Logger.getLogger(ConversionWorker.class.getName());
+
+    static {
+        try (InputStream inputStream = ConversionWorker.class.getResourceAsStream(CONF_PROPERTIES)) {
+            CONF.load(inputStream);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
+    }
+
+    private final List<CADConverter> converters = Arrays.asList(
+            new AllFileConverterImpl(), new DaeFileConverterImpl(), new IFCFileConverterImpl(),
+            new ObjFileConverterImpl(), new StepFileConverterImpl());
+
+    @Override
+    public List<Path> convert(Path cadFile, Path outputDirectory) throws Exception {
+        String extension = extensionOf(cadFile);
+        for (CADConverter converter : converters) {
+            if (converter.canConvertToOBJ(extension)) {
+                ConversionResult result = converter.convert(cadFile.toUri(), outputDirectory.toUri());
+                List<Path> outputs = new ArrayList<>();
+                outputs.add(result.getConvertedFile());
+                outputs.addAll(result.getMaterials());
+                return outputs;
+            }
+        }
+        throw new CADConverter.ConversionException("No converter available for \"" + cadFile.getFileName() + "\"");
+    }
+
+    private static String extensionOf(Path file) {
+        String name = String.valueOf(file.getFileName());
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path spoolDir = Paths.get(args.length > 0 ? args[0] : CONF.getProperty("spool_dir"));
+        int threads = Integer.parseInt(CONF.getProperty("worker_threads"));
+        long heartbeatMillis = Long.parseLong(CONF.getProperty("heartbeat_seconds")) * 1000;
+        long leaseTimeoutMillis = Long.parseLong(CONF.getProperty("lease_timeout_seconds")) * 1000;
+        int maxAttempts = Integer.parseInt(CONF.getProperty("max_attempts"));
+        long pollMillis = Long.parseLong(CONF.getProperty("poll_millis"));
+
+        // Converters whose tool is missing are left out of routing, probing also warms the tools up
+        AllFileConverterImpl.probeTool();
+        DaeFileConverterImpl.probeTool();
+        IFCFileConverterImpl.probeTool();
+        StepFileConverterImpl.probeTool();
+        LOGGER.log(Level.INFO, "Converter tools availability: " + ConverterTools.getAvailability());
+
+        FileSpool spool = new FileSpool(spoolDir);
+        ConversionWorker handler = new ConversionWorker();
+
+        List<SpoolWorker> workers = new ArrayList<>();
+        List<Thread> threadList = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            SpoolWorker worker = new SpoolWorker(spool, handler, heartbeatMillis, leaseTimeoutMillis, maxAttempts, pollMillis);
+            Thread thread = new Thread(worker, "spool-worker-" + i);
+            workers.add(worker);
+            threadList.add(thread);
+            thread.start();
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> workers.forEach(SpoolWorker::stop)));
+
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+    }
+}